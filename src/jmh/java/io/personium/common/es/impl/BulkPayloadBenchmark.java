@@ -0,0 +1,150 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.personium.common.es.EsBulkRequest;
+
+/**
+ * Benchmark of allocation while creating bulk operations.
+ * Run with {@code mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=io.personium.common.es.impl.BulkPayloadBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkPayloadBenchmark {
+
+    private static final int ITEMS = 1000;
+    private static final int FIELDS = 20;
+
+    /**
+     * Bulk request for benchmark.
+     */
+    static class BenchBulkRequest implements EsBulkRequest {
+        private final String id;
+        private final Map<String, Object> source;
+
+        BenchBulkRequest(String id, Map<String, Object> source) {
+            this.id = id;
+            this.source = source;
+        }
+
+        @Override
+        public BulkRequestType getRequestType() {
+            return BulkRequestType.INDEX;
+        }
+
+        @Override
+        public String getType() {
+            return "UserData";
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public Map<String, Object> getSource() {
+            return source;
+        }
+    }
+
+    private InternalEsClient client;
+    private Map<String, List<EsBulkRequest>> bulkMap;
+
+    /**
+     * Prepare bulk requests.
+     */
+    @Setup
+    public void setUp() {
+        client = new InternalEsClient();
+        List<EsBulkRequest> datas = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            Map<String, Object> source = new HashMap<>();
+            for (int j = 0; j < FIELDS; j++) {
+                source.put("field" + j, "value of field " + j + " in document " + i);
+            }
+            datas.add(new BenchBulkRequest("id" + i, source));
+        }
+        bulkMap = Map.of("routing", datas);
+    }
+
+    /**
+     * Build the debug payload for every bulk request (previous implementation).
+     * @param blackhole blackhole
+     * @return body
+     * @throws IOException exception
+     */
+    @Benchmark
+    public HttpEntity eagerPayload(Blackhole blackhole) throws IOException {
+        List<Map<String, Object>> bulkList = new ArrayList<>();
+        HttpEntity body = client.createBulkBody("index", bulkMap, bulkList);
+        for (Map<String, Object> logData : bulkList) {
+            blackhole.consume(((JSONObject) logData).toJSONString());
+        }
+        return body;
+    }
+
+    /**
+     * Build the debug payload only when it is consumed (current implementation).
+     * @return body
+     * @throws IOException exception
+     */
+    @Benchmark
+    public HttpEntity lazyPayload() throws IOException {
+        return client.createBulkBody("index", bulkMap, client.createBulkLogList(false));
+    }
+
+    /**
+     * Run benchmark.
+     * @param args arguments
+     * @throws RunnerException exception
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BulkPayloadBenchmark.class.getSimpleName())
+                .addProfiler("gc").build()).run();
+    }
+}
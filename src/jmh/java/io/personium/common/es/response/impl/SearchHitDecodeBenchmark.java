@@ -0,0 +1,108 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.response.impl;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.personium.common.es.util.EsJson;
+import io.personium.common.es.util.SourceKeyConverter;
+
+/**
+ * Benchmark of decoding source of search hit into Map.
+ * Run with {@code mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=io.personium.common.es.response.impl.SearchHitDecodeBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchHitDecodeBenchmark {
+
+    private ObjectNode source;
+
+    /**
+     * Prepare source of typical OData entity.
+     * @throws IOException exception
+     */
+    @Setup
+    public void setUp() throws IOException {
+        source = (ObjectNode) EsJson.mapper().readTree("{\"type\":\"UserData\",\"c\":\"cell1\",\"b\":\"box1\","
+                + "\"n\":\"node1\",\"t\":\"entity1\",\"p\":1666000000000,\"u\":1666000000000,"
+                + "\"s\":{\"P1\":\"value1\",\"P2\":12345,\"P3\":true,\"P4\":null,\"P5\":1.5,"
+                + "\"P6\":[\"a\",\"b\",\"c\"],\"P7\":{\"C1\":\"x\",\"C2\":\"y\"},\"P8\":\"value8\"},"
+                + "\"l\":[\"link1\",\"link2\"],\"h\":{\"a\":\"b\"}}");
+    }
+
+    /**
+     * Decode with new ObjectMapper per call (previous implementation).
+     * @return decoded map
+     */
+    @Benchmark
+    public Map<String, Object> newMapperPerCall() {
+        return new ObjectMapper().convertValue(source, EsJson.MAP_TYPE);
+    }
+
+    /**
+     * Decode with shared ObjectReader.
+     * @return decoded map
+     * @throws IOException exception
+     */
+    @Benchmark
+    public Map<String, Object> sharedReader() throws IOException {
+        return EsJson.mapReader().readValue(source);
+    }
+
+    /**
+     * Decode by walking the tree (current implementation).
+     * @return decoded map
+     */
+    @Benchmark
+    public Map<String, Object> treeWalk() {
+        return SourceKeyConverter.toMap(source);
+    }
+
+    /**
+     * Run benchmark.
+     * @param args arguments
+     * @throws RunnerException exception
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SearchHitDecodeBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+import io.personium.common.es.response.PersoniumBulkResponse;
+import io.personium.common.es.response.PersoniumDeleteByQueryStatus;
+import io.personium.common.es.response.PersoniumMultiSearchResponse;
+import io.personium.common.es.response.PersoniumRefreshResponse;
+import io.personium.common.es.response.PersoniumSearchResponse;
+
+/**
+ * Elasticsearch Index操作用の非同期I/F.
+ * Operations never block the calling thread. Exceptions are converted in the same way as {@link EsIndex} and
+ * the returned stages complete exceptionally with them.
+ */
+public interface AsyncEsIndex {
+
+    /**
+     * Getter of name.
+     * @return name
+     */
+    String getName();
+
+    /**
+     * Getter of category.
+     * @return category
+     */
+    String getCategory();
+
+    /**
+     * 書き込み後のリフレッシュ方針を設定する.
+     * @param refreshPolicy refresh policy
+     */
+    void setRefreshPolicy(EsRefreshPolicy refreshPolicy);
+
+    /**
+     * 書き込み後のリフレッシュ方針を取得する.
+     * @return refresh policy
+     */
+    EsRefreshPolicy getRefreshPolicy();
+
+    /**
+     * ドキュメントを検索.
+     * @param routingId routingId
+     * @param query クエリ情報
+     * @return ES応答
+     */
+    CompletionStage<PersoniumSearchResponse> search(String routingId, Map<String, Object> query);
+
+    /**
+     * ドキュメントをマルチ検索.
+     * @param routingId routingId
+     * @param queryList クエリ情報一覧
+     * @return ES応答
+     */
+    CompletionStage<PersoniumMultiSearchResponse> multiSearch(String routingId, List<Map<String, Object>> queryList);
+
+    /**
+     * Delete with query specification as a sliced background task of Elasticsearch.
+     * Completes exceptionally with EsDeleteByQueryException if some documents were not deleted,
+     * and cancelling the returned stage cancels the task.
+     * @param routingId routingId (null to process every shard)
+     * @param query query
+     * @param progressListener listener notified of the status while the task is running (nullable)
+     * @return final status of the task
+     */
+    CompletionStage<PersoniumDeleteByQueryStatus> deleteByQuery(String routingId, Map<String, Object> query,
+            Consumer<? super PersoniumDeleteByQueryStatus> progressListener);
+
+    /**
+     * Delete all documents of the cell in every type of this index as a background task of Elasticsearch.
+     * Only the shards for the routing id of the physical indices holding the cell are processed.
+     * @param routingId routingId of the documents (cell id for documents in the cell)
+     * @param cellId cell id stored in `c` field
+     * @param progressListener listener notified of the status while the task is running (nullable)
+     * @return final status of the task
+     */
+    CompletionStage<PersoniumDeleteByQueryStatus> purgeCell(String routingId, String cellId,
+            Consumer<? super PersoniumDeleteByQueryStatus> progressListener);
+
+    /**
+     * バルクでドキュメントを登録/更新/削除する.
+     * @param routingId routingId
+     * @param datas バルクドキュメント
+     * @param isWriteLog リクエスト情報のログ出力有無
+     * @return ES応答
+     */
+    CompletionStage<PersoniumBulkResponse> bulkRequest(String routingId, List<EsBulkRequest> datas,
+            boolean isWriteLog);
+
+    /**
+     * Index配下の全インデックスをリフレッシュする.
+     * @return ES応答
+     */
+    CompletionStage<PersoniumRefreshResponse> refresh();
+}
@@ -0,0 +1,149 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+import io.personium.common.es.response.PersoniumDeleteResponse;
+import io.personium.common.es.response.PersoniumGetResponse;
+import io.personium.common.es.response.PersoniumIndexResponse;
+import io.personium.common.es.response.PersoniumMultiSearchResponse;
+import io.personium.common.es.response.PersoniumRefreshResponse;
+import io.personium.common.es.response.PersoniumSearchResponse;
+
+/**
+ * Elasticsearch Type操作用の非同期I/F.
+ * Operations never block the calling thread. Exceptions are converted in the same way as {@link EsType} and
+ * the returned stages complete exceptionally with them.
+ */
+public interface AsyncEsType {
+
+    /**
+     * インデックスを取得する.
+     * @return 応答
+     */
+    String getIndexName();
+
+    /**
+     * Typeを取得する.
+     * @return 応答
+     */
+    String getType();
+
+    /**
+     * 書き込み後のリフレッシュ方針を設定する.
+     * @param refreshPolicy refresh policy
+     */
+    void setRefreshPolicy(EsRefreshPolicy refreshPolicy);
+
+    /**
+     * 書き込み後のリフレッシュ方針を取得する.
+     * @return refresh policy
+     */
+    EsRefreshPolicy getRefreshPolicy();
+
+    /**
+     * realtimeモード指定でドキュメントを取得する.
+     * @param id ドキュメントのID
+     * @return 応答 (null if the document does not exist)
+     */
+    CompletionStage<PersoniumGetResponse> get(String id);
+
+    /**
+     * ドキュメントの１件取得.
+     * @param id ドキュメントのID
+     * @param realtime リアルタイムモードなら真
+     * @return 応答 (null if the document does not exist)
+     */
+    CompletionStage<PersoniumGetResponse> get(String id, boolean realtime);
+
+    /**
+     * ドキュメント新規作成.
+     * @param data ドキュメント
+     * @return ES応答
+     */
+    CompletionStage<PersoniumIndexResponse> create(Map<String, Object> data);
+
+    /**
+     * ドキュメント新規作成.
+     * @param id ID
+     * @param data ドキュメント
+     * @return ES応答
+     */
+    CompletionStage<PersoniumIndexResponse> create(String id, Map<String, Object> data);
+
+    /**
+     * ドキュメント更新.
+     * @param id ID
+     * @param data ドキュメント
+     * @param version version番号
+     * @return ES応答
+     */
+    CompletionStage<PersoniumIndexResponse> update(String id, Map<String, Object> data, long version);
+
+    /**
+     * ドキュメント更新.
+     * @param id ID
+     * @param data ドキュメント
+     * @return ES応答
+     */
+    CompletionStage<PersoniumIndexResponse> update(String id, Map<String, Object> data);
+
+    /**
+     * ドキュメントを検索.
+     * @param query クエリ情報
+     * @return ES応答
+     */
+    CompletionStage<PersoniumSearchResponse> search(Map<String, Object> query);
+
+    /**
+     * ドキュメントをマルチ検索.
+     * @param queryList マルチ検索用のクエリ情報リスト
+     * @return ES応答
+     */
+    CompletionStage<PersoniumMultiSearchResponse> multiSearch(List<Map<String, Object>> queryList);
+
+    /**
+     * Delete a document.
+     * @param docId Document id to delete
+     * @return 応答
+     */
+    CompletionStage<PersoniumDeleteResponse> delete(String docId);
+
+    /**
+     * Delete a document.
+     * @param docId Document id to delete
+     * @param version The version of the document to delete
+     * @return 応答
+     */
+    CompletionStage<PersoniumDeleteResponse> delete(String docId, long version);
+
+    /**
+     * Typeのインデックスをリフレッシュする.
+     * @return ES応答
+     */
+    CompletionStage<PersoniumRefreshResponse> refresh();
+
+    /**
+     * DEFERREDで書き込んだドキュメントが検索可能になるのを待つ.
+     * @return stage completed when pending refresh finishes
+     */
+    CompletionStage<Void> whenRefreshed();
+}
@@ -0,0 +1,78 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletionStage;
+
+import io.personium.common.es.response.PersoniumBulkItemResponse;
+
+/**
+ * バルク登録を集約して送信するI/F.
+ * Requests added from many threads are buffered and sent as bulk requests when the number of requests, the size of
+ * documents or the elapsed time reaches the limit. The number of bulk requests in flight is limited and adding
+ * blocks while the limit is reached. Items rejected by Elasticsearch (429) are retried individually with backoff.
+ */
+public interface EsBulkIndexer extends Closeable {
+
+    /**
+     * インデックス名を取得する.
+     * @return インデックス名
+     */
+    String getIndexName();
+
+    /**
+     * 書き込み後のリフレッシュ方針を設定する.
+     * @param refreshPolicy refresh policy
+     */
+    void setRefreshPolicy(EsRefreshPolicy refreshPolicy);
+
+    /**
+     * 書き込み後のリフレッシュ方針を取得する.
+     * @return refresh policy
+     */
+    EsRefreshPolicy getRefreshPolicy();
+
+    /**
+     * バルクリクエストを追加する.
+     * The returned stage completes with the item response, which may be failed (e.g. version conflict), or
+     * completes exceptionally when the whole bulk request fails.
+     * @param routingId ルーティングID
+     * @param request バルクリクエスト
+     * @return 応答
+     */
+    CompletionStage<PersoniumBulkItemResponse> add(String routingId, EsBulkRequest request);
+
+    /**
+     * バッファ中のリクエストを送信する.
+     * @return stage which completes when all requests added before are completed
+     */
+    CompletionStage<Void> flush();
+
+    /**
+     * 未完了のリクエスト数を取得する.
+     * @return number of requests which are not completed
+     */
+    int getPendingCount();
+
+    /**
+     * Send buffered requests, wait for completion of all requests and stop the indexer.
+     */
+    @Override
+    void close();
+}
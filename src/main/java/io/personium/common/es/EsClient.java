@@ -20,11 +20,20 @@ package io.personium.common.es;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
 
 import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import io.personium.common.es.impl.AsyncEsIndexImpl;
+import io.personium.common.es.impl.AsyncEsTypeImpl;
+import io.personium.common.es.impl.EsBulkIndexerImpl;
+import io.personium.common.es.impl.EsExecutors;
 import io.personium.common.es.impl.EsIndexImpl;
 import io.personium.common.es.impl.EsMappingAdmin;
 import io.personium.common.es.impl.EsMappingUser;
+import io.personium.common.es.impl.EsScrollImpl;
 import io.personium.common.es.impl.EsTypeImpl;
 import io.personium.common.es.impl.InternalEsClient;
 import io.personium.common.es.response.EsClientException;
@@ -43,6 +52,11 @@ public class EsClient {
     private InternalEsClient internalClient;
     private EsMappingConfig esMappingAdmin;
     private EsMappingConfig esMappingUser;
+    private EsRefreshPolicy refreshPolicy = EsRefreshPolicy.IMMEDIATE;
+    private EsIndexLayout indexLayout = EsIndexLayout.PER_TYPE;
+    private EsShardingStrategy shardingStrategy;
+    private EsExecutionMode executionMode;
+    private ExecutorService executor;
 
     /**
      * Default constructor.
@@ -62,6 +76,7 @@ public class EsClient {
         internalClient = InternalEsClient.getInstance(hosts);
         esMappingAdmin = mappingAdmin;
         esMappingUser = mappingUser;
+        setExecutionMode(EsExecutors.parseMode(System.getProperty("io.personium.es.executionMode")));
     }
 
     /**
@@ -69,6 +84,42 @@ public class EsClient {
      */
     public void closeConnection() {
         internalClient.closeConnection();
+        executor.shutdown();
+    }
+
+    /**
+     * {@link #submit(Supplier)} で実行するスレッドの種類を設定する.
+     * VIRTUAL falls back to PLATFORM if the runtime does not support virtual threads.
+     * @param mode execution mode
+     */
+    public void setExecutionMode(EsExecutionMode mode) {
+        ExecutorService previous = this.executor;
+        this.executor = EsExecutors.newExecutor(mode);
+        this.executionMode = EsExecutors.effectiveMode(mode);
+        if (previous != null) {
+            // running tasks are completed.
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * 実際に使われるスレッドの種類を取得する.
+     * @return execution mode
+     */
+    public EsExecutionMode getExecutionMode() {
+        return this.executionMode;
+    }
+
+    /**
+     * 同期APIの呼び出しを実行モードのスレッドで実行する.
+     * With VIRTUAL mode, blocking calls such as {@link EsType#get(String)} park a virtual thread instead of
+     * occupying a platform thread, so that many requests can be fanned out without a large thread pool.
+     * @param <T> type of result
+     * @param task task which calls the synchronous API
+     * @return future of result
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, this.executor);
     }
 
     /**
@@ -97,6 +148,15 @@ public class EsClient {
          * @param params パラメタ
          */
         void handleEvent(EsRequestLogInfo logInfo, Object... params);
+
+        /**
+         * クエリ等のJSONパラメタを整形して受け取るか.
+         * JSON parameters are passed in compact form unless this returns true.
+         * @return true if JSON parameters should be pretty-printed
+         */
+        default boolean isPrettyPrint() {
+            return false;
+        }
     }
 
     static Map<Event, EventHandler> eventHandlerMap = new HashMap<Event, EventHandler>();
@@ -110,6 +170,94 @@ public class EsClient {
         InternalEsClient.setEventHandler(ev, handler);
     }
 
+    /**
+     * 以降に取得するIndex/Type操作オブジェクトのリフレッシュ方針を設定する.
+     * @param refreshPolicy refresh policy
+     */
+    public void setRefreshPolicy(EsRefreshPolicy refreshPolicy) {
+        this.refreshPolicy = refreshPolicy;
+    }
+
+    /**
+     * Index/Type操作オブジェクトのリフレッシュ方針を取得する.
+     * @return refresh policy
+     */
+    public EsRefreshPolicy getRefreshPolicy() {
+        return this.refreshPolicy;
+    }
+
+    /**
+     * 以降に取得するIndex操作オブジェクトが作成する物理インデックスのレイアウトを設定する.
+     * @param indexLayout layout
+     */
+    public void setIndexLayout(EsIndexLayout indexLayout) {
+        this.indexLayout = indexLayout;
+    }
+
+    /**
+     * Index操作オブジェクトが作成する物理インデックスのレイアウトを取得する.
+     * @return layout
+     */
+    public EsIndexLayout getIndexLayout() {
+        return this.indexLayout;
+    }
+
+    /**
+     * 以降に取得するIndex操作オブジェクトがシャード数を決める戦略を設定する.
+     * @param shardingStrategy strategy (null for the defaults of index templates)
+     */
+    public void setShardingStrategy(EsShardingStrategy shardingStrategy) {
+        this.shardingStrategy = shardingStrategy;
+    }
+
+    /**
+     * 以降に取得するIndex操作オブジェクトがシャード数を決める戦略を取得する.
+     * @return strategy
+     */
+    public EsShardingStrategy getShardingStrategy() {
+        return this.shardingStrategy;
+    }
+
+    /**
+     * 物理インデックスを最初の書き込み時に作成するかどうかを設定する.
+     * When enabled, EsIndex#create of per-type layout only registers index templates, and a write to a missing
+     * per-type index creates it from the mapping of the type.
+     * @param lazy true if per-type indices are created on the first write
+     */
+    public void setLazyIndexCreation(boolean lazy) {
+        if (lazy) {
+            internalClient.enableLazyIndexCreation(this.esMappingAdmin, this.esMappingUser);
+        } else {
+            internalClient.disableLazyIndexCreation();
+        }
+    }
+
+    /**
+     * 物理インデックスを最初の書き込み時に作成するかどうかを取得する.
+     * @return true if per-type indices are created on the first write
+     */
+    public boolean isLazyIndexCreation() {
+        return internalClient.isLazyIndexCreation();
+    }
+
+    /**
+     * 物理インデックスキャッシュの更新間隔を設定する. 0で無効 (default).
+     * While enabled, reads of per-type indices known to be missing return without request, and searches across
+     * types are narrowed to existing indices. Indices created by other processes are known after the next poll.
+     * @param intervalMillis interval in milliseconds
+     */
+    public void setIndexCacheRefreshInterval(long intervalMillis) {
+        internalClient.setIndexCacheRefreshInterval(intervalMillis);
+    }
+
+    /**
+     * DEFERREDリフレッシュの間隔を設定する. Each physical index is refreshed at most once in the window.
+     * @param windowMillis window in milliseconds
+     */
+    public void setDeferredRefreshWindow(long windowMillis) {
+        internalClient.getRefreshCoordinator().setWindowMillis(windowMillis);
+    }
+
     /**
      * 管理用のIndex操作オブジェクトを返します.
      * @param prefix インデックス名プレフィックス
@@ -118,8 +266,12 @@ public class EsClient {
      * @return Indexオブジェクト
      */
     public EsIndex idxAdmin(String prefix, int times, int interval) {
-        return new EsIndexImpl(prefix + "_ad",
+        EsIndex index = new EsIndexImpl(prefix + "_ad",
             EsIndex.CATEGORY_AD, times, interval, internalClient, this.esMappingAdmin);
+        index.setRefreshPolicy(this.refreshPolicy);
+        index.setLayout(this.indexLayout);
+        index.setShardingStrategy(this.shardingStrategy);
+        return index;
     }
 
     /**
@@ -140,6 +292,10 @@ public class EsClient {
      * @return Indexオブジェクト
      */
     public EsIndex idxUser(String prefix, String userUri, int times, int interval) {
+        return idxUser(userIndexName(prefix, userUri), times, interval);
+    }
+
+    private static String userIndexName(String prefix, String userUri) {
         String userUriToSet = userUri;
         if (userUriToSet == null) {
             // エンコードの必要なし
@@ -147,7 +303,7 @@ public class EsClient {
         } else {
             userUriToSet = IndexNameEncoder.encodeEsIndexName(userUriToSet);
         }
-        return idxUser(prefix + "_" + userUriToSet, times, interval);
+        return prefix + "_" + userUriToSet;
     }
 
     /**
@@ -169,8 +325,12 @@ public class EsClient {
      */
     public EsIndex idxUser(String fullIndexName, int times, int interval) {
         // Engine専用。使用禁止
-        return new EsIndexImpl(fullIndexName,
+        EsIndex index = new EsIndexImpl(fullIndexName,
             EsIndex.CATEGORY_USR, times, interval, internalClient, this.esMappingUser);
+        index.setRefreshPolicy(this.refreshPolicy);
+        index.setLayout(this.indexLayout);
+        index.setShardingStrategy(this.shardingStrategy);
+        return index;
     }
 
     /**
@@ -183,7 +343,9 @@ public class EsClient {
      * @return タイプ操作用オブジェクト
      */
     public EsType type(String indexName, String typeName, String routingId, int times, int interval) {
-        return new EsTypeImpl(indexName, typeName, routingId, times, interval, internalClient);
+        EsType esType = new EsTypeImpl(indexName, typeName, routingId, times, interval, internalClient);
+        esType.setRefreshPolicy(this.refreshPolicy);
+        return esType;
     }
 
     /**
@@ -197,6 +359,78 @@ public class EsClient {
         return type(indexName, typeName, routingId, 0, 0);
     }
 
+    /**
+     * 管理用のIndex非同期操作オブジェクトを返します.
+     * @param prefix インデックス名プレフィックス
+     * @return Indexオブジェクト
+     */
+    public AsyncEsIndex asyncIdxAdmin(String prefix) {
+        AsyncEsIndex index = new AsyncEsIndexImpl(prefix + "_ad", EsIndex.CATEGORY_AD, internalClient);
+        index.setRefreshPolicy(this.refreshPolicy);
+        return index;
+    }
+
+    /**
+     * UnitUser用のIndex非同期操作オブジェクトを返します.
+     * @param prefix インデックス名プレフィックス
+     * @param userUri UnitUser名（URL)
+     * @return Indexオブジェクト
+     */
+    public AsyncEsIndex asyncIdxUser(String prefix, String userUri) {
+        AsyncEsIndex index = new AsyncEsIndexImpl(userIndexName(prefix, userUri), EsIndex.CATEGORY_USR,
+            internalClient);
+        index.setRefreshPolicy(this.refreshPolicy);
+        return index;
+    }
+
+    /**
+     * タイプ名とルーティングIDを指定してタイプ非同期操作用オブジェクトを取得する.
+     * @param indexName インデックス名
+     * @param typeName タイプ名
+     * @param routingId ルーティングID
+     * @return タイプ操作用オブジェクト
+     */
+    public AsyncEsType asyncType(String indexName, String typeName, String routingId) {
+        AsyncEsType esType = new AsyncEsTypeImpl(indexName, typeName, routingId, internalClient);
+        esType.setRefreshPolicy(this.refreshPolicy);
+        return esType;
+    }
+
+    /**
+     * バルク登録を集約して送信するオブジェクトを取得する.
+     * @param indexName インデックス名
+     * @return bulk indexer
+     */
+    public EsBulkIndexer bulkIndexer(String indexName) {
+        return bulkIndexer(indexName, EsBulkIndexerImpl.DEFAULT_MAX_ACTIONS, EsBulkIndexerImpl.DEFAULT_MAX_BYTES,
+            EsBulkIndexerImpl.DEFAULT_FLUSH_INTERVAL_MILLIS, EsBulkIndexerImpl.DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * バルク登録を集約して送信するオブジェクトを取得する.
+     * @param indexName インデックス名
+     * @param maxActions max number of requests in a bulk
+     * @param maxBytes max size of documents in a bulk
+     * @param flushIntervalMillis interval of time-based flush (0 to disable)
+     * @param maxConcurrentRequests max number of bulk requests in flight
+     * @return bulk indexer
+     */
+    public EsBulkIndexer bulkIndexer(String indexName, int maxActions, long maxBytes, long flushIntervalMillis,
+        int maxConcurrentRequests) {
+        EsBulkIndexer indexer = new EsBulkIndexerImpl(indexName, internalClient, maxActions, maxBytes,
+            flushIntervalMillis, maxConcurrentRequests);
+        indexer.setRefreshPolicy(this.refreshPolicy);
+        return indexer;
+    }
+
+    /**
+     * Get statistics of read requests with and without routing.
+     * @return statistics
+     */
+    public EsRoutingStats getRoutingStats() {
+        return internalClient.getRoutingStats();
+    }
+
     /**
      * Clusterの状態取得.
      * @return 状態Map
@@ -229,8 +463,22 @@ public class EsClient {
      * @return 検索結果
      */
     public PersoniumSearchResponse scrollSearch(String index, String type, Map<String, Object> query) {
+        return scrollSearch(index, type, null, query);
+    }
+
+    /**
+     * クエリを指定してスクロールサーチを実行する.
+     * @param index インデックス名
+     * @param type タイプ名
+     * @param routingId routingId (null to search every shard)
+     * @param query 検索クエリ
+     * @return 検索結果
+     */
+    public PersoniumSearchResponse scrollSearch(String index, String type, String routingId,
+            Map<String, Object> query) {
         try {
-            return PersoniumSearchResponseImpl.getInstance(internalClient.scrollSearch(index, type, query));
+            return PersoniumSearchResponseImpl.getInstance(internalClient.scrollSearch(index, type, routingId,
+                    query));
         } catch (ElasticsearchException e) {
             throw EsClientException.convertException(e);
         } catch (IOException e) {
@@ -250,4 +498,79 @@ public class EsClient {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * スクロールを終了し、検索コンテキストを解放する.
+     * @param scrollId スクロールID
+     */
+    public void clearScroll(String scrollId) {
+        try {
+            internalClient.asyncClearScroll(scrollId).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ElasticsearchException) {
+                throw EsClientException.convertException((ElasticsearchException) e.getCause());
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * クエリに一致する全ドキュメントをスクロールサーチで読み出す.
+     * @param index インデックス名
+     * @param type タイプ名 (nullable)
+     * @param query 検索クエリ (size and from are ignored)
+     * @return iterator of hits (must be closed)
+     */
+    public EsScroll scroll(String index, String type, Map<String, Object> query) {
+        return scroll(index, type, null, query);
+    }
+
+    /**
+     * クエリに一致する全ドキュメントをスクロールサーチで読み出す.
+     * @param index インデックス名
+     * @param type タイプ名 (nullable)
+     * @param routingId routingId (null to read every shard)
+     * @param query 検索クエリ (size and from are ignored)
+     * @return iterator of hits (must be closed)
+     */
+    public EsScroll scroll(String index, String type, String routingId, Map<String, Object> query) {
+        return scroll(index, type, routingId, query, EsScrollImpl.DEFAULT_KEEP_ALIVE, EsScrollImpl.DEFAULT_PAGE_SIZE,
+                1);
+    }
+
+    /**
+     * クエリに一致する全ドキュメントをスクロールサーチで読み出す.
+     * With more than one slice, the slices are read in parallel and hits of them are returned interleaved.
+     * @param index インデックス名
+     * @param type タイプ名 (nullable)
+     * @param query 検索クエリ (size and from are ignored)
+     * @param keepAlive keep alive time of scroll context between pages (e.g. `1m`)
+     * @param pageSize number of hits in a page of each slice
+     * @param slices number of slices, which should not exceed the number of shards
+     * @return iterator of hits (must be closed)
+     */
+    public EsScroll scroll(String index, String type, Map<String, Object> query, String keepAlive, int pageSize,
+        int slices) {
+        return scroll(index, type, null, query, keepAlive, pageSize, slices);
+    }
+
+    /**
+     * クエリに一致する全ドキュメントをスクロールサーチで読み出す.
+     * With more than one slice, the slices are read in parallel and hits of them are returned interleaved.
+     * @param index インデックス名
+     * @param type タイプ名 (nullable)
+     * @param routingId routingId (null to read every shard)
+     * @param query 検索クエリ (size and from are ignored)
+     * @param keepAlive keep alive time of scroll context between pages (e.g. `1m`)
+     * @param pageSize number of hits in a page of each slice
+     * @param slices number of slices, which should not exceed the number of shards
+     * @return iterator of hits (must be closed)
+     */
+    public EsScroll scroll(String index, String type, String routingId, Map<String, Object> query,
+        String keepAlive, int pageSize, int slices) {
+        return new EsScrollImpl(internalClient, keepAlive, pageSize, slices).start(index, type, routingId, query);
+    }
 }
@@ -0,0 +1,135 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.personium.common.es.util.EsJson;
+import io.personium.common.es.util.SourceKeyConverter;
+
+/**
+ * Cursor of keyset pagination, which points the position after the last hit of a page in a point-in-time.
+ * Callers should treat it as opaque and round-trip it with {@link #toToken()} and {@link #fromToken(String)}.
+ */
+public final class EsCursor {
+
+    private static final String PIT_KEY = "p";
+    private static final String AFTER_KEY = "a";
+
+    private final String pitId;
+    private final List<Object> searchAfter;
+
+    private EsCursor(String pitId, List<Object> searchAfter) {
+        this.pitId = pitId;
+        this.searchAfter = searchAfter;
+    }
+
+    /**
+     * Create cursor pointing the position after the hit.
+     * @param pitId point-in-time ID
+     * @param sortValues sort values of the last hit (PersoniumSearchHit#getSortValues), which may contain null
+     * @return cursor
+     */
+    public static EsCursor after(String pitId, Object[] sortValues) {
+        if (pitId == null) {
+            throw new IllegalArgumentException("pitId is required");
+        }
+        List<Object> values = new ArrayList<Object>();
+        if (sortValues != null) {
+            values.addAll(Arrays.asList(sortValues));
+        }
+        return new EsCursor(pitId, Collections.unmodifiableList(values));
+    }
+
+    /**
+     * Restore cursor from token.
+     * @param token token created by {@link #toToken()}
+     * @return cursor
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static EsCursor fromToken(String token) {
+        if (token == null) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        try {
+            JsonNode node = EsJson.mapper().readTree(Base64.getUrlDecoder().decode(token));
+            JsonNode pit = node.get(PIT_KEY);
+            JsonNode after = node.get(AFTER_KEY);
+            if (pit == null || !pit.isTextual() || after == null || !after.isArray()) {
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+            List<Object> values = new ArrayList<Object>();
+            for (JsonNode value : after) {
+                if (value.isContainerNode()) {
+                    throw new IllegalArgumentException("Malformed cursor");
+                }
+                values.add(SourceKeyConverter.toValue(value));
+            }
+            return after(pit.textValue(), values.toArray());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed cursor", e);
+        }
+    }
+
+    /**
+     * Get token which can be passed to {@link #fromToken(String)}. It is safe for URL.
+     * @return token
+     */
+    public String toToken() {
+        ObjectNode node = EsJson.mapper().createObjectNode();
+        node.put(PIT_KEY, this.pitId);
+        ArrayNode after = node.putArray(AFTER_KEY);
+        for (Object value : this.searchAfter) {
+            // keep JSON type of the value, so that it is sent back as it was returned
+            after.add(EsJson.mapper().valueToTree(value));
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(node.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get point-in-time ID.
+     * @return point-in-time ID
+     */
+    public String getPitId() {
+        return this.pitId;
+    }
+
+    /**
+     * Get sort values to be sent as search_after.
+     * @return sort values (String, Number, Boolean or null)
+     */
+    public List<Object> getSearchAfter() {
+        return this.searchAfter;
+    }
+
+    @Override
+    public String toString() {
+        return toToken();
+    }
+}
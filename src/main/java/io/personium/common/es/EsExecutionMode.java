@@ -0,0 +1,30 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es;
+
+/**
+ * 同期API呼び出しを実行するスレッドの種類.
+ */
+public enum EsExecutionMode {
+    /** プラットフォームスレッドで実行する (default). */
+    PLATFORM,
+    /**
+     * 仮想スレッドで実行する. Falls back to platform threads if the runtime does not support virtual threads.
+     */
+    VIRTUAL
+}
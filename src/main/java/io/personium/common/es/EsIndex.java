@@ -22,6 +22,9 @@ import java.util.Map;
 
 import io.personium.common.es.response.PersoniumBulkResponse;
 import io.personium.common.es.response.PersoniumMultiSearchResponse;
+import io.personium.common.es.response.PersoniumRefreshResponse;
+import io.personium.common.es.response.PersoniumSearchHitStream;
+import io.personium.common.es.response.PersoniumSearchPage;
 import io.personium.common.es.response.PersoniumSearchResponse;
 
 /**
@@ -55,10 +58,34 @@ public interface EsIndex {
     String getCategory();
 
     /**
-     * Create Index and child indices.
+     * Create Index and child indices in the layout of {@link #getLayout()}.
+     * Per-type indices are created on the first write when lazy index creation is enabled by the client.
      */
     void create();
 
+    /**
+     * Create Index and child indices with settings chosen by {@link #getShardingStrategy()} from the hints.
+     * @param hints sizing hints
+     */
+    void create(EsSizingHints hints);
+
+    /**
+     * Change shard count of an existing physical index by shrink or split.
+     * The new count must be a factor (shrink) or a multiple (split) of the current count.
+     * Writes to the physical index are rejected while it is resized.
+     * @param type type name, or null for the consolidated index
+     * @param numberOfShards new shard count
+     */
+    void resize(String type, int numberOfShards);
+
+    /**
+     * Migrate existing per-type indices into consolidated layout online.
+     * Writes are rejected for a short time while documents updated during the copy are copied again.
+     * It does nothing if the index has been migrated already.
+     * @see EsIndexLayout#CONSOLIDATED
+     */
+    void migrateToConsolidatedLayout();
+
     /**
      * Delete Index and child indices.
      */
@@ -72,6 +99,46 @@ public interface EsIndex {
      */
     PersoniumSearchResponse search(String routingId, Map<String, Object> query);
 
+    /**
+     * 取得するフィールドを限定してドキュメントを検索.
+     * Only the specified fields are sent back, and their values are read by PersoniumSearchHit#field.
+     * @param routingId routingId
+     * @param query クエリ情報
+     * @param sourceFields fields of _source to be returned (`type` is always returned)
+     * @param docValueFields fields returned from doc values, which must be keyword, numeric or date (nullable)
+     * @return ES応答
+     */
+    PersoniumSearchResponse search(String routingId, Map<String, Object> query, List<String> sourceFields,
+            List<String> docValueFields);
+
+    /**
+     * ドキュメントをページ単位で検索 (keyset pagination).
+     * Pages are read in a point-in-time with search_after instead of from/size, so deep pages are as cheap as
+     * the first one. `from` of the query is ignored and `size` is the page size. Sort of the query should be
+     * the same on every page. Documents are sorted in index order if the query has no sort.
+     * Routing is applied when point-in-time is opened with the first page, and later pages stay in its shards.
+     * @param routingId routingId (null to search every shard)
+     * @param query クエリ情報
+     * @param cursor cursor returned with the previous page, or null for the first page
+     * @return ES応答
+     */
+    PersoniumSearchPage searchPage(String routingId, Map<String, Object> query, EsCursor cursor);
+
+    /**
+     * Release point-in-time of the cursor when the remaining pages are not read.
+     * @param cursor cursor
+     */
+    void closeCursor(EsCursor cursor);
+
+    /**
+     * ドキュメントを検索し、ヒットを1件ずつ読み出す.
+     * Hits are decoded while the response is read, so memory usage does not depend on the page size.
+     * @param routingId routingId
+     * @param query クエリ情報
+     * @return ヒットのストリーム (must be closed)
+     */
+    PersoniumSearchHitStream searchStream(String routingId, Map<String, Object> query);
+
     /**
      * ドキュメントをマルチ検索.
      * @param routingId routingId
@@ -82,11 +149,21 @@ public interface EsIndex {
 
     /**
      * Delete with query specification.
-     * @param routingId routingId
+     * Only the shards for the routing id are processed, so the query must not match documents of other routing.
+     * @param routingId routingId (null to process every shard)
      * @param query query
      */
     void deleteByQuery(String routingId, Map<String, Object> query);
 
+    /**
+     * Delete all documents of the cell in every type of this index.
+     * Only the shards for the routing id of the physical indices holding the cell are processed.
+     * @param routingId routingId of the documents (cell id for documents in the cell)
+     * @param cellId cell id stored in `c` field
+     * @return number of deleted documents
+     */
+    long purgeCell(String routingId, String cellId);
+
     /**
      * バルクでドキュメントを登録/更新/削除する.
      * @param routingId routingId
@@ -110,4 +187,46 @@ public interface EsIndex {
      * @param settings index settings to be put
      */
     void updateSettings(Map<String, String> settings);
+
+    /**
+     * 書き込み後のリフレッシュ方針を設定する.
+     * @param refreshPolicy refresh policy
+     */
+    void setRefreshPolicy(EsRefreshPolicy refreshPolicy);
+
+    /**
+     * 書き込み後のリフレッシュ方針を取得する.
+     * @return refresh policy
+     */
+    EsRefreshPolicy getRefreshPolicy();
+
+    /**
+     * create()で作成する物理インデックスのレイアウトを設定する.
+     * @param layout layout
+     */
+    void setLayout(EsIndexLayout layout);
+
+    /**
+     * create()で作成する物理インデックスのレイアウトを取得する.
+     * @return layout
+     */
+    EsIndexLayout getLayout();
+
+    /**
+     * create()で作成する物理インデックスのシャード数を決める戦略を設定する.
+     * @param shardingStrategy strategy (null for the defaults of index templates)
+     */
+    void setShardingStrategy(EsShardingStrategy shardingStrategy);
+
+    /**
+     * create()で作成する物理インデックスのシャード数を決める戦略を取得する.
+     * @return strategy
+     */
+    EsShardingStrategy getShardingStrategy();
+
+    /**
+     * Index配下の全インデックスをリフレッシュし、書き込まれたドキュメントを検索可能にする.
+     * @return ES応答
+     */
+    PersoniumRefreshResponse refresh();
 }
@@ -0,0 +1,32 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es;
+
+/**
+ * Layout of physical indices of a logical index.
+ */
+public enum EsIndexLayout {
+    /** タイプ毎に物理インデックスを作成する (`<index>.<type>`, default). */
+    PER_TYPE,
+    /**
+     * 全タイプを1つの物理インデックス (`<index>.consolidated`) に格納する.
+     * Each type is accessed through a filtered alias `<index>.<type>` on the `type` field,
+     * so that per-type requests work in the same way as PER_TYPE layout.
+     */
+    CONSOLIDATED
+}
@@ -0,0 +1,37 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es;
+
+/**
+ * 書き込み(index/delete/bulk)後のリフレッシュ方針.
+ * Indices are created with `refresh_interval: -1`, so written documents become searchable only by refresh.
+ */
+public enum EsRefreshPolicy {
+    /** リフレッシュしない. Documents become searchable by the next refresh of someone else. */
+    NONE,
+    /**
+     * リフレッシュを待って応答する. Write does not force refresh but waits until it is searchable.
+     * Since periodic refresh is disabled, the physical index is refreshed in the same way as DEFERRED while the write
+     * is waiting, so it responds within the refresh window.
+     */
+    WAIT_FOR,
+    /** 書き込み毎にリフレッシュする (default). */
+    IMMEDIATE,
+    /** リフレッシュを遅延し、物理インデックス単位でまとめて行う. */
+    DEFERRED
+}
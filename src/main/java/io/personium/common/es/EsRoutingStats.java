@@ -0,0 +1,71 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Snapshot of the number of read requests with and without routing.
+ * A routed request hits one shard per physical index, and an unrouted (fan-out) request hits every shard.
+ */
+public final class EsRoutingStats {
+
+    private final long routedRequests;
+    private final Map<String, Long> fanOutRequests;
+
+    /**
+     * Constructor.
+     * @param routedRequests number of routed requests
+     * @param fanOutRequests number of fan-out requests by operation
+     */
+    public EsRoutingStats(long routedRequests, Map<String, Long> fanOutRequests) {
+        this.routedRequests = routedRequests;
+        this.fanOutRequests = Collections.unmodifiableMap(new TreeMap<String, Long>(fanOutRequests));
+    }
+
+    /**
+     * Get number of routed requests.
+     * @return number of routed requests
+     */
+    public long getRoutedRequests() {
+        return routedRequests;
+    }
+
+    /**
+     * Get number of fan-out requests of all operations.
+     * @return number of fan-out requests
+     */
+    public long getFanOutRequests() {
+        return fanOutRequests.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Get number of fan-out requests by operation (e.g. `search`, `scroll`).
+     * @return number of fan-out requests by operation
+     */
+    public Map<String, Long> getFanOutRequestsByOperation() {
+        return fanOutRequests;
+    }
+
+    @Override
+    public String toString() {
+        return "EsRoutingStats[routed=" + routedRequests + ", fanOut=" + fanOutRequests + "]";
+    }
+}
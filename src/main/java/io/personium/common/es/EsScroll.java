@@ -0,0 +1,36 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es;
+
+import java.util.Iterator;
+
+import io.personium.common.es.response.PersoniumSearchHit;
+
+/**
+ * Iterator over all hits of a query by scroll search.
+ * Scroll contexts are released when all hits are read, when an error occurs, or when it is closed.
+ * It must be closed when it is abandoned before the end.
+ */
+public interface EsScroll extends Iterator<PersoniumSearchHit>, AutoCloseable {
+
+    /**
+     * Release scroll contexts. Runtime exceptions are thrown instead of checked exceptions.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,36 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es;
+
+import java.util.Map;
+
+/**
+ * Strategy which decides shard and replica counts of each physical index on {@link EsIndex#create(EsSizingHints)}.
+ * Settings which are not returned are given by the index templates.
+ */
+public interface EsShardingStrategy {
+
+    /**
+     * Decide settings of a physical index.
+     * @param category category of the index ({@link EsIndex#CATEGORY_AD} or {@link EsIndex#CATEGORY_USR})
+     * @param type type name, or null for the consolidated index
+     * @param hints sizing hints
+     * @return index settings such as `number_of_shards` and `number_of_replicas` (empty for defaults)
+     */
+    Map<String, Object> settings(String category, String type, EsSizingHints hints);
+}
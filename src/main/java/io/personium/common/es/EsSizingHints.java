@@ -0,0 +1,92 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es;
+
+import java.util.Map;
+
+/**
+ * Hints of the size of a logical index, which are given to {@link EsShardingStrategy} on {@link EsIndex#create}.
+ */
+public final class EsSizingHints {
+
+    /** Value of unknown document count. */
+    public static final long UNKNOWN = -1;
+
+    private static final EsSizingHints NONE = new EsSizingHints(UNKNOWN, Map.of(), null);
+
+    private final long expectedDocs;
+    private final Map<String, Long> expectedDocsByType;
+    private final String tier;
+
+    private EsSizingHints(long expectedDocs, Map<String, Long> expectedDocsByType, String tier) {
+        this.expectedDocs = expectedDocs;
+        this.expectedDocsByType = expectedDocsByType;
+        this.tier = tier;
+    }
+
+    /**
+     * Get hints without any information.
+     * @return hints
+     */
+    public static EsSizingHints none() {
+        return NONE;
+    }
+
+    /**
+     * Create hints. Per-type indices are not sized by them, because the share of each type is unknown.
+     * @param expectedDocs expected document count of the whole index
+     * @param tier tier of the cell (nullable)
+     * @return hints
+     */
+    public static EsSizingHints of(long expectedDocs, String tier) {
+        return new EsSizingHints(expectedDocs, Map.of(), tier);
+    }
+
+    /**
+     * Create hints with document counts of types.
+     * @param expectedDocsByType expected document count by type name
+     * @param tier tier of the cell (nullable)
+     * @return hints
+     */
+    public static EsSizingHints of(Map<String, Long> expectedDocsByType, String tier) {
+        long total = expectedDocsByType.values().stream().mapToLong(Long::longValue).sum();
+        return new EsSizingHints(total, Map.copyOf(expectedDocsByType), tier);
+    }
+
+    /**
+     * Get expected document count of a physical index.
+     * Count of the whole index is used only for the consolidated index, and a per-type index is sized only by
+     * the count of its type, since the whole count would over-size every one of them.
+     * @param type type name (null for the whole index)
+     * @return expected document count, or {@link #UNKNOWN}
+     */
+    public long getExpectedDocs(String type) {
+        if (type == null) {
+            return expectedDocs;
+        }
+        return expectedDocsByType.getOrDefault(type, UNKNOWN);
+    }
+
+    /**
+     * Get tier of the cell.
+     * @return tier (nullable)
+     */
+    public String getTier() {
+        return tier;
+    }
+}
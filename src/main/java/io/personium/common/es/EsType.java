@@ -26,6 +26,9 @@ import io.personium.common.es.response.PersoniumIndexResponse;
 import io.personium.common.es.response.PersoniumMappingMetaData;
 import io.personium.common.es.response.PersoniumMultiSearchResponse;
 import io.personium.common.es.response.PersoniumPutMappingResponse;
+import io.personium.common.es.response.PersoniumRefreshResponse;
+import io.personium.common.es.response.PersoniumSearchHitStream;
+import io.personium.common.es.response.PersoniumSearchPage;
 import io.personium.common.es.response.PersoniumSearchResponse;
 
 /**
@@ -99,6 +102,44 @@ public interface EsType {
      */
     PersoniumSearchResponse search(Map<String, Object> query);
 
+    /**
+     * 取得するフィールドを限定してドキュメントを検索.
+     * Only the specified fields are sent back, and their values are read by PersoniumSearchHit#field.
+     * @param query クエリ情報
+     * @param sourceFields fields of _source to be returned (`type` is always returned)
+     * @param docValueFields fields returned from doc values, which must be keyword, numeric or date (nullable)
+     * @return ES応答
+     */
+    PersoniumSearchResponse search(Map<String, Object> query, List<String> sourceFields,
+            List<String> docValueFields);
+
+    /**
+     * ドキュメントをページ単位で検索 (keyset pagination).
+     * Pages are read in a point-in-time with search_after instead of from/size, so deep pages are as cheap as
+     * the first one. `from` of the query is ignored and `size` is the page size. Sort of the query should be
+     * the same on every page. Documents are sorted in index order if the query has no sort.
+     * Point-in-time is opened with the routing of this type, and later pages stay in its shards.
+     * Point-in-time is released after the last page, or by {@link #closeCursor(EsCursor)}.
+     * @param query クエリ情報
+     * @param cursor cursor returned with the previous page, or null for the first page
+     * @return ES応答
+     */
+    PersoniumSearchPage searchPage(Map<String, Object> query, EsCursor cursor);
+
+    /**
+     * Release point-in-time of the cursor when the remaining pages are not read.
+     * @param cursor cursor
+     */
+    void closeCursor(EsCursor cursor);
+
+    /**
+     * ドキュメントを検索し、ヒットを1件ずつ読み出す.
+     * Hits are decoded while the response is read, so memory usage does not depend on the page size.
+     * @param query クエリ情報
+     * @return ヒットのストリーム (must be closed)
+     */
+    PersoniumSearchHitStream searchStream(Map<String, Object> query);
+
     /**
      * ドキュメントをマルチ検索.
      * @param queryList マルチ検索用のクエリ情報リスト
@@ -133,4 +174,22 @@ public interface EsType {
      * @return ES応答
      */
     PersoniumPutMappingResponse putMapping(Map<String, Object> mappings);
+
+    /**
+     * 書き込み後のリフレッシュ方針を設定する.
+     * @param refreshPolicy refresh policy
+     */
+    void setRefreshPolicy(EsRefreshPolicy refreshPolicy);
+
+    /**
+     * 書き込み後のリフレッシュ方針を取得する.
+     * @return refresh policy
+     */
+    EsRefreshPolicy getRefreshPolicy();
+
+    /**
+     * Typeのインデックスをリフレッシュし、書き込まれたドキュメントを検索可能にする.
+     * @return ES応答
+     */
+    PersoniumRefreshResponse refresh();
 }
@@ -0,0 +1,133 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+import io.personium.common.es.AsyncEsIndex;
+import io.personium.common.es.EsBulkRequest;
+import io.personium.common.es.EsRefreshPolicy;
+import io.personium.common.es.response.PersoniumBulkResponse;
+import io.personium.common.es.response.PersoniumDeleteByQueryStatus;
+import io.personium.common.es.response.PersoniumMultiSearchResponse;
+import io.personium.common.es.response.PersoniumRefreshResponse;
+import io.personium.common.es.response.PersoniumSearchResponse;
+import io.personium.common.es.response.impl.PersoniumBulkResponseImpl;
+import io.personium.common.es.response.impl.PersoniumMultiSearchResponseImpl;
+import io.personium.common.es.response.impl.PersoniumRefreshResponseImpl;
+import io.personium.common.es.response.impl.PersoniumSearchResponseImpl;
+
+/**
+ * Class for asynchronous index operations. See {@link EsIndexImpl} for the synchronous one.
+ */
+public class AsyncEsIndexImpl implements AsyncEsIndex {
+
+    private InternalEsClient esClient;
+    private EsRefreshPolicy refreshPolicy = EsRefreshPolicy.IMMEDIATE;
+
+    String indexName;
+    String category;
+
+    /**
+     * Constructor.
+     * @param indexName index name
+     * @param category category
+     * @param client client
+     */
+    public AsyncEsIndexImpl(String indexName, String category, InternalEsClient client) {
+        this.indexName = indexName;
+        this.category = category;
+        this.esClient = client;
+    }
+
+    @Override
+    public String getName() {
+        return this.indexName;
+    }
+
+    @Override
+    public String getCategory() {
+        return this.category;
+    }
+
+    @Override
+    public void setRefreshPolicy(EsRefreshPolicy refreshPolicy) {
+        this.refreshPolicy = refreshPolicy;
+    }
+
+    @Override
+    public EsRefreshPolicy getRefreshPolicy() {
+        return this.refreshPolicy;
+    }
+
+    @Override
+    public CompletionStage<PersoniumSearchResponse> search(String routingId, Map<String, Object> query) {
+        try {
+            return EsFutures.convert(esClient.asyncSearch(this.indexName, routingId, query),
+                    PersoniumSearchResponseImpl::getInstance);
+        } catch (RuntimeException e) {
+            return EsFutures.failed(e);
+        }
+    }
+
+    @Override
+    public CompletionStage<PersoniumMultiSearchResponse> multiSearch(String routingId,
+            List<Map<String, Object>> queryList) {
+        try {
+            return EsFutures.convert(esClient.asyncMultiSearch(this.indexName, routingId, queryList),
+                    PersoniumMultiSearchResponseImpl::getInstance);
+        } catch (IOException | RuntimeException e) {
+            return EsFutures.failed(e);
+        }
+    }
+
+    @Override
+    public CompletionStage<PersoniumDeleteByQueryStatus> deleteByQuery(String routingId, Map<String, Object> query,
+            Consumer<? super PersoniumDeleteByQueryStatus> progressListener) {
+        try {
+            return EsFutures.convert(DeleteByQueryTask.start(esClient, this.indexName, routingId, query,
+                    progressListener), DeleteByQueryTask::verify);
+        } catch (RuntimeException e) {
+            return EsFutures.failed(e);
+        }
+    }
+
+    @Override
+    public CompletionStage<PersoniumDeleteByQueryStatus> purgeCell(String routingId, String cellId,
+            Consumer<? super PersoniumDeleteByQueryStatus> progressListener) {
+        return EsFutures.convert(DeleteByQueryTask.purgeCell(esClient, this.indexName, routingId, cellId,
+                progressListener, DeleteByQueryTask.POLL_INTERVAL_MILLIS), DeleteByQueryTask::verify);
+    }
+
+    @Override
+    public CompletionStage<PersoniumBulkResponse> bulkRequest(String routingId, List<EsBulkRequest> datas,
+            boolean isWriteLog) {
+        return EsFutures.convert(esClient.asyncBulkRequest(this.indexName, routingId, datas, isWriteLog,
+                this.refreshPolicy), PersoniumBulkResponseImpl::getInstance);
+    }
+
+    @Override
+    public CompletionStage<PersoniumRefreshResponse> refresh() {
+        return EsFutures.convert(esClient.asyncRefresh(this.indexName, null),
+                PersoniumRefreshResponseImpl::getInstance);
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.OpType;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import io.personium.common.es.AsyncEsType;
+import io.personium.common.es.EsRefreshPolicy;
+import io.personium.common.es.response.EsClientException;
+import io.personium.common.es.response.PersoniumDeleteResponse;
+import io.personium.common.es.response.PersoniumGetResponse;
+import io.personium.common.es.response.PersoniumIndexResponse;
+import io.personium.common.es.response.PersoniumMultiSearchResponse;
+import io.personium.common.es.response.PersoniumRefreshResponse;
+import io.personium.common.es.response.PersoniumSearchResponse;
+import io.personium.common.es.response.impl.PersoniumDeleteResponseImpl;
+import io.personium.common.es.response.impl.PersoniumGetResponseImpl;
+import io.personium.common.es.response.impl.PersoniumIndexResponseImpl;
+import io.personium.common.es.response.impl.PersoniumMultiSearchResponseImpl;
+import io.personium.common.es.response.impl.PersoniumNullSearchResponse;
+import io.personium.common.es.response.impl.PersoniumRefreshResponseImpl;
+import io.personium.common.es.response.impl.PersoniumSearchResponseImpl;
+import io.personium.common.es.util.PersoniumUUID;
+
+/**
+ * Class for asynchronous type operation. See {@link EsTypeImpl} for the synchronous one.
+ */
+public class AsyncEsTypeImpl implements AsyncEsType {
+
+    InternalEsClient esClient;
+
+    private String indexName;
+    private String typeName;
+    private String routingId;
+    private EsRefreshPolicy refreshPolicy = EsRefreshPolicy.IMMEDIATE;
+
+    /**
+     * Constructor.
+     * @param indexName index name
+     * @param typeName type name
+     * @param routingId routing id
+     * @param client client
+     */
+    public AsyncEsTypeImpl(String indexName, String typeName, String routingId, InternalEsClient client) {
+        this.indexName = indexName;
+        this.typeName = typeName;
+        this.routingId = routingId;
+        this.esClient = client;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getIndexName() {
+        return this.indexName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getType() {
+        return this.typeName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setRefreshPolicy(EsRefreshPolicy refreshPolicy) {
+        this.refreshPolicy = refreshPolicy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EsRefreshPolicy getRefreshPolicy() {
+        return this.refreshPolicy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumGetResponse> get(String id) {
+        return this.get(id, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumGetResponse> get(String id, boolean realtime) {
+        return EsFutures.convert(esClient.asyncGet(this.indexName, this.typeName, id, this.routingId, realtime, -1),
+                response -> {
+                    if (!response.found()) {
+                        return null;
+                    }
+                    return PersoniumGetResponseImpl.getInstance(response);
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumIndexResponse> create(Map<String, Object> data) {
+        return this.create(PersoniumUUID.randomUUID(), data);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumIndexResponse> create(String id, Map<String, Object> data) {
+        return EsFutures.convert(esClient.asyncIndex(this.indexName, this.typeName, id, this.routingId,
+                addType(data), OpType.Create, null, this.refreshPolicy), PersoniumIndexResponseImpl::getInstance);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumIndexResponse> update(String id, Map<String, Object> data, long version) {
+        var typeAddedData = addType(data);
+        if (version == -1) {
+            return EsFutures.convert(esClient.asyncIndex(this.indexName, this.typeName, id, this.routingId,
+                    typeAddedData, OpType.Index, null, this.refreshPolicy), PersoniumIndexResponseImpl::getInstance);
+        }
+        // optimistic lock
+        return esClient.asyncGet(this.indexName, this.typeName, id, this.routingId, true, version)
+                .thenCompose(prev -> esClient.asyncIndex(this.indexName, this.typeName, id, this.routingId,
+                        typeAddedData, OpType.Index, new SeqNoPrimaryTerm(prev.seqNo(), prev.primaryTerm()),
+                        this.refreshPolicy))
+                .handle((response, e) -> {
+                    if (e != null) {
+                        throw EsFutures.convertException(e);
+                    }
+                    return PersoniumIndexResponseImpl.getInstance(response);
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumIndexResponse> update(String id, Map<String, Object> data) {
+        return this.update(id, data, -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumSearchResponse> search(Map<String, Object> query) {
+        CompletableFuture<SearchResponse<ObjectNode>> future;
+        try {
+            future = esClient.asyncSearch(this.indexName, this.typeName, this.routingId, query);
+        } catch (RuntimeException e) {
+            return EsFutures.failed(e);
+        }
+        return future.handle((response, e) -> {
+            if (e == null) {
+                return PersoniumSearchResponseImpl.getInstance(response);
+            }
+            Throwable cause = EsFutures.unwrap(e);
+            if (cause instanceof ElasticsearchException) {
+                var ex = EsClientException.convertException((ElasticsearchException) cause);
+                if (ex instanceof EsClientException.EsIndexMissingException) {
+                    return new PersoniumNullSearchResponse();
+                }
+                throw EsClientException.wrapException("unknown property was appointed.",
+                        (ElasticsearchException) cause);
+            }
+            throw EsFutures.convertException(cause);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumMultiSearchResponse> multiSearch(List<Map<String, Object>> queryList) {
+        try {
+            return EsFutures.convert(esClient.asyncMultiSearch(this.indexName, this.typeName, this.routingId,
+                    queryList), PersoniumMultiSearchResponseImpl::getInstance);
+        } catch (IOException | RuntimeException e) {
+            return EsFutures.failed(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumDeleteResponse> delete(String docId) {
+        return this.delete(docId, -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumDeleteResponse> delete(String docId, long version) {
+        try {
+            return EsFutures.convert(esClient.asyncDelete(this.indexName, this.typeName, docId, this.routingId,
+                    version, this.refreshPolicy), PersoniumDeleteResponseImpl::getInstance);
+        } catch (IOException e) {
+            return EsFutures.failed(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumRefreshResponse> refresh() {
+        return EsFutures.convert(esClient.asyncRefresh(this.indexName, this.typeName),
+                PersoniumRefreshResponseImpl::getInstance);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<Void> whenRefreshed() {
+        return esClient.whenRefreshed(this.indexName, this.typeName);
+    }
+
+    /**
+     * for back compability. Add type property to data.
+     */
+    private Map<String, Object> addType(Map<String, Object> data) {
+        var typeAddedData = new HashMap<String, Object>(data);
+        if (!typeAddedData.containsKey("type")) {
+            typeAddedData.put("type", this.typeName);
+        }
+        return typeAddedData;
+    }
+}
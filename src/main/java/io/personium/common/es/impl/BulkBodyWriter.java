@@ -0,0 +1,149 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.personium.common.es.EsBulkRequest;
+import io.personium.common.es.util.SourceKeyConverter;
+
+/**
+ * Writer of NDJSON body of bulk request.
+ * Documents are written directly from {@link EsBulkRequest#getSource()} with renaming keys and adding type property,
+ * so neither copies of documents nor BulkOperation objects are created.
+ */
+final class BulkBodyWriter {
+
+    /** Content type of bulk body. */
+    static final ContentType NDJSON = ContentType.create("application/x-ndjson");
+
+    /** Initial size of buffer. */
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    /** Property which holds type of document. */
+    private static final String TYPE_KEY = "type";
+
+    /**
+     * Buffer which creates entity without copying.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        HttpEntity toEntity() {
+            return new ByteArrayEntity(buf, 0, count, NDJSON);
+        }
+    }
+
+    private final Buffer buffer = new Buffer();
+    private final JsonGenerator gen;
+    private final boolean routingFlag;
+
+    /**
+     * Constructor.
+     * @param mapper object mapper used for values other than Map and Collection
+     * @param routingFlag true if routing is specified
+     * @throws IOException exception while creating generator
+     */
+    BulkBodyWriter(ObjectMapper mapper, boolean routingFlag) throws IOException {
+        this.gen = mapper.getFactory().createGenerator(buffer);
+        this.gen.setRootValueSeparator(new SerializedString("\n"));
+        this.routingFlag = routingFlag;
+    }
+
+    /**
+     * Write action and document of the request.
+     * @param index インデックス名
+     * @param routingId ルーティングID
+     * @param data バルクドキュメント
+     * @throws IOException exception while writing
+     */
+    void write(String index, String routingId, EsBulkRequest data) throws IOException {
+        boolean isDelete = EsBulkRequest.BulkRequestType.DELETE == data.getRequestType();
+        gen.writeStartObject();
+        if (isDelete) {
+            gen.writeObjectFieldStart("delete");
+        } else {
+            gen.writeObjectFieldStart("index");
+        }
+        gen.writeStringField("_index", InternalEsClient.makeIndex(index, data.getType()));
+        if (data.getId() != null) {
+            gen.writeStringField("_id", data.getId());
+        }
+        if (routingFlag && routingId != null) {
+            gen.writeStringField("routing", routingId);
+        }
+        gen.writeEndObject();
+        gen.writeEndObject();
+        if (!isDelete) {
+            writeSource(data.getSource(), data.getType());
+        }
+    }
+
+    /**
+     * Write document. The type property is written at the position of existing `type` (or `_type`) key, or at the
+     * end of document. Entries with null value are omitted in any depth, as the client does for single documents.
+     */
+    private void writeSource(Map<String, Object> source, String type) throws IOException {
+        gen.writeStartObject();
+        boolean typeWritten = false;
+        if (source != null) {
+            for (Map.Entry<String, Object> entry : source.entrySet()) {
+                String key = SourceKeyConverter.renameKey(String.valueOf(entry.getKey()));
+                if (TYPE_KEY.equals(key)) {
+                    if (!typeWritten) {
+                        gen.writeStringField(TYPE_KEY, type);
+                        typeWritten = true;
+                    }
+                    continue;
+                }
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                gen.writeFieldName(key);
+                SourceKeyConverter.write(gen, entry.getValue(), null, true);
+            }
+        }
+        if (!typeWritten) {
+            gen.writeStringField(TYPE_KEY, type);
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * Finish writing and create entity of request.
+     * @return entity
+     * @throws IOException exception while writing
+     */
+    HttpEntity toEntity() throws IOException {
+        gen.close();
+        buffer.write('\n');
+        return buffer.toEntity();
+    }
+}
@@ -0,0 +1,354 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.personium.common.es.EsIndexLayout;
+import io.personium.common.es.response.EsClientException;
+import io.personium.common.es.util.EsJson;
+
+/**
+ * Consolidated layout, which stores all types of a logical index in one physical index.
+ * Each type is exposed as a filtered alias with the name of per-type index, so requests addressed by
+ * {@link InternalEsClient#makeIndex(String, String)} work without change, and wildcard `<index>.*` still
+ * covers all types. Documents of a cell stay on one shard because they share the routing id.
+ * @see EsIndexLayout#CONSOLIDATED
+ */
+final class ConsolidatedLayout {
+    static Logger log = LoggerFactory.getLogger(ConsolidatedLayout.class);
+
+    /** Name of the field which discriminates types. */
+    static final String TYPE_FIELD = "type";
+
+    /** Number of document ids read at once while comparing indices. */
+    static final int ID_PAGE_SIZE = 1000;
+
+    /** Keep alive time of scroll which reads document ids. */
+    private static final String ID_SCROLL_KEEP_ALIVE = "1m";
+
+    private ConsolidatedLayout() {
+    }
+
+    /**
+     * Merge mappings of all types into a mapping of the consolidated index.
+     * @param mappings mappings by type
+     * @return merged mapping
+     * @throws EsClientException a field is mapped differently by types
+     */
+    static ObjectNode mergeMappings(Map<String, ObjectNode> mappings) {
+        ObjectNode merged = EsJson.mapper().createObjectNode();
+        for (String type : new TreeSet<String>(mappings.keySet())) {
+            JsonNode mapping = mappings.get(type);
+            if (mapping.has("_doc")) {
+                // for mapping for prior version Elasticsearch
+                mapping = mapping.get("_doc");
+            }
+            merge(merged, mapping, type, "");
+        }
+        return merged;
+    }
+
+    private static void merge(ObjectNode target, JsonNode source, String type, String path) {
+        Iterator<Map.Entry<String, JsonNode>> fields = source.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String fieldPath = path + "/" + field.getKey();
+            JsonNode existing = target.get(field.getKey());
+            JsonNode value = field.getValue();
+            if (existing == null) {
+                target.set(field.getKey(), value.deepCopy());
+            } else if (existing.isObject() && value.isObject()) {
+                merge((ObjectNode) existing, value, type, fieldPath);
+            } else if (existing.isArray() && value.isArray()) {
+                for (JsonNode element : value) {
+                    mergeElement((ArrayNode) existing, element, type, fieldPath);
+                }
+            } else if (!existing.equals(value)) {
+                throw new EsClientException("Mapping of " + type + " conflicts with other types at " + fieldPath);
+            }
+        }
+    }
+
+    /**
+     * Merge element of array such as dynamic_templates, whose elements are objects with one named member.
+     */
+    private static void mergeElement(ArrayNode target, JsonNode element, String type, String path) {
+        for (JsonNode existing : target) {
+            if (existing.equals(element)) {
+                return;
+            }
+            if (existing.isObject() && element.isObject() && existing.size() == 1 && element.size() == 1
+                    && existing.fieldNames().next().equals(element.fieldNames().next())) {
+                throw new EsClientException("Mapping of " + type + " conflicts with other types at " + path + "/"
+                        + element.fieldNames().next());
+            }
+        }
+        target.add(element.deepCopy());
+    }
+
+    /**
+     * Create definition of filtered alias of the type.
+     * @param type type name
+     * @return alias definition
+     */
+    static Map<String, Object> alias(String type) {
+        Map<String, Object> alias = new LinkedHashMap<String, Object>();
+        alias.put("filter", Map.of("term", Map.of(TYPE_FIELD, type)));
+        alias.put("is_write_index", true);
+        return alias;
+    }
+
+    /**
+     * Create definitions of filtered aliases of all types.
+     * @param index index name
+     * @param types type names
+     * @return alias definitions by alias name
+     */
+    static Map<String, Object> aliases(String index, Collection<String> types) {
+        Map<String, Object> aliases = new LinkedHashMap<String, Object>();
+        for (String type : new TreeSet<String>(types)) {
+            aliases.put(InternalEsClient.makeIndex(index, type), alias(type));
+        }
+        return aliases;
+    }
+
+    /**
+     * Migrate per-type indices into consolidated layout online.
+     * <ol>
+     * <li>register index templates and create consolidated index (if it does not exist)</li>
+     * <li>copy documents of per-type indices with their versions</li>
+     * <li>block writes to per-type indices and copy documents updated meanwhile</li>
+     * <li>delete documents which were deleted from per-type indices meanwhile</li>
+     * <li>replace per-type indices with filtered aliases atomically</li>
+     * </ol>
+     * Writes are rejected only during the last three steps. Ids of documents must be unique across the types,
+     * since they share one index; the migration fails before copying otherwise. Ids of all documents are held in
+     * memory while they are compared. The write block is removed if the migration fails.
+     * @param client client
+     * @param category category of the index
+     * @param index index name
+     * @param mappings mappings by type
+     * @param settings index settings
+     * @return future completed after migration
+     */
+    static CompletableFuture<Void> migrate(InternalEsClient client, String category, String index,
+            Map<String, ObjectNode> mappings, ObjectNode settings) {
+        String consolidated = InternalEsClient.makeConsolidatedIndex(index);
+        Map<String, String> typeByIndex = new LinkedHashMap<String, String>();
+        for (String type : mappings.keySet()) {
+            typeByIndex.put(InternalEsClient.makeIndex(index, type), type);
+        }
+        return client.getIndexTemplates().register(category, index, mappings, settings)
+                .thenCompose(r -> client.asyncGetPhysicalIndices(index)).thenCompose(indices -> {
+            List<String> perType = new ArrayList<String>(indices);
+            perType.remove(consolidated);
+            List<String> unknown = new ArrayList<String>(perType);
+            unknown.removeIf(physical -> typeByIndex.containsKey(IndexResizer.baseName(physical)));
+            if (!unknown.isEmpty()) {
+                throw new EsClientException("Indices of unknown types cannot be migrated: " + unknown);
+            }
+            if (indices.contains(consolidated) && perType.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (perType.isEmpty()) {
+                return client.asyncCreateConsolidatedIndex(index, mappings.keySet()).thenApply(r -> null);
+            }
+            CompletableFuture<?> created = CompletableFuture.completedFuture(null);
+            if (!indices.contains(consolidated)) {
+                created = client.asyncCreateConsolidatedIndex(index, null);
+            }
+            List<String> migratedTypes = new ArrayList<String>();
+            for (String physical : perType) {
+                migratedTypes.add(typeByIndex.get(IndexResizer.baseName(physical)));
+            }
+            return created
+                    .thenCompose(r -> copy(client, perType, consolidated))
+                    .thenCompose(r -> client.asyncSetWriteBlock(perType, true))
+                    .thenCompose(r -> copy(client, perType, consolidated))
+                    .thenCompose(ids -> removeDeleted(client, ids, consolidated, migratedTypes))
+                    .thenCompose(r -> client.asyncUpdateAliases(swapActions(consolidated, perType, typeByIndex)))
+                    .whenComplete((r, e) -> {
+                        if (e != null) {
+                            unblock(client, perType);
+                        }
+                    })
+                    .thenApply(r -> (Void) null);
+        });
+    }
+
+    /**
+     * Copy documents of the sources after checking that their ids are unique.
+     * @return ids of the documents in the sources at the time of copy
+     */
+    private static CompletableFuture<Set<String>> copy(InternalEsClient client, List<String> sources, String dest) {
+        // documents written without refresh are not visible to reindex
+        return client.asyncRefreshPhysicalIndices(sources)
+                .thenCompose(r -> collectIds(client, sources))
+                .thenCompose(ids -> DeleteByQueryTask.run(client, () -> client.asyncStartReindex(sources, dest), null,
+                        DeleteByQueryTask.POLL_INTERVAL_MILLIS)
+                .thenApply(status -> {
+                    if (!status.getFailures().isEmpty()) {
+                        throw new EsClientException("Reindex into " + dest + " failed: " + status.getFailures());
+                    }
+                    return ids;
+                }));
+    }
+
+    /**
+     * Collect ids of documents in the sources.
+     * @throws EsClientException an id is used in more than one source
+     */
+    static CompletableFuture<Set<String>> collectIds(InternalEsClient client, List<String> sources) {
+        Map<String, String> sourceById = new HashMap<String, String>();
+        return scanIds(client, sources, null, hits -> {
+            for (JsonNode hit : hits) {
+                String id = hit.path("_id").asText();
+                String source = canonicalName(sources, hit.path("_index").asText());
+                String other = sourceById.putIfAbsent(id, source);
+                if (other != null && !other.equals(source)) {
+                    throw new EsClientException("Document " + id + " exists in both " + other + " and " + source
+                            + ", so they cannot be consolidated");
+                }
+            }
+            return CompletableFuture.completedFuture(null);
+        }).thenApply(r -> sourceById.keySet());
+    }
+
+    /**
+     * Return the name held by the list to share one instance among the ids.
+     */
+    private static String canonicalName(List<String> names, String name) {
+        int i = names.indexOf(name);
+        if (i < 0) {
+            return name;
+        }
+        return names.get(i);
+    }
+
+    /**
+     * Delete documents of the types from the consolidated index unless their ids are given.
+     */
+    private static CompletableFuture<Void> removeDeleted(InternalEsClient client, Set<String> ids,
+            String consolidated, List<String> types) {
+        return scanIds(client, List.of(consolidated), Map.of("terms", Map.of(TYPE_FIELD, types)), hits -> {
+            Map<String, String> routingById = new LinkedHashMap<String, String>();
+            for (JsonNode hit : hits) {
+                String id = hit.path("_id").asText();
+                if (!ids.contains(id)) {
+                    routingById.put(id, hit.path("_routing").asText(null));
+                }
+            }
+            if (routingById.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            log.info("Deleting " + routingById.size() + " documents deleted during migration from " + consolidated);
+            return client.asyncDeleteDocuments(consolidated, routingById);
+        });
+    }
+
+    /**
+     * Read ids (and routings) of documents page by page.
+     * @param consumer consumer of hits of a page
+     */
+    private static CompletableFuture<Void> scanIds(InternalEsClient client, List<String> indices,
+            Map<String, Object> query, Function<JsonNode, CompletableFuture<?>> consumer) {
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put("_source", false);
+        body.put("size", ID_PAGE_SIZE);
+        body.put("sort", List.of("_doc"));
+        if (query != null) {
+            body.put("query", query);
+        }
+        return client.asyncStartScroll(indices, body, ID_SCROLL_KEEP_ALIVE)
+                .thenCompose(page -> scanPages(client, page, consumer));
+    }
+
+    private static CompletableFuture<Void> scanPages(InternalEsClient client, JsonNode page,
+            Function<JsonNode, CompletableFuture<?>> consumer) {
+        String scrollId = page.path("_scroll_id").asText(null);
+        JsonNode hits = page.path("hits").path("hits");
+        if (hits.size() == 0 || scrollId == null) {
+            if (scrollId != null) {
+                clearScroll(client, scrollId);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.completedFuture(hits)
+                .thenCompose(h -> consumer.apply(h).thenApply(r -> (Void) null))
+                .thenCompose(r -> client.asyncContinueScroll(scrollId, ID_SCROLL_KEEP_ALIVE))
+                .whenComplete((next, e) -> {
+                    if (e != null) {
+                        clearScroll(client, scrollId);
+                    }
+                })
+                .thenCompose(next -> scanPages(client, next, consumer));
+    }
+
+    private static void clearScroll(InternalEsClient client, String scrollId) {
+        client.asyncClearScroll(scrollId).whenComplete((r, e) -> {
+            if (e != null) {
+                log.info("Failed to clear scroll", e);
+            }
+        });
+    }
+
+    /**
+     * Create actions which replace per-type indices with aliases. Aliases are added for all types.
+     */
+    static List<Map<String, Object>> swapActions(String consolidated, List<String> perType,
+            Map<String, String> typeByIndex) {
+        List<Map<String, Object>> actions = new ArrayList<Map<String, Object>>();
+        for (String physical : perType) {
+            actions.add(Map.of("remove_index", Map.of("index", physical)));
+        }
+        for (Map.Entry<String, String> entry : typeByIndex.entrySet()) {
+            Map<String, Object> add = new LinkedHashMap<String, Object>();
+            add.put("index", consolidated);
+            add.put("alias", entry.getKey());
+            add.putAll(alias(entry.getValue()));
+            actions.add(Map.of("add", add));
+        }
+        return actions;
+    }
+
+    private static void unblock(InternalEsClient client, List<String> perType) {
+        client.asyncSetWriteBlock(perType, false).whenComplete((r, e) -> {
+            if (e != null) {
+                log.warn("Failed to remove write block of " + perType, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.personium.common.es.response.EsClientException;
+import io.personium.common.es.response.PersoniumDeleteByQueryStatus;
+import io.personium.common.es.response.impl.PersoniumDeleteByQueryStatusImpl;
+
+/**
+ * Delete-by-query which runs as a sliced background task of Elasticsearch.
+ * The task is polled on the scheduler of the client, so no thread waits for the deletion.
+ */
+final class DeleteByQueryTask {
+    static Logger log = LoggerFactory.getLogger(DeleteByQueryTask.class);
+
+    /** Default interval of polling in milliseconds. */
+    static final long DEFAULT_POLL_INTERVAL_MILLIS = 1000;
+
+    /** Interval of polling in milliseconds. */
+    static final long POLL_INTERVAL_MILLIS = Long.getLong("io.personium.es.deleteByQuery.pollIntervalMillis",
+            DEFAULT_POLL_INTERVAL_MILLIS);
+
+    /** Retry policy of polling, which is retried only on errors classified as retryable. */
+    static final RetryPolicy POLL_RETRY_POLICY = new RetryPolicy(8, 100, 10000);
+
+    private final InternalEsClient client;
+    private volatile String taskId;
+    private final Consumer<? super PersoniumDeleteByQueryStatus> listener;
+    private final long pollIntervalMillis;
+    private final CompletableFuture<PersoniumDeleteByQueryStatus> result =
+            new CompletableFuture<PersoniumDeleteByQueryStatus>();
+
+    private DeleteByQueryTask(InternalEsClient client,
+            Consumer<? super PersoniumDeleteByQueryStatus> listener, long pollIntervalMillis) {
+        this.client = client;
+        this.listener = listener;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    /**
+     * Start delete-by-query task and wait for its completion asynchronously.
+     * Cancelling the returned future cancels the task.
+     * @param client client
+     * @param index index name
+     * @param routingId routingId (nullable to process every shard)
+     * @param query query
+     * @param listener listener notified of every polled status (nullable)
+     * @return future of final status
+     */
+    static CompletableFuture<PersoniumDeleteByQueryStatus> start(InternalEsClient client, String index,
+            String routingId, Map<String, Object> query, Consumer<? super PersoniumDeleteByQueryStatus> listener) {
+        return start(client, index, routingId, query, listener, POLL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Start delete-by-query task and wait for its completion asynchronously.
+     * @param client client
+     * @param index index name
+     * @param routingId routingId (nullable to process every shard)
+     * @param query query
+     * @param listener listener notified of every polled status (nullable)
+     * @param pollIntervalMillis interval of polling
+     * @return future of final status
+     */
+    static CompletableFuture<PersoniumDeleteByQueryStatus> start(InternalEsClient client, String index,
+            String routingId, Map<String, Object> query, Consumer<? super PersoniumDeleteByQueryStatus> listener,
+            long pollIntervalMillis) {
+        return run(client, () -> client.asyncStartDeleteByQuery(index, routingId, query, true), listener,
+                pollIntervalMillis);
+    }
+
+    /**
+     * Delete all documents of the cell asynchronously.
+     * Physical indices holding the cell are looked up on the routed shards first, and only those shards are
+     * processed by delete-by-query, instead of every shard of every type index.
+     * @param client client
+     * @param index index name
+     * @param routingId routingId of the documents
+     * @param cellId cell id stored in `c` field
+     * @param listener listener notified of every polled status (nullable)
+     * @param pollIntervalMillis interval of polling
+     * @return future of final status
+     */
+    static CompletableFuture<PersoniumDeleteByQueryStatus> purgeCell(InternalEsClient client, String index,
+            String routingId, String cellId, Consumer<? super PersoniumDeleteByQueryStatus> listener,
+            long pollIntervalMillis) {
+        return run(client, () -> client.asyncFindCellIndices(index, routingId, cellId).thenCompose(indices -> {
+            if (indices.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return client.asyncStartCellPurge(indices, routingId, cellId, true);
+        }), listener, pollIntervalMillis);
+    }
+
+    /**
+     * Run task started by the starter and wait for its completion asynchronously.
+     * Reindex task can also be tracked because its status has the same shape as delete-by-query.
+     * @param client client
+     * @param starter starter of the task, which returns null task ID when there is nothing to do
+     * @param listener listener notified of every polled status (nullable)
+     * @param pollIntervalMillis interval of polling
+     * @return future of final status
+     */
+    static CompletableFuture<PersoniumDeleteByQueryStatus> run(InternalEsClient client,
+            Supplier<CompletableFuture<String>> starter, Consumer<? super PersoniumDeleteByQueryStatus> listener,
+            long pollIntervalMillis) {
+        var task = new DeleteByQueryTask(client, listener, pollIntervalMillis);
+        task.result.whenComplete((status, e) -> {
+            if (task.result.isCancelled() && task.taskId != null) {
+                task.cancelTask();
+            }
+        });
+        starter.get().whenComplete((taskId, e) -> {
+            if (e != null) {
+                task.result.completeExceptionally(EsFutures.unwrap(e));
+                return;
+            }
+            if (taskId == null) {
+                task.result.complete(PersoniumDeleteByQueryStatusImpl.empty());
+                return;
+            }
+            task.taskId = taskId;
+            if (task.result.isCancelled()) {
+                task.cancelTask();
+                return;
+            }
+            task.schedule();
+        });
+        return task.result;
+    }
+
+    /**
+     * Check that all documents matched by the query have been deleted.
+     * Counts of the task are used instead of searching the documents again.
+     * @param status final status
+     * @return the status
+     * @throws EsClientException.EsDeleteByQueryException some documents were not deleted
+     */
+    static PersoniumDeleteByQueryStatus verify(PersoniumDeleteByQueryStatus status) {
+        long failedCount = Math.max(status.getTotal() - status.getDeleted(), status.getFailures().size());
+        if (failedCount > 0) {
+            throw new EsClientException.EsDeleteByQueryException(failedCount);
+        }
+        return status;
+    }
+
+    private void cancelTask() {
+        client.asyncCancelTask(taskId).whenComplete((response, e) -> {
+            if (e != null) {
+                log.info("Failed to cancel delete by query task: " + taskId, e);
+            }
+        });
+    }
+
+    private void schedule() {
+        try {
+            client.getScheduler().schedule(this::poll, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void poll() {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<JsonNode> response;
+        try {
+            response = client.getRetryer().execute(POLL_RETRY_POLICY, true, () -> client.asyncGetTask(taskId));
+        } catch (IOException | RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((status, e) -> {
+            if (e != null) {
+                result.completeExceptionally(EsFutures.unwrap(e));
+                return;
+            }
+            try {
+                onStatus(status);
+            } catch (RuntimeException re) {
+                result.completeExceptionally(re);
+            }
+        });
+    }
+
+    private void onStatus(JsonNode response) {
+        JsonNode error = response.path("error");
+        if (error.isObject()) {
+            removeResult();
+            throw new EsClientException("Delete by query task failed: " + error.path("type").asText() + ": "
+                    + error.path("reason").asText());
+        }
+        var status = PersoniumDeleteByQueryStatusImpl.getInstance(taskId, response);
+        notifyListener(status);
+        if (status.isCompleted()) {
+            removeResult();
+            result.complete(status);
+        } else {
+            schedule();
+        }
+    }
+
+    private void notifyListener(PersoniumDeleteByQueryStatus status) {
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.accept(status);
+        } catch (RuntimeException e) {
+            log.info("Progress listener of delete by query failed.", e);
+        }
+    }
+
+    private void removeResult() {
+        client.asyncDeleteTaskResult(taskId).whenComplete((response, e) -> {
+            if (e != null) {
+                log.info("Failed to remove result of task: " + taskId, e);
+            }
+        });
+    }
+}
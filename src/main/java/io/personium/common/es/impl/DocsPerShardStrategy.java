@@ -0,0 +1,92 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.personium.common.es.EsShardingStrategy;
+import io.personium.common.es.EsSizingHints;
+
+/**
+ * Sharding strategy which gives each physical index enough shards for the expected documents.
+ * Shard count is `ceil(expectedDocs / docsPerShard)` bounded by `[1, maxShards]`, so small cells get one shard.
+ * Replica count is chosen by the tier of the cell. Indices without expected document count use the defaults.
+ */
+public final class DocsPerShardStrategy implements EsShardingStrategy {
+
+    /** Default documents per shard. */
+    static final long DEFAULT_DOCS_PER_SHARD = 20_000_000L;
+
+    /** Default upper bound of shards, which is the shard count before this strategy. */
+    static final int DEFAULT_MAX_SHARDS = 10;
+
+    private final long docsPerShard;
+    private final int maxShards;
+    private final Map<String, Integer> replicasByTier;
+
+    /**
+     * Constructor.
+     * @param docsPerShard documents per shard
+     * @param maxShards upper bound of shards
+     * @param replicasByTier replica count by tier (nullable)
+     */
+    public DocsPerShardStrategy(long docsPerShard, int maxShards, Map<String, Integer> replicasByTier) {
+        if (docsPerShard <= 0 || maxShards <= 0) {
+            throw new IllegalArgumentException("docsPerShard and maxShards must be positive");
+        }
+        this.docsPerShard = docsPerShard;
+        this.maxShards = maxShards;
+        this.replicasByTier = new LinkedHashMap<String, Integer>();
+        if (replicasByTier != null) {
+            this.replicasByTier.putAll(replicasByTier);
+        }
+    }
+
+    /**
+     * Create strategy configured by system properties.
+     * <ul>
+     * <li>io.personium.es.index.docsPerShard (default 20000000)</li>
+     * <li>io.personium.es.index.maxShards (default io.personium.es.index.numberOfShards, or 10)</li>
+     * </ul>
+     * @return strategy
+     */
+    public static DocsPerShardStrategy getInstance() {
+        long docsPerShard = Long.getLong("io.personium.es.index.docsPerShard", DEFAULT_DOCS_PER_SHARD);
+        int maxShards = Integer.getInteger("io.personium.es.index.maxShards",
+                Integer.getInteger("io.personium.es.index.numberOfShards", DEFAULT_MAX_SHARDS));
+        return new DocsPerShardStrategy(docsPerShard, maxShards, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Object> settings(String category, String type, EsSizingHints hints) {
+        Map<String, Object> settings = new LinkedHashMap<String, Object>();
+        long expectedDocs = hints.getExpectedDocs(type);
+        if (expectedDocs != EsSizingHints.UNKNOWN) {
+            long shards = (expectedDocs + docsPerShard - 1) / docsPerShard;
+            settings.put("number_of_shards", (int) Math.max(1, Math.min(shards, maxShards)));
+        }
+        if (hints.getTier() != null && replicasByTier.containsKey(hints.getTier())) {
+            settings.put("number_of_replicas", replicasByTier.get(hints.getTier()));
+        }
+        return settings;
+    }
+}
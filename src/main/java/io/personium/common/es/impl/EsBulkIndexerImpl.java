@@ -0,0 +1,487 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import io.personium.common.es.EsBulkIndexer;
+import io.personium.common.es.EsBulkRequest;
+import io.personium.common.es.EsExecutionMode;
+import io.personium.common.es.EsRefreshPolicy;
+import io.personium.common.es.response.PersoniumBulkItemResponse;
+import io.personium.common.es.response.impl.PersoniumBulkItemResponseImpl;
+
+/**
+ * Implementation of EsBulkIndexer.
+ * The number of concurrent bulk requests is adapted to the load of Elasticsearch: it is halved when requests are
+ * rejected and increased one by one while requests succeed.
+ */
+public class EsBulkIndexerImpl implements EsBulkIndexer {
+    static Logger log = LoggerFactory.getLogger(EsBulkIndexerImpl.class);
+
+    /** Default max number of requests in a bulk. */
+    public static final int DEFAULT_MAX_ACTIONS = 1000;
+
+    /** Default max size of documents in a bulk. */
+    public static final long DEFAULT_MAX_BYTES = 5L * 1024 * 1024;
+
+    /** Default interval of time-based flush. */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    /** Default max number of bulk requests in flight. */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 2;
+
+    /** Retry policy of items rejected by Elasticsearch. */
+    static final RetryPolicy ITEM_RETRY_POLICY = new RetryPolicy(8, 100, 10000);
+
+    /** Estimated size of action line and JSON syntax of an item. */
+    private static final long ITEM_OVERHEAD_BYTES = 64;
+
+    /** Estimated size of quotes and colon around a key. */
+    private static final long KEY_OVERHEAD_BYTES = 4;
+
+    /** Estimated size of scalar values other than string. */
+    private static final long SCALAR_BYTES = 8;
+
+    /**
+     * Sender of bulk request.
+     */
+    @FunctionalInterface
+    interface BulkSender {
+        /**
+         * Send bulk request.
+         * @param bulkMap バルクドキュメント (key: routingId)
+         * @param refreshPolicy refresh policy
+         * @return future of response whose items are in the order of bulkMap
+         */
+        CompletableFuture<BulkResponse> send(Map<String, List<EsBulkRequest>> bulkMap, EsRefreshPolicy refreshPolicy);
+    }
+
+    /**
+     * Request waiting for response.
+     */
+    static final class Item {
+        private final String routingId;
+        private final EsBulkRequest request;
+        private final long bytes;
+        private final CompletableFuture<PersoniumBulkItemResponse> future = new CompletableFuture<>();
+        private int retries;
+
+        Item(String routingId, EsBulkRequest request) {
+            this.routingId = routingId;
+            this.request = request;
+            this.bytes = estimateSize(request);
+        }
+    }
+
+    /**
+     * Semaphore whose number of permits can be adjusted.
+     */
+    private static final class AdaptivePermits extends Semaphore {
+        private static final long serialVersionUID = 1L;
+        private final int max;
+        private int limit;
+
+        AdaptivePermits(int max) {
+            super(max);
+            this.max = max;
+            this.limit = max;
+        }
+
+        synchronized void decrease() {
+            int reduction = limit / 2;
+            if (reduction > 0) {
+                limit -= reduction;
+                reducePermits(reduction);
+            }
+        }
+
+        synchronized void increase() {
+            if (limit < max) {
+                limit++;
+                release();
+            }
+        }
+
+        synchronized int getLimit() {
+            return limit;
+        }
+    }
+
+    private final String indexName;
+    private final BulkSender sender;
+    private final int maxActions;
+    private final long maxBytes;
+    private final AdaptivePermits permits;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService callbackExecutor = EsExecutors.newExecutor(EsExecutionMode.PLATFORM);
+    private final boolean timedFlush;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Set<CompletableFuture<PersoniumBulkItemResponse>> pending = ConcurrentHashMap.newKeySet();
+    private List<Item> buffer = new ArrayList<>();
+    private long bufferBytes;
+    private boolean closed;
+    private volatile EsRefreshPolicy refreshPolicy = EsRefreshPolicy.IMMEDIATE;
+
+    /**
+     * Constructor.
+     * @param indexName インデックス名
+     * @param client client
+     * @param maxActions max number of requests in a bulk
+     * @param maxBytes max size of documents in a bulk
+     * @param flushIntervalMillis interval of time-based flush
+     * @param maxConcurrentRequests max number of bulk requests in flight
+     */
+    public EsBulkIndexerImpl(String indexName,
+            InternalEsClient client,
+            int maxActions,
+            long maxBytes,
+            long flushIntervalMillis,
+            int maxConcurrentRequests) {
+        this(indexName, (bulkMap, policy) -> client.asyncBulkRequest(indexName, bulkMap, policy),
+                maxActions, maxBytes, flushIntervalMillis, maxConcurrentRequests);
+    }
+
+    /**
+     * Constructor.
+     * @param indexName インデックス名
+     * @param sender sender of bulk request
+     * @param maxActions max number of requests in a bulk
+     * @param maxBytes max size of documents in a bulk
+     * @param flushIntervalMillis interval of time-based flush
+     * @param maxConcurrentRequests max number of bulk requests in flight
+     */
+    EsBulkIndexerImpl(String indexName,
+            BulkSender sender,
+            int maxActions,
+            long maxBytes,
+            long flushIntervalMillis,
+            int maxConcurrentRequests) {
+        this.indexName = indexName;
+        this.sender = sender;
+        this.maxActions = Math.max(1, maxActions);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.permits = new AdaptivePermits(Math.max(1, maxConcurrentRequests));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "personium-es-bulk");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timedFlush = flushIntervalMillis > 0;
+        if (timedFlush) {
+            this.scheduler.scheduleWithFixedDelay(this::flushBuffer, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getIndexName() {
+        return this.indexName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setRefreshPolicy(EsRefreshPolicy refreshPolicy) {
+        this.refreshPolicy = refreshPolicy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EsRefreshPolicy getRefreshPolicy() {
+        return this.refreshPolicy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<PersoniumBulkItemResponse> add(String routingId, EsBulkRequest request) {
+        var item = new Item(routingId, request);
+        List<Item> batch = null;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Bulk indexer is already closed.");
+            }
+            pending.add(item.future);
+            buffer.add(item);
+            bufferBytes += item.bytes;
+            if (buffer.size() >= maxActions || bufferBytes >= maxBytes) {
+                batch = takeBuffer();
+            }
+        } finally {
+            lock.unlock();
+        }
+        item.future.whenComplete((response, e) -> pending.remove(item.future));
+        if (batch != null) {
+            send(batch);
+        }
+        return item.future;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<Void> flush() {
+        CompletableFuture<?>[] waiting = pending.toArray(new CompletableFuture<?>[0]);
+        flushBuffer();
+        return CompletableFuture.allOf(waiting).handle((r, e) -> null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        // retried items are sent again until all requests are completed
+        flush().toCompletableFuture().join();
+        scheduler.shutdownNow();
+        callbackExecutor.shutdown();
+    }
+
+    /**
+     * Get current limit of bulk requests in flight.
+     * @return limit
+     */
+    int getConcurrencyLimit() {
+        return permits.getLimit();
+    }
+
+    private List<Item> takeBuffer() {
+        List<Item> batch = buffer;
+        buffer = new ArrayList<>();
+        bufferBytes = 0;
+        return batch;
+    }
+
+    private void flushBuffer() {
+        List<Item> batch;
+        lock.lock();
+        try {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            batch = takeBuffer();
+        } finally {
+            lock.unlock();
+        }
+        send(batch);
+    }
+
+    /**
+     * Send bulk request. It blocks while the number of bulk requests in flight reaches the limit.
+     * Responses are handled on the callback executor instead of the I/O thread of the client, since callbacks of
+     * item futures may add requests and block here until another response releases a permit.
+     * @param batch items
+     */
+    private void send(List<Item> batch) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(batch, e);
+            return;
+        }
+        Map<String, List<EsBulkRequest>> bulkMap = new LinkedHashMap<>();
+        Map<String, List<Item>> itemMap = new LinkedHashMap<>();
+        for (Item item : batch) {
+            bulkMap.computeIfAbsent(item.routingId, k -> new ArrayList<>()).add(item.request);
+            itemMap.computeIfAbsent(item.routingId, k -> new ArrayList<>()).add(item);
+        }
+        List<Item> ordered = new ArrayList<>(batch.size());
+        itemMap.values().forEach(ordered::addAll);
+
+        CompletableFuture<BulkResponse> response;
+        try {
+            response = sender.send(bulkMap, this.refreshPolicy);
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenCompleteAsync((result, e) -> {
+            permits.release();
+            if (e == null) {
+                onResponse(ordered, result);
+            } else {
+                onFailure(ordered, e);
+            }
+        }, callbackExecutor);
+    }
+
+    private void onResponse(List<Item> ordered, BulkResponse result) {
+        List<Item> rejected = new ArrayList<>();
+        var responseItems = result.items();
+        for (int i = 0; i < ordered.size(); i++) {
+            Item item = ordered.get(i);
+            if (i >= responseItems.size()) {
+                item.future.completeExceptionally(new IllegalStateException("No response of bulk item."));
+                continue;
+            }
+            var responseItem = responseItems.get(i);
+            if (responseItem.error() != null && RetryClassifier.isRetryableStatus(responseItem.status())
+                    && item.retries < ITEM_RETRY_POLICY.getMaxRetries()) {
+                rejected.add(item);
+            } else {
+                item.future.complete(PersoniumBulkItemResponseImpl.getInstance(responseItem));
+            }
+        }
+        if (rejected.isEmpty()) {
+            permits.increase();
+        } else {
+            permits.decrease();
+            retry(rejected);
+        }
+    }
+
+    private void onFailure(List<Item> ordered, Throwable e) {
+        if (!RetryClassifier.isRetryable(e, false)) {
+            fail(ordered, EsFutures.convertException(e));
+            return;
+        }
+        permits.decrease();
+        List<Item> retryable = new ArrayList<>();
+        for (Item item : ordered) {
+            if (item.retries < ITEM_RETRY_POLICY.getMaxRetries()) {
+                retryable.add(item);
+            } else {
+                item.future.completeExceptionally(EsFutures.convertException(e));
+            }
+        }
+        if (!retryable.isEmpty()) {
+            retry(retryable);
+        }
+    }
+
+    /**
+     * Put rejected items back into the buffer after backoff.
+     * Without time-based flush they are sent at once, since nothing else would flush them.
+     * @param items rejected items
+     */
+    private void retry(List<Item> items) {
+        int attempt = 0;
+        for (Item item : items) {
+            item.retries++;
+            attempt = Math.max(attempt, item.retries);
+        }
+        long delay = ITEM_RETRY_POLICY.delayMillis(attempt);
+        log.info("Retrying " + items.size() + " bulk items to " + indexName + " after " + delay + "ms.");
+        try {
+            scheduler.schedule(() -> requeue(items), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            fail(items, e);
+        }
+    }
+
+    private void requeue(List<Item> items) {
+        List<Item> batch = null;
+        lock.lock();
+        try {
+            for (Item item : items) {
+                buffer.add(item);
+                bufferBytes += item.bytes;
+            }
+            if (closed || !timedFlush || buffer.size() >= maxActions || bufferBytes >= maxBytes) {
+                batch = takeBuffer();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    private static void fail(Collection<Item> items, Throwable e) {
+        for (Item item : items) {
+            item.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Estimate size of request without serialization.
+     * @param request request
+     * @return estimated size in bytes
+     */
+    static long estimateSize(EsBulkRequest request) {
+        if (EsBulkRequest.BulkRequestType.DELETE == request.getRequestType()) {
+            return ITEM_OVERHEAD_BYTES;
+        }
+        return ITEM_OVERHEAD_BYTES + estimateValueSize(request.getSource());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long estimateValueSize(Object value) {
+        if (value instanceof Map) {
+            long size = 2;
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                size += String.valueOf(entry.getKey()).length() + KEY_OVERHEAD_BYTES;
+                size += estimateValueSize(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof Collection) {
+            long size = 2;
+            for (Object element : (Collection<Object>) value) {
+                size += 1 + estimateValueSize(element);
+            }
+            return size;
+        } else if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() + 2;
+        }
+        return SCALAR_BYTES;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.personium.common.es.EsExecutionMode;
+
+/**
+ * Factory of executors which run blocking calls of the synchronous API.
+ * Virtual threads are looked up at runtime because this library is built for Java 17.
+ */
+public class EsExecutors {
+    static Logger log = LoggerFactory.getLogger(EsExecutors.class);
+
+    /** Executors.newVirtualThreadPerTaskExecutor (null if not available). */
+    private static final MethodHandle NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutorFactory();
+
+    private EsExecutors() {
+    }
+
+    private static MethodHandle findVirtualThreadExecutorFactory() {
+        try {
+            var factory = MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+            // It exists as a preview API in some versions, and throws exception unless preview is enabled.
+            ((ExecutorService) factory.invoke()).shutdown();
+            return factory;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check whether the runtime supports virtual threads.
+     * @return true if supported
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Get the mode which is actually used for the requested mode.
+     * @param mode requested mode
+     * @return effective mode
+     */
+    public static EsExecutionMode effectiveMode(EsExecutionMode mode) {
+        if (mode == EsExecutionMode.VIRTUAL && isVirtualThreadSupported()) {
+            return EsExecutionMode.VIRTUAL;
+        }
+        return EsExecutionMode.PLATFORM;
+    }
+
+    /**
+     * Parse execution mode ignoring case. PLATFORM is used for unknown values.
+     * @param value name of the mode (nullable)
+     * @return execution mode
+     */
+    public static EsExecutionMode parseMode(String value) {
+        if (value == null) {
+            return EsExecutionMode.PLATFORM;
+        }
+        for (EsExecutionMode mode : EsExecutionMode.values()) {
+            if (mode.name().equalsIgnoreCase(value.trim())) {
+                return mode;
+            }
+        }
+        log.warn("Unknown execution mode: " + value + ". Platform threads are used instead.");
+        return EsExecutionMode.PLATFORM;
+    }
+
+    /**
+     * Create executor for the mode.
+     * @param mode execution mode
+     * @return executor
+     */
+    public static ExecutorService newExecutor(EsExecutionMode mode) {
+        if (effectiveMode(mode) == EsExecutionMode.VIRTUAL) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke();
+            } catch (Throwable e) {
+                log.info("Virtual threads are not available. Platform threads are used instead.", e);
+            }
+        }
+        var count = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            var thread = new Thread(r, "personium-es-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import io.personium.common.es.response.EsClientException;
+
+/**
+ * Utilities for futures returned from Elasticsearch async client.
+ */
+final class EsFutures {
+
+    private EsFutures() {
+    }
+
+    /**
+     * Convert response of future. Exception is converted by {@link #convertException(Throwable)}.
+     * @param <T> type of ES response
+     * @param <R> type of converted response
+     * @param future future of ES response
+     * @param converter converter of response
+     * @return future of converted response
+     */
+    static <T, R> CompletableFuture<R> convert(CompletableFuture<T> future,
+            Function<? super T, ? extends R> converter) {
+        return future.handle((response, e) -> {
+            if (e != null) {
+                throw convertException(e);
+            }
+            return converter.apply(response);
+        });
+    }
+
+    /**
+     * Get the cause wrapped by CompletionException or ExecutionException.
+     * @param e exception
+     * @return cause
+     */
+    static Throwable unwrap(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * Convert exception in the same way as the synchronous API.
+     * @param e exception
+     * @return converted exception
+     */
+    static RuntimeException convertException(Throwable e) {
+        Throwable cause = unwrap(e);
+        if (cause instanceof ElasticsearchException) {
+            return EsClientException.convertException((ElasticsearchException) cause);
+        }
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new RuntimeException(cause);
+    }
+
+    /**
+     * Create future completed exceptionally with converted exception.
+     * @param <T> type of response
+     * @param e exception
+     * @return failed future
+     */
+    static <T> CompletableFuture<T> failed(Throwable e) {
+        return CompletableFuture.failedFuture(convertException(e));
+    }
+}
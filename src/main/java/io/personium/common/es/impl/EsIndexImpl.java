@@ -18,25 +18,37 @@
 package io.personium.common.es.impl;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import co.elastic.clients.elasticsearch._types.ElasticsearchException;
-import co.elastic.clients.elasticsearch._types.Refresh;
 import io.personium.common.es.EsBulkRequest;
+import io.personium.common.es.EsCursor;
 import io.personium.common.es.EsIndex;
+import io.personium.common.es.EsIndexLayout;
 import io.personium.common.es.EsMappingConfig;
+import io.personium.common.es.EsRefreshPolicy;
+import io.personium.common.es.EsShardingStrategy;
+import io.personium.common.es.EsSizingHints;
 import io.personium.common.es.response.EsClientException;
 import io.personium.common.es.response.PersoniumBulkResponse;
+import io.personium.common.es.response.PersoniumDeleteByQueryStatus;
 import io.personium.common.es.response.PersoniumMultiSearchResponse;
+import io.personium.common.es.response.PersoniumRefreshResponse;
+import io.personium.common.es.response.PersoniumSearchHitStream;
+import io.personium.common.es.response.PersoniumSearchPage;
 import io.personium.common.es.response.PersoniumSearchResponse;
 import io.personium.common.es.response.impl.PersoniumBulkResponseImpl;
 import io.personium.common.es.response.impl.PersoniumMultiSearchResponseImpl;
+import io.personium.common.es.response.impl.PersoniumRefreshResponseImpl;
+import io.personium.common.es.response.impl.PersoniumSearchHitStreamImpl;
 import io.personium.common.es.response.impl.PersoniumSearchResponseImpl;
+import io.personium.common.es.util.EsJson;
 
 /**
  * Class for index operations.
@@ -45,6 +57,13 @@ public class EsIndexImpl implements EsIndex {
 
     private InternalEsClient esClient;
     private EsMappingConfig mappingConfig;
+    private EsRefreshPolicy refreshPolicy = EsRefreshPolicy.IMMEDIATE;
+    /** Static index settings, which are read once. */
+    private static final ObjectNode INDEX_SETTINGS = readJsonResource("es/indexSettings.json");
+
+    private EsIndexLayout layout = EsIndexLayout.PER_TYPE;
+    private EsShardingStrategy shardingStrategy;
+    private RetryPolicy retryPolicy;
 
     String indexName;
     String category;
@@ -68,6 +87,7 @@ public class EsIndexImpl implements EsIndex {
         this.category = category;
         this.esClient = client;
         this.mappingConfig = mappingConfig;
+        this.retryPolicy = RetryPolicy.of(times, interval);
     }
 
     /**
@@ -91,14 +111,91 @@ public class EsIndexImpl implements EsIndex {
      */
     @Override
     public void create() {
+        create(EsSizingHints.none());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void create(EsSizingHints hints) {
+        Map<String, ObjectNode> mapping = getMappings();
+        try {
+            // settings and mappings are given by the templates, so only the names are sent on create
+            esClient.getIndexTemplates().register(this.category, this.indexName, mapping, indexSettings()).get();
+            if (this.layout == EsIndexLayout.CONSOLIDATED) {
+                esClient.asyncCreateConsolidatedIndex(this.indexName, mapping.keySet(), shardSettings(null, hints))
+                        .get();
+            } else if (!esClient.isLazyIndexCreation()) {
+                // per-type indices are otherwise created on the first write
+                Map<String, Map<String, Object>> settingsByType = new LinkedHashMap<String, Map<String, Object>>();
+                for (String type : mapping.keySet()) {
+                    settingsByType.put(type, shardSettings(type, hints));
+                }
+                esClient.asyncCreateIndexFromTemplates(this.indexName, mapping.keySet(), settingsByType).get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            // Elasticsearch throws ElasticsearchException and TransportException in ExecutionException
+            Throwable cause = e.getCause();
+            if (cause instanceof ElasticsearchException) {
+                throw EsClientException.convertException((ElasticsearchException) cause);
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void migrateToConsolidatedLayout() {
+        try {
+            ConsolidatedLayout.migrate(esClient, this.category, this.indexName, getMappings(), indexSettings()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw EsFutures.convertException(e);
+        }
+    }
+
+    private Map<String, Object> shardSettings(String type, EsSizingHints hints) {
+        if (this.shardingStrategy == null) {
+            return Map.of();
+        }
+        var settings = this.shardingStrategy.settings(this.category, type, hints);
+        if (settings == null) {
+            return Map.of();
+        }
+        return settings;
+    }
+
+    @Override
+    public void resize(String type, int numberOfShards) {
+        try {
+            IndexResizer.resize(esClient, this.indexName, type, getMappings().keySet(), numberOfShards).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw EsFutures.convertException(e);
+        }
+    }
 
+    private Map<String, ObjectNode> getMappings() {
         Map<String, ObjectNode> mapping = mappingConfig.getMapping();
         if (mapping == null) {
             throw new EsClientException("NO MAPPINGS DEFINED for " + this.category + this.indexName);
         }
+        return mapping;
+    }
 
+    /**
+     * Get settings of new indices.
+     * @return index settings
+     */
+    static ObjectNode indexSettings() {
         // load index config
-        ObjectNode settingJson = readJsonResource("es/indexSettings.json");
+        ObjectNode settingJson = INDEX_SETTINGS.deepCopy();
         // static settings are moved to resource file except analyzer lang.
         // indexSettings.put("analysis.analyzer.default.type", "cjk");
         // dynamic
@@ -118,9 +215,24 @@ public class EsIndexImpl implements EsIndex {
         if (maxThreadCount != null) {
             settingJson.put("index.merge.scheduler.max_thread_count", maxThreadCount);
         }
+        return settingJson;
+    }
 
+    @Override
+    public void delete() {
         try {
-            esClient.asyncCreateIndex(this.indexName, mapping, settingJson).get();
+            esClient.syncDeleteIndex(this.indexName);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public PersoniumSearchResponse search(String routingId, Map<String, Object> query) {
+        try {
+            var response = esClient.getRetryer().execute(this.retryPolicy, true,
+                    () -> esClient.asyncSearch(this.indexName, routingId, query));
+            return PersoniumSearchResponseImpl.getInstance(response.get());
         } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
         } catch (ExecutionException e) {
@@ -134,20 +246,40 @@ public class EsIndexImpl implements EsIndex {
     }
 
     @Override
-    public void delete() {
+    public PersoniumSearchResponse search(String routingId, Map<String, Object> query, List<String> sourceFields,
+            List<String> docValueFields) {
+        return search(routingId, InternalEsClient.projectQuery(query, sourceFields, docValueFields));
+    }
+
+    @Override
+    public PersoniumSearchPage searchPage(String routingId, Map<String, Object> query, EsCursor cursor) {
         try {
-            esClient.syncDeleteIndex(this.indexName);
-        } catch (IOException e) {
+            return KeysetPager.searchPage(esClient, this.retryPolicy, this.indexName, null, routingId, query,
+                    cursor);
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            // Elasticsearch throws ElasticsearchException and TransportException in ExecutionException
+            Throwable cause = e.getCause();
+            if (cause instanceof ElasticsearchException) {
+                throw EsClientException.convertException((ElasticsearchException) cause);
+            }
             throw new RuntimeException(e);
         }
     }
 
     @Override
-    public PersoniumSearchResponse search(String routingId, Map<String, Object> query) {
+    public void closeCursor(EsCursor cursor) {
+        KeysetPager.close(esClient, cursor.getPitId());
+    }
+
+    @Override
+    public PersoniumSearchHitStream searchStream(String routingId, Map<String, Object> query) {
         try {
-            var response = esClient.asyncSearch(this.indexName, routingId, query);
-            return PersoniumSearchResponseImpl.getInstance(response.get());
-        } catch (InterruptedException e) {
+            var body = esClient.getRetryer().execute(this.retryPolicy, true,
+                    () -> esClient.asyncSearchStream(this.indexName, null, routingId, query)).get();
+            return PersoniumSearchHitStreamImpl.getInstance(body);
+        } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
         } catch (ExecutionException e) {
             // Elasticsearch throws ElasticsearchException and TransportException in ExecutionException
@@ -162,7 +294,8 @@ public class EsIndexImpl implements EsIndex {
     @Override
     public PersoniumMultiSearchResponse multiSearch(String routingId, List<Map<String, Object>> queryList) {
         try {
-            var response = esClient.asyncMultiSearch(this.indexName, routingId, queryList).get();
+            var response = esClient.getRetryer().execute(this.retryPolicy, true,
+                    () -> esClient.asyncMultiSearch(this.indexName, routingId, queryList)).get();
             return PersoniumMultiSearchResponseImpl.getInstance(response);
         } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
@@ -178,26 +311,44 @@ public class EsIndexImpl implements EsIndex {
 
     @Override
     public void deleteByQuery(String routingId, Map<String, Object> query) {
+        // Confirm that all items have been deleted by counts of the task itself
+        DeleteByQueryTask.verify(await(DeleteByQueryTask.start(esClient, this.indexName, routingId, query, null)));
+    }
+
+    @Override
+    public long purgeCell(String routingId, String cellId) {
+        var status = await(DeleteByQueryTask.purgeCell(esClient, this.indexName, routingId, cellId, null,
+                DeleteByQueryTask.POLL_INTERVAL_MILLIS));
+        return DeleteByQueryTask.verify(status).getDeleted();
+    }
+
+    private static PersoniumDeleteByQueryStatus await(CompletableFuture<PersoniumDeleteByQueryStatus> future) {
         try {
-            esClient.deleteByQuery(this.indexName, query, true);
-        } catch (IOException e) {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }
-
-        // Confirm that all items have been deleted
-        PersoniumSearchResponse searchRes = this.search(routingId, query);
-        long failedCount = searchRes.getHits().getAllPages();
-        if (failedCount != 0) {
-            throw new EsClientException.EsDeleteByQueryException(failedCount);
+        } catch (ExecutionException e) {
+            throw EsFutures.convertException(e);
         }
     }
 
     @Override
     public PersoniumBulkResponse bulkRequest(String routingId, List<EsBulkRequest> datas, boolean isWriteLog) {
         try {
-            var response = esClient.bulkRequest(this.indexName, routingId, datas, isWriteLog, Refresh.True);
+            // bulk request is retried only when whole request is rejected
+            var response = esClient.getRetryer().execute(this.retryPolicy, false,
+                    () -> esClient.asyncBulkRequest(this.indexName, routingId, datas, isWriteLog, this.refreshPolicy))
+                    .get();
             return PersoniumBulkResponseImpl.getInstance(response);
-        } catch (IOException e) {
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
             throw new RuntimeException(e);
         }
     }
@@ -219,15 +370,60 @@ public class EsIndexImpl implements EsIndex {
         this.updateSettings(this.indexName, settings);
     }
 
+    @Override
+    public void setRefreshPolicy(EsRefreshPolicy refreshPolicy) {
+        this.refreshPolicy = refreshPolicy;
+    }
+
+    @Override
+    public EsRefreshPolicy getRefreshPolicy() {
+        return this.refreshPolicy;
+    }
+
+    @Override
+    public void setLayout(EsIndexLayout layout) {
+        this.layout = layout;
+    }
+
+    @Override
+    public EsIndexLayout getLayout() {
+        return this.layout;
+    }
+
+    @Override
+    public void setShardingStrategy(EsShardingStrategy shardingStrategy) {
+        this.shardingStrategy = shardingStrategy;
+    }
+
+    @Override
+    public EsShardingStrategy getShardingStrategy() {
+        return this.shardingStrategy;
+    }
+
+    @Override
+    public PersoniumRefreshResponse refresh() {
+        try {
+            var response = esClient.asyncRefresh(this.indexName, null).get();
+            return PersoniumRefreshResponseImpl.getInstance(response);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ElasticsearchException) {
+                throw EsClientException.convertException((ElasticsearchException) cause);
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Read JSON resource and return as ObjectNode.
      * @param resPath resource path
      * @return ObjectNode
      */
     private static ObjectNode readJsonResource(final String resPath) {
-        ObjectMapper mapper = new ObjectMapper();
         try (var is = EsMappingFromResources.class.getClassLoader().getResourceAsStream(resPath)) {
-            return mapper.readTree(is).deepCopy();
+            return EsJson.readTree(is).deepCopy();
         } catch (IOException e) {
             throw new RuntimeException("exception while reading " + resPath, e);
         }
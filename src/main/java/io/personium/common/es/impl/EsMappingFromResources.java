@@ -20,18 +20,22 @@ package io.personium.common.es.impl;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import io.personium.common.es.EsMappingConfig;
+import io.personium.common.es.util.EsJson;
 
 /**
  * Abstract class for loading mapping from resources.
  */
 public abstract class EsMappingFromResources implements EsMappingConfig {
 
-    private HashMap<String, ObjectNode> mapping;
+    private volatile HashMap<String, ObjectNode> mapping;
+
+    /** Lock for loading. ReentrantLock does not pin the carrier of virtual thread while reading resources. */
+    private final ReentrantLock loadLock = new ReentrantLock();
 
     /**
      * Getter of map between type and resource path.
@@ -54,15 +58,22 @@ public abstract class EsMappingFromResources implements EsMappingConfig {
     /**
      * Read mapping data from resources.
      */
-    synchronized void loadMappingConfigs() {
-        if (mapping != null) {
-            return;
+    void loadMappingConfigs() {
+        loadLock.lock();
+        try {
+            if (mapping != null) {
+                return;
+            }
+            var loaded = new HashMap<String, ObjectNode>();
+            var mappingConfigs = getMapTypeResPath();
+            mappingConfigs.entrySet().forEach(entry -> {
+                loaded.put(entry.getKey(), readJsonResource(entry.getValue()));
+            });
+            // publish after all mappings are loaded.
+            mapping = loaded;
+        } finally {
+            loadLock.unlock();
         }
-        mapping = new HashMap<String, ObjectNode>();
-        var mappingConfigs = getMapTypeResPath();
-        mappingConfigs.entrySet().forEach(entry -> {
-            mapping.put(entry.getKey(), readJsonResource(entry.getValue()));
-        });
     }
 
     /**
@@ -71,9 +82,8 @@ public abstract class EsMappingFromResources implements EsMappingConfig {
      * @return ObjectNode
      */
     private static ObjectNode readJsonResource(final String resPath) {
-        ObjectMapper mapper = new ObjectMapper();
         try (var is = EsMappingFromResources.class.getClassLoader().getResourceAsStream(resPath)) {
-            return mapper.readTree(is).deepCopy();
+            return EsJson.readTree(is).deepCopy();
         } catch (IOException e) {
             throw new RuntimeException("exception while reading " + resPath, e);
         }
@@ -0,0 +1,119 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor of asynchronous operations with retry.
+ * Retries are scheduled without blocking any thread, and limited by both the policy of operation and the budget
+ * shared in the client.
+ */
+public class EsRetryer {
+    static Logger log = LoggerFactory.getLogger(EsRetryer.class);
+
+    /**
+     * Asynchronous operation to be retried.
+     * @param <T> type of response
+     */
+    @FunctionalInterface
+    public interface Operation<T> {
+        /**
+         * Call operation.
+         * @return future of response
+         * @throws IOException exception while calling API
+         */
+        CompletableFuture<T> call() throws IOException;
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final RetryBudget budget;
+
+    /**
+     * Constructor.
+     * @param scheduler scheduler of retries
+     * @param budget retry budget
+     */
+    public EsRetryer(ScheduledExecutorService scheduler, RetryBudget budget) {
+        this.scheduler = scheduler;
+        this.budget = budget;
+    }
+
+    /**
+     * Execute operation with retry. Exceptions thrown synchronously at the first call are thrown as they are.
+     * @param <T> type of response
+     * @param policy retry policy
+     * @param idempotent true if the operation is idempotent
+     * @param operation operation
+     * @return future of response
+     * @throws IOException exception while calling API at the first call
+     */
+    public <T> CompletableFuture<T> execute(RetryPolicy policy, boolean idempotent, Operation<T> operation)
+            throws IOException {
+        budget.onRequest();
+        CompletableFuture<T> first = operation.call();
+        if (policy.getMaxRetries() == 0) {
+            return first;
+        }
+        var result = new CompletableFuture<T>();
+        handle(first, result, policy, idempotent, operation, 0);
+        return result;
+    }
+
+    private <T> void handle(CompletableFuture<T> attempt, CompletableFuture<T> result, RetryPolicy policy,
+            boolean idempotent, Operation<T> operation, int retryCount) {
+        attempt.whenComplete((response, e) -> {
+            if (e == null) {
+                result.complete(response);
+                return;
+            }
+            if (retryCount >= policy.getMaxRetries() || !RetryClassifier.isRetryable(e, idempotent)) {
+                result.completeExceptionally(EsFutures.unwrap(e));
+                return;
+            }
+            if (!budget.tryAcquire()) {
+                log.info("Retry budget is exhausted. Operation is not retried.");
+                result.completeExceptionally(EsFutures.unwrap(e));
+                return;
+            }
+            long delay = policy.delayMillis(retryCount + 1);
+            log.info("Retrying ES operation (" + (retryCount + 1) + "/" + policy.getMaxRetries() + ") after "
+                    + delay + "ms: " + EsFutures.unwrap(e));
+            try {
+                scheduler.schedule(() -> {
+                    CompletableFuture<T> next;
+                    try {
+                        next = operation.call();
+                    } catch (IOException | RuntimeException ex) {
+                        next = CompletableFuture.failedFuture(ex);
+                    }
+                    handle(next, result, policy, idempotent, operation, retryCount + 1);
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                result.completeExceptionally(EsFutures.unwrap(e));
+            }
+        });
+    }
+}
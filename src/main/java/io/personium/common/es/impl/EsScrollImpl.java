@@ -0,0 +1,231 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.ResponseBody;
+import io.personium.common.es.EsScroll;
+import io.personium.common.es.response.PersoniumSearchHit;
+import io.personium.common.es.response.impl.PersoniumSearchHitImpl;
+
+/**
+ * Scroll search session, optionally split into slices which are read in parallel.
+ * Each slice requests its next page as soon as the previous page is taken by the reader, so at most two pages per
+ * slice are held at a time and no thread is occupied while waiting for Elasticsearch.
+ */
+public class EsScrollImpl implements EsScroll {
+    static Logger log = LoggerFactory.getLogger(EsScrollImpl.class);
+
+    /** Default keep alive time of scroll context. */
+    public static final String DEFAULT_KEEP_ALIVE = "1m";
+    /** Default page size. */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final InternalEsClient client;
+    private final String keepAlive;
+    private final int pageSize;
+    private final List<Slice> slices = new ArrayList<Slice>();
+    private final BlockingQueue<Object> arrivals = new LinkedBlockingQueue<Object>();
+    private int remainingSlices;
+    private Iterator<Hit<ObjectNode>> current = Collections.emptyIterator();
+    private volatile boolean closed;
+
+    /**
+     * Page of a slice.
+     */
+    private static final class Page {
+        private final Slice slice;
+        private final List<Hit<ObjectNode>> hits;
+        private final boolean last;
+
+        Page(Slice slice, List<Hit<ObjectNode>> hits, boolean last) {
+            this.slice = slice;
+            this.hits = hits;
+            this.last = last;
+        }
+    }
+
+    /**
+     * State of a slice.
+     */
+    private final class Slice {
+        private String scrollId;
+        private boolean finished;
+
+        void accept(ResponseBody<ObjectNode> response, Throwable error) {
+            if (error != null) {
+                arrivals.add(error);
+                return;
+            }
+            boolean last = response.hits().hits().size() < pageSize;
+            synchronized (this) {
+                this.scrollId = response.scrollId();
+                this.finished = last;
+            }
+            if (last || closed) {
+                clear(response.scrollId());
+            }
+            if (!closed) {
+                arrivals.add(new Page(this, response.hits().hits(), last));
+            }
+        }
+
+        void fetchNext() {
+            String id;
+            synchronized (this) {
+                id = this.scrollId;
+            }
+            client.asyncScroll(id, keepAlive).whenComplete(this::accept);
+        }
+
+        void close() {
+            String id;
+            synchronized (this) {
+                if (this.finished || this.scrollId == null) {
+                    return;
+                }
+                this.finished = true;
+                id = this.scrollId;
+            }
+            clear(id);
+        }
+    }
+
+    /**
+     * Constructor. Requests are sent on {@link #start(String, String, String, Map)}.
+     * @param client client
+     * @param keepAlive keep alive time of scroll context (e.g. `1m`)
+     * @param pageSize number of hits in a page of each slice
+     * @param sliceCount number of slices read in parallel (1 for normal scroll)
+     */
+    public EsScrollImpl(InternalEsClient client, String keepAlive, int pageSize, int sliceCount) {
+        if (pageSize < 1 || sliceCount < 1) {
+            throw new IllegalArgumentException("pageSize and sliceCount must be positive");
+        }
+        this.client = client;
+        this.keepAlive = keepAlive;
+        this.pageSize = pageSize;
+        for (int i = 0; i < sliceCount; i++) {
+            this.slices.add(new Slice());
+        }
+        this.remainingSlices = sliceCount;
+    }
+
+    /**
+     * Start scroll search of all slices on every shard.
+     * @param index インデックス名
+     * @param type タイプ名 (nullable)
+     * @param query 検索クエリ (size and from are ignored)
+     * @return this
+     */
+    public EsScrollImpl start(String index, String type, Map<String, Object> query) {
+        return start(index, type, null, query);
+    }
+
+    /**
+     * Start scroll search of all slices.
+     * @param index インデックス名
+     * @param type タイプ名 (nullable)
+     * @param routingId routingId (null to read every shard)
+     * @param query 検索クエリ (size and from are ignored)
+     * @return this
+     */
+    public EsScrollImpl start(String index, String type, String routingId, Map<String, Object> query) {
+        for (int i = 0; i < slices.size(); i++) {
+            Slice slice = slices.get(i);
+            client.asyncScrollSearch(index, type, routingId, query, keepAlive, pageSize, i, slices.size())
+                    .whenComplete(slice::accept);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (closed || remainingSlices == 0) {
+                return false;
+            }
+            Object arrival;
+            try {
+                arrival = arrivals.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new RuntimeException(e);
+            }
+            if (arrival instanceof Throwable) {
+                close();
+                throw EsFutures.convertException((Throwable) arrival);
+            }
+            Page page = (Page) arrival;
+            if (page.last) {
+                remainingSlices--;
+            } else {
+                page.slice.fetchNext();
+            }
+            current = page.hits.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public PersoniumSearchHit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return PersoniumSearchHitImpl.getInstance(current.next());
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        current = Collections.emptyIterator();
+        for (Slice slice : slices) {
+            slice.close();
+        }
+        arrivals.clear();
+    }
+
+    private void clear(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        client.asyncClearScroll(scrollId).whenComplete((released, e) -> {
+            if (e != null) {
+                log.info("Failed to clear scroll. It expires after keep alive time.", e);
+            }
+        });
+    }
+}
@@ -25,6 +25,8 @@ import java.util.concurrent.ExecutionException;
 
 import co.elastic.clients.elasticsearch._types.ElasticsearchException;
 import co.elastic.clients.elasticsearch._types.OpType;
+import io.personium.common.es.EsCursor;
+import io.personium.common.es.EsRefreshPolicy;
 import io.personium.common.es.EsType;
 import io.personium.common.es.response.EsClientException;
 import io.personium.common.es.response.PersoniumDeleteResponse;
@@ -33,6 +35,9 @@ import io.personium.common.es.response.PersoniumIndexResponse;
 import io.personium.common.es.response.PersoniumMappingMetaData;
 import io.personium.common.es.response.PersoniumMultiSearchResponse;
 import io.personium.common.es.response.PersoniumPutMappingResponse;
+import io.personium.common.es.response.PersoniumRefreshResponse;
+import io.personium.common.es.response.PersoniumSearchHitStream;
+import io.personium.common.es.response.PersoniumSearchPage;
 import io.personium.common.es.response.PersoniumSearchResponse;
 import io.personium.common.es.response.impl.PersoniumDeleteResponseImpl;
 import io.personium.common.es.response.impl.PersoniumGetResponseImpl;
@@ -41,6 +46,9 @@ import io.personium.common.es.response.impl.PersoniumMappingMetaDataImpl;
 import io.personium.common.es.response.impl.PersoniumMultiSearchResponseImpl;
 import io.personium.common.es.response.impl.PersoniumNullSearchResponse;
 import io.personium.common.es.response.impl.PersoniumPutMappingResponseImpl;
+import io.personium.common.es.response.impl.PersoniumRefreshResponseImpl;
+import io.personium.common.es.response.impl.PersoniumSearchHitStreamImpl;
+import io.personium.common.es.response.impl.PersoniumSearchPageImpl;
 import io.personium.common.es.response.impl.PersoniumSearchResponseImpl;
 import io.personium.common.es.util.PersoniumUUID;
 
@@ -55,6 +63,8 @@ public class EsTypeImpl implements EsType {
     private String indexName;
     private String typeName;
     private String routingId;
+    private EsRefreshPolicy refreshPolicy = EsRefreshPolicy.IMMEDIATE;
+    private RetryPolicy retryPolicy;
 
     public EsTypeImpl(String indexName,
             String typeName,
@@ -66,6 +76,7 @@ public class EsTypeImpl implements EsType {
         this.typeName = typeName;
         this.routingId = routingId;
         this.esClient = client;
+        this.retryPolicy = RetryPolicy.of(times, interval);
     }
 
     /**
@@ -98,7 +109,8 @@ public class EsTypeImpl implements EsType {
     @Override
     public PersoniumGetResponse get(String id, boolean realtime) {
         try {
-            var response = esClient.asyncGet(this.indexName, this.typeName, id, this.routingId, realtime).get();
+            var response = esClient.getRetryer().execute(this.retryPolicy, true,
+                    () -> esClient.asyncGet(this.indexName, this.typeName, id, this.routingId, realtime)).get();
             if (!response.found()) {
                 return null;
             }
@@ -136,10 +148,12 @@ public class EsTypeImpl implements EsType {
             if (!typeAddedData.containsKey("type")) {
                 typeAddedData.put("type", this.typeName);
             }
-            var response = esClient.asyncIndex(this.indexName, this.typeName, id, this.routingId, typeAddedData,
-                    OpType.Create, null).get();
+            // retrying create after ambiguous failure may cause conflict with the document created by itself
+            var response = esClient.getRetryer().execute(this.retryPolicy, false,
+                    () -> esClient.asyncIndex(this.indexName, this.typeName, id, this.routingId, typeAddedData,
+                            OpType.Create, null, this.refreshPolicy)).get();
             return PersoniumIndexResponseImpl.getInstance(response);
-        } catch (InterruptedException e) {
+        } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
         } catch (ExecutionException e) {
             // Elasticsearch throws ElasticsearchException and TransportException in ExecutionException
@@ -168,13 +182,18 @@ public class EsTypeImpl implements EsType {
 
             if (version != -1) {
                 // optimistic lock
-                var prev = esClient.asyncGet(this.indexName, this.typeName, id, this.routingId, true, version).get();
+                var prev = esClient.getRetryer().execute(this.retryPolicy, true,
+                        () -> esClient.asyncGet(this.indexName, this.typeName, id, this.routingId, true, version))
+                        .get();
                 seqNoPrimaryTerm = new SeqNoPrimaryTerm(prev.seqNo(), prev.primaryTerm());
             }
-            var response = esClient.asyncIndex(this.indexName, this.typeName, id, this.routingId, typeAddedData,
-                    OpType.Index, seqNoPrimaryTerm).get();
+            // update without optimistic lock overwrites the document with the same data, so it is idempotent
+            final SeqNoPrimaryTerm expected = seqNoPrimaryTerm;
+            var response = esClient.getRetryer().execute(this.retryPolicy, expected == null,
+                    () -> esClient.asyncIndex(this.indexName, this.typeName, id, this.routingId, typeAddedData,
+                            OpType.Index, expected, this.refreshPolicy)).get();
             return PersoniumIndexResponseImpl.getInstance(response);
-        } catch (InterruptedException e) {
+        } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
         } catch (ExecutionException e) {
             Throwable cause = e.getCause();
@@ -199,9 +218,10 @@ public class EsTypeImpl implements EsType {
     @Override
     public PersoniumSearchResponse search(final Map<String, Object> query) {
         try {
-            var response = esClient.asyncSearch(this.indexName, this.typeName, this.routingId, query).get();
+            var response = esClient.getRetryer().execute(this.retryPolicy, true,
+                    () -> esClient.asyncSearch(this.indexName, this.typeName, this.routingId, query)).get();
             return PersoniumSearchResponseImpl.getInstance(response);
-        } catch (InterruptedException e) {
+        } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
         } catch (ExecutionException e) {
             // Elasticsearch throws ElasticsearchException and TransportException in ExecutionException
@@ -219,13 +239,82 @@ public class EsTypeImpl implements EsType {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PersoniumSearchResponse search(Map<String, Object> query, List<String> sourceFields,
+            List<String> docValueFields) {
+        return search(InternalEsClient.projectQuery(query, sourceFields, docValueFields));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PersoniumSearchPage searchPage(Map<String, Object> query, EsCursor cursor) {
+        try {
+            return KeysetPager.searchPage(esClient, this.retryPolicy, this.indexName, this.typeName,
+                    this.routingId, query, cursor);
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ElasticsearchException) {
+                var ex = EsClientException.convertException((ElasticsearchException) cause);
+                if (ex instanceof EsClientException.EsIndexMissingException) {
+                    return PersoniumSearchPageImpl.getInstance(new PersoniumNullSearchResponse(), null);
+                } else {
+                    throw EsClientException.wrapException("unknown property was appointed.",
+                         (ElasticsearchException) cause);
+                }
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closeCursor(EsCursor cursor) {
+        KeysetPager.close(esClient, cursor.getPitId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PersoniumSearchHitStream searchStream(final Map<String, Object> query) {
+        try {
+            var body = esClient.getRetryer().execute(this.retryPolicy, true,
+                    () -> esClient.asyncSearchStream(this.indexName, this.typeName, this.routingId, query)).get();
+            return PersoniumSearchHitStreamImpl.getInstance(body);
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ElasticsearchException) {
+                var ex = EsClientException.convertException((ElasticsearchException) cause);
+                if (ex instanceof EsClientException.EsIndexMissingException) {
+                    return PersoniumSearchHitStreamImpl.empty();
+                } else {
+                    throw EsClientException.wrapException("unknown property was appointed.",
+                         (ElasticsearchException) cause);
+                }
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public PersoniumMultiSearchResponse multiSearch(List<Map<String, Object>> queryList) {
         try {
-            var response = esClient.asyncMultiSearch(this.indexName, this.typeName, this.routingId, queryList).get();
+            var response = esClient.getRetryer().execute(this.retryPolicy, true,
+                    () -> esClient.asyncMultiSearch(this.indexName, this.typeName, this.routingId, queryList)).get();
             return PersoniumMultiSearchResponseImpl.getInstance(response);
         } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
@@ -252,7 +341,9 @@ public class EsTypeImpl implements EsType {
     @Override
     public PersoniumDeleteResponse delete(String docId, long version) {
         try {
-            var response = esClient.asyncDelete(this.indexName, this.typeName, docId, this.routingId, version).get();
+            var response = esClient.getRetryer().execute(this.retryPolicy, version == -1,
+                    () -> esClient.asyncDelete(this.indexName, this.typeName, docId, this.routingId, version,
+                            this.refreshPolicy)).get();
             return PersoniumDeleteResponseImpl.getInstance(response);
         } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
@@ -295,4 +386,38 @@ public class EsTypeImpl implements EsType {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setRefreshPolicy(EsRefreshPolicy refreshPolicy) {
+        this.refreshPolicy = refreshPolicy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EsRefreshPolicy getRefreshPolicy() {
+        return this.refreshPolicy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PersoniumRefreshResponse refresh() {
+        try {
+            var response = esClient.asyncRefresh(this.indexName, this.typeName).get();
+            return PersoniumRefreshResponseImpl.getInstance(response);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ElasticsearchException) {
+                throw EsClientException.convertException((ElasticsearchException) cause);
+            }
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -0,0 +1,206 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.personium.common.es.response.EsClientException;
+import io.personium.common.es.util.EsJson;
+
+/**
+ * Shrink/split workflow, which changes shard count of an existing physical index.
+ * The index is copied into `<name>.r<shards>` by the resize API, and the original name is moved to the new index as
+ * an alias, so requests addressed by {@link InternalEsClient#makeIndex(String, String)} work without change.
+ * <ol>
+ * <li>block writes (shrink also gathers all primaries on one node without replicas)</li>
+ * <li>shrink or split into the new index</li>
+ * <li>remove the old index and add aliases to the new index atomically</li>
+ * </ol>
+ * Writes to the index fail while it is resized. The old index is restored when the workflow fails.
+ */
+final class IndexResizer {
+    static Logger log = LoggerFactory.getLogger(IndexResizer.class);
+
+    /** Infix of resized index names. */
+    static final String RESIZED_INFIX = ".r";
+
+    /** Timeout of waiting for relocation before shrink. */
+    static final String RELOCATION_TIMEOUT = "5m";
+
+    /** Pattern of resized index names. */
+    private static final Pattern RESIZED_NAME = Pattern.compile("(.+)\\.r[0-9]+");
+
+    private static final String SHARDS = "index.number_of_shards";
+    private static final String REPLICAS = "index.number_of_replicas";
+    private static final String BLOCKS_WRITE = "index.blocks.write";
+    private static final String REQUIRE_NODE = "index.routing.allocation.require._name";
+
+    private IndexResizer() {
+    }
+
+    /**
+     * Get name of the physical index before resize.
+     * @param physicalIndex physical index name
+     * @return name before resize, or the given name if it is not resized
+     */
+    static String baseName(String physicalIndex) {
+        var matcher = RESIZED_NAME.matcher(physicalIndex);
+        if (matcher.matches()) {
+            return matcher.group(1);
+        }
+        return physicalIndex;
+    }
+
+    /**
+     * Change shard count of a per-type index or consolidated index.
+     * @param client client
+     * @param index index name
+     * @param type type name, or null for consolidated index
+     * @param types all types of the index, whose aliases are moved with consolidated index
+     * @param numberOfShards new shard count
+     * @return future of the new physical index name (the current name if the count is not changed)
+     */
+    static CompletableFuture<String> resize(InternalEsClient client, String index, String type,
+            Collection<String> types, int numberOfShards) {
+        String name = InternalEsClient.makeConsolidatedIndex(index);
+        if (type != null) {
+            name = InternalEsClient.makeIndex(index, type);
+        }
+        final String logicalName = name;
+        return client.asyncGetPhysicalSettings(logicalName).thenCompose(current -> {
+            String source = current.getKey();
+            int shards = current.getValue().path(SHARDS).asInt();
+            if (shards == numberOfShards) {
+                return CompletableFuture.completedFuture(source);
+            }
+            boolean shrink = numberOfShards < shards;
+            if (numberOfShards <= 0 || shrink && shards % numberOfShards != 0
+                    || !shrink && numberOfShards % shards != 0) {
+                throw new EsClientException("Shards of " + logicalName + " cannot be changed from " + shards
+                        + " to " + numberOfShards + ", which must be a factor or a multiple");
+            }
+            String target = logicalName + RESIZED_INFIX + numberOfShards;
+            JsonNode replicas = current.getValue().path(REPLICAS);
+            return prepare(client, source, shrink)
+                    .thenCompose(r -> client.asyncResizeIndex(source, target, shrink,
+                            targetSettings(numberOfShards, shrink, replicas)))
+                    .thenCompose(r -> client.asyncUpdateAliases(swapActions(index, type, types, source, target)))
+                    .whenComplete((r, e) -> {
+                        if (e != null) {
+                            restore(client, source, target, shrink, replicas);
+                        }
+                    })
+                    .thenApply(r -> {
+                        client.getIndexCache().created(target);
+                        client.getIndexCache().invalidateMapping(logicalName);
+                        return target;
+                    });
+        });
+    }
+
+    private static CompletableFuture<?> prepare(InternalEsClient client, String source, boolean shrink) {
+        if (!shrink) {
+            return client.asyncSetWriteBlock(List.of(source), true);
+        }
+        // a copy of every shard must be on one node
+        return client.asyncGetPrimaryNode(source).thenCompose(node -> {
+            ObjectNode settings = EsJson.mapper().createObjectNode();
+            settings.put(REQUIRE_NODE, node);
+            settings.put(REPLICAS, 0);
+            settings.put(BLOCKS_WRITE, true);
+            return client.asyncPutPhysicalSettings(source, settings);
+        }).thenCompose(r -> client.asyncWaitForNoRelocatingShards(source, RELOCATION_TIMEOUT));
+    }
+
+    /**
+     * Create settings of the new index, which reset the settings given for resize.
+     * @param numberOfShards shard count
+     * @param shrink true for shrink
+     * @param replicas replica count of the old index
+     * @return settings
+     */
+    static ObjectNode targetSettings(int numberOfShards, boolean shrink, JsonNode replicas) {
+        ObjectNode settings = EsJson.mapper().createObjectNode();
+        settings.put(SHARDS, numberOfShards);
+        settings.putNull(BLOCKS_WRITE);
+        if (shrink) {
+            settings.putNull(REQUIRE_NODE);
+            if (!replicas.isMissingNode()) {
+                settings.set(REPLICAS, replicas);
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Create alias actions which replace the old index with the new one.
+     * @param index index name
+     * @param type type name, or null for consolidated index
+     * @param types all types of the index
+     * @param source old physical index
+     * @param target new physical index
+     * @return actions
+     */
+    static List<Map<String, Object>> swapActions(String index, String type, Collection<String> types,
+            String source, String target) {
+        if (type != null) {
+            List<Map<String, Object>> actions = new ArrayList<Map<String, Object>>();
+            actions.add(Map.of("remove_index", Map.of("index", source)));
+            actions.add(Map.of("add", Map.of("index", target, "alias", InternalEsClient.makeIndex(index, type))));
+            return actions;
+        }
+        Map<String, String> typeByIndex = new LinkedHashMap<String, String>();
+        for (String t : types) {
+            typeByIndex.put(InternalEsClient.makeIndex(index, t), t);
+        }
+        var actions = ConsolidatedLayout.swapActions(target, List.of(source), typeByIndex);
+        actions.add(Map.of("add", Map.of("index", target, "alias", InternalEsClient.makeConsolidatedIndex(index))));
+        return actions;
+    }
+
+    private static void restore(InternalEsClient client, String source, String target, boolean shrink,
+            JsonNode replicas) {
+        ObjectNode settings = EsJson.mapper().createObjectNode();
+        settings.putNull(BLOCKS_WRITE);
+        if (shrink) {
+            settings.putNull(REQUIRE_NODE);
+            if (!replicas.isMissingNode()) {
+                settings.set(REPLICAS, replicas);
+            }
+        }
+        client.asyncDeletePhysicalIndex(target)
+                .thenCompose(r -> client.asyncPutPhysicalSettings(source, settings))
+                .whenComplete((r, e) -> {
+                    if (e != null) {
+                        log.warn("Failed to restore " + source + " after resize", e);
+                    }
+                });
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.personium.common.es.EsIndex;
+
+/**
+ * Composable index templates which hold settings and mappings of physical indices.
+ * Templates are registered once per category (and unit prefix) by each client, so creating indices of a cell
+ * does not need to send settings and mappings, and an index created automatically by a write gets the mapping of
+ * its type.
+ * <ul>
+ * <li>admin: `<prefix>_ad.<type>` (priority 200)</li>
+ * <li>user: `<prefix>_*.<type>` (priority 100, so that admin templates win for the admin index)</li>
+ * </ul>
+ * Both categories also have a template of `.consolidated` index with merged mapping.
+ */
+final class IndexTemplates {
+
+    /** Prefix of template names. */
+    static final String NAME_PREFIX = "personium-";
+
+    /** Priority of templates of admin index. */
+    static final int ADMIN_PRIORITY = 200;
+
+    /** Priority of templates of user indices. */
+    static final int USER_PRIORITY = 100;
+
+    private final InternalEsClient client;
+
+    /** Registrations by base pattern, which are shared by concurrent callers. */
+    private final Map<String, CompletableFuture<Void>> registrations =
+            new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+    /**
+     * Constructor.
+     * @param client client
+     */
+    IndexTemplates(InternalEsClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Register templates of the category if they have not been registered by this client.
+     * Failed registration is retried by the next call.
+     * @param category category of the index
+     * @param index index name
+     * @param mappings mappings by type
+     * @param settings index settings
+     * @return future completed after registration
+     */
+    CompletableFuture<Void> register(String category, String index, Map<String, ObjectNode> mappings,
+            ObjectNode settings) {
+        String basePattern = basePattern(category, index);
+        var registration = registrations.computeIfAbsent(basePattern, k -> {
+            List<CompletableFuture<JsonNode>> requests = new ArrayList<CompletableFuture<JsonNode>>();
+            templates(category, basePattern, mappings, settings).forEach((name, body) -> {
+                requests.add(client.asyncPutIndexTemplate(name, body));
+            });
+            return CompletableFuture.allOf(requests.toArray(new CompletableFuture[requests.size()]));
+        });
+        return registration.whenComplete((r, e) -> {
+            if (e != null) {
+                registrations.remove(basePattern, registration);
+            }
+        });
+    }
+
+    /**
+     * Get pattern of index names which share the templates.
+     * The admin index is matched exactly, and user indices are matched by the unit prefix before the first `_`.
+     * @param category category of the index
+     * @param index index name
+     * @return base pattern without type
+     */
+    static String basePattern(String category, String index) {
+        int separator = index.indexOf('_');
+        if (EsIndex.CATEGORY_AD.equals(category) || separator < 0) {
+            return index;
+        }
+        return index.substring(0, separator + 1) + "*";
+    }
+
+    /**
+     * Create templates of all types and consolidated index.
+     * @param category category of the index
+     * @param basePattern base pattern of index names
+     * @param mappings mappings by type
+     * @param settings index settings
+     * @return template bodies by name
+     */
+    static Map<String, Map<String, Object>> templates(String category, String basePattern,
+            Map<String, ObjectNode> mappings, ObjectNode settings) {
+        int priority = USER_PRIORITY;
+        if (EsIndex.CATEGORY_AD.equals(category)) {
+            priority = ADMIN_PRIORITY;
+        }
+        Map<String, Map<String, Object>> templates = new LinkedHashMap<String, Map<String, Object>>();
+        for (Map.Entry<String, ObjectNode> entry : mappings.entrySet()) {
+            JsonNode mapping = entry.getValue();
+            if (mapping.has("_doc")) {
+                // for mapping for prior version Elasticsearch
+                mapping = mapping.get("_doc");
+            }
+            String pattern = InternalEsClient.makeIndex(basePattern, entry.getKey());
+            templates.put(name(pattern), template(pattern, priority, settings, mapping));
+        }
+        String pattern = InternalEsClient.makeConsolidatedIndex(basePattern);
+        templates.put(name(pattern), template(pattern, priority, settings,
+                ConsolidatedLayout.mergeMappings(mappings)));
+        return templates;
+    }
+
+    private static String name(String pattern) {
+        return NAME_PREFIX + pattern.replace("*", "");
+    }
+
+    private static Map<String, Object> template(String pattern, int priority, ObjectNode settings,
+            JsonNode mapping) {
+        Map<String, Object> template = new LinkedHashMap<String, Object>();
+        template.put("index_patterns", List.of(pattern));
+        template.put("priority", priority);
+        template.put("template", Map.of("settings", settings, "mappings", mapping));
+        template.put("_meta", Map.of("managed_by", "personium"));
+        return template;
+    }
+}
@@ -19,17 +19,29 @@ package io.personium.common.es.impl;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.Collectors;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.StringEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -39,6 +51,7 @@ import org.slf4j.LoggerFactory;
 import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
 import co.elastic.clients.elasticsearch._types.OpType;
 import co.elastic.clients.elasticsearch._types.Refresh;
 import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
@@ -52,27 +65,32 @@ import co.elastic.clients.elasticsearch.core.MsearchResponse;
 import co.elastic.clients.elasticsearch.core.ScrollResponse;
 import co.elastic.clients.elasticsearch.core.SearchRequest;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
-import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
 import co.elastic.clients.elasticsearch.core.msearch.RequestItem;
 import co.elastic.clients.elasticsearch.indices.CreateIndexResponse;
 import co.elastic.clients.elasticsearch.indices.DeleteIndexResponse;
 import co.elastic.clients.elasticsearch.indices.PutMappingResponse;
 import co.elastic.clients.elasticsearch.indices.RecoveryResponse;
+import co.elastic.clients.elasticsearch.indices.RefreshResponse;
+import co.elastic.clients.json.JsonpDeserializer;
 import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import co.elastic.clients.transport.rest_client.RestClientTransport;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import io.personium.common.es.EsBulkRequest;
 import io.personium.common.es.EsClient.Event;
 import io.personium.common.es.EsClient.EventHandler;
+import io.personium.common.es.EsMappingConfig;
+import io.personium.common.es.EsRefreshPolicy;
 import io.personium.common.es.EsRequestLogInfo;
+import io.personium.common.es.EsRoutingStats;
+import io.personium.common.es.query.QueryTranslator;
+import io.personium.common.es.util.EsJson;
+import io.personium.common.es.util.SourceKeyConverter;
 import io.personium.common.es.response.EsClientException;
 import io.personium.common.es.response.EsClientException.EsMultiSearchQueryParseException;
-import jakarta.json.Json;
 
 /**
  * ElasticSearchのアクセサクラス.
@@ -84,12 +102,37 @@ public class InternalEsClient implements Closeable {
 
     private RestClientTransport restClientTransport;
 
+    private final JacksonJsonpMapper jsonpMapper = EsJson.jsonpMapper();
+
     private ElasticsearchClient esClient;
 
     private ElasticsearchAsyncClient esAsyncClient;
 
     private boolean routingFlag;
 
+    private ShardRouting shardRouting = new ShardRouting(false);
+
+    private final ScheduledExecutorService refreshScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "personium-es-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RefreshCoordinator refreshCoordinator = new RefreshCoordinator(this::refreshPhysicalIndex,
+            refreshScheduler, Long.getLong("io.personium.es.refresh.windowMillis",
+                    RefreshCoordinator.DEFAULT_WINDOW_MILLIS));
+
+    private final IndexTemplates indexTemplates = new IndexTemplates(this);
+
+    private final PhysicalIndexCache indexCache = new PhysicalIndexCache(refreshScheduler, this::asyncGetAliases);
+
+    /** Creator of missing per-type indices, or null if indices are created by EsIndex#create. */
+    private volatile LazyIndexCreator lazyIndexCreator;
+
+    /** Retryer shares the scheduler because it only issues asynchronous requests. */
+    private final EsRetryer retryer = new EsRetryer(refreshScheduler,
+            new RetryBudget(RetryBudget.DEFAULT_RATIO, RetryBudget.DEFAULT_CAPACITY));
+
     /**
      * Default constructor.
      */
@@ -102,6 +145,7 @@ public class InternalEsClient implements Closeable {
      */
     protected InternalEsClient(String hosts) {
         routingFlag = true;
+        shardRouting = new ShardRouting(true);
         List<HttpHost> httpHosts = parseConfigAndInitializeHostsList(hosts);
         prepareClient(httpHosts.toArray(new HttpHost[httpHosts.size()]));
     }
@@ -139,6 +183,10 @@ public class InternalEsClient implements Closeable {
      * ESとのコネクションを一度明示的に閉じる.
      */
     public void closeConnection() {
+        // Deferred refreshes which are not issued yet are discarded.
+        refreshScheduler.shutdownNow();
+        refreshCoordinator.close();
+
         try {
             if (this.restClientTransport != null) {
                 this.restClientTransport.close();
@@ -173,7 +221,7 @@ public class InternalEsClient implements Closeable {
         }
 
         this.restClient = RestClient.builder(hosts).build();
-        this.restClientTransport = new RestClientTransport(restClient, new JacksonJsonpMapper());
+        this.restClientTransport = new RestClientTransport(restClient, jsonpMapper);
         this.esClient = new ElasticsearchClient(restClientTransport);
         this.esAsyncClient = new ElasticsearchAsyncClient(restClientTransport);
     }
@@ -189,6 +237,30 @@ public class InternalEsClient implements Closeable {
         eventHandlerMap.put(ev, handler);
     }
 
+    /**
+     * Create JSON parameter of event only when the handler is registered.
+     * @param ev イベントの種類
+     * @param value value to be serialized
+     * @return JSON string (compact unless the handler requires pretty-print), or null if no handler is registered
+     */
+    String toEventJson(Event ev, Object value) {
+        EventHandler handler = eventHandlerMap.get(ev);
+        if (handler == null || value == null) {
+            return null;
+        }
+        if (handler.isPrettyPrint()) {
+            try {
+                return EsJson.toPrettyJson(value);
+            } catch (JsonProcessingException e) {
+                log.info("Failed to pretty-print event parameter.", e);
+            }
+        }
+        if (value instanceof List) {
+            return JSONArray.toJSONString((List<?>) value);
+        }
+        return JSONObject.toJSONString((Map<?, ?>) value);
+    }
+
     void fireEvent(Event ev, final Object... params) {
         this.fireEvent(ev, null, params);
     }
@@ -233,7 +305,6 @@ public class InternalEsClient implements Closeable {
             Map<String, ObjectNode> mappings,
             ObjectNode settingJson) throws IOException {
         this.fireEvent(Event.creatingIndex, index);
-        ObjectMapper mapper = new ObjectMapper();
         var requests = new ArrayList<CompletableFuture<CreateIndexResponse>>();
         for (String type : mappings.keySet()) {
             JsonNode mappingJson = null;
@@ -243,8 +314,8 @@ public class InternalEsClient implements Closeable {
             } else {
                 mappingJson = mappings.get(type);
             }
-            try (StringReader indexSr = new StringReader(mapper.writeValueAsString(settingJson));
-                StringReader sr = new StringReader(mapper.writeValueAsString(mappingJson))) {
+            try (StringReader indexSr = new StringReader(EsJson.toJson(settingJson));
+                StringReader sr = new StringReader(EsJson.toJson(mappingJson))) {
                 // var indexSrParser = Json.createParser(indexSr);
                 requests.add(esAsyncClient.indices()
                         .create(cir -> cir
@@ -260,8 +331,369 @@ public class InternalEsClient implements Closeable {
             .allOf(requests.toArray(new CompletableFuture[requests.size()]))
             .thenApply(ignored -> {
                 return requests.stream().map(request -> request.join()).toList();
-            });
+            })
+            .thenApply(this::markCreated);
+
+    }
+
+    /**
+     * Register composable index template asynchronously.
+     * @param name template name
+     * @param template template body
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncPutIndexTemplate(String name, Map<String, Object> template) {
+        var request = new Request("PUT", "/_index_template/" + name);
+        try {
+            request.setJsonEntity(EsJson.toJson(template));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return performJsonRequestAsync(request, "indices.put_index_template");
+    }
+
+    /**
+     * Create per-type indices whose settings and mappings are given by index templates.
+     * @param index Name of index.
+     * @param types type names
+     * @return response.
+     */
+    public CompletableFuture<List<CreateIndexResponse>> asyncCreateIndexFromTemplates(String index,
+            Collection<String> types) {
+        return asyncCreateIndexFromTemplates(index, types, Map.of());
+    }
+
+    /**
+     * Create per-type indices whose settings and mappings are given by index templates.
+     * @param index Name of index.
+     * @param types type names
+     * @param settingsByType settings which override the templates, by type name
+     * @return response.
+     */
+    public CompletableFuture<List<CreateIndexResponse>> asyncCreateIndexFromTemplates(String index,
+            Collection<String> types,
+            Map<String, Map<String, Object>> settingsByType) {
+        this.fireEvent(Event.creatingIndex, index);
+        var requests = new ArrayList<CompletableFuture<CreateIndexResponse>>();
+        for (String type : types) {
+            var settings = settingsByType.get(type);
+            if (settings == null || settings.isEmpty()) {
+                requests.add(esAsyncClient.indices().create(cir -> cir.index(makeIndex(index, type))));
+                continue;
+            }
+            try (StringReader sr = new StringReader(EsJson.toJson(settings))) {
+                requests.add(esAsyncClient.indices()
+                        .create(cir -> cir.index(makeIndex(index, type)).settings(iset -> iset.withJson(sr))));
+            } catch (JsonProcessingException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture[requests.size()]))
+                .thenApply(ignored -> requests.stream().map(request -> request.join()).toList())
+                .thenApply(this::markCreated);
+    }
+
+    private List<CreateIndexResponse> markCreated(List<CreateIndexResponse> responses) {
+        responses.forEach(response -> indexCache.created(response.index()));
+        return responses;
+    }
+
+    /**
+     * Create consolidated index, which holds all types of the index, asynchronously.
+     * Settings and mappings are given by index templates.
+     * @param index Name of index.
+     * @param aliasTypes types whose filtered aliases are created together (nullable)
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncCreateConsolidatedIndex(String index, Collection<String> aliasTypes) {
+        return asyncCreateConsolidatedIndex(index, aliasTypes, Map.of());
+    }
+
+    /**
+     * Create consolidated index, which holds all types of the index, asynchronously.
+     * @param index Name of index.
+     * @param aliasTypes types whose filtered aliases are created together (nullable)
+     * @param settings settings which override the templates
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncCreateConsolidatedIndex(String index, Collection<String> aliasTypes,
+            Map<String, Object> settings) {
+        this.fireEvent(Event.creatingIndex, index);
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        if (!settings.isEmpty()) {
+            body.put("settings", settings);
+        }
+        if (aliasTypes != null) {
+            body.put("aliases", ConsolidatedLayout.aliases(index, aliasTypes));
+        }
+        var request = new Request("PUT", "/" + makeConsolidatedIndex(index));
+        try {
+            request.setJsonEntity(EsJson.toJson(body));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return performJsonRequestAsync(request, "indices.create").thenApply(response -> {
+            indexCache.created(makeConsolidatedIndex(index));
+            if (aliasTypes != null) {
+                aliasTypes.forEach(type -> indexCache.created(makeIndex(index, type)));
+            }
+            return response;
+        });
+    }
+
+    /**
+     * Get names of physical indices of the index asynchronously. Aliases are not included.
+     * @param index インデックス名
+     * @return 非同期応答 (physical index names)
+     */
+    public CompletableFuture<List<String>> asyncGetPhysicalIndices(String index) {
+        var request = new Request("GET", "/_cat/indices/" + makeIndex(index, null));
+        request.addParameter("format", "json");
+        request.addParameter("h", "index");
+        request.addParameter("expand_wildcards", "all");
+        return performJsonRequestAsync(request, "cat.indices").thenApply(response -> {
+            List<String> indices = new ArrayList<String>();
+            for (JsonNode row : response) {
+                indices.add(row.path("index").asText());
+            }
+            Collections.sort(indices);
+            return indices;
+        });
+    }
+
+    /**
+     * Start reindex as a background task, which keeps versions of the documents.
+     * Documents which are not newer than the destination are skipped, so it can be run repeatedly.
+     * @param sources source physical indices
+     * @param dest destination physical index
+     * @return 非同期応答 (task ID)
+     */
+    public CompletableFuture<String> asyncStartReindex(List<String> sources, String dest) {
+        var request = new Request("POST", "/_reindex");
+        request.addParameter("slices", "auto");
+        request.addParameter("wait_for_completion", "false");
+        request.addParameter("refresh", "true");
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put("conflicts", "proceed");
+        body.put("source", Map.of("index", sources));
+        body.put("dest", Map.of("index", dest, "version_type", "external"));
+        try {
+            request.setJsonEntity(EsJson.toJson(body));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return performJsonRequestAsync(request, "reindex").thenApply(response -> response.path("task").asText());
+    }
+
+    /**
+     * Block or unblock writes to physical indices asynchronously.
+     * @param indices physical index names
+     * @param block true to block writes
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncSetWriteBlock(List<String> indices, boolean block) {
+        var request = new Request("PUT", "/" + String.join(",", indices) + "/_settings");
+        request.setJsonEntity("{\"index.blocks.write\":" + block + "}");
+        return performJsonRequestAsync(request, "indices.put_settings");
+    }
+
+    /**
+     * Update settings of a physical index asynchronously. Null value resets the setting.
+     * @param physicalIndex physical index name
+     * @param settings settings
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncPutPhysicalSettings(String physicalIndex, ObjectNode settings) {
+        var request = new Request("PUT", "/" + physicalIndex + "/_settings");
+        try {
+            request.setJsonEntity(EsJson.toJson(settings));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return performJsonRequestAsync(request, "indices.put_settings");
+    }
+
+    /**
+     * Get settings of a physical index or alias asynchronously.
+     * @param name physical index name or alias
+     * @return 非同期応答 (key: concrete index name, value: flat settings)
+     */
+    public CompletableFuture<Map.Entry<String, JsonNode>> asyncGetPhysicalSettings(String name) {
+        var request = new Request("GET", "/" + name + "/_settings");
+        request.addParameter("flat_settings", "true");
+        return performJsonRequestAsync(request, "indices.get_settings").thenApply(response -> {
+            if (response.size() != 1) {
+                throw new EsClientException(name + " is not a single index: " + response.size());
+            }
+            var entry = response.fields().next();
+            return Map.entry(entry.getKey(), entry.getValue().path("settings"));
+        });
+    }
+
+    /**
+     * Delete a physical index asynchronously. Missing index is ignored.
+     * @param physicalIndex physical index name
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncDeletePhysicalIndex(String physicalIndex) {
+        var request = new Request("DELETE", "/" + physicalIndex);
+        request.addParameter("ignore_unavailable", "true");
+        return performJsonRequestAsync(request, "indices.delete");
+    }
+
+    /**
+     * Get node which holds a primary shard of the physical index asynchronously.
+     * @param physicalIndex physical index name
+     * @return 非同期応答 (node name)
+     */
+    public CompletableFuture<String> asyncGetPrimaryNode(String physicalIndex) {
+        var request = new Request("GET", "/_cat/shards/" + physicalIndex);
+        request.addParameter("format", "json");
+        request.addParameter("h", "prirep,node");
+        return performJsonRequestAsync(request, "cat.shards").thenApply(shards -> {
+            for (JsonNode shard : shards) {
+                if ("p".equals(shard.path("prirep").asText()) && shard.hasNonNull("node")) {
+                    return shard.get("node").asText();
+                }
+            }
+            throw new EsClientException("No primary shard of " + physicalIndex + " is assigned");
+        });
+    }
+
+    /**
+     * Wait until shards of the physical index stop relocating.
+     * @param physicalIndex physical index name
+     * @param timeout timeout (e.g. 60s)
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncWaitForNoRelocatingShards(String physicalIndex, String timeout) {
+        var request = new Request("GET", "/_cluster/health/" + physicalIndex);
+        request.addParameter("wait_for_no_relocating_shards", "true");
+        request.addParameter("timeout", timeout);
+        return performJsonRequestAsync(request, "cluster.health").thenApply(health -> {
+            if (health.path("timed_out").asBoolean()) {
+                throw new EsClientException("Shards of " + physicalIndex + " are still relocating");
+            }
+            return health;
+        });
+    }
+
+    /**
+     * Shrink or split a physical index into a new index asynchronously.
+     * @param source source physical index, which must be blocked for write
+     * @param target target physical index
+     * @param shrink true for shrink, false for split
+     * @param settings settings of target index
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncResizeIndex(String source, String target, boolean shrink,
+            ObjectNode settings) {
+        String api = "_split";
+        if (shrink) {
+            api = "_shrink";
+        }
+        var request = new Request("POST", "/" + source + "/" + api + "/" + target);
+        try {
+            request.setJsonEntity(EsJson.toJson(EsJson.mapper().createObjectNode().set("settings", settings)));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return performJsonRequestAsync(request, "indices" + api.replace('_', '.'));
+    }
 
+    /**
+     * Apply alias actions atomically.
+     * @param actions actions of `_aliases` API
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncUpdateAliases(List<Map<String, Object>> actions) {
+        var request = new Request("POST", "/_aliases");
+        try {
+            request.setJsonEntity(EsJson.toJson(Map.of("actions", actions)));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return performJsonRequestAsync(request, "indices.update_aliases");
+    }
+
+    /**
+     * Start scroll search on physical indices asynchronously. Raw JSON is returned so that `_routing` of hits can be
+     * read without sources.
+     * @param indices physical index names
+     * @param body body of search request
+     * @param keepAlive keep alive time (e.g. `1m`)
+     * @return 非同期応答 (first page)
+     */
+    public CompletableFuture<JsonNode> asyncStartScroll(List<String> indices, Map<String, Object> body,
+            String keepAlive) {
+        var request = new Request("POST", "/" + String.join(",", indices) + "/_search");
+        request.addParameter("scroll", keepAlive);
+        try {
+            request.setJsonEntity(EsJson.toJson(body));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return performJsonRequestAsync(request, "search");
+    }
+
+    /**
+     * Continue scroll search started by {@link #asyncStartScroll(List, Map, String)} asynchronously.
+     * @param scrollId スクロールID
+     * @param keepAlive keep alive time to be extended
+     * @return 非同期応答 (next page)
+     */
+    public CompletableFuture<JsonNode> asyncContinueScroll(String scrollId, String keepAlive) {
+        var request = new Request("POST", "/_search/scroll");
+        try {
+            request.setJsonEntity(EsJson.toJson(Map.of("scroll", keepAlive, "scroll_id", scrollId)));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return performJsonRequestAsync(request, "scroll");
+    }
+
+    /**
+     * Delete documents of a physical index by bulk request asynchronously. Documents already deleted are ignored.
+     * @param physicalIndex physical index name
+     * @param routingById routing of the documents by id (routing is nullable)
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncDeleteDocuments(String physicalIndex, Map<String, String> routingById) {
+        var request = new Request("POST", "/_bulk");
+        request.addParameter("refresh", "true");
+        StringBuilder body = new StringBuilder();
+        try {
+            for (Map.Entry<String, String> entry : routingById.entrySet()) {
+                Map<String, Object> action = new LinkedHashMap<String, Object>();
+                action.put("_index", physicalIndex);
+                action.put("_id", entry.getKey());
+                if (entry.getValue() != null) {
+                    action.put("routing", entry.getValue());
+                }
+                body.append(EsJson.toJson(Map.of("delete", action))).append('\n');
+            }
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        request.setEntity(new StringEntity(body.toString(), BulkBodyWriter.NDJSON));
+        return performJsonRequestAsync(request, "bulk").thenApply(response -> {
+            for (JsonNode item : response.path("items")) {
+                int status = item.path("delete").path("status").asInt();
+                if (status != HttpStatus.SC_OK && status != HttpStatus.SC_NOT_FOUND) {
+                    throw new EsClientException("Failed to delete documents of " + physicalIndex + ": " + item);
+                }
+            }
+            return response;
+        });
+    }
+
+    /**
+     * Refresh physical indices asynchronously.
+     * @param indices physical index names
+     * @return 非同期応答
+     */
+    public CompletableFuture<RefreshResponse> asyncRefreshPhysicalIndices(List<String> indices) {
+        return refreshPhysicalIndex(String.join(",", indices));
     }
 
     /**
@@ -271,7 +703,9 @@ public class InternalEsClient implements Closeable {
      * @throws IOException exception while calling API.
      */
     public DeleteIndexResponse syncDeleteIndex(String index) throws IOException {
-        return esClient.indices().delete(dir -> dir.index(makeIndex(index, null)));
+        var response = esClient.indices().delete(dir -> dir.index(makeIndex(index, null)));
+        indexCache.deleted(index + ".");
+        return response;
     }
 
     /**
@@ -281,8 +715,7 @@ public class InternalEsClient implements Closeable {
      * @throws IOException exception while calling API.
      */
     public void updateIndexSettings(String index, Map<String, String> settings) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        try (StringReader sr = new StringReader(mapper.writeValueAsString(settings))) {
+        try (StringReader sr = new StringReader(EsJson.toJson(settings))) {
             esClient.indices().putSettings(psr -> psr
                 .index(makeIndex(index, null))
                 .settings(is -> is.withJson(sr))
@@ -298,8 +731,23 @@ public class InternalEsClient implements Closeable {
      * @throws IOException exception while calling API.
      */
     public TypeMapping getMapping(String index, String type) throws IOException {
-        return esClient.indices().getMapping(gmr -> gmr.index(makeIndex(index, type))).get(makeIndex(index, type))
-                .mappings();
+        String physicalIndex = makeIndex(index, type);
+        var cached = indexCache.getMapping(physicalIndex);
+        if (cached != null) {
+            return cached;
+        }
+        var response = esClient.indices().getMapping(gmr -> gmr.index(physicalIndex));
+        var record = response.get(physicalIndex);
+        if (record == null && response.result().size() == 1) {
+            // the type is an alias of consolidated index
+            record = response.result().values().iterator().next();
+        }
+        if (record == null) {
+            // the name matched several indices, none of which is the index of the type
+            throw indexNotFound("indices.get_mapping", physicalIndex);
+        }
+        indexCache.putMapping(physicalIndex, record.mappings());
+        return record.mappings();
     }
 
     /**
@@ -311,10 +759,11 @@ public class InternalEsClient implements Closeable {
      * @throws IOException exception while calling API.
      */
     public PutMappingResponse putMapping(String index, String type, Map<String, Object> mappings) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        try (StringReader sr = new StringReader(mapper.writeValueAsString(mappings))) {
+        try (StringReader sr = new StringReader(EsJson.toJson(mappings))) {
             return esClient.indices()
                     .putMapping(pmr -> pmr.index(makeIndex(index, type)).type(makeType(type)).withJson(sr));
+        } finally {
+            indexCache.invalidateMapping(makeIndex(index, type));
         }
     }
 
@@ -362,6 +811,9 @@ public class InternalEsClient implements Closeable {
             String routingId,
             boolean realtime,
             long version) {
+        if (indexCache.isKnownMissing(makeIndex(index, type))) {
+            return CompletableFuture.failedFuture(indexNotFound("get", makeIndex(index, type)));
+        }
         var ret = esAsyncClient.get(gr -> {
             var getRequest = gr.index(makeIndex(index, type)).type(makeType(type)).id(id).realtime(realtime);
             if (routingFlag) {
@@ -388,19 +840,23 @@ public class InternalEsClient implements Closeable {
             String type,
             String routingId,
             Map<String, Object> query) {
+        if (type != null && indexCache.isKnownMissing(makeIndex(index, type))) {
+            return CompletableFuture.failedFuture(indexNotFound("search", makeIndex(index, type)));
+        }
+        var targets = searchTargets(index, type);
         var result = esAsyncClient.search(sreq -> {
-            var builder = sreq.index(makeIndex(index, type)).type(makeType(type)).version(true);
+            var builder = sreq.index(targets).type(makeType(type)).version(true);
+            if (type == null && indexCache.isLoaded()) {
+                builder = builder.ignoreUnavailable(true);
+            }
             if (query != null) {
                 try (var sr = new StringReader(queryMapToJSON(query, type))) {
                     builder = builder.withJson(sr);
                 }
             }
-            if (routingFlag) {
-                builder = builder.routing(routingId);
-            }
-            return builder;
+            return builder.routing(shardRouting.route("search", routingId));
         }, ObjectNode.class);
-        this.fireEvent(Event.afterRequest, index, type, null, JSONObject.toJSONString(query), "Search");
+        this.fireEvent(Event.afterRequest, index, type, null, toEventJson(Event.afterRequest, query), "Search");
         return result;
     }
 
@@ -418,6 +874,80 @@ public class InternalEsClient implements Closeable {
         return this.asyncSearch(index, null, routingId, query);
     }
 
+    /**
+     * Restrict fields returned by search.
+     * The original query is not modified.
+     * @param query クエリ情報 (nullable)
+     * @param sourceFields fields of _source to be returned. `type` is always returned. null for whole _source.
+     * @param docValueFields fields returned from doc values, which must be keyword, numeric or date (nullable)
+     * @return query with projection
+     */
+    static Map<String, Object> projectQuery(Map<String, Object> query,
+            List<String> sourceFields,
+            List<String> docValueFields) {
+        Map<String, Object> projected = new LinkedHashMap<String, Object>();
+        if (query != null) {
+            projected.putAll(query);
+        }
+        if (sourceFields != null) {
+            projected.put("_source", sourceFields);
+        }
+        if (docValueFields != null && !docValueFields.isEmpty()) {
+            projected.put("docvalue_fields", docValueFields);
+        }
+        return projected;
+    }
+
+    /**
+     * Search documents and get the response body as a stream, without buffering whole response on heap.
+     * The returned future is completed as soon as the headers of successful response arrive.
+     * Reading from the stream is throttled by suspending the connection, and closing it before the end
+     * cancels the request.
+     * @param index インデックス名
+     * @param type タイプ名 (nullable)
+     * @param routingId routingId
+     * @param query クエリ情報
+     * @return 非同期応答 (response body)
+     */
+    public CompletableFuture<InputStream> asyncSearchStream(String index,
+            String type,
+            String routingId,
+            Map<String, Object> query) {
+        if (type != null && indexCache.isKnownMissing(makeIndex(index, type))) {
+            return CompletableFuture.failedFuture(indexNotFound("search", makeIndex(index, type)));
+        }
+        var request = new Request("POST", "/" + String.join(",", searchTargets(index, type)) + "/_search");
+        request.addParameter("version", "true");
+        if (type == null && indexCache.isLoaded()) {
+            request.addParameter("ignore_unavailable", "true");
+        }
+        addRouting(request, shardRouting.route("search", routingId));
+        if (query != null) {
+            request.setJsonEntity(queryMapToJSON(query, type));
+        }
+
+        var body = new CompletableFuture<InputStream>();
+        var pipe = new ResponsePipe(STREAM_BUFFER_BYTES);
+        var options = request.getOptions().toBuilder();
+        options.setHttpAsyncResponseConsumerFactory(() -> new StreamingResponseConsumer(pipe, body));
+        request.setOptions(options);
+        var cancellable = restClient.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                // the body has been handed over when the headers arrived
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                body.completeExceptionally(toElasticsearchException("search", e));
+                pipe.fail(e);
+            }
+        });
+        pipe.onClose(cancellable::cancel);
+        this.fireEvent(Event.afterRequest, index, type, null, toEventJson(Event.afterRequest, query), "Search");
+        return body;
+    }
+
 
     /**
      * Search documents from multiple indices asynchronously.
@@ -455,18 +985,14 @@ public class InternalEsClient implements Closeable {
         for (var query : queryList) {
             var riBuilder = new RequestItem.Builder();
             riBuilder = riBuilder.header(mh -> {
-                var mheader = mh.index(makeIndex(index, type));
-                if (routingFlag) {
-                    return mheader.routing(routingId);
-                }
-                return mheader;
+                return mh.index(makeIndex(index, type)).routing(shardRouting.route("msearch", routingId));
             }).body(mb -> {
                 var mbody = mb;
                 if (query != null) {
                     String queryJson = queryMapToJSON(query, null);
                     try (StringReader sr = new StringReader(queryJson)) {
-                        var parser = Json.createParser(sr);
-                        mbody = mbody.withJson(parser, esClient._jsonpMapper());
+                        var parser = jsonpMapper.jsonProvider().createParser(sr);
+                        mbody = mbody.withJson(parser, jsonpMapper);
                     }
                 }
                 return mbody;
@@ -476,11 +1002,21 @@ public class InternalEsClient implements Closeable {
 
         var response = esAsyncClient.msearch(mr -> mr.searches(listRequestItems), ObjectNode.class);
 
-        this.fireEvent(Event.afterRequest, index, type, null, JSONArray.toJSONString(queryList), "MultiSearch");
+        this.fireEvent(Event.afterRequest, index, type, null, toEventJson(Event.afterRequest, queryList),
+                "MultiSearch");
         return response;
     }
 
-    private static final String SCROLL_SEARCH_KEEP_ALIVE_TIME = "5m";
+    private static final String SCROLL_SEARCH_KEEP_ALIVE_TIME = System.getProperty("io.personium.es.scroll.keepAlive",
+            "5m");
+
+    /** Sort in index order, which is the cheapest sort for scroll. */
+    private static final List<String> DOC_ORDER_SORT = List.of("_doc");
+
+    /** Sort in index order, which is the cheapest sort available only with point-in-time. */
+    private static final List<Map<String, Object>> INDEX_ORDER_SORT = List.of(Map.of("_shard_doc", "asc"));
+    private static final JsonpDeserializer<SearchResponse<ObjectNode>> SEARCH_RESPONSE_DESERIALIZER =
+            SearchResponse.createSearchResponseDeserializer(JsonpDeserializer.of(ObjectNode.class));
 
     /**
      * ScrollSearch with query.
@@ -492,6 +1028,20 @@ public class InternalEsClient implements Closeable {
      */
     public SearchResponse<ObjectNode> scrollSearch(String index, String type, Map<String, Object> query)
             throws IOException {
+        return scrollSearch(index, type, null, query);
+    }
+
+    /**
+     * ScrollSearch with query.
+     * @param index インデックス名
+     * @param type タイプ名
+     * @param routingId routingId (null to search every shard)
+     * @param query 検索クエリ
+     * @return SearchResponse.
+     * @throws IOException IO exception while calling API.
+     */
+    public SearchResponse<ObjectNode> scrollSearch(String index, String type, String routingId,
+            Map<String, Object> query) throws IOException {
         var builder = new SearchRequest.Builder().index(makeIndex(index, type))
                 .scroll(t -> t.time(SCROLL_SEARCH_KEEP_ALIVE_TIME));
         if (type != null) {
@@ -502,6 +1052,10 @@ public class InternalEsClient implements Closeable {
                 builder = builder.withJson(sr);
             }
         }
+        String routing = shardRouting.route("scroll", routingId);
+        if (routing != null) {
+            builder = builder.routing(routing);
+        }
         return esClient.search(builder.build(), ObjectNode.class);
     }
 
@@ -516,53 +1070,284 @@ public class InternalEsClient implements Closeable {
     }
 
     /**
-     * Search documents in all types in an index asynchronously.
+     * Start scroll search on every shard asynchronously.
+     * Documents are sorted in index order if the query has no sort.
      * @param index インデックス名
-     * @param query クエリ情報
-     * @return Asynchronous response.
-     * @throws IOException IO exception while calling API.
+     * @param type タイプ名 (nullable)
+     * @param query 検索クエリ (nullable)
+     * @param keepAlive keep alive time of scroll context
+     * @param size page size
+     * @param sliceId slice ID (ignored if maxSlices is less than 2)
+     * @param maxSlices number of slices
+     * @return 非同期応答
      */
-    public CompletableFuture<SearchResponse<ObjectNode>> indexSearch(String index,
-            Map<String, Object> query) throws IOException {
-        SearchRequest.Builder builder = new SearchRequest.Builder().index(makeIndex(index, null));
-        if (query != null) {
-            try (StringReader sr = new StringReader(queryMapToJSON(query, null))) {
-                builder = builder.withJson(sr);
-            }
-        }
-
-        var response = esAsyncClient.search(builder.build(), ObjectNode.class);
-        this.fireEvent(Event.afterRequest, index, null, null, JSONObject.toJSONString(query), "Search");
-        return response;
+    public CompletableFuture<SearchResponse<ObjectNode>> asyncScrollSearch(String index,
+            String type,
+            Map<String, Object> query,
+            String keepAlive,
+            int size,
+            int sliceId,
+            int maxSlices) {
+        return asyncScrollSearch(index, type, null, query, keepAlive, size, sliceId, maxSlices);
     }
 
     /**
-     * Index a document asynchronously.
+     * Start scroll search asynchronously.
+     * Documents are sorted in index order if the query has no sort.
      * @param index インデックス名
-     * @param type タイプ名
-     * @param id ドキュメントのid
-     * @param routingId routingId
-     * @param data データ
-     * @param opType 操作タイプ
-     * @param seqNoPrimaryTerm SeqNoPrimaryTerm for optimistic lock.
-     * @return IndexResponse
-     * @throws IOException IO exception while calling API.
+     * @param type タイプ名 (nullable)
+     * @param routingId routingId (null to search every shard)
+     * @param query 検索クエリ (nullable)
+     * @param keepAlive keep alive time of scroll context
+     * @param size page size
+     * @param sliceId slice ID (ignored if maxSlices is less than 2)
+     * @param maxSlices number of slices
+     * @return 非同期応答
      */
-    public CompletableFuture<IndexResponse> asyncIndex(String index,
+    public CompletableFuture<SearchResponse<ObjectNode>> asyncScrollSearch(String index,
             String type,
-            String id,
             String routingId,
-            Map<String, Object> data,
-            OpType opType,
-            SeqNoPrimaryTerm seqNoPrimaryTerm) {
+            Map<String, Object> query,
+            String keepAlive,
+            int size,
+            int sliceId,
+            int maxSlices) {
+        Map<String, Object> scrollQuery = new LinkedHashMap<String, Object>();
+        if (query != null) {
+            scrollQuery.putAll(query);
+        }
+        scrollQuery.remove("from");
+        scrollQuery.remove("size");
+        if (scrollQuery.get("sort") == null) {
+            scrollQuery.put("sort", DOC_ORDER_SORT);
+        }
+        var builder = new SearchRequest.Builder();
+        try (var sr = new StringReader(queryMapToJSON(scrollQuery, type))) {
+            builder = builder.withJson(sr);
+        }
+        builder = builder.index(makeIndex(index, type)).version(true).size(size).scroll(t -> t.time(keepAlive));
+        if (maxSlices > 1) {
+            builder = builder.slice(sl -> sl.id(sliceId).max(maxSlices));
+        }
+        // slices are parts of one read, so it is counted only once
+        String routing;
+        if (sliceId == 0) {
+            routing = shardRouting.route("scroll", routingId);
+        } else {
+            routing = shardRouting.resolve(routingId);
+        }
+        if (routing != null) {
+            builder = builder.routing(routing);
+        }
+        var result = esAsyncClient.search(builder.build(), ObjectNode.class);
+        this.fireEvent(Event.afterRequest, index, type, null, toEventJson(Event.afterRequest, query), "Search");
+        return result;
+    }
 
+    /**
+     * Continue scroll search asynchronously.
+     * @param scrollId スクロールID
+     * @param keepAlive keep alive time to be extended
+     * @return 非同期応答
+     */
+    public CompletableFuture<ScrollResponse<ObjectNode>> asyncScroll(String scrollId, String keepAlive) {
+        return esAsyncClient.scroll(sr -> sr.scrollId(scrollId).scroll(t -> t.time(keepAlive)), ObjectNode.class);
+    }
+
+    /**
+     * Release scroll context asynchronously.
+     * @param scrollId スクロールID
+     * @return 非同期応答 (true if it was released)
+     */
+    public CompletableFuture<Boolean> asyncClearScroll(String scrollId) {
+        return esAsyncClient.clearScroll(c -> c.scrollId(scrollId)).thenApply(response -> response.succeeded());
+    }
+
+    /**
+     * Open point-in-time of the index asynchronously.
+     * With routing, the point-in-time holds only the shards of the routing and searches in it hit only them.
+     * @param index インデックス名
+     * @param type タイプ名 (nullable)
+     * @param routingId routingId (nullable)
+     * @param keepAlive keep alive time (e.g. `1m`)
+     * @return 非同期応答 (point-in-time ID)
+     */
+    public CompletableFuture<String> openPointInTime(String index, String type, String routingId,
+            String keepAlive) {
+        var request = new Request("POST", "/" + makeIndex(index, type) + "/_pit");
+        request.addParameter("keep_alive", keepAlive);
+        addRouting(request, shardRouting.route("open_point_in_time", routingId));
+        return performJsonRequestAsync(request, "open_point_in_time").thenApply(response -> {
+            String pitId = response.path("id").asText(null);
+            if (pitId == null) {
+                throw new EsClientException("Point-in-time was not opened: " + response);
+            }
+            return pitId;
+        });
+    }
+
+    /**
+     * Close point-in-time asynchronously.
+     * @param pitId point-in-time ID
+     * @return 非同期応答 (true if it was closed)
+     */
+    public CompletableFuture<Boolean> closePointInTime(String pitId) {
+        return esAsyncClient.closePointInTime(c -> c.id(pitId)).thenApply(response -> response.succeeded());
+    }
+
+    /**
+     * Search documents in point-in-time after the sort values asynchronously.
+     * `from` of the query is ignored, and documents are sorted in index order if the query has no sort.
+     * Routing is not given here, since the point-in-time is already limited to the shards of its routing.
+     * The request is sent by the low level client, so that sort values keep their JSON types.
+     * @param index インデックス名 (for event)
+     * @param type タイプ名 (for event, nullable)
+     * @param query クエリ情報
+     * @param pitId point-in-time ID
+     * @param keepAlive keep alive time to be extended
+     * @param searchAfter sort values of the last hit of the previous page (nullable for the first page)
+     * @return 非同期応答
+     */
+    public CompletableFuture<SearchResponse<ObjectNode>> asyncSearchAfter(String index,
+            String type,
+            Map<String, Object> query,
+            String pitId,
+            String keepAlive,
+            List<Object> searchAfter) {
+        Map<String, Object> pageQuery = new LinkedHashMap<String, Object>();
+        if (query != null) {
+            pageQuery.putAll(query);
+        }
+        pageQuery.remove("from");
+        if (pageQuery.get("sort") == null) {
+            pageQuery.put("sort", INDEX_ORDER_SORT);
+        }
+        ObjectNode body;
+        try {
+            body = (ObjectNode) EsJson.mapper().readTree(queryMapToJSON(pageQuery, type));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        body.putObject("pit").put("id", pitId).put("keep_alive", keepAlive);
+        if (searchAfter != null && !searchAfter.isEmpty()) {
+            body.set("search_after", EsJson.mapper().valueToTree(searchAfter));
+        }
+        var request = new Request("POST", "/_search");
+        request.addParameter("version", "true");
+        request.setJsonEntity(body.toString());
+        var result = performRequestAsync(request, "search", in -> SEARCH_RESPONSE_DESERIALIZER.deserialize(
+                jsonpMapper.jsonProvider().createParser(in), jsonpMapper));
+        this.fireEvent(Event.afterRequest, index, type, null, toEventJson(Event.afterRequest, query), "Search");
+        return result;
+    }
+
+    /**
+     * Search documents in all types in an index asynchronously.
+     * @param index インデックス名
+     * @param query クエリ情報
+     * @return Asynchronous response.
+     * @throws IOException IO exception while calling API.
+     */
+    public CompletableFuture<SearchResponse<ObjectNode>> indexSearch(String index,
+            Map<String, Object> query) throws IOException {
+        return indexSearch(index, null, query);
+    }
+
+    /**
+     * Search documents in all types in an index asynchronously.
+     * @param index インデックス名
+     * @param routingId routingId (null to search every shard)
+     * @param query クエリ情報
+     * @return Asynchronous response.
+     * @throws IOException IO exception while calling API.
+     */
+    public CompletableFuture<SearchResponse<ObjectNode>> indexSearch(String index,
+            String routingId,
+            Map<String, Object> query) throws IOException {
+        SearchRequest.Builder builder = new SearchRequest.Builder().index(searchTargets(index, null));
+        String routing = shardRouting.route("search", routingId);
+        if (routing != null) {
+            builder = builder.routing(routing);
+        }
+        if (indexCache.isLoaded()) {
+            builder = builder.ignoreUnavailable(true);
+        }
+        if (query != null) {
+            try (StringReader sr = new StringReader(queryMapToJSON(query, null))) {
+                builder = builder.withJson(sr);
+            }
+        }
+
+        var response = esAsyncClient.search(builder.build(), ObjectNode.class);
+        this.fireEvent(Event.afterRequest, index, null, null, toEventJson(Event.afterRequest, query), "Search");
+        return response;
+    }
+
+    /**
+     * Index a document asynchronously.
+     * @param index インデックス名
+     * @param type タイプ名
+     * @param id ドキュメントのid
+     * @param routingId routingId
+     * @param data データ
+     * @param opType 操作タイプ
+     * @param seqNoPrimaryTerm SeqNoPrimaryTerm for optimistic lock.
+     * @return IndexResponse
+     * @throws IOException IO exception while calling API.
+     */
+    public CompletableFuture<IndexResponse> asyncIndex(String index,
+            String type,
+            String id,
+            String routingId,
+            Map<String, Object> data,
+            OpType opType,
+            SeqNoPrimaryTerm seqNoPrimaryTerm) {
+        return asyncIndex(index, type, id, routingId, data, opType, seqNoPrimaryTerm, EsRefreshPolicy.IMMEDIATE);
+    }
+
+    /**
+     * Index a document asynchronously.
+     * @param index インデックス名
+     * @param type タイプ名
+     * @param id ドキュメントのid
+     * @param routingId routingId
+     * @param data データ
+     * @param opType 操作タイプ
+     * @param seqNoPrimaryTerm SeqNoPrimaryTerm for optimistic lock.
+     * @param refreshPolicy refresh policy
+     * @return IndexResponse
+     */
+    public CompletableFuture<IndexResponse> asyncIndex(String index,
+            String type,
+            String id,
+            String routingId,
+            Map<String, Object> data,
+            OpType opType,
+            SeqNoPrimaryTerm seqNoPrimaryTerm,
+            EsRefreshPolicy refreshPolicy) {
+        var creator = this.lazyIndexCreator;
+        if (creator == null) {
+            return sendIndex(index, type, id, routingId, data, opType, seqNoPrimaryTerm, refreshPolicy);
+        }
+        return creator.retryOnMissing(index, type,
+                () -> sendIndex(index, type, id, routingId, data, opType, seqNoPrimaryTerm, refreshPolicy));
+    }
+
+    private CompletableFuture<IndexResponse> sendIndex(String index,
+            String type,
+            String id,
+            String routingId,
+            Map<String, Object> data,
+            OpType opType,
+            SeqNoPrimaryTerm seqNoPrimaryTerm,
+            EsRefreshPolicy refreshPolicy) {
         var response = esAsyncClient.index(ir -> {
             var indexReq = ir
                     .index(makeIndex(index, type))
                     .type(makeType(type))
                     .id(id)
                     .opType(opType)
-                    .refresh(Refresh.True)
+                    .refresh(toRefresh(refreshPolicy))
                     .document(data);
             if (routingFlag) {
                 indexReq = indexReq.routing(routingId);
@@ -577,7 +1362,13 @@ public class InternalEsClient implements Closeable {
             type, id, routingId, data, opType.toString(), seqNoPrimaryTerm);
         this.fireEvent(Event.afterCreate, logInfo);
 
-        return response;
+        refreshWhileWaiting(response, refreshPolicy, makeIndex(index, type));
+        deferRefreshOnSuccess(response, refreshPolicy, makeIndex(index, type));
+        // the index may be created automatically by the write
+        return response.thenApply(result -> {
+            indexCache.created(result.index());
+            return result;
+        });
     }
 
     /**
@@ -594,12 +1385,31 @@ public class InternalEsClient implements Closeable {
             String type, String id,
             String routingId,
             long version) throws IOException {
+        return asyncDelete(index, type, id, routingId, version, EsRefreshPolicy.IMMEDIATE);
+    }
+
+    /**
+     * Delete a document asynchronously.
+     * @param index インデックス名
+     * @param type タイプ名
+     * @param id Document id to delete
+     * @param routingId routingId
+     * @param version The version of the document to delete
+     * @param refreshPolicy refresh policy
+     * @return DeleteResponse.
+     * @throws IOException IO exception while calling API.
+     */
+    public CompletableFuture<DeleteResponse> asyncDelete(String index,
+            String type, String id,
+            String routingId,
+            long version,
+            EsRefreshPolicy refreshPolicy) throws IOException {
         var response = esAsyncClient.delete(dr -> {
             var deleteReq = dr
                 .index(makeIndex(index, type))
                 .type(makeType(type))
                 .id(id)
-                .refresh(Refresh.True);
+                .refresh(toRefresh(refreshPolicy));
             if (routingFlag) {
                 deleteReq = deleteReq.routing(routingId);
             }
@@ -610,9 +1420,58 @@ public class InternalEsClient implements Closeable {
         });
 
         this.fireEvent(Event.afterRequest, index, type, id, null, "Delete");
+        refreshWhileWaiting(response, refreshPolicy, makeIndex(index, type));
+        deferRefreshOnSuccess(response, refreshPolicy, makeIndex(index, type));
         return response;
     }
 
+    /**
+     * バルクでドキュメントを登録/更新/削除.
+     * @param index インデックス名
+     * @param routingId routingId
+     * @param datas バルクドキュメント
+     * @param isWriteLog リクエスト情報のログ出力有無
+     * @param refreshPolicy refresh policy
+     * @return BulkResponse
+     * @throws IOException IO exception while calling API.
+     */
+    public BulkResponse bulkRequest(String index,
+        String routingId,
+        List<EsBulkRequest> datas,
+        boolean isWriteLog,
+        EsRefreshPolicy refreshPolicy) throws IOException {
+        var sent = new CompletableFuture<Void>();
+        datas.stream().map(data -> makeIndex(index, data.getType())).distinct()
+            .forEach(physicalIndex -> refreshWhileWaiting(sent, refreshPolicy, physicalIndex));
+        BulkResponse result;
+        try {
+            result = bulkRequest(index, routingId, datas, isWriteLog, toRefresh(refreshPolicy));
+        } finally {
+            sent.complete(null);
+        }
+        if (refreshPolicy == EsRefreshPolicy.DEFERRED) {
+            datas.stream().map(data -> makeIndex(index, data.getType())).distinct().forEach(this::deferRefresh);
+        }
+        return result;
+    }
+
+    /**
+     * Asynchronously register/update/delete documents in bulk.
+     * @param index インデックス名
+     * @param routingId routingId
+     * @param datas バルクドキュメント
+     * @param isWriteLog リクエスト情報のログ出力有無
+     * @param refreshPolicy refresh policy
+     * @return BulkResponse
+     */
+    public CompletableFuture<BulkResponse> asyncBulkRequest(String index,
+        String routingId,
+        List<EsBulkRequest> datas,
+        boolean isWriteLog,
+        EsRefreshPolicy refreshPolicy) {
+        return asyncBulkRequest(index, Collections.singletonMap(routingId, datas), isWriteLog, refreshPolicy);
+    }
+
     /**
      * バルクでドキュメントを登録/更新/削除.
      * @param index インデックス名
@@ -623,36 +1482,183 @@ public class InternalEsClient implements Closeable {
      * @return BulkResponse
      * @throws IOException IO exception while calling API.
      */
-    @SuppressWarnings("unchecked")
     public BulkResponse bulkRequest(String index,
         String routingId,
         List<EsBulkRequest> datas,
         boolean isWriteLog,
         Refresh refresh) throws IOException {
+        List<Map<String, Object>> bulkList = createBulkLogList(isWriteLog);
+        var request = createBulkRequest(index, Collections.singletonMap(routingId, datas), refresh, bulkList);
 
-        List<BulkOperation> lOperations = new ArrayList<BulkOperation>();
-        List<Map<String, Object>> bulkList = new ArrayList<Map<String, Object>>();
+        BulkResponse result;
+        try {
+            result = parseBulkResponse(restClient.performRequest(request));
+        } catch (ResponseException e) {
+            var converted = toElasticsearchException("bulk", e);
+            if (converted instanceof ElasticsearchException) {
+                throw (ElasticsearchException) converted;
+            }
+            throw e;
+        }
+        afterBulkRequest(index, result, bulkList, isWriteLog);
+        return result;
+    }
 
-        for (EsBulkRequest data : datas) {
-            if (EsBulkRequest.BulkRequestType.DELETE == data.getRequestType()) {
-                lOperations.add(createDeleteOperation(index, routingId, data));
-            } else {
-                lOperations.add(createIndexOperation(index, routingId, data));
+    /**
+     * Asynchronously register/update/delete documents of multiple routing IDs in one bulk request.
+     * Items of the response are in the iteration order of the map and lists.
+     * @param index インデックス名
+     * @param bulkMap バルクドキュメント (key: routingId)
+     * @param refreshPolicy refresh policy
+     * @return BulkResponse
+     */
+    public CompletableFuture<BulkResponse> asyncBulkRequest(String index,
+        Map<String, List<EsBulkRequest>> bulkMap,
+        EsRefreshPolicy refreshPolicy) {
+        return asyncBulkRequest(index, bulkMap, false, refreshPolicy);
+    }
+
+    private CompletableFuture<BulkResponse> asyncBulkRequest(String index,
+        Map<String, List<EsBulkRequest>> bulkMap,
+        boolean isWriteLog,
+        EsRefreshPolicy refreshPolicy) {
+        var creator = this.lazyIndexCreator;
+        var response = sendBulkRequest(index, bulkMap, isWriteLog, refreshPolicy);
+        if (creator == null) {
+            return response;
+        }
+        return response.thenCompose(result -> creator.retryMissingItems(index, bulkMap, result,
+                retries -> sendBulkRequest(index, retries, isWriteLog, refreshPolicy)));
+    }
+
+    private CompletableFuture<BulkResponse> sendBulkRequest(String index,
+        Map<String, List<EsBulkRequest>> bulkMap,
+        boolean isWriteLog,
+        EsRefreshPolicy refreshPolicy) {
+        List<Map<String, Object>> bulkList = createBulkLogList(isWriteLog);
+        Request request;
+        try {
+            request = createBulkRequest(index, bulkMap, toRefresh(refreshPolicy), bulkList);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        var future = new CompletableFuture<BulkResponse>();
+        restClient.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                try {
+                    future.complete(parseBulkResponse(response));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(toElasticsearchException("bulk", e));
+            }
+        });
+        bulkMap.values().stream().flatMap(List::stream).map(data -> makeIndex(index, data.getType())).distinct()
+            .forEach(physicalIndex -> refreshWhileWaiting(future, refreshPolicy, physicalIndex));
+        return future.thenApply(result -> {
+            result.items().stream().filter(item -> item.error() == null)
+                .forEach(item -> indexCache.created(item.index()));
+            afterBulkRequest(index, result, bulkList, isWriteLog);
+            if (refreshPolicy == EsRefreshPolicy.DEFERRED) {
+                bulkMap.values().stream().flatMap(List::stream).map(data -> makeIndex(index, data.getType()))
+                    .distinct().forEach(this::deferRefresh);
             }
+            return result;
+        });
+    }
+
+    /**
+     * Create list of request information for log, only when it is consumed by debug log or afterRequest handler.
+     * @param isWriteLog リクエスト情報のログ出力有無
+     * @return list to be filled by createBulkBody, or null if not needed
+     */
+    List<Map<String, Object>> createBulkLogList(boolean isWriteLog) {
+        if (log.isDebugEnabled() || isWriteLog && eventHandlerMap.get(Event.afterRequest) != null) {
+            return new ArrayList<Map<String, Object>>();
+        }
+        return null;
+    }
 
-            JSONObject logData = new JSONObject();
-            logData.put("reqType", data.getRequestType().toString());
-            logData.put("type", data.getType());
-            logData.put("id", data.getId());
-            logData.put("source", data.getSource());
-            bulkList.add(logData);
-            log.debug("BulkItemRequest:" + logData.toJSONString());
+    private Request createBulkRequest(String index,
+        Map<String, List<EsBulkRequest>> bulkMap,
+        Refresh refresh,
+        List<Map<String, Object>> bulkList) throws IOException {
+        var request = new Request("POST", "/_bulk");
+        if (refresh != null) {
+            request.addParameter("refresh", refresh.jsonValue());
         }
-        Map<String, Object> debug = new HashMap<String, Object>();
-        debug.put("bulk", bulkList);
+        request.setEntity(createBulkBody(index, bulkMap, bulkList));
+        return request;
+    }
 
-        var result = esClient.bulk(br -> br.operations(lOperations).refresh(refresh));
-        if (result.errors()) {
+    /**
+     * Create NDJSON body of bulk request.
+     * @param index インデックス名
+     * @param bulkMap バルクドキュメント (key: routingId)
+     * @param bulkList list to which request information for log is added (nullable)
+     * @return body
+     * @throws IOException exception while writing body
+     */
+    @SuppressWarnings("unchecked")
+    HttpEntity createBulkBody(String index,
+        Map<String, List<EsBulkRequest>> bulkMap,
+        List<Map<String, Object>> bulkList) throws IOException {
+        var writer = new BulkBodyWriter(jsonpMapper.objectMapper(), routingFlag);
+        for (Map.Entry<String, List<EsBulkRequest>> ents : bulkMap.entrySet()) {
+            for (EsBulkRequest data : ents.getValue()) {
+                writer.write(index, ents.getKey(), data);
+
+                if (bulkList != null) {
+                    JSONObject logData = new JSONObject();
+                    logData.put("reqType", data.getRequestType().toString());
+                    logData.put("type", data.getType());
+                    logData.put("id", data.getId());
+                    logData.put("source", data.getSource());
+                    bulkList.add(logData);
+                    if (log.isDebugEnabled()) {
+                        log.debug("BulkItemRequest:" + logData.toJSONString());
+                    }
+                }
+            }
+        }
+        return writer.toEntity();
+    }
+
+    private BulkResponse parseBulkResponse(Response response) throws IOException {
+        try (var in = response.getEntity().getContent()) {
+            return BulkResponse._DESERIALIZER.deserialize(jsonpMapper.jsonProvider().createParser(in), jsonpMapper);
+        }
+    }
+
+    /**
+     * Convert error response of low level client into ElasticsearchException in the same way as ES client.
+     * @param endpoint endpoint id
+     * @param e exception
+     * @return converted exception, or the original exception if the response is not an error of Elasticsearch
+     */
+    private Exception toElasticsearchException(String endpoint, Exception e) {
+        if (!(e instanceof ResponseException)) {
+            return e;
+        }
+        var response = ((ResponseException) e).getResponse();
+        try (var in = response.getEntity().getContent()) {
+            var error = ErrorResponse._DESERIALIZER.deserialize(jsonpMapper.jsonProvider().createParser(in),
+                    jsonpMapper);
+            return new ElasticsearchException(endpoint, error);
+        } catch (IOException | RuntimeException parseError) {
+            return e;
+        }
+    }
+
+    private void afterBulkRequest(String index, BulkResponse result, List<Map<String, Object>> bulkList,
+        boolean isWriteLog) {
+        if (result.errors() && log.isDebugEnabled()) {
             for (var item: result.items()) {
                 if (item.error() != null) {
                     log.debug("BulkItemReponse:" + ":" + item.operationType() + ":" + item.id() + ":" + item.index()
@@ -660,51 +1666,11 @@ public class InternalEsClient implements Closeable {
                 }
             }
         }
-        if (isWriteLog) {
+        if (isWriteLog && bulkList != null) {
+            Map<String, Object> debug = new HashMap<String, Object>();
+            debug.put("bulk", bulkList);
             this.fireEvent(Event.afterRequest, index, "none", "none", debug, "bulkRequest");
         }
-        return result;
-    }
-
-    /**
-    * バルクリクエストのINDEXリクエストを作成する.
-    * @param index インデックス名
-    * @param routingId ルーティングID
-    * @param data バルクドキュメント情報
-    * @return 作成したINDEXリクエスト
-    */
-    private BulkOperation createDeleteOperation(String index, String routingId, EsBulkRequest data) {
-        BulkOperation.Builder builder = new BulkOperation.Builder();
-        return builder.delete(dob -> {
-            var deleteBuilder = dob
-                .index(makeIndex(index, data.getType()))
-                .id(data.getId());
-            if (routingFlag) {
-                deleteBuilder = deleteBuilder.routing(routingId);
-            }
-            return deleteBuilder;
-        }).build();
-    }
-
-    /**
-    * バルクリクエストのDELETEリクエストを作成する.
-    * @param index インデックス名
-    * @param routingId ルーティングID
-    * @param data バルクドキュメント情報
-    * @return 作成したDELETEリクエスト
-    */
-    private BulkOperation createIndexOperation(String index, String routingId, EsBulkRequest data) {
-        BulkOperation.Builder builder = new BulkOperation.Builder();
-        return builder.index(ib -> {
-            var indexBuilder = ib
-                .index(makeIndex(index, data.getType()))
-                .id(data.getId())
-                .document(makeData(data.getSource(), data.getType()));
-            if (routingFlag) {
-                indexBuilder = indexBuilder.routing(routingId);
-            }
-            return indexBuilder;
-        }).build();
     }
 
     /**
@@ -755,16 +1721,337 @@ public class InternalEsClient implements Closeable {
         }
     }
 
-    // /**
-    //  * 引数で指定されたインデックスに対してrefreshする.
-    //  * @param index インデックス名
-    //  * @return レスポンス
-    //  */
-    // public PersoniumRefreshResponse refresh(String index) {
-    // RefreshResponse response = esTransportClient.admin().indices()
-    // .refresh(new RefreshRequest(makeIndex(index, null))).actionGet();
-    // return PersoniumRefreshResponseImpl.getInstance(response);
-    // }
+    /**
+     * Start delete-by-query as a background task, which is split into slices automatically.
+     * @param index 削除対象のインデックス
+     * @param routingId routingId (nullable to process every shard)
+     * @param deleteQuery 削除対象を指定するクエリ
+     * @param refresh refresh flag.
+     * @return 非同期応答 (task ID)
+     */
+    public CompletableFuture<String> asyncStartDeleteByQuery(String index,
+        String routingId,
+        Map<String, Object> deleteQuery,
+        boolean refresh) {
+        return startDeleteByQuery(makeIndex(index, null), routingId, queryMapToJSON(deleteQuery, null), refresh);
+    }
+
+    /**
+     * Start delete of all documents of the cell as a background task.
+     * Only the given physical indices and the shards for the routing id are processed.
+     * @param physicalIndices physical index names (see {@link #asyncFindCellIndices})
+     * @param routingId routingId of the documents
+     * @param cellId cell id stored in `c` field
+     * @param refresh refresh flag.
+     * @return 非同期応答 (task ID)
+     */
+    public CompletableFuture<String> asyncStartCellPurge(List<String> physicalIndices,
+        String routingId,
+        String cellId,
+        boolean refresh) {
+        try {
+            return startDeleteByQuery(String.join(",", physicalIndices), routingId, cellQuery(cellId, false),
+                    refresh);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Find physical indices which hold documents of the cell.
+     * Aggregation on `_index` is executed only on the shards for the routing id.
+     * @param index インデックス名
+     * @param routingId routingId of the documents
+     * @param cellId cell id stored in `c` field
+     * @return 非同期応答 (physical index names)
+     */
+    public CompletableFuture<List<String>> asyncFindCellIndices(String index, String routingId, String cellId) {
+        var request = new Request("POST", "/" + makeIndex(index, null) + "/_search");
+        addRouting(request, shardRouting.route("search", routingId));
+        request.addParameter("ignore_unavailable", "true");
+        try {
+            request.setJsonEntity(cellQuery(cellId, true));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return performJsonRequestAsync(request, "search").thenApply(response -> {
+            List<String> indices = new ArrayList<String>();
+            for (JsonNode bucket : response.path("aggregations").path("indices").path("buckets")) {
+                indices.add(bucket.path("key").asText());
+            }
+            return indices;
+        });
+    }
+
+    private static String cellQuery(String cellId, boolean aggregateIndices) throws JsonProcessingException {
+        Map<String, Object> query = new LinkedHashMap<String, Object>();
+        query.put("query", Map.of("bool", Map.of("filter", Map.of("term", Map.of("c", cellId)))));
+        if (aggregateIndices) {
+            query.put("size", 0);
+            query.put("aggs", Map.of("indices", Map.of("terms", Map.of("field", "_index",
+                    "size", MAX_CELL_INDICES))));
+        }
+        return EsJson.toJson(query);
+    }
+
+    private CompletableFuture<String> startDeleteByQuery(String target, String routingId, String queryJson,
+        boolean refresh) {
+        var request = new Request("POST", "/" + target + "/_delete_by_query");
+        request.addParameter("slices", "auto");
+        request.addParameter("wait_for_completion", "false");
+        request.addParameter("conflicts", "proceed");
+        addRouting(request, shardRouting.route("delete_by_query", routingId));
+        if (refresh) {
+            request.addParameter("refresh", "true");
+        }
+        request.setJsonEntity(queryJson);
+        return performJsonRequestAsync(request, "delete_by_query").thenApply(response -> {
+            String taskId = response.path("task").asText(null);
+            if (taskId == null) {
+                throw new EsClientException("Delete by query task was not started: " + response);
+            }
+            return taskId;
+        });
+    }
+
+    /**
+     * Get status of the task asynchronously.
+     * Raw JSON is returned because status of sliced task cannot be parsed by ES client.
+     * @param taskId task ID
+     * @return 非同期応答 (response of task API)
+     */
+    public CompletableFuture<JsonNode> asyncGetTask(String taskId) {
+        return performJsonRequestAsync(new Request("GET", "/_tasks/" + taskId), "tasks.get");
+    }
+
+    /**
+     * Cancel the task asynchronously.
+     * @param taskId task ID
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncCancelTask(String taskId) {
+        return performJsonRequestAsync(new Request("POST", "/_tasks/" + taskId + "/_cancel"), "tasks.cancel");
+    }
+
+    /**
+     * Remove result of the completed task stored in `.tasks` index asynchronously.
+     * @param taskId task ID
+     * @return 非同期応答
+     */
+    public CompletableFuture<JsonNode> asyncDeleteTaskResult(String taskId) {
+        var request = new Request("DELETE", "/.tasks/_doc/" + taskId);
+        request.addParameter("ignore", "404");
+        return performJsonRequestAsync(request, "delete");
+    }
+
+    private CompletableFuture<JsonNode> performJsonRequestAsync(Request request, String endpoint) {
+        return performRequestAsync(request, endpoint, in -> EsJson.mapper().readTree(in));
+    }
+
+    private <T> CompletableFuture<T> performRequestAsync(Request request, String endpoint,
+            ResponseParser<T> parser) {
+        var future = new CompletableFuture<T>();
+        restClient.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                try (var in = response.getEntity().getContent()) {
+                    future.complete(parser.parse(in));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(toElasticsearchException(endpoint, e));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Parser of response body of the low level client.
+     * @param <T> type of parsed response
+     */
+    private interface ResponseParser<T> {
+        T parse(InputStream in) throws IOException;
+    }
+
+    /**
+     * 引数で指定されたインデックスに対してrefreshする.
+     * @param index インデックス名
+     * @param type タイプ名 (null for all types in the index)
+     * @return RefreshResponse
+     */
+    public CompletableFuture<RefreshResponse> asyncRefresh(String index, String type) {
+        var response = refreshPhysicalIndex(makeIndex(index, type));
+        this.fireEvent(Event.afterRequest, index, type, null, null, "Refresh");
+        return response;
+    }
+
+    private CompletableFuture<RefreshResponse> refreshPhysicalIndex(String physicalIndex) {
+        return esAsyncClient.indices().refresh(rr -> rr.index(physicalIndex));
+    }
+
+    /**
+     * Convert refresh policy into refresh parameter of write request.
+     * @param refreshPolicy refresh policy
+     * @return refresh parameter
+     */
+    static Refresh toRefresh(EsRefreshPolicy refreshPolicy) {
+        if (refreshPolicy == null) {
+            return Refresh.True;
+        }
+        switch (refreshPolicy) {
+        case NONE:
+        case DEFERRED:
+            return Refresh.False;
+        case WAIT_FOR:
+            return Refresh.WaitFor;
+        default:
+            return Refresh.True;
+        }
+    }
+
+    /**
+     * Refresh the physical index while a write with WAIT_FOR policy is waiting.
+     * Since periodic refresh is disabled, nothing else may refresh the index. The write is registered when it is
+     * sent, and again after each refresh while it has not responded, because a refresh which runs before the write
+     * is applied does not release it. Refreshes are coalesced by the refresh coordinator.
+     */
+    private void refreshWhileWaiting(CompletableFuture<?> response, EsRefreshPolicy refreshPolicy,
+            String physicalIndex) {
+        if (refreshPolicy != EsRefreshPolicy.WAIT_FOR || response.isDone()) {
+            return;
+        }
+        deferRefresh(physicalIndex).whenComplete((r, e) -> {
+            if (e == null) {
+                refreshWhileWaiting(response, refreshPolicy, physicalIndex);
+            }
+        });
+    }
+
+    private void deferRefreshOnSuccess(CompletableFuture<?> response, EsRefreshPolicy refreshPolicy,
+            String physicalIndex) {
+        if (refreshPolicy == EsRefreshPolicy.DEFERRED) {
+            response.thenRun(() -> deferRefresh(physicalIndex));
+        }
+    }
+
+    /**
+     * Schedule refresh of physical index. Requests within the window are coalesced into one refresh.
+     * @param physicalIndex physical index name
+     * @return future completed when the index is refreshed
+     */
+    CompletableFuture<Void> deferRefresh(String physicalIndex) {
+        return refreshCoordinator.markDirty(physicalIndex);
+    }
+
+    /**
+     * Get future completed when documents written to the type with DEFERRED policy become searchable.
+     * @param index インデックス名
+     * @param type タイプ名
+     * @return future
+     */
+    public CompletableFuture<Void> whenRefreshed(String index, String type) {
+        return refreshCoordinator.whenRefreshed(makeIndex(index, type));
+    }
+
+    /**
+     * Get refresh coordinator of deferred refresh.
+     * @return refresh coordinator
+     */
+    public RefreshCoordinator getRefreshCoordinator() {
+        return refreshCoordinator;
+    }
+
+    /**
+     * Get retryer of asynchronous operations.
+     * @return retryer
+     */
+    public EsRetryer getRetryer() {
+        return retryer;
+    }
+
+    /**
+     * Get scheduler for short asynchronous jobs such as polling of tasks.
+     * @return scheduler
+     */
+    ScheduledExecutorService getScheduler() {
+        return refreshScheduler;
+    }
+
+    /**
+     * Get registry of index templates.
+     * @return index templates
+     */
+    IndexTemplates getIndexTemplates() {
+        return indexTemplates;
+    }
+
+    /**
+     * Get cache of physical indices.
+     * @return index cache
+     */
+    PhysicalIndexCache getIndexCache() {
+        return indexCache;
+    }
+
+    /**
+     * Set polling interval of the physical index cache. Reads of per-type indices which are known to be missing
+     * fail without request, and searches across types are narrowed to existing indices. The cache is disabled
+     * with 0 (default).
+     * @param intervalMillis interval in milliseconds
+     */
+    public void setIndexCacheRefreshInterval(long intervalMillis) {
+        indexCache.setRefreshInterval(intervalMillis);
+    }
+
+    /**
+     * Get all indices and their aliases asynchronously.
+     * @return 非同期応答 (response of GET /_alias)
+     */
+    CompletableFuture<JsonNode> asyncGetAliases() {
+        return performJsonRequestAsync(new Request("GET", "/_alias"), "indices.get_alias");
+    }
+
+    /**
+     * Create missing per-type indices on the first write.
+     * @param mappingAdmin mapping of admin index
+     * @param mappingUser mapping of user indices
+     */
+    public void enableLazyIndexCreation(EsMappingConfig mappingAdmin, EsMappingConfig mappingUser) {
+        this.lazyIndexCreator = new LazyIndexCreator(this, mappingAdmin, mappingUser);
+    }
+
+    /**
+     * Stop creating missing per-type indices on write.
+     */
+    public void disableLazyIndexCreation() {
+        this.lazyIndexCreator = null;
+    }
+
+    /**
+     * Check if missing per-type indices are created on the first write.
+     * @return true if enabled
+     */
+    public boolean isLazyIndexCreation() {
+        return this.lazyIndexCreator != null;
+    }
+
+    /**
+     * Get statistics of routed and fan-out read requests.
+     * @return statistics
+     */
+    public EsRoutingStats getRoutingStats() {
+        return shardRouting.stats();
+    }
+
+    private static void addRouting(Request request, String routing) {
+        if (routing != null) {
+            request.addParameter("routing", routing);
+        }
+    }
 
     // /**
     // * flushを行う.
@@ -783,6 +2070,22 @@ public class InternalEsClient implements Closeable {
      */
     private static final String UNIQE_TYPE = "_doc";
 
+    /** Bytes of streamed response body buffered before reading from the connection is suspended. */
+    private static final int STREAM_BUFFER_BYTES = Integer.getInteger("io.personium.es.search.streamBufferBytes",
+            1024 * 1024);
+
+    /** Suffix of the physical index which holds all types in consolidated layout. */
+    public static final String CONSOLIDATED_INDEX_SUFFIX = "consolidated";
+
+    /** HTTP status of missing index. */
+    private static final int HTTP_NOT_FOUND = 404;
+
+    /** Upper bound of physical indices of one logical index, used to aggregate indices holding a cell. */
+    private static final int MAX_CELL_INDICES = 1000;
+
+    /** Translator of the legacy query, shared by all clients. */
+    private static final QueryTranslator QUERY_TRANSLATOR = new QueryTranslator();
+
     /**
      * Get index and return index.
      * @param index index
@@ -801,427 +2104,81 @@ public class InternalEsClient implements Closeable {
     }
 
     /**
-     * Get type and return it.
-     * @param type type
-     * @return Elasticsearch type
+     * Get indices to be searched. Search across types is narrowed to the existing indices when they are cached.
+     * @param index index
+     * @param type type (nullable)
+     * @return physical index names or pattern
      */
-    public static String makeType(String type) { // NOPMD - Methods for incompatible absorption
-        return UNIQE_TYPE;
-    }
-
-    private static Map<String, Object> makeData(Map<String, Object> data, String type) {
-        Map<String, Object> newData = deepClone(1, data, type);
-        newData.put("type", type);
-        return newData;
-    }
-
-    @SuppressWarnings("unchecked") // CHECKSTYLE IGNORE
-    private static String queryMapToJSON(Map<String, Object> map, String type) { // CHECKSTYLE IGNORE
-        if (log.isDebugEnabled()) {
-            log.debug("\n--- Before ---\n" + toJSON(map, false));
-        }
-        // Convert start
-        Map<String, Object> cloneMap = deepClone(1, map, type);
-        Map<String, Object> newMap = new HashMap<String, Object>();
-        // version
-        Object version = getNestedMapObject(cloneMap, new String[] { "version" }, 0);
-        if (version != null) {
-            newMap.put("version", version);
-        }
-        // size
-        Object size = getNestedMapObject(cloneMap, new String[] { "size" }, 0);
-        if (size != null) {
-            newMap.put("size", size);
-        }
-        // from
-        Object from = getNestedMapObject(cloneMap, new String[] { "from" }, 0);
-        if (from != null) {
-            newMap.put("from", from);
-        }
-        // sort
-        Object sort = getNestedMapObject(cloneMap, new String[] { "sort" }, 0);
-        if (sort != null) {
-            newMap.put("sort", sort);
-        }
-        // _source
-        Object source = getNestedMapObject(cloneMap, new String[] { "_source" }, 0);
-        if (source != null) {
-            if (source instanceof List) {
-                ((List) source).add(0, "type");
-                var newSource = new HashMap<String, Object>();
-                newSource.put("includes", source);
-                newSource.put("excludes", List.of());
-                source = newSource;
-            }
-            newMap.put("_source", source);
-        }
-        // query
-        Map<String, Object> query = new HashMap<String, Object>();
-        newMap.put("query", query);
-        Map<String, Object> queryBool = new HashMap<String, Object>();
-        query.put("bool", queryBool);
-        Map<String, Object> queryBoolFilter = new HashMap<String, Object>();
-        queryBool.put("filter", queryBoolFilter);
-        Map<String, Object> queryBoolFilterBool = new HashMap<String, Object>();
-        queryBoolFilter.put("bool", queryBoolFilterBool);
-        List<Map<String, Object>> queryBoolMust = new ArrayList<Map<String, Object>>();
-        queryBool.put("must", queryBoolMust);
-        List<Map<String, Object>> queryBoolMustnot = new ArrayList<Map<String, Object>>();
-        queryBool.put("must_not", queryBoolMustnot);
-        List<Map<String, Object>> queryBoolShould = new ArrayList<Map<String, Object>>();
-        queryBool.put("should", queryBoolShould);
-        List<Map<String, Object>> queryBoolFilterBoolMust = new ArrayList<Map<String, Object>>();
-        queryBoolFilterBool.put("must", queryBoolFilterBoolMust);
-        List<Map<String, Object>> queryBoolFilterBoolMustnot = new ArrayList<Map<String, Object>>();
-        queryBoolFilterBool.put("must_not", queryBoolFilterBoolMustnot);
-        List<Map<String, Object>> queryBoolFilterBoolShould = new ArrayList<Map<String, Object>>();
-        queryBoolFilterBool.put("should", queryBoolFilterBoolShould);
-        /////
-        // -query/filterd/filter
-        List<Map<String, Object>> queryXmust = (List<Map<String, Object>>) getNestedMapObject(cloneMap,
-                new String[] { "query", "filtered", "filter", "bool", "must" }, 0);
-        List<Map<String, Object>> queryXmustnot = (List<Map<String, Object>>) getNestedMapObject(cloneMap,
-                new String[] { "query", "filtered", "filter", "bool", "must_not" }, 0);
-        List<Map<String, Object>> queryXshould = (List<Map<String, Object>>) getNestedMapObject(cloneMap,
-                new String[] { "query", "filtered", "filter", "bool", "should" }, 0);
-        if (queryXmust != null) {
-            for (Map<String, Object> tmap : queryXmust) {
-                queryBoolFilterBoolMust.add(tmap);
-            }
-        }
-        if (queryXmustnot != null) {
-            for (Map<String, Object> tmap : queryXmustnot) {
-                queryBoolFilterBoolMustnot.add(tmap);
-            }
-        }
-        if (queryXshould != null) {
-            for (Map<String, Object> tmap : queryXshould) {
-                queryBoolFilterBoolShould.add(tmap);
-            }
-        }
-        // -query/filterd/filter other pattern
-        if (queryBoolFilterBoolMust.isEmpty() && queryBoolFilterBoolMustnot.isEmpty()
-                && queryBoolFilterBoolShould.isEmpty()) {
-            // other eregular pattern
-            List<Map<String, Object>> queryXfilters = (List<Map<String, Object>>) getNestedMapObject(cloneMap,
-                    new String[] { "query", "filtered", "filter", "and", "filters" }, 0);
-            if (queryXfilters != null) {
-                for (Map<String, Object> tmap : queryXfilters) {
-                    queryBoolFilterBoolMust.add(tmap);
-                }
-            } else {
-                Map<String, Object> queryXfilter = (Map<String, Object>) getNestedMapObject(cloneMap,
-                        new String[] { "query", "filtered", "filter" }, 0);
-                if (queryXfilter != null) {
-                    queryBoolFilterBoolMust.add(queryXfilter);
-                }
-            }
-        }
-        // -query/filterd/query
-        Object queryFilteredQuery = getNestedMapObject(cloneMap, new String[] { "query", "filtered", "query" }, 0);
-        if (queryFilteredQuery != null) {
-            if (queryFilteredQuery instanceof List) {
-                queryBoolMust.addAll((List<Map<String, Object>>) queryFilteredQuery);
-            } else if (queryFilteredQuery instanceof Map) {
-                queryBoolMust.add((Map<String, Object>) queryFilteredQuery);
-            }
-        }
-        /////
-        // -filter/ids
-        Map<String, Object> filterIds = (Map<String, Object>) getNestedMapObject(cloneMap,
-                new String[] { "filter", "ids" }, 0);
-        if (filterIds != null) {
-            Map<String, Object> ids = new HashMap<String, Object>();
-            ids.put("ids", filterIds);
-            queryBoolFilterBoolMust.add(ids);
-        }
-        // -filter
-        Map<String, Object> filter = (Map<String, Object>) getNestedMapObject(cloneMap, new String[] { "filter" }, 0);
-        if (filter != null) {
-            // -query
-            List<Map<String, Object>> filterXquerys = new ArrayList<Map<String, Object>>();
-            parseQueryMap(filterXquerys, filter);
-            if (!filterXquerys.isEmpty()) {
-                Map<String, Object> queryMap = new HashMap<String, Object>();
-                queryBoolMust.add(queryMap);
-                Map<String, Object> queryBoolMustBool = new HashMap<String, Object>();
-                queryMap.put("bool", queryBoolMustBool);
-                List<Map<String, Object>> queryBoolMustBoolMust = new ArrayList<Map<String, Object>>();
-                queryBoolMustBool.put("must", queryBoolMustBoolMust);
-                for (Map<String, Object> filterXquery : filterXquerys) {
-                    if (filterXquery instanceof List) {
-                        queryBoolMustBoolMust.addAll((List<Map<String, Object>>) filterXquery);
-                    } else if (filterXquery instanceof Map) {
-                        queryBoolMustBoolMust.add((Map<String, Object>) filterXquery);
-                    }
-                }
-                removeNestedMapObject(filter, "query");
-            }
-            // -filter
-            Map<String, Object> filerXfilter = parseMap(filter);
-            List<Map<String, Object>> filterBoolMust = (List<Map<String, Object>>) getNestedMapObject(filerXfilter,
-                    new String[] { "bool", "must" }, 0);
-            if (filterBoolMust != null) {
-                queryBoolFilterBoolMust.add(filerXfilter);
-            }
-            List<Map<String, Object>> filterBoolShould = (List<Map<String, Object>>) getNestedMapObject(filerXfilter,
-                    new String[] { "bool", "should" }, 0);
-            if (filterBoolShould != null) {
-                queryBoolFilterBoolShould.add(filerXfilter);
-            }
-
-            // for version 7
-            if (!queryBoolFilterBoolShould.isEmpty() && !queryBoolFilterBoolMust.isEmpty()) {
-                queryBoolFilterBool.put("minimum_should_match", 1);
-            }
-        }
-        /////
-        removeNestedMapObject(newMap, "ignore_unmapped");
-        removeNestedMapObject(newMap, "_cache");
-        if (queryBoolMust.isEmpty()) {
-            queryBool.remove("must");
-        }
-        if (queryBoolMustnot.isEmpty()) {
-            queryBool.remove("must_not");
-        }
-        if (queryBoolShould.isEmpty()) {
-            queryBool.remove("should");
-        }
-        if (queryBoolFilterBoolMust.isEmpty()) {
-            queryBoolFilterBool.remove("must");
-        }
-        if (queryBoolFilterBoolMustnot.isEmpty()) {
-            queryBoolFilterBool.remove("must_not");
-        }
-        if (queryBoolFilterBoolShould.isEmpty()) {
-            queryBoolFilterBool.remove("should");
-        }
-
-        // for version 7
-        if (!queryBoolShould.isEmpty() && (!queryBoolMust.isEmpty() || !queryBoolFilter.isEmpty())) {
-            queryBool.put("minimum_should_match", 1);
-        }
-        String jsonstr = toJSON(newMap, true);
-        // Convert end
-        if (log.isDebugEnabled()) {
-            log.debug("\n--- After ---\n" + jsonstr);
+    private List<String> searchTargets(String index, String type) {
+        if (type != null) {
+            return List.of(makeIndex(index, type));
         }
-
-        return jsonstr;
-    }
-
-    private static Map<String, Object> parseMap(Map<String, Object> map) {
-        if (map.get("and") != null) {
-            Object value = map.get("and");
-            Map<String, Object> and = new HashMap<String, Object>();
-            Map<String, Object> bool = new HashMap<String, Object>();
-            and.put("bool", bool);
-            List<Map<String, Object>> boolMust = new ArrayList<Map<String, Object>>();
-            bool.put("must", boolMust);
-            parseAndOrNotMap(boolMust, value);
-            return and;
-        }
-        if (map.get("or") != null) {
-            Object value = map.get("or");
-            Map<String, Object> or = new HashMap<String, Object>();
-            Map<String, Object> bool = new HashMap<String, Object>();
-            or.put("bool", bool);
-            List<Map<String, Object>> boolShould = new ArrayList<Map<String, Object>>();
-            bool.put("should", boolShould);
-            parseAndOrNotMap(boolShould, value);
-            return or;
-        }
-        if (map.get("not") != null) {
-            Object value = map.get("not");
-            Map<String, Object> not = new HashMap<String, Object>();
-            Map<String, Object> bool = new HashMap<String, Object>();
-            not.put("bool", bool);
-            List<Map<String, Object>> boolMustnot = new ArrayList<Map<String, Object>>();
-            bool.put("must_not", boolMustnot);
-            parseAndOrNotMap(boolMustnot, value);
-            return not;
-        }
-        if (map.get("missing") != null) {
-            Map<String, Object> missing = new HashMap<String, Object>();
-            Map<String, Object> bool = new HashMap<String, Object>();
-            missing.put("bool", bool);
-            List<Map<String, Object>> boolMustnot = new ArrayList<Map<String, Object>>();
-            bool.put("must_not", boolMustnot);
-            Map<String, Object> exists = new HashMap<String, Object>();
-            boolMustnot.add(exists);
-            exists.put("exists", map.get("missing"));
-            return missing;
+        var existing = indexCache.indicesStartingWith(index + ".");
+        if (existing == null || existing.isEmpty()) {
+            // pattern matching no index results in empty hits
+            return List.of(makeIndex(index, null));
         }
-        return map;
+        return existing;
     }
 
-    @SuppressWarnings("unchecked")
-    private static void parseAndOrNotMap(List<Map<String, Object>> listmap, Object value) {
-        if (value instanceof List) {
-            List<Map<String, Object>> lmap = parseListMap((List<Map<String, Object>>) value);
-            if (!lmap.isEmpty()) {
-                listmap.addAll(lmap);
-            }
-        } else if (value instanceof Map) {
-            Map<String, Object> nestedMap = (Map<String, Object>) value;
-            if (nestedMap.get("filters") != null) {
-                Object filtersValue = nestedMap.get("filters");
-                if (filtersValue instanceof List) {
-                    List<Map<String, Object>> lmap = parseListMap((List<Map<String, Object>>) filtersValue);
-                    if (!lmap.isEmpty()) {
-                        listmap.addAll(lmap);
-                    }
-                } else if (filtersValue instanceof Map) {
-                    Map<String, Object> map = parseMap((Map<String, Object>) filtersValue);
-                    if (!map.isEmpty()) {
-                        listmap.add(map);
-                    }
-                }
-            } else if (nestedMap.get("filter") != null) {
-                Object filterValue = nestedMap.get("filter");
-                if (filterValue instanceof List) {
-                    List<Map<String, Object>> lmap = parseListMap((List<Map<String, Object>>) filterValue);
-                    if (!lmap.isEmpty()) {
-                        listmap.addAll(lmap);
-                    }
-                } else if (filterValue instanceof Map) {
-                    Map<String, Object> map = parseMap((Map<String, Object>) filterValue);
-                    if (!map.isEmpty()) {
-                        listmap.add(map);
-                    }
-                }
-            } else {
-                Map<String, Object> map = parseMap((Map<String, Object>) value);
-                if (!map.isEmpty()) {
-                    listmap.add(map);
-                }
-            }
-        }
+    /**
+     * Create the same exception as Elasticsearch returns for missing index.
+     * @param endpoint endpoint id
+     * @param physicalIndex physical index name
+     * @return exception
+     */
+    static ElasticsearchException indexNotFound(String endpoint, String physicalIndex) {
+        var error = ErrorResponse.of(r -> r.status(HTTP_NOT_FOUND).error(e -> e
+                .type(LazyIndexCreator.INDEX_NOT_FOUND)
+                .reason("no such index [" + physicalIndex + "]")));
+        return new ElasticsearchException(endpoint, error);
     }
 
-    private static List<Map<String, Object>> parseListMap(List<Map<String, Object>> listmap) {
-        List<Map<String, Object>> rlistmap = new ArrayList<Map<String, Object>>();
-        for (Map<String, Object> emap : listmap) {
-            if (emap instanceof Map) {
-                Map<String, Object> rmap = parseMap(emap);
-                if (!rmap.isEmpty()) {
-                    rlistmap.add(rmap);
-                }
-            }
-        }
-        return rlistmap;
+    /**
+     * Get name of the physical index which holds all types in consolidated layout.
+     * @param index index
+     * @return physical index name
+     */
+    public static String makeConsolidatedIndex(String index) {
+        return index + "." + CONSOLIDATED_INDEX_SUFFIX;
     }
 
-    @SuppressWarnings("unchecked")
-    private static void parseQueryMap(List<Map<String, Object>> listQueryMap, Map<String, Object> map) {
-        for (Entry<String, Object> entry : map.entrySet()) {
-            if (entry.getKey().equals("query")) {
-                Map<String, Object> queryMap = (Map<String, Object>) entry.getValue();
-                String type = (String) getNestedMapObject(queryMap, "type");
-                if (type != null) {
-                    Map<String, Object> match = (Map<String, Object>) getNestedMapObject(queryMap,
-                            new String[] { "match" }, 0);
-                    removeNestedMapObject(match, "type");
-                    removeNestedMapObject(match, "operator");
-                    removeNestedMapObject(queryMap, "match");
-                    queryMap.put("match_" + type, match);
-                }
-                listQueryMap.add(queryMap);
-                return;
-            }
-            if (entry.getValue() instanceof List) {
-                for (Object cmap : (List<Map<String, Object>>) entry.getValue()) {
-                    if (cmap instanceof Map) {
-                        parseQueryMap(listQueryMap, (Map<String, Object>) cmap);
-                    }
-                }
-            } else if (entry.getValue() instanceof Map) {
-                parseQueryMap(listQueryMap, (Map<String, Object>) entry.getValue());
-            }
-        }
+    /**
+     * Get type and return it.
+     * @param type type
+     * @return Elasticsearch type
+     */
+    public static String makeType(String type) { // NOPMD - Methods for incompatible absorption
+        return UNIQE_TYPE;
     }
 
-    @SuppressWarnings("unchecked")
-    private static void removeNestedMapObject(Map<String, Object> map, String key) {
-        Map<String, Object> queryClone = new HashMap<String, Object>(map);
-        for (Entry<String, Object> entry : queryClone.entrySet()) {
-            if (entry.getKey().equals(key)) {
-                map.remove(entry.getKey());
-                continue;
-            }
-            if (entry.getValue() instanceof List) {
-                for (Object cmap : (List<Map<String, Object>>) entry.getValue()) {
-                    if (cmap instanceof Map) {
-                        removeNestedMapObject((Map<String, Object>) cmap, key);
-                    }
-                }
-            } else if (entry.getValue() instanceof Map) {
-                removeNestedMapObject((Map<String, Object>) entry.getValue(), key);
-            }
+    /**
+     * Translate query into compact JSON which is sent to Elasticsearch.
+     * Queries are pretty-printed only for debug log.
+     */
+    private static String queryMapToJSON(Map<String, Object> map, String type) {
+        if (log.isDebugEnabled()) {
+            log.debug("\n--- Before ---\n" + toJSON(map));
         }
-    }
-
-    @SuppressWarnings("unchecked")
-    private static Object getNestedMapObject(Map<String, Object> map, String key) {
-        Map<String, Object> queryClone = new HashMap<String, Object>(map);
-        for (Entry<String, Object> entry : queryClone.entrySet()) {
-            if (entry.getKey().equals(key)) {
-                return entry.getValue();
-            }
-            if (entry.getValue() instanceof List) {
-                for (Object cmap : (List<Map<String, Object>>) entry.getValue()) {
-                    if (cmap instanceof Map) {
-                        Object cobj = getNestedMapObject((Map<String, Object>) cmap, key);
-                        if (cobj != null) {
-                            return cobj;
-                        }
-                    }
-                }
-            } else if (entry.getValue() instanceof Map) {
-                Object cobj = getNestedMapObject((Map<String, Object>) entry.getValue(), key);
-                if (cobj != null) {
-                    return cobj;
-                }
-            }
+        String jsonstr = QUERY_TRANSLATOR.translate(map);
+        if (log.isDebugEnabled()) {
+            log.debug("\n--- After ---\n" + prettyPrint(jsonstr));
         }
-        return null;
+        return jsonstr;
     }
 
-    @SuppressWarnings("unchecked")
-    private static Object getNestedMapObject(Map<String, Object> map, String[] keys, int index) {
-        Object obj = map.get(keys[index]);
-        if (obj != null) {
-            if (index == keys.length - 1) {
-                return obj;
-            }
-            if (obj instanceof Map) {
-                ++index;
-                Object cobj = getNestedMapObject((Map<String, Object>) obj, keys, index);
-                if (cobj != null) {
-                    return cobj;
-                }
-            } else if (obj instanceof List) {
-                ++index;
-                for (Map<String, Object> cmap : (List<Map<String, Object>>) obj) {
-                    Object cobj = getNestedMapObject(cmap, keys, index);
-                    if (cobj != null) {
-                        return cobj;
-                    }
-                }
-            }
+    private static String prettyPrint(String json) {
+        try {
+            return EsJson.toPrettyJson(EsJson.mapper().readTree(json));
+        } catch (JsonProcessingException ex) {
+            return json;
         }
-        return null;
     }
 
-    private static String toJSON(Map<String, Object> map, boolean shaping) {
+    private static String toJSON(Map<String, Object> map) {
         String json = "{}";
         try {
-            com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-            if (shaping) {
-                mapper.setSerializationInclusion(com.fasterxml.jackson.annotation.JsonInclude.Include.NON_NULL);
-            }
-            mapper.enable(com.fasterxml.jackson.databind.SerializationFeature.INDENT_OUTPUT);
-            json = mapper.writeValueAsString(map);
+            json = EsJson.toPrettyJson(map);
         } catch (JsonProcessingException ex) {
             throw new EsClientException("Map To JSON Error.", ex);
         }
@@ -1230,22 +2187,14 @@ public class InternalEsClient implements Closeable {
 
     /**
      * deep clone.
+     * Object keys are renamed (`_type`, `_all`) when direction is 1. String values are never touched.
      * @param direction direction
      * @param map map
      * @param type type
      * @return deep clone map
      */
-    @SuppressWarnings("unchecked")
     public static Map<String, Object> deepClone(int direction, Map<String, Object> map, String type) {
-        try {
-            com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-            String json = mapper.writeValueAsString(map);
-            json = replaceSource(direction, json, type);
-            Map<String, Object> newMap = mapper.readValue(json, Map.class);
-            return newMap;
-        } catch (IOException ex) {
-            throw new EsClientException("InternalEsClient.deepClone Error.", ex);
-        }
+        return SourceKeyConverter.copy(map, direction == 1);
     }
 
     /**
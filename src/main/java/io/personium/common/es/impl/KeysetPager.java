@@ -0,0 +1,143 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import io.personium.common.es.EsCursor;
+import io.personium.common.es.response.PersoniumSearchHit;
+import io.personium.common.es.response.PersoniumSearchPage;
+import io.personium.common.es.response.PersoniumSearchResponse;
+import io.personium.common.es.response.impl.PersoniumSearchPageImpl;
+import io.personium.common.es.response.impl.PersoniumSearchResponseImpl;
+
+/**
+ * Keyset pagination with point-in-time and search_after.
+ * Unlike from/size paging, each page costs the same regardless of its depth.
+ * Point-in-time is opened with the first page and closed after the last page.
+ */
+final class KeysetPager {
+
+    static Logger log = LoggerFactory.getLogger(KeysetPager.class);
+
+    /** Keep alive time of point-in-time, which is extended on each page. */
+    static final String KEEP_ALIVE = System.getProperty("io.personium.es.pit.keepAlive", "1m");
+
+    /** Default page size of Elasticsearch. */
+    private static final int DEFAULT_SIZE = 10;
+
+    private KeysetPager() {
+    }
+
+    /**
+     * Search a page.
+     * @param client client
+     * @param retryPolicy retry policy
+     * @param index インデックス名
+     * @param type タイプ名 (nullable)
+     * @param routingId routingId used to open point-in-time (nullable)
+     * @param query クエリ情報 (size is the page size)
+     * @param cursor cursor returned with the previous page, or null for the first page
+     * @return page
+     * @throws IOException exception while calling API
+     * @throws InterruptedException interrupted
+     * @throws ExecutionException exception of API
+     */
+    static PersoniumSearchPage searchPage(InternalEsClient client,
+            RetryPolicy retryPolicy,
+            String index,
+            String type,
+            String routingId,
+            Map<String, Object> query,
+            EsCursor cursor) throws IOException, InterruptedException, ExecutionException {
+        String pitId;
+        List<Object> searchAfter = null;
+        if (cursor == null) {
+            pitId = client.getRetryer().execute(retryPolicy, true,
+                    () -> client.openPointInTime(index, type, routingId, KEEP_ALIVE)).get();
+        } else {
+            pitId = cursor.getPitId();
+            searchAfter = cursor.getSearchAfter();
+        }
+        final List<Object> after = searchAfter;
+        SearchResponse<ObjectNode> response;
+        try {
+            response = client.getRetryer().execute(retryPolicy, true,
+                    () -> client.asyncSearchAfter(index, type, query, pitId, KEEP_ALIVE, after)).get();
+        } catch (IOException | InterruptedException | ExecutionException | RuntimeException e) {
+            if (cursor == null) {
+                // the caller never gets a cursor of the point-in-time opened here
+                close(client, pitId);
+            }
+            throw e;
+        }
+        String nextPitId = pitId;
+        if (response.pitId() != null) {
+            nextPitId = response.pitId();
+        }
+        return toPage(client, PersoniumSearchResponseImpl.getInstance(response), nextPitId, pageSize(query));
+    }
+
+    /**
+     * Create page with the cursor after the last hit.
+     * @param client client used to close point-in-time
+     * @param response search response
+     * @param pitId point-in-time ID
+     * @param size requested page size
+     * @return page
+     */
+    static PersoniumSearchPage toPage(InternalEsClient client, PersoniumSearchResponse response, String pitId,
+            int size) {
+        PersoniumSearchHit[] hits = response.getHits().getHits();
+        if (hits.length == 0 || hits.length < size) {
+            close(client, pitId);
+            return PersoniumSearchPageImpl.getInstance(response, null);
+        }
+        return PersoniumSearchPageImpl.getInstance(response,
+                EsCursor.after(pitId, hits[hits.length - 1].getSortValues()));
+    }
+
+    /**
+     * Release point-in-time of the cursor without waiting.
+     * @param client client
+     * @param pitId point-in-time ID
+     */
+    static void close(InternalEsClient client, String pitId) {
+        client.closePointInTime(pitId).whenComplete((closed, e) -> {
+            if (e != null) {
+                log.info("Failed to close point-in-time. It expires after keep alive time.", e);
+            }
+        });
+    }
+
+    private static int pageSize(Map<String, Object> query) {
+        if (query != null && query.get("size") instanceof Number) {
+            return ((Number) query.get("size")).intValue();
+        }
+        return DEFAULT_SIZE;
+    }
+}
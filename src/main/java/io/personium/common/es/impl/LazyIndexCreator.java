@@ -0,0 +1,200 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.personium.common.es.EsBulkRequest;
+import io.personium.common.es.EsIndex;
+import io.personium.common.es.EsMappingConfig;
+import io.personium.common.es.response.EsClientException;
+
+/**
+ * Creator of per-type indices on the first write.
+ * Writes which fail with index_not_found_exception create the missing index from the mapping of its type and are
+ * sent again. Concurrent writers of the same missing index share one creation.
+ */
+final class LazyIndexCreator {
+
+    /** Error type of missing index. */
+    static final String INDEX_NOT_FOUND = "index_not_found_exception";
+
+    /** Error type of index which has been created by another writer. */
+    static final String ALREADY_EXISTS = "resource_already_exists_exception";
+
+    private final InternalEsClient client;
+    private final Map<String, EsMappingConfig> mappingConfigs = new LinkedHashMap<String, EsMappingConfig>();
+
+    /** Creations in progress by physical index name. */
+    private final Map<String, CompletableFuture<Void>> creations =
+            new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+    /**
+     * Constructor.
+     * @param client client
+     * @param mappingAdmin mapping of admin index
+     * @param mappingUser mapping of user indices
+     */
+    LazyIndexCreator(InternalEsClient client, EsMappingConfig mappingAdmin, EsMappingConfig mappingUser) {
+        this.client = client;
+        this.mappingConfigs.put(EsIndex.CATEGORY_AD, mappingAdmin);
+        this.mappingConfigs.put(EsIndex.CATEGORY_USR, mappingUser);
+    }
+
+    /**
+     * Get category of the index from its name.
+     * @param index index name
+     * @return category
+     */
+    static String category(String index) {
+        if (index.endsWith("_" + EsIndex.CATEGORY_AD)) {
+            return EsIndex.CATEGORY_AD;
+        }
+        return EsIndex.CATEGORY_USR;
+    }
+
+    /**
+     * Create the per-type index unless another writer is creating it.
+     * The index which has been created meanwhile is regarded as created.
+     * @param index index name
+     * @param type type name
+     * @return future completed after creation
+     */
+    CompletableFuture<Void> ensure(String index, String type) {
+        String physicalIndex = InternalEsClient.makeIndex(index, type);
+        var creation = creations.computeIfAbsent(physicalIndex, k -> create(index, type));
+        creation.whenComplete((r, e) -> creations.remove(physicalIndex, creation));
+        return creation;
+    }
+
+    private CompletableFuture<Void> create(String index, String type) {
+        String category = category(index);
+        Map<String, ObjectNode> mappings = mappingConfigs.get(category).getMapping();
+        if (mappings == null || !mappings.containsKey(type)) {
+            return CompletableFuture.failedFuture(
+                    new EsClientException("NO MAPPINGS DEFINED for " + category + index + "." + type));
+        }
+        return client.getIndexTemplates().register(category, index, mappings, EsIndexImpl.indexSettings())
+                .thenCompose(r -> client.asyncCreateIndexFromTemplates(index, List.of(type)))
+                .handle((r, e) -> {
+                    if (e != null && !isError(e, ALREADY_EXISTS)) {
+                        throw new CompletionException(unwrap(e));
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Send the write, and send it again after creating the index if the index is missing.
+     * @param <T> type of response
+     * @param index index name
+     * @param type type name
+     * @param write sender of the write
+     * @return response
+     */
+    <T> CompletableFuture<T> retryOnMissing(String index, String type, Supplier<CompletableFuture<T>> write) {
+        return write.get().exceptionallyCompose(e -> {
+            if (!isError(e, INDEX_NOT_FOUND)) {
+                return CompletableFuture.failedFuture(unwrap(e));
+            }
+            return ensure(index, type).thenCompose(r -> write.get());
+        });
+    }
+
+    /**
+     * Send the bulk items which failed by missing indices again after creating the indices.
+     * Items of the returned response are in the same order as the original response.
+     * @param index index name
+     * @param bulkMap bulk requests which has been sent (key: routingId)
+     * @param response response of the bulk requests
+     * @param send sender of bulk requests
+     * @return merged response
+     */
+    CompletableFuture<BulkResponse> retryMissingItems(String index, Map<String, List<EsBulkRequest>> bulkMap,
+            BulkResponse response, Function<Map<String, List<EsBulkRequest>>, CompletableFuture<BulkResponse>> send) {
+        Map<String, List<EsBulkRequest>> retries = new LinkedHashMap<String, List<EsBulkRequest>>();
+        List<Integer> positions = new ArrayList<Integer>();
+        Set<String> types = new LinkedHashSet<String>();
+        int position = 0;
+        for (Map.Entry<String, List<EsBulkRequest>> entry : bulkMap.entrySet()) {
+            for (EsBulkRequest data : entry.getValue()) {
+                var error = response.items().get(position).error();
+                if (error != null && INDEX_NOT_FOUND.equals(error.type())) {
+                    retries.computeIfAbsent(entry.getKey(), k -> new ArrayList<EsBulkRequest>()).add(data);
+                    positions.add(position);
+                    types.add(data.getType());
+                }
+                position++;
+            }
+        }
+        if (positions.isEmpty()) {
+            return CompletableFuture.completedFuture(response);
+        }
+        var created = types.stream().map(type -> ensure(index, type)).toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(created)
+                .thenCompose(r -> send.apply(retries))
+                .thenApply(retried -> merge(response, positions, retried));
+    }
+
+    private static BulkResponse merge(BulkResponse response, List<Integer> positions, BulkResponse retried) {
+        List<BulkResponseItem> items = new ArrayList<BulkResponseItem>(response.items());
+        for (int i = 0; i < positions.size(); i++) {
+            items.set(positions.get(i), retried.items().get(i));
+        }
+        boolean errors = items.stream().anyMatch(item -> item.error() != null);
+        return BulkResponse.of(b -> b.items(items).errors(errors).took(response.took() + retried.took()));
+    }
+
+    /**
+     * Check if the failure is an error of Elasticsearch with the type.
+     * @param e failure
+     * @param errorType error type
+     * @return true if matched
+     */
+    static boolean isError(Throwable e, String errorType) {
+        Throwable cause = unwrap(e);
+        return cause instanceof ElasticsearchException
+                && errorType.equals(((ElasticsearchException) cause).error().type());
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
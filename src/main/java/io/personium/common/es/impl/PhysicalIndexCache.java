@@ -0,0 +1,284 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * In-process cache of physical indices (and aliases) and their mappings.
+ * The cache is loaded by polling aliases of the cluster, and updated on creation and deletion of indices by this
+ * process. Indices created by other processes are known after the next poll, so the cache is used only while
+ * polling is enabled, and is discarded when the poll fails.
+ */
+final class PhysicalIndexCache {
+
+    static Logger log = LoggerFactory.getLogger(PhysicalIndexCache.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final Supplier<CompletableFuture<JsonNode>> loader;
+
+    /**
+     * Immutable snapshot of concrete indices and aliases.
+     */
+    private static final class Snapshot {
+        private final Set<String> indices;
+        private final Set<String> aliases;
+
+        Snapshot(Set<String> indices, Set<String> aliases) {
+            this.indices = Collections.unmodifiableSet(indices);
+            this.aliases = Collections.unmodifiableSet(aliases);
+        }
+
+        boolean contains(String name) {
+            return indices.contains(name) || aliases.contains(name);
+        }
+    }
+
+    /** Snapshot of the cluster, or null if the cache is not loaded. */
+    private volatile Snapshot snapshot;
+
+    /** Changes made by this process while a poll is in flight (true: created name, false: deleted prefix). */
+    private final List<Map.Entry<String, Boolean>> pendingChanges = new ArrayList<Map.Entry<String, Boolean>>();
+    private boolean polling;
+
+    /** Generation of the cache, advanced on each poll and clear. Only the result of the latest poll is applied. */
+    private long generation;
+
+    private final Map<String, TypeMapping> mappings = new ConcurrentHashMap<String, TypeMapping>();
+    private ScheduledFuture<?> poller;
+
+    /**
+     * Constructor.
+     * @param scheduler scheduler of polling
+     * @param loader loader of aliases (response of GET /_alias)
+     */
+    PhysicalIndexCache(ScheduledExecutorService scheduler, Supplier<CompletableFuture<JsonNode>> loader) {
+        this.scheduler = scheduler;
+        this.loader = loader;
+    }
+
+    /**
+     * Set interval of polling. The cache is disabled with 0.
+     * @param intervalMillis interval in milliseconds
+     */
+    synchronized void setRefreshInterval(long intervalMillis) {
+        if (poller != null) {
+            poller.cancel(false);
+            poller = null;
+        }
+        clear();
+        if (intervalMillis > 0) {
+            poller = scheduler.scheduleWithFixedDelay(this::scheduledPoll, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduledPoll() {
+        synchronized (this) {
+            // the run may have been waiting for the lock while polling was disabled
+            if (poller == null) {
+                return;
+            }
+        }
+        poll();
+    }
+
+    /**
+     * Check if the cache is loaded.
+     * @return true if loaded
+     */
+    boolean isLoaded() {
+        return snapshot != null;
+    }
+
+    /**
+     * Load the cache now.
+     * @return future completed after loading
+     */
+    CompletableFuture<Void> poll() {
+        long started;
+        synchronized (this) {
+            started = ++generation;
+            polling = true;
+            pendingChanges.clear();
+        }
+        return loader.get().handle((response, e) -> {
+            synchronized (this) {
+                if (started != generation) {
+                    // cleared or superseded by a later poll while loading
+                    return null;
+                }
+                if (e != null) {
+                    log.info("Failed to load physical indices, cache is discarded", e);
+                    clear();
+                } else {
+                    apply(response);
+                }
+            }
+            return null;
+        });
+    }
+
+    private synchronized void apply(JsonNode response) {
+        Set<String> loadedIndices = new HashSet<String>();
+        Set<String> loadedAliases = new HashSet<String>();
+        Iterator<Map.Entry<String, JsonNode>> fields = response.fields();
+        while (fields.hasNext()) {
+            var field = fields.next();
+            loadedIndices.add(field.getKey());
+            field.getValue().path("aliases").fieldNames().forEachRemaining(loadedAliases::add);
+        }
+        for (Map.Entry<String, Boolean> change : pendingChanges) {
+            String name = change.getKey();
+            if (change.getValue()) {
+                loadedIndices.add(name);
+            } else {
+                loadedIndices.removeIf(index -> index.startsWith(name));
+                loadedAliases.removeIf(alias -> alias.startsWith(name));
+            }
+        }
+        pendingChanges.clear();
+        polling = false;
+        mappings.clear();
+        snapshot = new Snapshot(loadedIndices, loadedAliases);
+    }
+
+    private synchronized void clear() {
+        generation++;
+        polling = false;
+        pendingChanges.clear();
+        mappings.clear();
+        snapshot = null;
+    }
+
+    /**
+     * Check if the physical index (or alias) is known to be missing.
+     * @param name physical index name
+     * @return true if the cache is loaded and does not have the index
+     */
+    boolean isKnownMissing(String name) {
+        var known = this.snapshot;
+        return known != null && !known.contains(name);
+    }
+
+    /**
+     * Get concrete indices whose names start with the prefix.
+     * @param prefix prefix of index names
+     * @return sorted names, or null if the cache is not loaded
+     */
+    List<String> indicesStartingWith(String prefix) {
+        var known = this.snapshot;
+        if (known == null) {
+            return null;
+        }
+        List<String> names = new ArrayList<String>();
+        for (String name : known.indices) {
+            if (name.startsWith(prefix)) {
+                names.add(name);
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Record index created by this process.
+     * @param name physical index name
+     */
+    void created(String name) {
+        var known = this.snapshot;
+        if (known != null && known.indices.contains(name)) {
+            return;
+        }
+        synchronized (this) {
+            if (polling) {
+                pendingChanges.add(Map.entry(name, true));
+            }
+            if (snapshot != null) {
+                Set<String> updated = new HashSet<String>(snapshot.indices);
+                updated.add(name);
+                snapshot = new Snapshot(updated, snapshot.aliases);
+            }
+        }
+    }
+
+    /**
+     * Record indices deleted by this process.
+     * @param prefix prefix of deleted index and alias names
+     */
+    synchronized void deleted(String prefix) {
+        mappings.keySet().removeIf(name -> name.startsWith(prefix));
+        if (polling) {
+            pendingChanges.add(Map.entry(prefix, false));
+        }
+        if (snapshot == null) {
+            return;
+        }
+        Set<String> updatedIndices = new HashSet<String>(snapshot.indices);
+        Set<String> updatedAliases = new HashSet<String>(snapshot.aliases);
+        updatedIndices.removeIf(name -> name.startsWith(prefix));
+        updatedAliases.removeIf(name -> name.startsWith(prefix));
+        snapshot = new Snapshot(updatedIndices, updatedAliases);
+    }
+
+    /**
+     * Get cached mapping.
+     * @param name physical index name
+     * @return mapping, or null if not cached
+     */
+    TypeMapping getMapping(String name) {
+        return mappings.get(name);
+    }
+
+    /**
+     * Cache mapping while the cache is loaded. Mappings are discarded on every poll.
+     * @param name physical index name
+     * @param mapping mapping
+     */
+    void putMapping(String name, TypeMapping mapping) {
+        if (isLoaded()) {
+            mappings.put(name, mapping);
+        }
+    }
+
+    /**
+     * Discard cached mapping.
+     * @param name physical index name
+     */
+    void invalidateMapping(String name) {
+        mappings.remove(name);
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coordinator of refresh per physical index (`index.type`).
+ * Dirty indices are refreshed at most once per window, and writers can wait for the refresh which makes their
+ * documents searchable.
+ */
+public class RefreshCoordinator {
+    static Logger log = LoggerFactory.getLogger(RefreshCoordinator.class);
+
+    /** Default window of refresh in milliseconds. */
+    public static final long DEFAULT_WINDOW_MILLIS = 1000;
+
+    private final Function<String, CompletableFuture<?>> refresher;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<String, IndexState> states = new ConcurrentHashMap<String, IndexState>();
+    private volatile long windowNanos;
+
+    /**
+     * Refresh state of a physical index.
+     */
+    private static class IndexState {
+        private final ReentrantLock lock = new ReentrantLock();
+        /** Completed by the refresh which starts next. */
+        private CompletableFuture<Void> waiting;
+        /** Completed by the refresh in flight. */
+        private CompletableFuture<Void> inFlight;
+        private boolean scheduled;
+        private boolean retired;
+        private long lastStart;
+    }
+
+    /**
+     * Constructor.
+     * @param refresher function which issues refresh of physical index
+     * @param scheduler scheduler of refresh
+     * @param windowMillis window of refresh in milliseconds
+     */
+    public RefreshCoordinator(Function<String, CompletableFuture<?>> refresher,
+            ScheduledExecutorService scheduler,
+            long windowMillis) {
+        this.refresher = refresher;
+        this.scheduler = scheduler;
+        setWindowMillis(windowMillis);
+    }
+
+    /**
+     * Set window of refresh.
+     * @param windowMillis window of refresh in milliseconds
+     */
+    public void setWindowMillis(long windowMillis) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    /**
+     * Get window of refresh.
+     * @return window of refresh in milliseconds
+     */
+    public long getWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.windowNanos);
+    }
+
+    /**
+     * Mark physical index as written. Refresh is scheduled if it is not yet.
+     * @param physicalIndex physical index name
+     * @return future completed when the written documents become searchable
+     */
+    public CompletableFuture<Void> markDirty(String physicalIndex) {
+        while (true) {
+            IndexState state = states.computeIfAbsent(physicalIndex, k -> new IndexState());
+            state.lock.lock();
+            try {
+                if (state.retired) {
+                    continue;
+                }
+                if (state.waiting == null) {
+                    state.waiting = new CompletableFuture<Void>();
+                }
+                CompletableFuture<Void> waiting = state.waiting;
+                if (!state.scheduled && state.inFlight == null) {
+                    schedule(physicalIndex, state);
+                }
+                return waiting;
+            } finally {
+                state.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Get future completed when all documents written to physical index so far become searchable.
+     * @param physicalIndex physical index name
+     * @return future (completed one if the index is not dirty)
+     */
+    public CompletableFuture<Void> whenRefreshed(String physicalIndex) {
+        IndexState state = states.get(physicalIndex);
+        if (state == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        state.lock.lock();
+        try {
+            if (state.waiting != null) {
+                return state.waiting;
+            }
+            if (state.inFlight != null) {
+                return state.inFlight;
+            }
+            return CompletableFuture.completedFuture(null);
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    /**
+     * Get number of physical indices which are tracked (dirty, being refreshed or refreshed within the window).
+     * @return number of indices
+     */
+    public int getPendingCount() {
+        return states.size();
+    }
+
+    /**
+     * Discard all pending refreshes. Futures waiting for them are completed exceptionally.
+     */
+    public void close() {
+        for (String physicalIndex : states.keySet()) {
+            IndexState state = states.remove(physicalIndex);
+            if (state == null) {
+                continue;
+            }
+            CompletableFuture<Void> waiting;
+            state.lock.lock();
+            try {
+                state.retired = true;
+                waiting = state.waiting;
+                state.waiting = null;
+            } finally {
+                state.lock.unlock();
+            }
+            if (waiting != null) {
+                waiting.completeExceptionally(new IllegalStateException("Refresh is discarded: " + physicalIndex));
+            }
+        }
+    }
+
+    /**
+     * Schedule refresh. It must be called while holding the lock of state.
+     * If the scheduler rejects it, the waiting future is completed exceptionally.
+     */
+    private void schedule(String physicalIndex, IndexState state) {
+        long delay = 0;
+        if (state.lastStart != 0) {
+            delay = Math.max(0, state.lastStart + windowNanos - System.nanoTime());
+        }
+        state.scheduled = true;
+        try {
+            scheduler.schedule(() -> refresh(physicalIndex, state), delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            state.scheduled = false;
+            log.info("Refresh is not scheduled: " + physicalIndex, e);
+            if (state.waiting != null) {
+                state.waiting.completeExceptionally(e);
+                state.waiting = null;
+            }
+        }
+    }
+
+    /**
+     * Remove state after the window if it is idle. It must be called while holding the lock of state.
+     */
+    private void expireLater(String physicalIndex, IndexState state) {
+        long delay = Math.max(0, state.lastStart + windowNanos - System.nanoTime());
+        try {
+            scheduler.schedule(() -> {
+                state.lock.lock();
+                try {
+                    if (state.waiting == null && state.inFlight == null && !state.scheduled) {
+                        state.retired = true;
+                        states.remove(physicalIndex, state);
+                    }
+                } finally {
+                    state.lock.unlock();
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            state.retired = true;
+            states.remove(physicalIndex, state);
+        }
+    }
+
+    private void refresh(String physicalIndex, IndexState state) {
+        CompletableFuture<Void> covered;
+        state.lock.lock();
+        try {
+            state.scheduled = false;
+            if (state.retired || state.waiting == null) {
+                return;
+            }
+            covered = state.waiting;
+            state.waiting = null;
+            state.inFlight = covered;
+            state.lastStart = System.nanoTime();
+        } finally {
+            state.lock.unlock();
+        }
+
+        CompletableFuture<?> response;
+        try {
+            response = refresher.apply(physicalIndex);
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((r, e) -> {
+            state.lock.lock();
+            try {
+                state.inFlight = null;
+                if (state.waiting != null) {
+                    // written during the refresh.
+                    if (!state.scheduled && !state.retired) {
+                        schedule(physicalIndex, state);
+                    }
+                } else {
+                    // keep the state until the window passes, so that next write does not refresh at once.
+                    expireLater(physicalIndex, state);
+                }
+            } finally {
+                state.lock.unlock();
+            }
+            if (e == null) {
+                covered.complete(null);
+            } else {
+                log.info("Refresh failed: " + physicalIndex, e);
+                covered.completeExceptionally(e);
+            }
+        });
+    }
+}
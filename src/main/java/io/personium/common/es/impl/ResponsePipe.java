@@ -0,0 +1,259 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+
+/**
+ * Bounded pipe between the I/O reactor receiving a response body and the thread reading it.
+ * The reactor thread never blocks: when more than the limit is buffered, input of the connection is suspended
+ * and it is resumed after the reader has drained half of the buffer.
+ */
+final class ResponsePipe extends InputStream {
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int BYTE_MASK = 0xff;
+
+    private final int maxBufferedBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<ByteBuffer>();
+    private int bufferedBytes;
+    private boolean claimed;
+    private boolean finished;
+    private boolean closed;
+    private IOException failure;
+    private IOControl suspended;
+    private Runnable closeHandler;
+
+    /**
+     * Constructor.
+     * @param maxBufferedBytes bytes to be buffered before input is suspended
+     */
+    ResponsePipe(int maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * Claim the pipe for a response. Only one response can be written into a pipe.
+     * @return true if the pipe was not claimed yet
+     */
+    boolean claim() {
+        lock.lock();
+        try {
+            if (claimed) {
+                return false;
+            }
+            claimed = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Set the action called when the reader closes the pipe, e.g. to cancel the request.
+     * @param handler action
+     */
+    void onClose(Runnable handler) {
+        this.closeHandler = handler;
+    }
+
+    /**
+     * Move available content into the pipe. Called by the I/O reactor thread.
+     * @param decoder content decoder
+     * @param ioControl I/O control of the connection
+     * @throws IOException exception while reading content
+     */
+    void receive(ContentDecoder decoder, IOControl ioControl) throws IOException {
+        while (true) {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            int read = decoder.read(chunk);
+            if (read <= 0) {
+                return;
+            }
+            chunk.flip();
+            lock.lock();
+            try {
+                if (closed) {
+                    continue;
+                }
+                chunks.add(chunk);
+                bufferedBytes += read;
+                readable.signalAll();
+                if (bufferedBytes >= maxBufferedBytes) {
+                    suspended = ioControl;
+                    ioControl.suspendInput();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Mark the end of the content.
+     */
+    void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Mark the content as broken. The reader gets the exception after the buffered content.
+     * @param cause cause
+     */
+    void fail(Exception cause) {
+        lock.lock();
+        try {
+            if (finished || failure != null) {
+                return;
+            }
+            if (cause instanceof IOException) {
+                failure = (IOException) cause;
+            } else {
+                failure = new IOException(cause);
+            }
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of bytes buffered in the pipe.
+     * @return bytes
+     */
+    int getBufferedBytes() {
+        lock.lock();
+        try {
+            return bufferedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int read = read(one, 0, 1);
+        if (read < 0) {
+            return -1;
+        }
+        return one[0] & BYTE_MASK;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        IOControl resume = null;
+        int read;
+        lock.lock();
+        try {
+            while (chunks.isEmpty() && !finished && failure == null && !closed) {
+                readable.await();
+            }
+            if (closed) {
+                throw new IOException("Pipe is closed");
+            }
+            if (chunks.isEmpty()) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return -1;
+            }
+            ByteBuffer head = chunks.peek();
+            read = Math.min(len, head.remaining());
+            head.get(b, off, read);
+            if (!head.hasRemaining()) {
+                chunks.poll();
+            }
+            bufferedBytes -= read;
+            if (suspended != null && bufferedBytes <= maxBufferedBytes / 2) {
+                resume = suspended;
+                suspended = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response content");
+        } finally {
+            lock.unlock();
+        }
+        if (resume != null) {
+            resume.requestInput();
+        }
+        return read;
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            if (chunks.isEmpty()) {
+                return 0;
+            }
+            return chunks.peek().remaining();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        IOControl resume;
+        boolean complete;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            complete = finished;
+            chunks.clear();
+            bufferedBytes = 0;
+            resume = suspended;
+            suspended = null;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (!complete && closeHandler != null) {
+            closeHandler.run();
+        }
+        if (resume != null) {
+            resume.requestInput();
+        }
+    }
+}
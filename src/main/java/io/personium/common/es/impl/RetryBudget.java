@@ -0,0 +1,74 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retry budget shared by all operations of a client (token bucket).
+ * Each request deposits a fraction of token and each retry withdraws one token, so retries are limited to the ratio
+ * of requests. It prevents retry storms while Elasticsearch is overloaded.
+ */
+public class RetryBudget {
+
+    /** Default ratio of retries to requests. */
+    public static final double DEFAULT_RATIO = 0.2;
+
+    /** Default max number of retries which can be saved. */
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private static final long SCALE = 1000;
+
+    private final long depositPerRequest;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    /**
+     * Constructor.
+     * @param ratio ratio of retries to requests
+     * @param capacity max number of retries which can be saved
+     */
+    public RetryBudget(double ratio, int capacity) {
+        this.depositPerRequest = Math.round(ratio * SCALE);
+        this.capacity = capacity * SCALE;
+        this.balance = new AtomicLong(this.capacity);
+    }
+
+    /**
+     * Record a request.
+     */
+    public void onRequest() {
+        balance.accumulateAndGet(depositPerRequest, (current, deposit) -> Math.min(capacity, current + deposit));
+    }
+
+    /**
+     * Try to withdraw a token for retry.
+     * @return true if retry is allowed
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            long current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.NoHttpResponseException;
+import org.elasticsearch.client.ResponseException;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+
+/**
+ * Classifier of exceptions which are safely retryable.
+ */
+public class RetryClassifier {
+
+    /** Error types of Elasticsearch which are rejected without execution. */
+    private static final Set<String> REJECTED_ERROR_TYPES = Set.of("es_rejected_execution_exception",
+            "circuit_breaking_exception", "cluster_block_exception", "no_shard_available_action_exception",
+            "unavailable_shards_exception");
+
+    /** HTTP statuses which mean the request is not executed. */
+    private static final Set<Integer> REJECTED_STATUSES = Set.of(429, 503);
+
+    /** HTTP statuses of proxies, which may be returned after the request is executed. */
+    private static final Set<Integer> AMBIGUOUS_STATUSES = Set.of(502, 504);
+
+    private RetryClassifier() {
+    }
+
+    /**
+     * Check whether the operation can be retried after the exception.
+     * Requests which are rejected before execution (429, 503, es_rejected_execution_exception, connection refused)
+     * are always retryable. Connection reset, closed connection, timeout, 502 and 504 are ambiguous because the
+     * request may have been executed, so they are retryable only for idempotent operations.
+     * Version conflicts and other errors are never retryable.
+     * @param e exception
+     * @param idempotent true if the operation is idempotent
+     * @return true if retryable
+     */
+    public static boolean isRetryable(Throwable e, boolean idempotent) {
+        for (Throwable cause = e; cause != null; cause = nextCause(cause)) {
+            if (cause instanceof ElasticsearchException) {
+                var ee = (ElasticsearchException) cause;
+                return isRetryableStatus(ee.status(), idempotent)
+                        || ee.error() != null && REJECTED_ERROR_TYPES.contains(ee.error().type());
+            }
+            if (cause instanceof ResponseException) {
+                int status = ((ResponseException) cause).getResponse().getStatusLine().getStatusCode();
+                return isRetryableStatus(status, idempotent);
+            }
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException) {
+                // not sent
+                return true;
+            }
+            if (cause instanceof ConnectionClosedException || cause instanceof NoHttpResponseException
+                    || cause instanceof SocketTimeoutException || cause instanceof SocketException) {
+                return idempotent;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether the HTTP status means the request is rejected without execution.
+     * @param status HTTP status (of bulk item etc.)
+     * @return true if retryable
+     */
+    public static boolean isRetryableStatus(int status) {
+        return REJECTED_STATUSES.contains(status);
+    }
+
+    private static boolean isRetryableStatus(int status, boolean idempotent) {
+        return REJECTED_STATUSES.contains(status) || idempotent && AMBIGUOUS_STATUSES.contains(status);
+    }
+
+    private static Throwable nextCause(Throwable e) {
+        if (e.getCause() == e) {
+            return null;
+        }
+        return e.getCause();
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy of an operation: number of retries and exponential backoff with jitter.
+ */
+public class RetryPolicy {
+
+    /** Policy without retry. */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+    /** Base delay used when the interval is not specified. */
+    static final long DEFAULT_BASE_DELAY_MILLIS = 50;
+
+    /** Upper limit of delay. */
+    static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * Constructor.
+     * @param maxRetries max number of retries (0 for no retry)
+     * @param baseDelayMillis delay before the first retry
+     * @param maxDelayMillis upper limit of delay
+     */
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * Create policy from retry parameters of EsClient.
+     * @param times リトライ回数
+     * @param interval リトライ間隔 (base delay in milliseconds)
+     * @return policy
+     */
+    public static RetryPolicy of(int times, int interval) {
+        if (times <= 0) {
+            return NONE;
+        }
+        long base = interval;
+        if (base <= 0) {
+            base = DEFAULT_BASE_DELAY_MILLIS;
+        }
+        return new RetryPolicy(times, base, Math.max(base, DEFAULT_MAX_DELAY_MILLIS));
+    }
+
+    /**
+     * Getter of max retries.
+     * @return max number of retries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Delay before the retry. Exponential backoff with "equal jitter": the half is fixed and the other half is
+     * random, so that clients which failed at the same time do not retry at the same time.
+     * @param retryCount number of the retry (1 origin)
+     * @return delay in milliseconds
+     */
+    public long delayMillis(int retryCount) {
+        long backoff = baseDelayMillis;
+        for (int i = 1; i < retryCount && backoff < maxDelayMillis; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, maxDelayMillis);
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+}
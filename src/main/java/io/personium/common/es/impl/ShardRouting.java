@@ -0,0 +1,100 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.personium.common.es.EsRoutingStats;
+
+/**
+ * Routing of read requests.
+ * Every read path asks this class for the routing parameter, so that a request with a routing id always hits
+ * one shard per physical index, and a request without it is counted as fan-out.
+ */
+final class ShardRouting {
+    static Logger log = LoggerFactory.getLogger(ShardRouting.class);
+
+    private final boolean enabled;
+    private final LongAdder routed = new LongAdder();
+    private final Map<String, LongAdder> fanOut = new ConcurrentHashMap<String, LongAdder>();
+
+    /**
+     * Constructor.
+     * @param enabled false if routing is never used
+     */
+    ShardRouting(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get routing parameter of a read request.
+     * @param operation name of operation for statistics
+     * @param routingId routingId (nullable)
+     * @return routing parameter, or null if the request fans out to every shard
+     */
+    String route(String operation, String routingId) {
+        String routing = resolve(routingId);
+        if (routing != null) {
+            routed.increment();
+            return routing;
+        }
+        return fanOut(operation);
+    }
+
+    /**
+     * Get routing parameter without counting, for a request which is a part of already counted read
+     * (e.g. slices of a scroll after the first one).
+     * @param routingId routingId (nullable)
+     * @return routing parameter, or null if the request fans out to every shard
+     */
+    String resolve(String routingId) {
+        if (enabled && routingId != null && !routingId.isEmpty()) {
+            return routingId;
+        }
+        return null;
+    }
+
+    /**
+     * Count a read request which is sent without routing id.
+     * @param operation name of operation for statistics
+     * @return always null
+     */
+    String fanOut(String operation) {
+        fanOut.computeIfAbsent(operation, k -> new LongAdder()).increment();
+        if (log.isDebugEnabled()) {
+            log.debug("Unrouted " + operation + " request fans out to every shard.");
+        }
+        return null;
+    }
+
+    /**
+     * Get snapshot of statistics.
+     * @return statistics
+     */
+    EsRoutingStats stats() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        fanOut.forEach((operation, count) -> counts.put(operation, count.sum()));
+        return new EsRoutingStats(routed.sum(), counts);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Response consumer which hands the body of a successful response to the reader as soon as the headers arrive.
+ * The body is passed through a bounded {@link ResponsePipe} instead of being buffered on heap.
+ * Bodies of error responses are small, so they are buffered as usual to build ResponseException.
+ */
+class StreamingResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+    private static final int ERROR_BUFFER_SIZE = 1024;
+
+    private final ResponsePipe pipe;
+    private final CompletableFuture<InputStream> body;
+    private HttpResponse response;
+    private ContentType contentType;
+    private ByteArrayOutputStream errorBody;
+    private boolean streaming;
+    private boolean completed;
+
+    /**
+     * Constructor.
+     * @param pipe pipe to which the body of successful response is written
+     * @param body future completed with the pipe when the headers of successful response arrive
+     */
+    StreamingResponseConsumer(ResponsePipe pipe, CompletableFuture<InputStream> body) {
+        this.pipe = pipe;
+        this.body = body;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse httpResponse) throws IOException {
+        this.response = httpResponse;
+        int status = httpResponse.getStatusLine().getStatusCode();
+        if (status < HttpStatus.SC_OK || status >= HttpStatus.SC_MULTIPLE_CHOICES) {
+            errorBody = new ByteArrayOutputStream(ERROR_BUFFER_SIZE);
+            return;
+        }
+        if (!pipe.claim()) {
+            throw new IOException("Response body has already been streamed from another attempt");
+        }
+        streaming = true;
+        body.complete(pipe);
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType type) {
+        this.contentType = type;
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+        if (streaming) {
+            pipe.receive(decoder, ioControl);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(ERROR_BUFFER_SIZE);
+        while (decoder.read(buffer) > 0) {
+            buffer.flip();
+            errorBody.write(buffer.array(), 0, buffer.limit());
+            buffer.clear();
+        }
+    }
+
+    @Override
+    protected HttpResponse buildResult(HttpContext context) {
+        completed = true;
+        if (streaming) {
+            pipe.finish();
+            response.setEntity(new InputStreamEntity(pipe, contentType));
+        } else if (errorBody != null) {
+            response.setEntity(new ByteArrayEntity(errorBody.toByteArray(), contentType));
+        }
+        return response;
+    }
+
+    @Override
+    protected void releaseResources() {
+        if (streaming && !completed) {
+            pipe.fail(new IOException("Response body was not completed", getException()));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.query;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.personium.common.es.query.impl.QueryCompiler;
+import io.personium.common.es.query.impl.QueryPlan;
+import io.personium.common.es.query.impl.QueryShape;
+import io.personium.common.es.response.EsClientException;
+import io.personium.common.es.util.EsJson;
+
+/**
+ * Translator of the legacy (ES1 style) query into the query for ES7.
+ * Translation is compiled once per query shape and cached, so the query is neither cloned nor re-parsed.
+ */
+public class QueryTranslator {
+
+    /** Default number of cached translations. */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private final ConcurrentMap<String, QueryPlan> plans = new ConcurrentHashMap<String, QueryPlan>();
+    private final int maxCacheSize;
+
+    /**
+     * Constructor.
+     */
+    public QueryTranslator() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param maxCacheSize max number of cached translations
+     */
+    public QueryTranslator(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * Translate query into JSON string.
+     * @param query query
+     * @return translated JSON
+     */
+    public String translate(Map<String, Object> query) {
+        var writer = new StringWriter();
+        try (JsonGenerator gen = EsJson.mapper().getFactory().createGenerator(writer)) {
+            translate(query, gen);
+        } catch (IOException ex) {
+            throw new EsClientException("Query Translation Error.", ex);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Translate query and write it to generator.
+     * @param query query
+     * @param gen generator
+     * @throws IOException exception while writing
+     */
+    public void translate(Map<String, Object> query, JsonGenerator gen) throws IOException {
+        getPlan(query).write(query, gen);
+    }
+
+    /**
+     * Get number of cached translations.
+     * @return number of cached translations
+     */
+    public int getCacheSize() {
+        return plans.size();
+    }
+
+    private QueryPlan getPlan(Map<String, Object> query) {
+        String shape = QueryShape.of(query);
+        QueryPlan plan = plans.get(shape);
+        if (plan == null) {
+            plan = QueryCompiler.compile(query);
+            if (plans.size() >= maxCacheSize) {
+                // Shapes of queries are limited in practice. Simply start over when it overflows.
+                plans.clear();
+            }
+            plans.put(shape, plan);
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.query.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.personium.common.es.util.SourceKeyConverter;
+
+/**
+ * Node of compiled query translation.
+ * Nodes never hold values of the query. They refer to the values by path so that one compiled translation can be
+ * applied to every query which has the same shape.
+ */
+abstract class PlanNode {
+
+    /** Keys which are removed from whole translated query. */
+    static final Set<String> ALWAYS_DROPPED_KEYS = Set.of("ignore_unmapped", "_cache");
+
+    /**
+     * Write translated JSON.
+     * @param root original query
+     * @param gen generator
+     * @throws IOException exception while writing
+     */
+    abstract void write(Object root, JsonGenerator gen) throws IOException;
+
+    /**
+     * Resolve value of query by path.
+     * @param root original query
+     * @param path keys (String) and indices (Integer)
+     * @return resolved value
+     */
+    @SuppressWarnings("unchecked")
+    static Object resolve(Object root, Object[] path) {
+        Object current = root;
+        for (Object key : path) {
+            if (key instanceof Integer) {
+                current = ((List<Object>) current).get((Integer) key);
+            } else {
+                current = ((Map<String, Object>) current).get(key);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Create set of keys to be dropped.
+     * @param additionalKeys keys specific to the node
+     * @return set of keys
+     */
+    static Set<String> dropKeys(Set<String> additionalKeys) {
+        if (additionalKeys.isEmpty()) {
+            return ALWAYS_DROPPED_KEYS;
+        }
+        Set<String> keys = new HashSet<String>(ALWAYS_DROPPED_KEYS);
+        keys.addAll(additionalKeys);
+        return Collections.unmodifiableSet(keys);
+    }
+
+    /**
+     * Object node whose members are translated nodes.
+     */
+    static class ObjectPlan extends PlanNode {
+        private final Map<String, PlanNode> members = new LinkedHashMap<String, PlanNode>();
+
+        ObjectPlan put(String name, PlanNode node) {
+            members.put(name, node);
+            return this;
+        }
+
+        @Override
+        void write(Object root, JsonGenerator gen) throws IOException {
+            gen.writeStartObject();
+            for (Map.Entry<String, PlanNode> member : members.entrySet()) {
+                gen.writeFieldName(member.getKey());
+                member.getValue().write(root, gen);
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Array node whose elements are translated nodes.
+     */
+    static class ArrayPlan extends PlanNode {
+        private final List<PlanNode> elements;
+
+        ArrayPlan(List<PlanNode> elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        void write(Object root, JsonGenerator gen) throws IOException {
+            gen.writeStartArray();
+            for (PlanNode element : elements) {
+                element.write(root, gen);
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    /**
+     * Constant scalar value.
+     */
+    static class ConstantPlan extends PlanNode {
+        private final Object value;
+
+        ConstantPlan(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        void write(Object root, JsonGenerator gen) throws IOException {
+            gen.writeObject(value);
+        }
+    }
+
+    /**
+     * Reference to a value of original query, which is written as it is except for the key conversion.
+     */
+    static class ValuePlan extends PlanNode {
+        private final Object[] path;
+        private final Set<String> dropKeys;
+
+        ValuePlan(Object[] path, Set<String> additionalDropKeys) {
+            this.path = path;
+            this.dropKeys = dropKeys(additionalDropKeys);
+        }
+
+        @Override
+        void write(Object root, JsonGenerator gen) throws IOException {
+            SourceKeyConverter.write(gen, resolve(root, path), dropKeys, true);
+        }
+    }
+
+    /**
+     * Reference to a list of original query, whose elements are written into the enclosing array.
+     */
+    static class SpreadPlan extends PlanNode {
+        private final Object[] path;
+
+        SpreadPlan(Object[] path) {
+            this.path = path;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void write(Object root, JsonGenerator gen) throws IOException {
+            for (Object element : (List<Object>) resolve(root, path)) {
+                SourceKeyConverter.write(gen, element, ALWAYS_DROPPED_KEYS, true);
+            }
+        }
+    }
+
+    /**
+     * Reference to a list of original query, which is written after the constant first element.
+     */
+    static class PrefixedListPlan extends PlanNode {
+        private final Object first;
+        private final Object[] path;
+
+        PrefixedListPlan(Object first, Object[] path) {
+            this.first = first;
+            this.path = path;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void write(Object root, JsonGenerator gen) throws IOException {
+            gen.writeStartArray();
+            gen.writeObject(first);
+            for (Object element : (List<Object>) resolve(root, path)) {
+                SourceKeyConverter.write(gen, element, ALWAYS_DROPPED_KEYS, true);
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    /**
+     * Reference to an object of original query with an additional member.
+     */
+    static class ExtendedObjectPlan extends PlanNode {
+        private final Object[] path;
+        private final Set<String> dropKeys;
+        private final String extraName;
+        private final PlanNode extraNode;
+
+        ExtendedObjectPlan(Object[] path, Set<String> additionalDropKeys, String extraName, PlanNode extraNode) {
+            this.path = path;
+            this.dropKeys = dropKeys(additionalDropKeys);
+            this.extraName = extraName;
+            this.extraNode = extraNode;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void write(Object root, JsonGenerator gen) throws IOException {
+            gen.writeStartObject();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) resolve(root, path)).entrySet()) {
+                String key = SourceKeyConverter.renameKey(entry.getKey());
+                if (dropKeys.contains(key) || extraName.equals(key) || entry.getValue() == null) {
+                    continue;
+                }
+                gen.writeFieldName(key);
+                SourceKeyConverter.write(gen, entry.getValue(), dropKeys, true);
+            }
+            gen.writeFieldName(extraName);
+            extraNode.write(root, gen);
+            gen.writeEndObject();
+        }
+    }
+}
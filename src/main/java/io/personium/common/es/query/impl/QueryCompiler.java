@@ -0,0 +1,384 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.query.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import io.personium.common.es.query.impl.PlanNode.ArrayPlan;
+import io.personium.common.es.query.impl.PlanNode.ConstantPlan;
+import io.personium.common.es.query.impl.PlanNode.ExtendedObjectPlan;
+import io.personium.common.es.query.impl.PlanNode.ObjectPlan;
+import io.personium.common.es.query.impl.PlanNode.PrefixedListPlan;
+import io.personium.common.es.query.impl.PlanNode.SpreadPlan;
+import io.personium.common.es.query.impl.PlanNode.ValuePlan;
+import io.personium.common.es.util.SourceKeyConverter;
+
+/**
+ * Compiler of the legacy (ES1 style) query into the translation for ES7.
+ * The query is walked only once and never copied. `filtered`, `and`, `or`, `not` and `missing` are rewritten into
+ * `bool` query in the same way as before.
+ */
+public class QueryCompiler {
+
+    /** Top level keys which are passed through. */
+    private static final String[] PASS_THROUGH_KEYS = {"version", "size", "from", "sort", "docvalue_fields"};
+
+    private static final Set<String> NO_KEYS = Set.of();
+    private static final Set<String> QUERY_KEY = Set.of("query");
+    private static final Set<String> MATCH_KEY = Set.of("match");
+    private static final Set<String> MATCH_OPTION_KEYS = Set.of("type", "operator");
+
+    private QueryCompiler() {
+    }
+
+    /**
+     * Result of translation of a filter.
+     */
+    private static class TranslatedFilter {
+        private PlanNode node;
+        private boolean hasMust;
+        private boolean hasShould;
+        private boolean empty;
+
+        TranslatedFilter(PlanNode node, boolean hasMust, boolean hasShould, boolean empty) {
+            this.node = node;
+            this.hasMust = hasMust;
+            this.hasShould = hasShould;
+            this.empty = empty;
+        }
+    }
+
+    /**
+     * Compile query.
+     * @param query query
+     * @return compiled translation
+     */
+    @SuppressWarnings("unchecked")
+    public static QueryPlan compile(Map<String, Object> query) {
+        ObjectPlan root = new ObjectPlan();
+        for (String key : PASS_THROUGH_KEYS) {
+            if (query.get(key) != null) {
+                root.put(key, new ValuePlan(path(key), NO_KEYS));
+            }
+        }
+        Object source = query.get("_source");
+        if (source instanceof List) {
+            root.put("_source", new ObjectPlan()
+                    .put("includes", new PrefixedListPlan("type", path("_source")))
+                    .put("excludes", new ArrayPlan(List.of())));
+        } else if (source != null) {
+            root.put("_source", new ValuePlan(path("_source"), NO_KEYS));
+        }
+
+        List<PlanNode> must = new ArrayList<PlanNode>();
+        List<PlanNode> filterMust = new ArrayList<PlanNode>();
+        List<PlanNode> filterMustNot = new ArrayList<PlanNode>();
+        List<PlanNode> filterShould = new ArrayList<PlanNode>();
+
+        // -query/filtered/filter
+        addElements(filterMust, query, "query", "filtered", "filter", "bool", "must");
+        addElements(filterMustNot, query, "query", "filtered", "filter", "bool", "must_not");
+        addElements(filterShould, query, "query", "filtered", "filter", "bool", "should");
+        if (filterMust.isEmpty() && filterMustNot.isEmpty() && filterShould.isEmpty()) {
+            // other regular pattern
+            if (!addElements(filterMust, query, "query", "filtered", "filter", "and", "filters")) {
+                Object[] filteredFilter = find(query, "query", "filtered", "filter");
+                if (filteredFilter != null) {
+                    filterMust.add(new ValuePlan(filteredFilter, NO_KEYS));
+                }
+            }
+        }
+        // -query/filtered/query
+        addElements(must, query, "query", "filtered", "query");
+
+        // -filter/ids
+        Object[] filterIds = find(query, "filter", "ids");
+        if (filterIds != null) {
+            filterMust.add(new ObjectPlan().put("ids", new ValuePlan(filterIds, NO_KEYS)));
+        }
+        // -filter
+        boolean minimumShouldMatch = false;
+        Object filter = query.get("filter");
+        if (filter instanceof Map) {
+            Map<String, Object> filterMap = (Map<String, Object>) filter;
+            List<PlanNode> filterQueries = new ArrayList<PlanNode>();
+            collectQueries(filterMap, path("filter"), filterQueries);
+            Set<String> dropKeys = NO_KEYS;
+            if (!filterQueries.isEmpty()) {
+                must.add(new ObjectPlan().put("bool", new ObjectPlan().put("must", new ArrayPlan(filterQueries))));
+                dropKeys = QUERY_KEY;
+            }
+            TranslatedFilter translated = translateFilter(filterMap, path("filter"), dropKeys);
+            if (translated.hasMust) {
+                filterMust.add(translated.node);
+            }
+            if (translated.hasShould) {
+                filterShould.add(translated.node);
+            }
+            // for version 7
+            minimumShouldMatch = !filterShould.isEmpty() && !filterMust.isEmpty();
+        }
+
+        ObjectPlan filterBool = new ObjectPlan();
+        putIfNotEmpty(filterBool, "must", filterMust);
+        putIfNotEmpty(filterBool, "must_not", filterMustNot);
+        putIfNotEmpty(filterBool, "should", filterShould);
+        if (minimumShouldMatch) {
+            filterBool.put("minimum_should_match", new ConstantPlan(1));
+        }
+        ObjectPlan bool = new ObjectPlan().put("filter", new ObjectPlan().put("bool", filterBool));
+        putIfNotEmpty(bool, "must", must);
+        root.put("query", new ObjectPlan().put("bool", bool));
+        return new QueryPlan(root);
+    }
+
+    private static void putIfNotEmpty(ObjectPlan object, String name, List<PlanNode> elements) {
+        if (!elements.isEmpty()) {
+            object.put(name, new ArrayPlan(elements));
+        }
+    }
+
+    /**
+     * Add elements of the list found by keys. If the value is a map, the map itself is added.
+     * @param elements list to be added
+     * @param query query
+     * @param keys keys
+     * @return true if value is found
+     */
+    private static boolean addElements(List<PlanNode> elements, Map<String, Object> query, String... keys) {
+        Object[] found = find(query, keys);
+        if (found == null) {
+            return false;
+        }
+        Object value = PlanNode.resolve(query, found);
+        if (value instanceof List) {
+            if (!((List<?>) value).isEmpty()) {
+                elements.add(new SpreadPlan(found));
+            }
+        } else if (value instanceof Map) {
+            elements.add(new ValuePlan(found, NO_KEYS));
+        }
+        return true;
+    }
+
+    /**
+     * Translate `and`, `or`, `not` and `missing` filter into `bool` query.
+     * @param map filter
+     * @param mapPath path of filter
+     * @param dropKeys keys removed from filter
+     * @return translated filter
+     */
+    @SuppressWarnings("unchecked")
+    private static TranslatedFilter translateFilter(Map<String, Object> map, Object[] mapPath, Set<String> dropKeys) {
+        if (map.get("and") != null) {
+            return boolFilter("must", translateAndOrNot(map.get("and"), append(mapPath, "and"), dropKeys));
+        }
+        if (map.get("or") != null) {
+            return boolFilter("should", translateAndOrNot(map.get("or"), append(mapPath, "or"), dropKeys));
+        }
+        if (map.get("not") != null) {
+            return boolFilter("must_not", translateAndOrNot(map.get("not"), append(mapPath, "not"), dropKeys));
+        }
+        if (map.get("missing") != null) {
+            List<PlanNode> exists = new ArrayList<PlanNode>();
+            exists.add(new ObjectPlan().put("exists", new ValuePlan(append(mapPath, "missing"), dropKeys)));
+            return boolFilter("must_not", exists);
+        }
+        boolean empty = true;
+        for (String key : map.keySet()) {
+            if (!dropKeys.contains(key)) {
+                empty = false;
+                break;
+            }
+        }
+        return new TranslatedFilter(new ValuePlan(mapPath, dropKeys),
+                find(map, "bool", "must") != null,
+                find(map, "bool", "should") != null,
+                empty);
+    }
+
+    private static TranslatedFilter boolFilter(String occur, List<PlanNode> clauses) {
+        PlanNode node = new ObjectPlan().put("bool", new ObjectPlan().put(occur, new ArrayPlan(clauses)));
+        return new TranslatedFilter(node, "must".equals(occur), "should".equals(occur), false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<PlanNode> translateAndOrNot(Object value, Object[] valuePath, Set<String> dropKeys) {
+        List<PlanNode> clauses = new ArrayList<PlanNode>();
+        if (value instanceof List) {
+            translateList(clauses, (List<Object>) value, valuePath, dropKeys);
+        } else if (value instanceof Map) {
+            Map<String, Object> nestedMap = (Map<String, Object>) value;
+            String nestedKey = null;
+            if (nestedMap.get("filters") != null) {
+                nestedKey = "filters";
+            } else if (nestedMap.get("filter") != null) {
+                nestedKey = "filter";
+            }
+            if (nestedKey == null) {
+                addIfNotEmpty(clauses, translateFilter(nestedMap, valuePath, dropKeys));
+            } else {
+                Object nestedValue = nestedMap.get(nestedKey);
+                if (nestedValue instanceof List) {
+                    translateList(clauses, (List<Object>) nestedValue, append(valuePath, nestedKey), dropKeys);
+                } else if (nestedValue instanceof Map) {
+                    addIfNotEmpty(clauses, translateFilter((Map<String, Object>) nestedValue,
+                            append(valuePath, nestedKey), dropKeys));
+                }
+            }
+        }
+        return clauses;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void translateList(List<PlanNode> clauses, List<Object> list, Object[] listPath,
+            Set<String> dropKeys) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) instanceof Map) {
+                addIfNotEmpty(clauses, translateFilter((Map<String, Object>) list.get(i), append(listPath, i),
+                        dropKeys));
+            }
+        }
+    }
+
+    private static void addIfNotEmpty(List<PlanNode> clauses, TranslatedFilter translated) {
+        if (!translated.empty) {
+            clauses.add(translated.node);
+        }
+    }
+
+    /**
+     * Collect `query` in filter. `match` query with `type` is converted into `match_[type]` query.
+     * @param map filter
+     * @param mapPath path of filter
+     * @param queries list of collected queries
+     */
+    @SuppressWarnings("unchecked")
+    private static void collectQueries(Map<String, Object> map, Object[] mapPath, List<PlanNode> queries) {
+        for (Entry<String, Object> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            if ("query".equals(entry.getKey())) {
+                if (value instanceof Map) {
+                    Object[] queryPath = append(mapPath, "query");
+                    Object type = findNested((Map<String, Object>) value, "type");
+                    if (type instanceof String) {
+                        queries.add(new ExtendedObjectPlan(queryPath, MATCH_KEY, "match_" + type,
+                                new ValuePlan(append(queryPath, "match"), MATCH_OPTION_KEYS)));
+                    } else {
+                        queries.add(new ValuePlan(queryPath, NO_KEYS));
+                    }
+                }
+                return;
+            }
+            if (value instanceof List) {
+                List<Object> list = (List<Object>) value;
+                for (int i = 0; i < list.size(); i++) {
+                    if (list.get(i) instanceof Map) {
+                        collectQueries((Map<String, Object>) list.get(i), append(mapPath, entry.getKey(), i),
+                                queries);
+                    }
+                }
+            } else if (value instanceof Map) {
+                collectQueries((Map<String, Object>) value, append(mapPath, entry.getKey()), queries);
+            }
+        }
+    }
+
+    /**
+     * Find value of the key in any depth.
+     * @param map map
+     * @param key key
+     * @return found value
+     */
+    @SuppressWarnings("unchecked")
+    private static Object findNested(Map<String, Object> map, String key) {
+        for (Entry<String, Object> entry : map.entrySet()) {
+            if (key.equals(SourceKeyConverter.renameKey(entry.getKey()))) {
+                return entry.getValue();
+            }
+            Object found = null;
+            if (entry.getValue() instanceof List) {
+                for (Object element : (List<Object>) entry.getValue()) {
+                    if (element instanceof Map) {
+                        found = findNested((Map<String, Object>) element, key);
+                        if (found != null) {
+                            break;
+                        }
+                    }
+                }
+            } else if (entry.getValue() instanceof Map) {
+                found = findNested((Map<String, Object>) entry.getValue(), key);
+            }
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find path of the value by keys. Lists on the way are searched for the first element which has the value.
+     * @param map map
+     * @param keys keys
+     * @return path of value, or null if not found
+     */
+    static Object[] find(Map<String, Object> map, String... keys) {
+        return find(map, keys, 0, new Object[0]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object[] find(Map<String, Object> map, String[] keys, int index, Object[] current) {
+        Object obj = map.get(keys[index]);
+        if (obj == null) {
+            return null;
+        }
+        Object[] objPath = append(current, keys[index]);
+        if (index == keys.length - 1) {
+            return objPath;
+        }
+        if (obj instanceof Map) {
+            return find((Map<String, Object>) obj, keys, index + 1, objPath);
+        } else if (obj instanceof List) {
+            List<Object> list = (List<Object>) obj;
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) instanceof Map) {
+                    Object[] found = find((Map<String, Object>) list.get(i), keys, index + 1, append(objPath, i));
+                    if (found != null) {
+                        return found;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Object[] path(String key) {
+        return new Object[] {key};
+    }
+
+    private static Object[] append(Object[] base, Object... keys) {
+        Object[] result = Arrays.copyOf(base, base.length + keys.length);
+        System.arraycopy(keys, 0, result, base.length, keys.length);
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.query.impl;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Compiled translation of query. It is immutable and shared among threads.
+ */
+public class QueryPlan {
+
+    private final PlanNode root;
+
+    QueryPlan(PlanNode root) {
+        this.root = root;
+    }
+
+    /**
+     * Write translated query.
+     * @param query original query which has the same shape as the compiled one
+     * @param gen generator
+     * @throws IOException exception while writing
+     */
+    public void write(Map<String, Object> query, JsonGenerator gen) throws IOException {
+        root.write(query, gen);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.query.impl;
+
+import java.util.List;
+import java.util.Map;
+
+import io.personium.common.es.util.SourceKeyConverter;
+
+/**
+ * Shape of query, which is used as the key of compiled translations.
+ * Shape consists of keys (in order), containers and nullness of values. Scalar values are ignored
+ * except for `type` which decides the name of `match_[type]` query, and lists of scalar values are
+ * regarded as the same shape regardless of their length (except for empty ones).
+ */
+public class QueryShape {
+
+    private QueryShape() {
+    }
+
+    /**
+     * Get shape of query.
+     * @param query query
+     * @return shape
+     */
+    public static String of(Map<String, Object> query) {
+        StringBuilder sb = new StringBuilder();
+        append(sb, null, query);
+        return sb.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void append(StringBuilder sb, String key, Object value) {
+        if (value instanceof Map) {
+            sb.append('{');
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                String entryKey = String.valueOf(entry.getKey());
+                sb.append(entryKey.length()).append(':').append(entryKey);
+                append(sb, SourceKeyConverter.renameKey(entryKey), entry.getValue());
+            }
+            sb.append('}');
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            boolean hasContainer = false;
+            for (Object element : list) {
+                if (element instanceof Map || element instanceof List) {
+                    hasContainer = true;
+                    break;
+                }
+            }
+            if (list.isEmpty()) {
+                sb.append("[]");
+                return;
+            }
+            if (!hasContainer) {
+                sb.append("[*]");
+                return;
+            }
+            sb.append('[');
+            for (Object element : list) {
+                append(sb, null, element);
+            }
+            sb.append(']');
+        } else if (value == null) {
+            sb.append('n');
+        } else if ("type".equals(key) && value instanceof String) {
+            String type = (String) value;
+            sb.append('=').append(type.length()).append(':').append(type);
+        } else {
+            sb.append('s');
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.response;
+
+import java.util.List;
+
+/**
+ * Status of delete-by-query task.
+ * Counts are taken from the task itself, so they are reported while the task is running.
+ */
+public interface PersoniumDeleteByQueryStatus {
+
+    /**
+     * Get task ID.
+     * @return task ID (null if no task was needed)
+     */
+    String getTaskId();
+
+    /**
+     * Whether the task has been completed.
+     * @return true if completed
+     */
+    boolean isCompleted();
+
+    /**
+     * 削除対象の件数を取得する.
+     * @return number of documents to be deleted
+     */
+    long getTotal();
+
+    /**
+     * 削除済みの件数を取得する.
+     * @return number of deleted documents
+     */
+    long getDeleted();
+
+    /**
+     * Get number of processed batches.
+     * @return number of batches
+     */
+    long getBatches();
+
+    /**
+     * Get number of documents which were not deleted due to version conflicts.
+     * @return number of version conflicts
+     */
+    long getVersionConflicts();
+
+    /**
+     * Get failures reported by the task as JSON strings.
+     * @return failures (empty if no failure)
+     */
+    List<String> getFailures();
+
+}
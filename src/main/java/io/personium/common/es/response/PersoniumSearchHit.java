@@ -120,6 +120,14 @@ public interface PersoniumSearchHit extends Iterable<PersoniumSearchHitField> {
      */
     Map<String, Object> sourceAsMap();
 
+    /**
+     * The value in the source of the document specified by path of keys, without converting whole source.
+     * For example, {@code getSourceValue("s", "Name")} returns the value of property Name in the map s.
+     * @param path keys from the root of the source
+     * @return value (Map, List, String, Number, Boolean), or null if the value does not exist
+     */
+    Object getSourceValue(String... path);
+
     /**
      * The hit field matching the given field name.
      * @param fieldName .
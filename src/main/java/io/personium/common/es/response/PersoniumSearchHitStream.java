@@ -0,0 +1,48 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.response;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Hits of a search response which are decoded one by one while the response is read.
+ * Only the current hit is held on heap, so it is suitable for large pages such as exports.
+ * The stream must be closed. Closing it before the end cancels the request.
+ */
+public interface PersoniumSearchHitStream extends Iterator<PersoniumSearchHit>, Closeable {
+
+    /**
+     * 検索でヒットすべきデータの総件数を取得. <br>
+     * 検索で取得したデータの件数ではない
+     * @return 検索でヒットすべきデータの総件数.
+     */
+    long getAllPages();
+
+    /**
+     * The maximum score of this query.
+     * @return .
+     */
+    float getMaxScore();
+
+    /**
+     * Close the stream. Runtime exceptions are thrown instead of IOException.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,138 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.response.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+import io.personium.common.es.response.PersoniumDeleteByQueryStatus;
+
+/**
+ * Status of delete-by-query task built from response of task API.
+ */
+public class PersoniumDeleteByQueryStatusImpl implements PersoniumDeleteByQueryStatus {
+
+    private final String taskId;
+    private final boolean completed;
+    private final long total;
+    private final long deleted;
+    private final long batches;
+    private final long versionConflicts;
+    private final List<String> failures;
+
+    private PersoniumDeleteByQueryStatusImpl(String taskId, boolean completed, JsonNode status) {
+        this.taskId = taskId;
+        this.completed = completed;
+        this.total = status.path("total").asLong();
+        this.deleted = status.path("deleted").asLong();
+        this.batches = status.path("batches").asLong();
+        this.versionConflicts = status.path("version_conflicts").asLong();
+        List<String> list = new ArrayList<String>();
+        for (JsonNode failure : status.path("failures")) {
+            list.add(failure.toString());
+        }
+        this.failures = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Create status from response of `GET _tasks/{taskId}`.
+     * The final response is used after completion, and the running status is used otherwise.
+     * @param taskId task ID
+     * @param taskResponse response of task API
+     * @return status
+     */
+    public static PersoniumDeleteByQueryStatus getInstance(String taskId, JsonNode taskResponse) {
+        if (taskResponse == null) {
+            return null;
+        }
+        boolean completed = taskResponse.path("completed").asBoolean();
+        JsonNode status = taskResponse.path("task").path("status");
+        if (completed && taskResponse.has("response")) {
+            status = taskResponse.get("response");
+        }
+        return new PersoniumDeleteByQueryStatusImpl(taskId, completed, status);
+    }
+
+    /**
+     * Create completed status of a deletion which had nothing to delete.
+     * @return status without task
+     */
+    public static PersoniumDeleteByQueryStatus empty() {
+        return new PersoniumDeleteByQueryStatusImpl(null, true, MissingNode.getInstance());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getTaskId() {
+        return taskId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getVersionConflicts() {
+        return versionConflicts;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getFailures() {
+        return failures;
+    }
+}
@@ -19,13 +19,12 @@ package io.personium.common.es.response.impl;
 
 import java.util.Map;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import co.elastic.clients.elasticsearch.core.GetResponse;
 import io.personium.common.es.impl.InternalEsClient;
 import io.personium.common.es.response.PersoniumGetResponse;
+import io.personium.common.es.util.SourceKeyConverter;
 
 /**
  * Wrapper of GetResponse.
@@ -140,11 +139,7 @@ public class PersoniumGetResponseImpl extends ElasticsearchResponseWrapper<GetRe
      */
     @Override
     public Map<String, Object> sourceAsMap() {
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, Object> objMap = mapper.convertValue(this.getResponse().source(),
-                new TypeReference<Map<String, Object>>() {
-                });
-        return InternalEsClient.deepClone(2, objMap, getType());
+        return SourceKeyConverter.toMap(this.getResponse().source());
     }
 
 }
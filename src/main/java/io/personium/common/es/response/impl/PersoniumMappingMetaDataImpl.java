@@ -20,12 +20,10 @@ package io.personium.common.es.response.impl;
 import java.io.IOException;
 import java.util.Map;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
 import co.elastic.clients.json.JsonpUtils;
 import io.personium.common.es.response.PersoniumMappingMetaData;
+import io.personium.common.es.util.EsJson;
 
 /**
  * Wrapper class of TypeMapping.
@@ -58,11 +56,7 @@ public class PersoniumMappingMetaDataImpl extends ElasticsearchResponseWrapper<T
      */
     @Override
     public Map<String, Object> getSourceAsMap() throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-
         String strResult = JsonpUtils.toString(this.getResponse(), new StringBuilder()).toString();
-        Map<String, Object> result = mapper.readValue(strResult, new TypeReference<Map<String, Object>>() {
-        });
-        return result;
+        return EsJson.toMap(strResult);
     }
 }
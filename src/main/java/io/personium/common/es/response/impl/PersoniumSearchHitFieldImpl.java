@@ -0,0 +1,102 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.response.impl;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import io.personium.common.es.response.PersoniumSearchHitField;
+
+/**
+ * Field of a search hit, which is returned by docvalue_fields.
+ */
+public class PersoniumSearchHitFieldImpl implements PersoniumSearchHitField {
+    private final String name;
+    private final List<Object> values;
+
+    /**
+     * Constructor.
+     * @param name field name
+     * @param values field values
+     */
+    PersoniumSearchHitFieldImpl(String name, List<Object> values) {
+        this.name = name;
+        this.values = Collections.unmodifiableList(values);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String name() {
+        return getName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <V> V value() {
+        return getValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V> V getValue() {
+        if (this.values.isEmpty()) {
+            return null;
+        }
+        return (V) this.values.get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Object> values() {
+        return getValues();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Object> getValues() {
+        return this.values;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Object> iterator() {
+        return this.values.iterator();
+    }
+}
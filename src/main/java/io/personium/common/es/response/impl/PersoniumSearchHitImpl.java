@@ -18,35 +18,43 @@
 package io.personium.common.es.response.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import io.personium.common.es.response.PersoniumSearchHit;
 import io.personium.common.es.response.PersoniumSearchHitField;
+import io.personium.common.es.util.EsJson;
+import io.personium.common.es.util.SourceKeyConverter;
 
 /**
  * Wrapper class of Hit.
+ * The source is converted into Map at most once, on the first access.
  */
 public class PersoniumSearchHitImpl implements PersoniumSearchHit {
     private Hit<ObjectNode> hit;
 
     private String type;
 
+    private Map<String, Object> sourceMap;
+
+    private Map<String, PersoniumSearchHitField> fields;
+
     /**
      * Constructor with Hit object.
      * @param hits Hit object.
      */
     private PersoniumSearchHitImpl(Hit<ObjectNode> hit) {
         this.hit = hit;
-        this.type = (String) this.hit.source().get("type").asText();
-       }
+    }
 
     /**
      * Instanciate PersoniumSearchHit from Hit object.
@@ -121,6 +129,9 @@ public class PersoniumSearchHitImpl implements PersoniumSearchHit {
      */
     @Override
     public String getType() {
+        if (this.type == null && this.hit.source() != null && this.hit.source().has("type")) {
+            this.type = this.hit.source().get("type").asText();
+        }
         return this.type;
     }
 
@@ -161,14 +172,47 @@ public class PersoniumSearchHitImpl implements PersoniumSearchHit {
     }
 
     /**
-     * {@inheritDoc}
+     * {@inheritDoc} The returned map is shared by subsequent calls.
      */
     @Override
     public Map<String, Object> getSource() {
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, Object> objMap = mapper.convertValue(this.hit.source(), new TypeReference<Map<String, Object>>() {
-        });
-        return objMap;
+        if (this.sourceMap == null) {
+            this.sourceMap = SourceKeyConverter.toMap(this.hit.source());
+        }
+        return this.sourceMap;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getSourceValue(String... path) {
+        if (this.sourceMap != null) {
+            Object value = this.sourceMap;
+            for (String key : path) {
+                if (!(value instanceof Map)) {
+                    return null;
+                }
+                value = ((Map<?, ?>) value).get(key);
+            }
+            return value;
+        }
+        JsonNode node = this.hit.source();
+        for (String key : path) {
+            if (node == null) {
+                return null;
+            }
+            node = node.get(key);
+        }
+        return SourceKeyConverter.toValue(node);
+    }
+
+    /**
+     * Get the source without conversion. It must not be modified.
+     * @return source
+     */
+    public ObjectNode getSourceNode() {
+        return this.hit.source();
     }
 
     /**
@@ -196,10 +240,21 @@ public class PersoniumSearchHitImpl implements PersoniumSearchHit {
     }
 
     /**
-     * {@inheritDoc}
+     * {@inheritDoc} Value of docvalue_fields is preferred to the source.
      */
     @Override
     public Object field(String fieldName) {
+        PersoniumSearchHitField docValue = getFields().get(fieldName);
+        if (docValue != null) {
+            Object value = docValue.getValue();
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return value;
+        }
+        if (this.hit.source() == null || !this.hit.source().has(fieldName)) {
+            return null;
+        }
         JsonNode node = this.hit.source().get(fieldName);
         JsonNodeType nodeType = node.getNodeType();
 
@@ -223,11 +278,29 @@ public class PersoniumSearchHitImpl implements PersoniumSearchHit {
     }
 
     /**
-     * {@inheritDoc}
+     * {@inheritDoc} Fields are returned only when they are requested by docvalue_fields.
      */
     @Override
     public Map<String, PersoniumSearchHitField> getFields() {
-        throw new RuntimeException("Not implemented PersoniumSearchHitImpl#getFields");
+        if (this.fields == null) {
+            if (this.hit.fields().isEmpty()) {
+                this.fields = Collections.emptyMap();
+                return this.fields;
+            }
+            Map<String, PersoniumSearchHitField> map = new LinkedHashMap<String, PersoniumSearchHitField>();
+            for (var entry : this.hit.fields().entrySet()) {
+                Object value = SourceKeyConverter.toValue(entry.getValue().to(JsonNode.class, EsJson.jsonpMapper()));
+                List<Object> values = new ArrayList<Object>();
+                if (value instanceof List) {
+                    values.addAll((List<?>) value);
+                } else if (value != null) {
+                    values.add(value);
+                }
+                map.put(entry.getKey(), new PersoniumSearchHitFieldImpl(entry.getKey(), values));
+            }
+            this.fields = Collections.unmodifiableMap(map);
+        }
+        return this.fields;
     }
 
     /**
@@ -0,0 +1,185 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.response.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.TotalHits;
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpUtils;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
+
+import io.personium.common.es.response.PersoniumSearchHit;
+import io.personium.common.es.response.PersoniumSearchHitStream;
+import io.personium.common.es.util.EsJson;
+
+/**
+ * Streaming decoder of search response body.
+ * The response is parsed until the beginning of hits array when it is created, and each hit is decoded
+ * with the deserializer of Elasticsearch client only when it is requested.
+ */
+public class PersoniumSearchHitStreamImpl implements PersoniumSearchHitStream {
+
+    private static final JsonpDeserializer<Hit<ObjectNode>> HIT_DESERIALIZER =
+            Hit.createHitDeserializer(JsonpDeserializer.of(ObjectNode.class));
+
+    private final JsonpMapper mapper;
+    private final JsonParser parser;
+    private long allPages;
+    private float maxScore = Float.NaN;
+    private boolean inHits;
+    private PersoniumSearchHit next;
+
+    private PersoniumSearchHitStreamImpl() {
+        this.mapper = null;
+        this.parser = null;
+    }
+
+    private PersoniumSearchHitStreamImpl(InputStream in) {
+        this.mapper = EsJson.jsonpMapper();
+        this.parser = mapper.jsonProvider().createParser(in);
+        JsonpUtils.expectNextEvent(parser, Event.START_OBJECT);
+        readUntilHits();
+    }
+
+    /**
+     * .
+     * @param in response body of search API
+     * @return stream positioned at the first hit
+     * @throws IOException exception while reading response
+     */
+    public static PersoniumSearchHitStream getInstance(InputStream in) throws IOException {
+        try {
+            return new PersoniumSearchHitStreamImpl(in);
+        } catch (RuntimeException e) {
+            in.close();
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Get stream without hits, which is used when the index does not exist.
+     * @return empty stream
+     */
+    public static PersoniumSearchHitStream empty() {
+        var stream = new PersoniumSearchHitStreamImpl();
+        stream.maxScore = 0;
+        return stream;
+    }
+
+    private void readUntilHits() {
+        while (true) {
+            Event event = parser.next();
+            if (event == Event.END_OBJECT) {
+                return;
+            }
+            String name = JsonpUtils.expectKeyName(parser, event);
+            if (!"hits".equals(name)) {
+                JsonpUtils.skipValue(parser);
+                continue;
+            }
+            JsonpUtils.expectNextEvent(parser, Event.START_OBJECT);
+            while (true) {
+                event = parser.next();
+                if (event == Event.END_OBJECT) {
+                    break;
+                }
+                String field = JsonpUtils.expectKeyName(parser, event);
+                if ("total".equals(field)) {
+                    allPages = TotalHits._DESERIALIZER.deserialize(parser, mapper).value();
+                } else if ("max_score".equals(field)) {
+                    event = parser.next();
+                    if (event == Event.VALUE_NUMBER) {
+                        maxScore = parser.getBigDecimal().floatValue();
+                    }
+                } else if ("hits".equals(field)) {
+                    JsonpUtils.expectNextEvent(parser, Event.START_ARRAY);
+                    inHits = true;
+                    return;
+                } else {
+                    JsonpUtils.skipValue(parser);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (!inHits) {
+            return false;
+        }
+        try {
+            Event event = parser.next();
+            if (event == Event.END_ARRAY) {
+                inHits = false;
+                return false;
+            }
+            next = PersoniumSearchHitImpl.getInstance(HIT_DESERIALIZER.deserialize(parser, mapper, event));
+            return true;
+        } catch (RuntimeException e) {
+            inHits = false;
+            throw e;
+        }
+    }
+
+    @Override
+    public PersoniumSearchHit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var hit = next;
+        next = null;
+        return hit;
+    }
+
+    @Override
+    public long getAllPages() {
+        return allPages;
+    }
+
+    @Override
+    public float getMaxScore() {
+        return maxScore;
+    }
+
+    @Override
+    public void close() {
+        inHits = false;
+        next = null;
+        if (parser != null) {
+            parser.close();
+        }
+    }
+
+    private static IOException unwrap(RuntimeException e) {
+        if (e.getCause() instanceof IOException) {
+            return (IOException) e.getCause();
+        }
+        return new IOException("Failed to parse search response", e);
+    }
+}
@@ -17,9 +17,9 @@
  */
 package io.personium.common.es.response.impl;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -33,6 +33,8 @@ import io.personium.common.es.response.PersoniumSearchHits;
 public class PersoniumSearchHitsImpl implements PersoniumSearchHits {
     private HitsMetadata<ObjectNode> hitsMetadata;
 
+    private PersoniumSearchHit[] wrappedHits;
+
     /**
      * Create instance from HitsMetadata.
      * @param hits HitsMetadata
@@ -106,8 +108,19 @@ public class PersoniumSearchHitsImpl implements PersoniumSearchHits {
      */
     @Override
     public PersoniumSearchHit[] getHits() {
-        return this.hitsMetadata.hits().stream().map(hit -> PersoniumSearchHitImpl.getInstance(hit))
-                .toArray(size -> new PersoniumSearchHit[size]);
+        return wrappedHits().clone();
+    }
+
+    /**
+     * Wrap hits at the first access so that each hit converts its source at most once.
+     * @return wrapped hits
+     */
+    private PersoniumSearchHit[] wrappedHits() {
+        if (this.wrappedHits == null) {
+            this.wrappedHits = this.hitsMetadata.hits().stream().map(hit -> PersoniumSearchHitImpl.getInstance(hit))
+                    .toArray(size -> new PersoniumSearchHit[size]);
+        }
+        return this.wrappedHits;
     }
 
     /**
@@ -115,7 +128,7 @@ public class PersoniumSearchHitsImpl implements PersoniumSearchHits {
      */
     @Override
     public PersoniumSearchHit getAt(int position) {
-        return this.getHits()[0];
+        return wrappedHits()[position];
     }
 
     /**
@@ -123,10 +136,6 @@ public class PersoniumSearchHitsImpl implements PersoniumSearchHits {
      */
     @Override
     public Iterator<PersoniumSearchHit> iterator() {
-        List<PersoniumSearchHit> list = new ArrayList<PersoniumSearchHit>();
-        for (var hit : this.hitsMetadata.hits()) {
-            list.add((PersoniumSearchHit) PersoniumSearchHitImpl.getInstance(hit));
-        }
-        return list.iterator();
+        return Collections.unmodifiableList(Arrays.asList(wrappedHits())).iterator();
     }
 }
@@ -0,0 +1,95 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.response.impl;
+
+import io.personium.common.es.EsCursor;
+import io.personium.common.es.response.PersoniumSearchHits;
+import io.personium.common.es.response.PersoniumSearchPage;
+import io.personium.common.es.response.PersoniumSearchResponse;
+
+/**
+ * Search response with the cursor to the next page.
+ */
+public class PersoniumSearchPageImpl implements PersoniumSearchPage {
+
+    private final PersoniumSearchResponse response;
+    private final EsCursor nextCursor;
+
+    private PersoniumSearchPageImpl(PersoniumSearchResponse response, EsCursor nextCursor) {
+        this.response = response;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * .
+     * @param response search response
+     * @param nextCursor cursor to the next page (nullable)
+     * @return Created instance.
+     */
+    public static PersoniumSearchPage getInstance(PersoniumSearchResponse response, EsCursor nextCursor) {
+        return new PersoniumSearchPageImpl(response, nextCursor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EsCursor getNextCursor() {
+        return this.nextCursor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PersoniumSearchHits getHits() {
+        return this.response.getHits();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PersoniumSearchHits hits() {
+        return this.response.hits();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isNullResponse() {
+        return this.response.isNullResponse();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isNull() {
+        return this.response.isNull();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getScrollId() {
+        return this.response.getScrollId();
+    }
+}
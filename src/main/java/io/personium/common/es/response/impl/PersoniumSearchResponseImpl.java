@@ -29,6 +29,8 @@ import io.personium.common.es.response.PersoniumSearchResponse;
 public class PersoniumSearchResponseImpl extends ElasticsearchResponseWrapper<SearchResponse<ObjectNode>>
         implements PersoniumSearchResponse {
 
+    private PersoniumSearchHits hits;
+
     /**
      * Constructor with SearchResponse object.
      * @param response SearchResponse object.
@@ -54,7 +56,11 @@ public class PersoniumSearchResponseImpl extends ElasticsearchResponseWrapper<Se
      */
     @Override
     public PersoniumSearchHits getHits() {
-        return PersoniumSearchHitsImpl.getInstance(this.getResponse().hits());
+        // wrap at the first access so that hits keep their converted sources
+        if (this.hits == null) {
+            this.hits = PersoniumSearchHitsImpl.getInstance(this.getResponse().hits());
+        }
+        return this.hits;
     }
 
     /**
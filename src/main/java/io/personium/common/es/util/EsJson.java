@@ -0,0 +1,128 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+
+/**
+ * Shared JSON objects of the adapter.
+ * ObjectMapper caches serializers and deserializers, so creating it per call is expensive. All JSON processing in
+ * the adapter and the Elasticsearch client uses the single mapper configured here. Readers and writers are
+ * immutable and thread-safe.
+ */
+public final class EsJson {
+
+    /** Type of JSON object. */
+    public static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<Map<String, Object>>() {
+    };
+
+    /**
+     * Shared mapper. It is configured in the same way as JacksonJsonpMapper configures it.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private static final JacksonJsonpMapper JSONP_MAPPER = new JacksonJsonpMapper(MAPPER);
+
+    private static final ObjectReader MAP_READER = MAPPER.readerFor(MAP_TYPE);
+
+    private static final ObjectWriter WRITER = MAPPER.writer();
+
+    private static final ObjectWriter PRETTY_WRITER = MAPPER.writerWithDefaultPrettyPrinter();
+
+    private EsJson() {
+    }
+
+    /**
+     * Get shared ObjectMapper. It must not be reconfigured.
+     * @return mapper
+     */
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    /**
+     * Get JsonpMapper for Elasticsearch client, which shares the ObjectMapper.
+     * @return jsonp mapper
+     */
+    public static JacksonJsonpMapper jsonpMapper() {
+        return JSONP_MAPPER;
+    }
+
+    /**
+     * Get reader of JSON object into Map.
+     * @return reader
+     */
+    public static ObjectReader mapReader() {
+        return MAP_READER;
+    }
+
+    /**
+     * Serialize value into JSON string.
+     * @param value value
+     * @return JSON string
+     * @throws JsonProcessingException exception while serializing
+     */
+    public static String toJson(Object value) throws JsonProcessingException {
+        return WRITER.writeValueAsString(value);
+    }
+
+    /**
+     * Serialize value into indented JSON string.
+     * @param value value
+     * @return JSON string
+     * @throws JsonProcessingException exception while serializing
+     */
+    public static String toPrettyJson(Object value) throws JsonProcessingException {
+        return PRETTY_WRITER.writeValueAsString(value);
+    }
+
+    /**
+     * Parse JSON string into Map.
+     * @param json JSON string
+     * @return map
+     * @throws JsonProcessingException exception while parsing
+     */
+    public static Map<String, Object> toMap(String json) throws JsonProcessingException {
+        return MAP_READER.readValue(json);
+    }
+
+    /**
+     * Read JSON tree.
+     * @param in input stream
+     * @return JSON tree
+     * @throws IOException exception while reading
+     */
+    public static JsonNode readTree(InputStream in) throws IOException {
+        return MAPPER.readTree(in);
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+
+/**
+ * Converter of the object keys in documents and queries sent to Elasticsearch.
+ * Keys which cannot be used after ES6 (`_type`, `_all`) are renamed while the values are written,
+ * so string values are never touched.
+ */
+public class SourceKeyConverter {
+
+    private SourceKeyConverter() {
+    }
+
+    /**
+     * Get key name to be sent to Elasticsearch.
+     * @param key original key
+     * @return renamed key
+     */
+    public static String renameKey(String key) {
+        if ("_type".equals(key)) {
+            return "type";
+        }
+        if ("_all".equals(key)) {
+            return "alldata";
+        }
+        return key;
+    }
+
+    /**
+     * Copy map with renaming object keys in any depth.
+     * Values other than Map and Collection are shared with the original map.
+     * @param map original map
+     * @return copied map
+     */
+    public static Map<String, Object> copy(Map<String, Object> map) {
+        return copy(map, true);
+    }
+
+    /**
+     * Copy map in any depth.
+     * Values other than Map and Collection are shared with the original map.
+     * @param map original map
+     * @param renameKeys true if object keys should be renamed
+     * @return copied map
+     */
+    public static Map<String, Object> copy(Map<String, Object> map, boolean renameKeys) {
+        if (map == null) {
+            return null;
+        }
+        return copyMap(map, renameKeys);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copyValue(Object value, boolean renameKeys) {
+        if (value instanceof Map) {
+            return copyMap((Map<String, Object>) value, renameKeys);
+        } else if (value instanceof Collection) {
+            Collection<Object> collection = (Collection<Object>) value;
+            List<Object> list = new ArrayList<Object>(collection.size());
+            for (Object item : collection) {
+                list.add(copyValue(item, renameKeys));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    private static Map<String, Object> copyMap(Map<String, Object> map, boolean renameKeys) {
+        Map<String, Object> copied = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            if (renameKeys) {
+                key = renameKey(key);
+            }
+            copied.put(key, copyValue(entry.getValue(), renameKeys));
+        }
+        return copied;
+    }
+
+    /**
+     * Convert JSON object node into map. Keys are not renamed.
+     * @param node object node
+     * @return converted map
+     */
+    public static Map<String, Object> toMap(JsonNode node) {
+        if (node == null || node.isNull() || node.isMissingNode()) {
+            return null;
+        }
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            map.put(field.getKey(), toValue(field.getValue()));
+        }
+        return map;
+    }
+
+    /**
+     * Convert JSON node into Java value (Map, List, String, Number, Boolean or null). Keys are not renamed.
+     * @param node node
+     * @return converted value
+     */
+    public static Object toValue(JsonNode node) {
+        if (node == null) {
+            return null;
+        } else if (node.isObject()) {
+            return toMap(node);
+        } else if (node.isArray()) {
+            List<Object> list = new ArrayList<Object>(node.size());
+            for (JsonNode element : node) {
+                list.add(toValue(element));
+            }
+            return list;
+        } else if (node.isTextual()) {
+            return node.textValue();
+        } else if (node.isNumber()) {
+            return node.numberValue();
+        } else if (node.isBoolean()) {
+            return node.booleanValue();
+        } else if (node.isPojo()) {
+            return ((POJONode) node).getPojo();
+        } else if (node.isBinary()) {
+            return node.asText();
+        }
+        return null;
+    }
+
+    /**
+     * Write value to generator with renaming object keys.
+     * @param gen generator
+     * @param value value to be written (Map, Collection, array or scalar)
+     * @param dropKeys keys to be removed in any depth (nullable)
+     * @param skipNullEntries true if object entries with null value should be omitted
+     * @throws IOException exception while writing
+     */
+    @SuppressWarnings("unchecked")
+    public static void write(JsonGenerator gen, Object value, Set<String> dropKeys, boolean skipNullEntries)
+            throws IOException {
+        if (value instanceof Map) {
+            gen.writeStartObject();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                String key = renameKey(String.valueOf(entry.getKey()));
+                if (dropKeys != null && dropKeys.contains(key)) {
+                    continue;
+                }
+                if (skipNullEntries && entry.getValue() == null) {
+                    continue;
+                }
+                gen.writeFieldName(key);
+                write(gen, entry.getValue(), dropKeys, skipNullEntries);
+            }
+            gen.writeEndObject();
+        } else if (value instanceof Collection) {
+            gen.writeStartArray();
+            for (Object item : (Collection<Object>) value) {
+                write(gen, item, dropKeys, skipNullEntries);
+            }
+            gen.writeEndArray();
+        } else if (value instanceof Object[]) {
+            gen.writeStartArray();
+            for (Object item : (Object[]) value) {
+                write(gen, item, dropKeys, skipNullEntries);
+            }
+            gen.writeEndArray();
+        } else {
+            gen.writeObject(value);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.personium.common.es.EsBulkRequest;
+
+/**
+ * Unit test for BulkBodyWriter.
+ */
+public class BulkBodyWriterTest {
+
+    /**
+     * Bulk request for test.
+     */
+    static class TestBulkRequest implements EsBulkRequest {
+        private final BulkRequestType requestType;
+        private final String id;
+        private final Map<String, Object> source;
+
+        TestBulkRequest(BulkRequestType requestType, String id, Map<String, Object> source) {
+            this.requestType = requestType;
+            this.id = id;
+            this.source = source;
+        }
+
+        @Override
+        public BulkRequestType getRequestType() {
+            return requestType;
+        }
+
+        @Override
+        public String getType() {
+            return "UserData";
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public Map<String, Object> getSource() {
+            return source;
+        }
+    }
+
+    /**
+     * Test that NDJSON is written with renaming keys and adding type property, and null entries are omitted.
+     * @throws Exception exception
+     */
+    @Test
+    public void write_creates_ndjson_with_type_property() throws Exception {
+        Map<String, Object> source = new LinkedHashMap<>();
+        source.put("_type", "original");
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("_all", List.of(1, "_type"));
+        nested.put("x", null);
+        source.put("s", nested);
+        source.put("n", null);
+        var writer = new BulkBodyWriter(new ObjectMapper(), true);
+        writer.write("u0_ad", "cell1", new TestBulkRequest(EsBulkRequest.BulkRequestType.INDEX, "id1", source));
+        writer.write("u0_ad", null, new TestBulkRequest(EsBulkRequest.BulkRequestType.DELETE, "id2", null));
+        writer.write("u0_ad", "cell1", new TestBulkRequest(EsBulkRequest.BulkRequestType.INDEX, null, Map.of()));
+
+        assertEquals("{\"index\":{\"_index\":\"u0_ad.userdata\",\"_id\":\"id1\",\"routing\":\"cell1\"}}\n"
+                + "{\"type\":\"UserData\",\"s\":{\"alldata\":[1,\"_type\"]}}\n"
+                + "{\"delete\":{\"_index\":\"u0_ad.userdata\",\"_id\":\"id2\"}}\n"
+                + "{\"index\":{\"_index\":\"u0_ad.userdata\",\"routing\":\"cell1\"}}\n"
+                + "{\"type\":\"UserData\"}\n",
+                EntityUtils.toString(writer.toEntity()));
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import io.personium.common.es.EsIndex;
+import io.personium.common.es.response.EsClientException;
+import io.personium.common.es.util.EsJson;
+
+/**
+ * Unit test for ConsolidatedLayout.
+ */
+public class ConsolidatedLayoutTest {
+
+    private StubEsServer stub;
+    private InternalEsClient client;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, String> bodies = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile String physicalIndices = "[{\"index\":\"u0_ad.account\"},{\"index\":\"u0_ad.box\"}]";
+    private volatile boolean failAliases;
+    private volatile String mappingResponse = "{}";
+    private volatile String sourceHits = "[{\"_index\":\"u0_ad.account\",\"_id\":\"a1\"},"
+            + "{\"_index\":\"u0_ad.box\",\"_id\":\"b1\"}]";
+    private volatile String consolidatedHits = "[{\"_index\":\"u0_ad.consolidated\",\"_id\":\"a1\"},"
+            + "{\"_index\":\"u0_ad.consolidated\",\"_id\":\"x1\",\"_routing\":\"r1\"},"
+            + "{\"_index\":\"u0_ad.consolidated\",\"_id\":\"b1\"}]";
+
+    /**
+     * Start stub server.
+     * @throws Exception exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubEsServer(this::handle);
+        client = stub.getClient();
+    }
+
+    /**
+     * Stop stub server.
+     */
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = StubEsServer.readBody(exchange);
+        String request = exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath();
+        requests.add(request);
+        bodies.put(request, body);
+        int status = 200;
+        String response = "{\"acknowledged\":true}";
+        String path = exchange.getRequestURI().getPath();
+        if (path.startsWith("/_cat/indices/")) {
+            response = physicalIndices;
+        } else if (path.equals("/_reindex")) {
+            response = "{\"task\":\"node1:7\"}";
+        } else if (path.startsWith("/_tasks/")) {
+            response = "{\"completed\":true,\"task\":{\"status\":{}},\"response\":{\"total\":2,\"created\":2,"
+                    + "\"failures\":[]}}";
+        } else if (path.endsWith("/_refresh")) {
+            response = "{\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}}";
+        } else if (path.endsWith("/_mapping")) {
+            response = mappingResponse;
+        } else if (request.equals("POST /u0_ad.account,u0_ad.box/_search")) {
+            response = "{\"_scroll_id\":\"s1\",\"hits\":{\"hits\":" + sourceHits + "}}";
+        } else if (request.equals("POST /u0_ad.consolidated/_search")) {
+            response = "{\"_scroll_id\":\"s2\",\"hits\":{\"hits\":" + consolidatedHits + "}}";
+        } else if (request.equals("POST /_search/scroll")) {
+            response = "{\"_scroll_id\":\"s1\",\"hits\":{\"hits\":[]}}";
+        } else if (request.equals("DELETE /_search/scroll")) {
+            response = "{\"succeeded\":true,\"num_freed\":1}";
+        } else if (path.equals("/_bulk")) {
+            response = "{\"took\":1,\"errors\":false,\"items\":[{\"delete\":{\"status\":200}}]}";
+        } else if (path.equals("/_aliases") && failAliases) {
+            status = 400;
+            response = "{\"error\":{\"type\":\"illegal_argument_exception\",\"reason\":\"bad alias\"},\"status\":400}";
+        }
+        StubEsServer.respond(exchange, status, response);
+    }
+
+    private static Map<String, ObjectNode> mappings() throws IOException {
+        Map<String, ObjectNode> mappings = new LinkedHashMap<>();
+        mappings.put("Account", (ObjectNode) EsJson.mapper().readTree("{\"_doc\":{\"properties\":{"
+                + "\"type\":{\"type\":\"keyword\"},\"s\":{\"properties\":{\"Name\":{\"type\":\"keyword\"}}}},"
+                + "\"dynamic_templates\":[{\"t1\":{\"match\":\"a*\"}}]}}"));
+        mappings.put("Box", (ObjectNode) EsJson.mapper().readTree("{\"properties\":{"
+                + "\"type\":{\"type\":\"keyword\"},\"s\":{\"properties\":{\"Schema\":{\"type\":\"keyword\"}}}},"
+                + "\"dynamic_templates\":[{\"t1\":{\"match\":\"a*\"}},{\"t2\":{\"match\":\"b*\"}}]}"));
+        return mappings;
+    }
+
+    /**
+     * Properties and dynamic templates of all types are merged.
+     * @throws Exception exception
+     */
+    @Test
+    public void mergeMappings_merges_properties_and_dynamic_templates() throws Exception {
+        JsonNode merged = ConsolidatedLayout.mergeMappings(mappings());
+        assertEquals("keyword", merged.at("/properties/s/properties/Name/type").asText());
+        assertEquals("keyword", merged.at("/properties/s/properties/Schema/type").asText());
+        assertEquals(2, merged.get("dynamic_templates").size());
+    }
+
+    /**
+     * Mappings of bundled types can be merged.
+     */
+    @Test
+    public void mergeMappings_merges_bundled_mappings() {
+        JsonNode merged = ConsolidatedLayout.mergeMappings(new EsMappingUser().getMapping());
+        assertEquals("keyword", merged.at("/properties/type/type").asText());
+        merged = ConsolidatedLayout.mergeMappings(new EsMappingAdmin().getMapping());
+        assertEquals("keyword", merged.at("/properties/type/type").asText());
+    }
+
+    /**
+     * Field mapped differently by types cannot be merged.
+     * @throws Exception exception
+     */
+    @Test
+    public void mergeMappings_rejects_conflicting_mappings() throws Exception {
+        Map<String, ObjectNode> mappings = mappings();
+        mappings.put("Role", (ObjectNode) EsJson.mapper().readTree(
+                "{\"properties\":{\"s\":{\"properties\":{\"Name\":{\"type\":\"text\"}}}}}"));
+        try {
+            ConsolidatedLayout.mergeMappings(mappings);
+            fail("conflict must be detected");
+        } catch (EsClientException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("/properties/s/properties/Name/type"));
+        }
+    }
+
+    /**
+     * Per-type indices are copied twice around write block, documents deleted meanwhile are removed, and per-type
+     * indices are replaced with filtered aliases.
+     * @throws Exception exception
+     */
+    @Test
+    public void migrate_replaces_per_type_indices_with_aliases() throws Exception {
+        ConsolidatedLayout.migrate(client, EsIndex.CATEGORY_AD, "u0_ad", mappings(),
+                EsJson.mapper().createObjectNode())
+                .get(10, TimeUnit.SECONDS);
+
+        // templates are registered concurrently and task results are removed asynchronously
+        assertTrue(requests.contains("PUT /_index_template/personium-u0_ad.consolidated"));
+        List<String> mutations = requests.stream().filter(r -> !r.startsWith("GET") && !r.startsWith("DELETE"))
+                .filter(r -> !r.startsWith("PUT /_index_template/")).toList();
+        assertEquals(List.of("PUT /u0_ad.consolidated",
+                "POST /u0_ad.account,u0_ad.box/_refresh", "POST /u0_ad.account,u0_ad.box/_search",
+                "POST /_search/scroll", "POST /_reindex",
+                "PUT /u0_ad.account,u0_ad.box/_settings",
+                "POST /u0_ad.account,u0_ad.box/_refresh", "POST /u0_ad.account,u0_ad.box/_search",
+                "POST /_search/scroll", "POST /_reindex",
+                "POST /u0_ad.consolidated/_search", "POST /_bulk", "POST /_search/scroll",
+                "POST /_aliases"), mutations);
+        assertTrue(requests.contains("DELETE /.tasks/_doc/node1:7"));
+
+        JsonNode created = EsJson.mapper().readTree(bodies.get("PUT /u0_ad.consolidated"));
+        assertTrue(created.path("aliases").isMissingNode());
+        JsonNode reindex = EsJson.mapper().readTree(bodies.get("POST /_reindex"));
+        assertEquals("external", reindex.at("/dest/version_type").asText());
+        JsonNode scan = EsJson.mapper().readTree(bodies.get("POST /u0_ad.consolidated/_search"));
+        assertEquals(List.of("Account", "Box"), EsJson.mapper().convertValue(scan.at("/query/terms/type"), List.class));
+        assertEquals("{\"delete\":{\"_index\":\"u0_ad.consolidated\",\"_id\":\"x1\",\"routing\":\"r1\"}}\n",
+                bodies.get("POST /_bulk"));
+        JsonNode actions = EsJson.mapper().readTree(bodies.get("POST /_aliases")).get("actions");
+        assertEquals("u0_ad.account", actions.at("/0/remove_index/index").asText());
+        assertEquals("u0_ad.box", actions.at("/1/remove_index/index").asText());
+        assertEquals("u0_ad.account", actions.at("/2/add/alias").asText());
+        assertEquals("Account", actions.at("/2/add/filter/term/type").asText());
+        assertEquals("u0_ad.consolidated", actions.at("/3/add/index").asText());
+    }
+
+    /**
+     * Migration fails before copying documents when an id is used by more than one type.
+     * @throws Exception exception
+     */
+    @Test
+    public void migrate_rejects_ids_shared_by_types() throws Exception {
+        sourceHits = "[{\"_index\":\"u0_ad.account\",\"_id\":\"a1\"},{\"_index\":\"u0_ad.box\",\"_id\":\"a1\"}]";
+        try {
+            ConsolidatedLayout.migrate(client, EsIndex.CATEGORY_AD, "u0_ad", mappings(),
+                    EsJson.mapper().createObjectNode())
+                    .get(10, TimeUnit.SECONDS);
+            fail("migration must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("a1"));
+        }
+        assertTrue(requests.toString(), !requests.contains("POST /_reindex"));
+    }
+
+    /**
+     * Write block is removed when migration fails.
+     * @throws Exception exception
+     */
+    @Test
+    public void migrate_removes_write_block_on_failure() throws Exception {
+        failAliases = true;
+        try {
+            ConsolidatedLayout.migrate(client, EsIndex.CATEGORY_AD, "u0_ad", mappings(),
+                    EsJson.mapper().createObjectNode())
+                    .get(10, TimeUnit.SECONDS);
+            fail("migration must fail");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (requests.stream().filter(r -> r.endsWith("/_settings")).count() < 2) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("write block was not removed: " + requests);
+            }
+            Thread.sleep(10);
+        }
+        assertEquals("{\"index.blocks.write\":false}", bodies.get("PUT /u0_ad.account,u0_ad.box/_settings"));
+    }
+
+    /**
+     * New index is created with aliases at once, and unknown per-type indices are not migrated.
+     * @throws Exception exception
+     */
+    @Test
+    public void migrate_without_per_type_indices_creates_aliases_at_once() throws Exception {
+        physicalIndices = "[]";
+        ConsolidatedLayout.migrate(client, EsIndex.CATEGORY_AD, "u0_ad", mappings(),
+                EsJson.mapper().createObjectNode())
+                .get(10, TimeUnit.SECONDS);
+        JsonNode created = EsJson.mapper().readTree(bodies.get("PUT /u0_ad.consolidated"));
+        assertEquals("Box", created.at("/aliases/u0_ad.box/filter/term/type").asText());
+
+        physicalIndices = "[{\"index\":\"u0_ad.unknown\"}]";
+        try {
+            ConsolidatedLayout.migrate(client, EsIndex.CATEGORY_AD, "u0_ad", mappings(),
+                    EsJson.mapper().createObjectNode())
+                    .get(10, TimeUnit.SECONDS);
+            fail("unknown index must be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("u0_ad.unknown"));
+        }
+    }
+
+    /**
+     * Mapping of a type is read from the consolidated index behind its alias.
+     * @throws Exception exception
+     */
+    @Test
+    public void getMapping_reads_alias_from_consolidated_index() throws Exception {
+        mappingResponse = "{\"u0_ad.consolidated\":{\"mappings\":{\"properties\":{"
+                + "\"type\":{\"type\":\"keyword\"}}}}}";
+        TypeMapping mapping = client.getMapping("u0_ad", "Account");
+        assertTrue(mapping.properties().containsKey("type"));
+    }
+
+    /**
+     * Mapping response without the index of the type is reported as missing index.
+     * @throws Exception exception
+     */
+    @Test
+    public void getMapping_reports_unknown_index_as_missing() throws Exception {
+        mappingResponse = "{\"u0_ad.consolidated\":{\"mappings\":{}},\"u0_ad.box\":{\"mappings\":{}}}";
+        try {
+            client.getMapping("u0_ad", "Account");
+            fail();
+        } catch (ElasticsearchException e) {
+            assertEquals("index_not_found_exception", e.error().type());
+        }
+    }
+}
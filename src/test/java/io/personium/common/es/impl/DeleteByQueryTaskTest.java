@@ -0,0 +1,306 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import io.personium.common.es.response.EsClientException;
+import io.personium.common.es.response.PersoniumDeleteByQueryStatus;
+
+/**
+ * Unit test for DeleteByQueryTask with a stub HTTP server.
+ */
+public class DeleteByQueryTaskTest {
+
+    private static final String TASK_ID = "node1:42";
+    private static final long POLL_MILLIS = 10;
+
+    private StubEsServer stub;
+    private InternalEsClient client;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger polls = new AtomicInteger();
+    private volatile int runningPolls = 1;
+    private volatile String finalResponse = "{\"total\":5,\"deleted\":5,\"batches\":2,\"version_conflicts\":0,"
+            + "\"failures\":[]}";
+    private volatile String taskError;
+    private final AtomicInteger unavailablePolls = new AtomicInteger();
+    private volatile List<String> cellIndices = List.of();
+
+    /**
+     * Start stub server.
+     * @throws Exception exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubEsServer(this::handle);
+        client = stub.getClient();
+    }
+
+    /**
+     * Stop stub server.
+     */
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        requests.add(method + " " + exchange.getRequestURI());
+        String response;
+        if (path.endsWith("/_search")) {
+            StringBuilder sb = new StringBuilder("{\"took\":1,\"timed_out\":false,\"hits\":{\"hits\":[]},"
+                    + "\"aggregations\":{\"indices\":{\"buckets\":[");
+            for (String index : cellIndices) {
+                if (sb.charAt(sb.length() - 1) != '[') {
+                    sb.append(',');
+                }
+                sb.append("{\"key\":\"" + index + "\",\"doc_count\":1}");
+            }
+            response = sb.append("]}}}").toString();
+        } else if (path.endsWith("/_delete_by_query")) {
+            response = "{\"task\":\"" + TASK_ID + "\"}";
+        } else if ("GET".equals(method) && path.equals("/_tasks/" + TASK_ID)
+                && unavailablePolls.getAndDecrement() > 0) {
+            StubEsServer.respond(exchange, 503, "{\"error\":{\"type\":\"no_shard_available_action_exception\","
+                    + "\"reason\":\"no shard\"},\"status\":503}");
+            return;
+        } else if ("GET".equals(method) && path.equals("/_tasks/" + TASK_ID)) {
+            int n = polls.incrementAndGet();
+            if (n <= runningPolls) {
+                response = "{\"completed\":false,\"task\":{\"node\":\"node1\",\"id\":42,\"action\":"
+                        + "\"indices:data/write/delete/byquery\",\"status\":{\"total\":5,\"deleted\":" + n
+                        + ",\"batches\":" + n + ",\"version_conflicts\":0}}}";
+            } else if (taskError != null) {
+                response = "{\"completed\":true,\"task\":{\"status\":{}},\"error\":" + taskError + "}";
+            } else {
+                response = "{\"completed\":true,\"task\":{\"status\":{}},\"response\":" + finalResponse + "}";
+            }
+        } else if (path.endsWith("/_cancel")) {
+            response = "{\"nodes\":{}}";
+        } else {
+            response = "{\"result\":\"deleted\"}";
+        }
+        StubEsServer.respond(exchange, 200, response);
+    }
+
+    private static Map<String, Object> query() {
+        return Map.of("query", Map.of("term", Map.of("c", "cell1")));
+    }
+
+    /**
+     * Task is polled until completion and the counts of the final response are returned.
+     * @throws Exception exception
+     */
+    @Test
+    public void run_polls_task_until_completion() throws Exception {
+        runningPolls = 2;
+        List<PersoniumDeleteByQueryStatus> progress = Collections.synchronizedList(new ArrayList<>());
+        PersoniumDeleteByQueryStatus status = DeleteByQueryTask.start(client, "u0_ad", null, query(), progress::add,
+                POLL_MILLIS).get(10, TimeUnit.SECONDS);
+
+        assertTrue(status.isCompleted());
+        assertEquals(TASK_ID, status.getTaskId());
+        assertEquals(5, status.getTotal());
+        assertEquals(5, status.getDeleted());
+        assertEquals(2, status.getBatches());
+        assertTrue(status.getFailures().isEmpty());
+        assertEquals(3, progress.size());
+        assertFalse(progress.get(0).isCompleted());
+        assertEquals(1, progress.get(0).getDeleted());
+        assertEquals(2, progress.get(1).getDeleted());
+        assertTrue(progress.get(2).isCompleted());
+
+        String start = requests.get(0);
+        assertTrue(start, start.startsWith("POST /u0_ad.*/_delete_by_query?"));
+        assertTrue(start, start.contains("slices=auto"));
+        assertTrue(start, start.contains("wait_for_completion=false"));
+        assertTrue(start, start.contains("refresh=true"));
+        assertFalse(start, start.contains("routing="));
+        waitFor("DELETE /.tasks/_doc/" + TASK_ID);
+    }
+
+    /**
+     * Counts of the task are used to detect documents which were not deleted.
+     */
+    @Test
+    public void run_reports_incomplete_deletion_from_task_counts() {
+        finalResponse = "{\"total\":5,\"deleted\":3,\"batches\":1,\"version_conflicts\":2,\"failures\":[]}";
+        var index = new AsyncEsIndexImpl("u0_ad", "ad", client);
+        try {
+            index.deleteByQuery(null, query(), null).toCompletableFuture().get(10, TimeUnit.SECONDS);
+            fail("deletion must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EsClientException.EsDeleteByQueryException);
+            assertEquals(String.format(EsClientException.EsDeleteByQueryException.ES_DELETE_BY_QUERY_MSG, 2),
+                    e.getCause().getMessage());
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+        assertFalse(requests.stream().anyMatch(r -> r.contains("_search")));
+    }
+
+    /**
+     * Failures of the task are reported even if the counts match.
+     */
+    @Test
+    public void run_reports_failures_of_task() {
+        finalResponse = "{\"total\":1,\"deleted\":1,\"failures\":[{\"index\":\"u0_ad.userdata\",\"cause\":"
+                + "{\"type\":\"es_rejected_execution_exception\"}}]}";
+        var index = new EsIndexImpl("u0_ad", "ad", 0, 0, client, null);
+        try {
+            index.deleteByQuery("cell1", query());
+            fail("deletion must fail");
+        } catch (EsClientException.EsDeleteByQueryException e) {
+            assertEquals(String.format(EsClientException.EsDeleteByQueryException.ES_DELETE_BY_QUERY_MSG, 1),
+                    e.getMessage());
+        }
+        assertTrue(requests.get(0), requests.get(0).contains("routing=cell1"));
+    }
+
+    /**
+     * Error of the task fails the future.
+     * @throws Exception exception
+     */
+    @Test
+    public void run_fails_future_on_task_error() throws Exception {
+        runningPolls = 0;
+        taskError = "{\"type\":\"search_phase_execution_exception\",\"reason\":\"all shards failed\"}";
+        try {
+            DeleteByQueryTask.start(client, "u0_ad", null, query(), null, POLL_MILLIS).get(10, TimeUnit.SECONDS);
+            fail("task must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EsClientException);
+            assertTrue(e.getCause().getMessage().contains("all shards failed"));
+        }
+    }
+
+    /**
+     * Retryable error of polling is retried instead of failing the deletion.
+     * @throws Exception exception
+     */
+    @Test
+    public void poll_retries_retryable_error() throws Exception {
+        unavailablePolls.set(2);
+        PersoniumDeleteByQueryStatus status = DeleteByQueryTask.start(client, "u0_ad", null, query(), null,
+                POLL_MILLIS).get(10, TimeUnit.SECONDS);
+
+        assertTrue(status.isCompleted());
+        assertEquals(5, status.getDeleted());
+        assertEquals(4, requests.stream().filter(r -> r.startsWith("GET /_tasks/" + TASK_ID)).count());
+    }
+
+    /**
+     * The future fails when the next poll cannot be scheduled.
+     * @throws Exception exception
+     */
+    @Test
+    public void run_fails_future_when_poll_is_rejected() throws Exception {
+        client.getScheduler().shutdownNow();
+        try {
+            DeleteByQueryTask.start(client, "u0_ad", null, query(), null, POLL_MILLIS).get(10, TimeUnit.SECONDS);
+            fail("task must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    /**
+     * Purge of cell processes only the routed shards of the indices holding the cell.
+     * @throws Exception exception
+     */
+    @Test
+    public void purgeCell_targets_routed_shards_of_indices_holding_cell() throws Exception {
+        cellIndices = List.of("u0_ad.account", "u0_ad.box");
+        PersoniumDeleteByQueryStatus status = DeleteByQueryTask.purgeCell(client, "u0_ad", "cell1", "cell1", null,
+                POLL_MILLIS).get(10, TimeUnit.SECONDS);
+
+        assertEquals(5, status.getDeleted());
+        String find = requests.get(0);
+        assertTrue(find, find.startsWith("POST /u0_ad.*/_search?"));
+        assertTrue(find, find.contains("routing=cell1"));
+        String purge = requests.get(1);
+        assertTrue(purge, purge.startsWith("POST /u0_ad.account,u0_ad.box/_delete_by_query?"));
+        assertTrue(purge, purge.contains("routing=cell1"));
+        assertTrue(purge, purge.contains("slices=auto"));
+        assertEquals(2, client.getRoutingStats().getRoutedRequests());
+        assertEquals(0, client.getRoutingStats().getFanOutRequests());
+    }
+
+    /**
+     * Purge of cell without documents issues no delete-by-query.
+     * @throws Exception exception
+     */
+    @Test
+    public void purgeCell_completes_immediately_without_documents() throws Exception {
+        var index = new AsyncEsIndexImpl("u0_ad", "ad", client);
+        PersoniumDeleteByQueryStatus status = index.purgeCell("cell1", "cell1", null).toCompletableFuture()
+                .get(10, TimeUnit.SECONDS);
+
+        assertTrue(status.isCompleted());
+        assertEquals(0, status.getDeleted());
+        assertEquals(1, requests.size());
+    }
+
+    /**
+     * Cancelling the future cancels the task.
+     * @throws Exception exception
+     */
+    @Test
+    public void cancel_cancels_task() throws Exception {
+        runningPolls = Integer.MAX_VALUE;
+        var future = DeleteByQueryTask.start(client, "u0_ad", null, query(), null, POLL_MILLIS);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (polls.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(POLL_MILLIS);
+        }
+        future.cancel(false);
+        waitFor("POST /_tasks/" + TASK_ID + "/_cancel");
+    }
+
+    private void waitFor(String request) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (requests.stream().noneMatch(r -> r.startsWith(request))) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(request + " was not sent: " + requests);
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+}
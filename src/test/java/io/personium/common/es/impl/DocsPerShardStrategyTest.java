@@ -0,0 +1,73 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.personium.common.es.EsIndex;
+import io.personium.common.es.EsSizingHints;
+
+/**
+ * Unit test for DocsPerShardStrategy.
+ */
+public class DocsPerShardStrategyTest {
+
+    private final DocsPerShardStrategy strategy = new DocsPerShardStrategy(1000, 8, Map.of("gold", 2));
+
+    /**
+     * Shard count is derived from the expected documents and bounded.
+     */
+    @Test
+    public void shards_follow_expected_docs() {
+        assertEquals(Map.of("number_of_shards", 1),
+                strategy.settings(EsIndex.CATEGORY_USR, null, EsSizingHints.of(10, null)));
+        assertEquals(Map.of("number_of_shards", 3),
+                strategy.settings(EsIndex.CATEGORY_USR, null, EsSizingHints.of(2001, null)));
+        assertEquals(Map.of("number_of_shards", 8),
+                strategy.settings(EsIndex.CATEGORY_USR, null, EsSizingHints.of(1_000_000, null)));
+        // count of the whole index does not size a per-type index
+        assertTrue(strategy.settings(EsIndex.CATEGORY_USR, "Account", EsSizingHints.of(1_000_000, null)).isEmpty());
+    }
+
+    /**
+     * Count of the type is used when it is given, and other types are left to the defaults.
+     */
+    @Test
+    public void counts_by_type_are_used() {
+        var hints = EsSizingHints.of(Map.of("UserData", 5000L, "Account", 10L), "gold");
+        assertEquals(Map.of("number_of_shards", 5, "number_of_replicas", 2),
+                strategy.settings(EsIndex.CATEGORY_USR, "UserData", hints));
+        assertEquals(1, strategy.settings(EsIndex.CATEGORY_USR, "Account", hints).get("number_of_shards"));
+        assertEquals(Map.of("number_of_replicas", 2), strategy.settings(EsIndex.CATEGORY_USR, "Box", hints));
+        assertEquals(6, strategy.settings(EsIndex.CATEGORY_USR, null, hints).get("number_of_shards"));
+    }
+
+    /**
+     * Defaults are used without hints.
+     */
+    @Test
+    public void no_hints_use_defaults() {
+        assertTrue(strategy.settings(EsIndex.CATEGORY_AD, "Account", EsSizingHints.none()).isEmpty());
+        assertTrue(strategy.settings(EsIndex.CATEGORY_AD, "Account", EsSizingHints.of(-1, "bronze")).isEmpty());
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import co.elastic.clients.elasticsearch._types.ErrorCause;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
+import io.personium.common.es.EsBulkRequest;
+import io.personium.common.es.EsRefreshPolicy;
+
+/**
+ * Unit test for EsBulkIndexerImpl.
+ */
+public class EsBulkIndexerImplTest {
+
+    /**
+     * Bulk request for test.
+     */
+    static class TestBulkRequest implements EsBulkRequest {
+        private final String id;
+
+        TestBulkRequest(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public BulkRequestType getRequestType() {
+            return BulkRequestType.INDEX;
+        }
+
+        @Override
+        public String getType() {
+            return "type";
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public Map<String, Object> getSource() {
+            return Map.of("key", "value-" + id);
+        }
+    }
+
+    /**
+     * Sender which rejects documents whose id is listed only at the first time.
+     */
+    static class TestSender implements EsBulkIndexerImpl.BulkSender {
+        private final List<List<String>> calls = new ArrayList<>();
+        private final List<String> rejectOnce = new ArrayList<>();
+
+        @Override
+        public synchronized CompletableFuture<BulkResponse> send(Map<String, List<EsBulkRequest>> bulkMap,
+                EsRefreshPolicy refreshPolicy) {
+            List<String> ids = new ArrayList<>();
+            List<BulkResponseItem> items = new ArrayList<>();
+            for (List<EsBulkRequest> requests : bulkMap.values()) {
+                for (EsBulkRequest request : requests) {
+                    ids.add(request.getId());
+                    boolean rejected = rejectOnce.remove(request.getId());
+                    items.add(BulkResponseItem.of(b -> {
+                        b.operationType(OperationType.Index).index("index").id(request.getId());
+                        if (rejected) {
+                            return b.status(429).error(ErrorCause.of(e -> e.type("es_rejected_execution_exception")
+                                    .reason("rejected")));
+                        }
+                        return b.status(201);
+                    }));
+                }
+            }
+            calls.add(ids);
+            return CompletableFuture.completedFuture(BulkResponse.of(b -> b.errors(false).took(1).items(items)));
+        }
+
+        synchronized List<List<String>> getCalls() {
+            return new ArrayList<>(calls);
+        }
+    }
+
+    /**
+     * Test that buffered requests are sent when the number reaches the limit.
+     * @throws Exception exception
+     */
+    @Test
+    public void requests_are_flushed_by_count() throws Exception {
+        var sender = new TestSender();
+        var indexer = new EsBulkIndexerImpl("index", sender, 2, Long.MAX_VALUE, 0, 1);
+        var first = indexer.add("routing1", new TestBulkRequest("1")).toCompletableFuture();
+        assertTrue(sender.getCalls().isEmpty());
+        var second = indexer.add("routing2", new TestBulkRequest("2")).toCompletableFuture();
+        assertEquals(List.of(List.of("1", "2")), sender.getCalls());
+        assertEquals("1", first.get(1, TimeUnit.SECONDS).getId());
+        assertFalse(second.get(1, TimeUnit.SECONDS).isFailed());
+        indexer.close();
+    }
+
+    /**
+     * Test that only rejected items are retried and the concurrency is reduced.
+     * @throws Exception exception
+     */
+    @Test
+    public void rejected_items_are_retried_individually() throws Exception {
+        var sender = new TestSender();
+        sender.rejectOnce.add("2");
+        var indexer = new EsBulkIndexerImpl("index", sender, 3, Long.MAX_VALUE, 200, 4);
+        indexer.add("routing", new TestBulkRequest("1"));
+        var rejected = indexer.add("routing", new TestBulkRequest("2")).toCompletableFuture();
+        indexer.add("routing", new TestBulkRequest("3"));
+        assertFalse(rejected.get(5, TimeUnit.SECONDS).isFailed());
+        assertEquals(List.of(List.of("1", "2", "3"), List.of("2")), sender.getCalls());
+        assertTrue(indexer.getConcurrencyLimit() < 4);
+        indexer.close();
+        assertEquals(0, indexer.getPendingCount());
+    }
+
+    /**
+     * Test that flush waits for rejected items without time-based flush.
+     * @throws Exception exception
+     */
+    @Test
+    public void flush_completes_retried_items_without_flush_interval() throws Exception {
+        var sender = new TestSender();
+        sender.rejectOnce.add("1");
+        var indexer = new EsBulkIndexerImpl("index", sender, 100, Long.MAX_VALUE, 0, 1);
+        var future = indexer.add("routing", new TestBulkRequest("1")).toCompletableFuture();
+        indexer.flush().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertFalse(future.get(1, TimeUnit.SECONDS).isFailed());
+        assertEquals(List.of(List.of("1"), List.of("1")), sender.getCalls());
+        indexer.close();
+    }
+
+    /**
+     * Test that close sends buffered requests.
+     * @throws Exception exception
+     */
+    @Test
+    public void close_flushes_buffered_requests() throws Exception {
+        var sender = new TestSender();
+        var indexer = new EsBulkIndexerImpl("index", sender, 100, Long.MAX_VALUE, 0, 1);
+        var future = indexer.add("routing", new TestBulkRequest("1")).toCompletableFuture();
+        indexer.close();
+        assertTrue(future.isDone());
+        assertEquals(List.of(List.of("1")), sender.getCalls());
+    }
+
+    /**
+     * Test that requests are flushed by size.
+     */
+    @Test
+    public void requests_are_flushed_by_size() {
+        var sender = new TestSender();
+        long size = EsBulkIndexerImpl.estimateSize(new TestBulkRequest("1"));
+        var indexer = new EsBulkIndexerImpl("index", sender, 100, size, 0, 1);
+        indexer.add("routing", new TestBulkRequest("1"));
+        assertEquals(1, sender.getCalls().size());
+        indexer.close();
+    }
+
+    /**
+     * Test that requests added from a callback of an item do not block the thread which completes responses.
+     * @throws Exception exception
+     */
+    @Test
+    public void add_from_item_callback_does_not_block_response_thread() throws Exception {
+        var sender = new TestSender();
+        // responses are completed on one thread like the I/O reactor of the client
+        var reactor = Executors.newSingleThreadExecutor();
+        EsBulkIndexerImpl.BulkSender reactorSender = (bulkMap, policy) -> sender.send(bulkMap, policy)
+                .thenApplyAsync(response -> response, reactor);
+        var indexer = new EsBulkIndexerImpl("index", reactorSender, 1, Long.MAX_VALUE, 0, 1);
+        var chained = new CompletableFuture<Void>();
+        indexer.add("routing", new TestBulkRequest("1")).thenAccept(response -> {
+            var second = indexer.add("routing", new TestBulkRequest("2")).toCompletableFuture();
+            var third = indexer.add("routing", new TestBulkRequest("3")).toCompletableFuture();
+            CompletableFuture.allOf(second, third).thenRun(() -> chained.complete(null));
+        });
+        chained.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(List.of("1"), List.of("2"), List.of("3")), sender.getCalls());
+        indexer.close();
+        reactor.shutdown();
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.personium.common.es.EsExecutionMode;
+
+/**
+ * Unit test for EsExecutors.
+ */
+public class EsExecutorsTest {
+
+    /**
+     * Test that VIRTUAL mode falls back to platform threads if virtual threads are not supported.
+     * @throws Exception exception
+     */
+    @Test
+    public void newExecutor_runs_task_in_effective_mode() throws Exception {
+        EsExecutionMode expected = EsExecutionMode.PLATFORM;
+        if (EsExecutors.isVirtualThreadSupported()) {
+            expected = EsExecutionMode.VIRTUAL;
+        }
+        assertEquals(expected, EsExecutors.effectiveMode(EsExecutionMode.VIRTUAL));
+        assertEquals(EsExecutionMode.PLATFORM, EsExecutors.effectiveMode(EsExecutionMode.PLATFORM));
+
+        var executor = EsExecutors.newExecutor(EsExecutionMode.VIRTUAL);
+        try {
+            assertEquals("ok", executor.submit(() -> "ok").get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test that mode is parsed ignoring case and unknown mode falls back to PLATFORM.
+     */
+    @Test
+    public void parseMode_ignores_case_and_falls_back_to_platform() {
+        assertEquals(EsExecutionMode.VIRTUAL, EsExecutors.parseMode("virtual"));
+        assertEquals(EsExecutionMode.VIRTUAL, EsExecutors.parseMode(" Virtual "));
+        assertEquals(EsExecutionMode.PLATFORM, EsExecutors.parseMode("PLATFORM"));
+        assertEquals(EsExecutionMode.PLATFORM, EsExecutors.parseMode("virtaul"));
+        assertEquals(EsExecutionMode.PLATFORM, EsExecutors.parseMode(null));
+    }
+}
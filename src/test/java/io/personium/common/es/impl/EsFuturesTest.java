@@ -0,0 +1,78 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorCause;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import io.personium.common.es.response.EsClientException;
+
+/**
+ * Unit test for EsFutures.
+ */
+public class EsFuturesTest {
+
+    /**
+     * Test that ElasticsearchException is converted asynchronously.
+     * @throws Exception exception
+     */
+    @Test
+    public void convert_maps_elasticsearch_exception() throws Exception {
+        var source = new CompletableFuture<String>();
+        var converted = EsFutures.convert(source, String::length);
+        source.completeExceptionally(new ElasticsearchException("example.com",
+                new ErrorResponse.Builder()
+                        .error(new ErrorCause.Builder().type("index_not_found_exception").reason("reason").build())
+                        .status(404)
+                        .build()));
+        try {
+            converted.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EsClientException.EsIndexMissingException);
+        }
+    }
+
+    /**
+     * Test that response is converted and checked exception is wrapped.
+     * @throws Exception exception
+     */
+    @Test
+    public void convert_maps_response_and_wraps_checked_exception() throws Exception {
+        assertEquals(Integer.valueOf(3), EsFutures.convert(CompletableFuture.completedFuture("abc"),
+                String::length).get());
+        var failed = EsFutures.failed(new IOException("io"));
+        try {
+            failed.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RuntimeException);
+            assertTrue(e.getCause().getCause() instanceof IOException);
+        }
+    }
+}
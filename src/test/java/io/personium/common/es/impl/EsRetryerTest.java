@@ -0,0 +1,162 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorCause;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+
+/**
+ * Unit test for EsRetryer.
+ */
+public class EsRetryerTest {
+
+    private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Shutdown scheduler.
+     */
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static ElasticsearchException esException(String type, int status) {
+        return new ElasticsearchException("example.com", new ErrorResponse.Builder()
+                .error(new ErrorCause.Builder().type(type).reason("reason").build())
+                .status(status)
+                .build());
+    }
+
+    /**
+     * Test that rejected request is retried until success.
+     * @throws Exception exception
+     */
+    @Test
+    public void rejected_request_is_retried() throws Exception {
+        var retryer = new EsRetryer(scheduler, new RetryBudget(RetryBudget.DEFAULT_RATIO, 10));
+        var calls = new AtomicInteger();
+        var result = retryer.execute(new RetryPolicy(3, 1, 10), false, () -> {
+            if (calls.incrementAndGet() < 3) {
+                return CompletableFuture.failedFuture(esException("es_rejected_execution_exception", 429));
+            }
+            return CompletableFuture.completedFuture("ok");
+        });
+        assertEquals("ok", result.get());
+        assertEquals(3, calls.get());
+    }
+
+    /**
+     * Test that version conflict is not retried.
+     * @throws Exception exception
+     */
+    @Test
+    public void version_conflict_is_not_retried() throws Exception {
+        var retryer = new EsRetryer(scheduler, new RetryBudget(RetryBudget.DEFAULT_RATIO, 10));
+        var calls = new AtomicInteger();
+        var result = retryer.execute(new RetryPolicy(3, 1, 10), true, () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.failedFuture(esException("version_conflict_engine_exception", 409));
+        });
+        try {
+            result.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ElasticsearchException);
+        }
+        assertEquals(1, calls.get());
+    }
+
+    /**
+     * Test that retries stop when the budget is exhausted.
+     * @throws Exception exception
+     */
+    @Test
+    public void retries_are_limited_by_budget() throws Exception {
+        var retryer = new EsRetryer(scheduler, new RetryBudget(0, 2));
+        var calls = new AtomicInteger();
+        var result = retryer.execute(new RetryPolicy(10, 1, 10), true, () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.failedFuture(esException("es_rejected_execution_exception", 429));
+        });
+        try {
+            result.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ElasticsearchException);
+        }
+        assertEquals(3, calls.get());
+    }
+
+    /**
+     * Test classification of connection errors.
+     */
+    @Test
+    public void ambiguous_connection_error_is_retried_only_when_idempotent() {
+        assertTrue(RetryClassifier.isRetryable(new ConnectException("refused"), false));
+        assertTrue(RetryClassifier.isRetryable(new SocketException("Connection reset"), true));
+        assertFalse(RetryClassifier.isRetryable(new SocketException("Connection reset"), false));
+        assertFalse(RetryClassifier.isRetryable(esException("mapper_parsing_exception", 400), true));
+    }
+
+    /**
+     * Test that gateway errors are retried only when idempotent, since the request may have been executed.
+     */
+    @Test
+    public void gateway_error_is_retried_only_when_idempotent() {
+        assertTrue(RetryClassifier.isRetryable(esException("unavailable", 503), false));
+        assertTrue(RetryClassifier.isRetryable(esException("bad_gateway", 502), true));
+        assertFalse(RetryClassifier.isRetryable(esException("bad_gateway", 502), false));
+        assertTrue(RetryClassifier.isRetryable(esException("gateway_timeout", 504), true));
+        assertFalse(RetryClassifier.isRetryable(esException("gateway_timeout", 504), false));
+        assertFalse(RetryClassifier.isRetryableStatus(504));
+    }
+
+    /**
+     * Test that delay grows exponentially within jitter range.
+     */
+    @Test
+    public void delay_grows_exponentially() {
+        var policy = new RetryPolicy(5, 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            long first = policy.delayMillis(1);
+            assertTrue(first >= 50 && first <= 100);
+            long third = policy.delayMillis(3);
+            assertTrue(third >= 200 && third <= 400);
+            long capped = policy.delayMillis(5);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+        assertEquals(0, RetryPolicy.of(0, 100).getMaxRetries());
+    }
+}
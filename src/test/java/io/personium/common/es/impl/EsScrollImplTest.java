@@ -0,0 +1,186 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import io.personium.common.es.EsScroll;
+
+/**
+ * Unit test for EsScrollImpl with a stub HTTP server.
+ */
+public class EsScrollImplTest {
+
+    private StubEsServer stub;
+    private InternalEsClient client;
+    private final List<String> cleared = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> searches = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, AtomicInteger> pages = new ConcurrentHashMap<>();
+    private volatile boolean failScroll;
+    private volatile int hitsPerPage = 2;
+    private volatile int pagesPerScroll = 2;
+
+    /**
+     * Start stub server.
+     * @throws Exception exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubEsServer(this::handle);
+        client = stub.getClient();
+    }
+
+    /**
+     * Stop stub server.
+     */
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    private static String page(String scrollId, int from, int count) {
+        StringBuilder sb = new StringBuilder("{\"_scroll_id\":\"" + scrollId + "\",\"took\":1,\"timed_out\":false,"
+                + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                + "\"hits\":{\"total\":{\"value\":9,\"relation\":\"eq\"},\"hits\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"_index\":\"u0_ad.userdata\",\"_id\":\"" + scrollId + "-" + (from + i)
+                    + "\",\"_version\":1,\"_source\":{\"type\":\"UserData\"}}");
+        }
+        return sb.append("]}}").toString();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = StubEsServer.readBody(exchange);
+        String path = exchange.getRequestURI().getPath();
+        int status = 200;
+        String response;
+        if ("DELETE".equals(exchange.getRequestMethod())) {
+            cleared.add(body.replaceAll(".*\"(s[0-9])\".*", "$1"));
+            response = "{\"succeeded\":true,\"num_freed\":1}";
+        } else if (path.equals("/_search/scroll")) {
+            String scrollId = body.replaceAll(".*\"scroll_id\":\"(s[0-9])\".*", "$1");
+            if (failScroll) {
+                status = 404;
+                response = "{\"error\":{\"type\":\"search_context_missing_exception\",\"reason\":\"No search context"
+                        + " found\"},\"status\":404}";
+            } else {
+                int n = pages.get(scrollId).incrementAndGet();
+                int count = hitsPerPage;
+                if (n >= pagesPerScroll) {
+                    count = hitsPerPage - 1;
+                }
+                response = page(scrollId, n * hitsPerPage, count);
+            }
+        } else {
+            searches.add(exchange.getRequestURI().toString());
+            String scrollId = "s0";
+            if (body.contains("\"slice\":{\"id\":1")) {
+                scrollId = "s1";
+            }
+            pages.put(scrollId, new AtomicInteger());
+            response = page(scrollId, 0, hitsPerPage);
+        }
+        StubEsServer.respond(exchange, status, response);
+    }
+
+    private void awaitCleared(int count) throws InterruptedException {
+        for (int i = 0; i < 50 && cleared.size() < count; i++) {
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Test that all hits of all slices are read and contexts are cleared at the end.
+     * @throws Exception exception
+     */
+    @Test
+    public void all_slices_are_read_and_cleared() throws Exception {
+        List<String> ids = new ArrayList<>();
+        try (EsScroll scroll = new EsScrollImpl(client, "30s", 2, 2).start("u0_ad", "UserData", "cell1",
+                Map.of("size", 5))) {
+            while (scroll.hasNext()) {
+                ids.add(scroll.next().getId());
+            }
+        }
+        Collections.sort(ids);
+        assertEquals(List.of("s0-0", "s0-1", "s0-2", "s0-3", "s0-4", "s1-0", "s1-1", "s1-2", "s1-3", "s1-4"), ids);
+        awaitCleared(2);
+        assertTrue(cleared.contains("s0"));
+        assertTrue(cleared.contains("s1"));
+        assertEquals(2, searches.size());
+        assertTrue(searches.stream().allMatch(uri -> uri.contains("routing=cell1")));
+        // slices are counted as one routed read
+        assertEquals(1, client.getRoutingStats().getRoutedRequests());
+        assertEquals(0, client.getRoutingStats().getFanOutRequests());
+    }
+
+    /**
+     * Test that closing the scroll before the end clears the context.
+     * @throws Exception exception
+     */
+    @Test
+    public void close_before_end_clears_context() throws Exception {
+        pagesPerScroll = 100;
+        EsScroll scroll = new EsScrollImpl(client, "30s", 2, 1).start("u0_ad", null, null, null);
+        assertEquals("s0-0", scroll.next().getId());
+        scroll.close();
+        assertFalse(scroll.hasNext());
+        awaitCleared(1);
+        assertTrue(cleared.contains("s0"));
+    }
+
+    /**
+     * Test that error is thrown and contexts of other slices are cleared.
+     * @throws Exception exception
+     */
+    @Test
+    public void error_clears_contexts() throws Exception {
+        failScroll = true;
+        try (EsScroll scroll = new EsScrollImpl(client, "30s", 2, 2).start("u0_ad", null, null, null)) {
+            while (scroll.hasNext()) {
+                scroll.next();
+            }
+            fail();
+        } catch (ElasticsearchException e) {
+            assertEquals("search_context_missing_exception", e.error().type());
+            awaitCleared(1);
+            assertFalse(cleared.isEmpty());
+        }
+    }
+}
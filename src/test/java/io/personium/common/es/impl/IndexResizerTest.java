@@ -0,0 +1,199 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import io.personium.common.es.response.EsClientException;
+import io.personium.common.es.util.EsJson;
+
+/**
+ * Unit test for IndexResizer.
+ */
+public class IndexResizerTest {
+
+    private StubEsServer stub;
+    private InternalEsClient client;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, String> bodies = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile boolean failAliases;
+
+    /**
+     * Start stub server.
+     * @throws Exception exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubEsServer(this::handle);
+        client = stub.getClient();
+    }
+
+    /**
+     * Stop stub server.
+     */
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = StubEsServer.readBody(exchange);
+        String request = exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath();
+        requests.add(request);
+        bodies.put(request, body);
+        int status = 200;
+        String response = "{\"acknowledged\":true}";
+        String path = exchange.getRequestURI().getPath();
+        if (request.equals("GET /u0_vet.account/_settings")) {
+            response = "{\"u0_vet.account\":{\"settings\":{\"index.number_of_shards\":\"4\","
+                    + "\"index.number_of_replicas\":\"1\"}}}";
+        } else if (path.startsWith("/_cat/shards/")) {
+            response = "[{\"prirep\":\"r\",\"node\":\"n2\"},{\"prirep\":\"p\",\"node\":\"n1\"}]";
+        } else if (path.startsWith("/_cluster/health/")) {
+            response = "{\"status\":\"green\",\"timed_out\":false}";
+        } else if (path.equals("/_aliases") && failAliases) {
+            status = 400;
+            response = "{\"error\":{\"type\":\"illegal_argument_exception\",\"reason\":\"bad alias\"},\"status\":400}";
+        }
+        StubEsServer.respond(exchange, status, response);
+    }
+
+    private String resize(int numberOfShards) throws Exception {
+        return IndexResizer.resize(client, "u0_vet", "Account", List.of("Account"), numberOfShards)
+                .get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Shrink gathers primaries on one node, and the new index takes over the name as an alias.
+     * @throws Exception exception
+     */
+    @Test
+    public void shrink_moves_name_to_new_index() throws Exception {
+        assertEquals("u0_vet.account.r2", resize(2));
+        assertEquals(List.of("GET /u0_vet.account/_settings", "GET /_cat/shards/u0_vet.account",
+                "PUT /u0_vet.account/_settings", "GET /_cluster/health/u0_vet.account",
+                "POST /u0_vet.account/_shrink/u0_vet.account.r2", "POST /_aliases"), requests);
+
+        JsonNode prepared = EsJson.mapper().readTree(bodies.get("PUT /u0_vet.account/_settings"));
+        assertEquals("n1", prepared.get("index.routing.allocation.require._name").asText());
+        assertEquals(0, prepared.get("index.number_of_replicas").asInt());
+        JsonNode target = EsJson.mapper().readTree(bodies.get("POST /u0_vet.account/_shrink/u0_vet.account.r2"))
+                .get("settings");
+        assertEquals(2, target.get("index.number_of_shards").asInt());
+        assertEquals("1", target.get("index.number_of_replicas").asText());
+        assertTrue(target.get("index.blocks.write").isNull());
+        assertTrue(target.get("index.routing.allocation.require._name").isNull());
+
+        JsonNode actions = EsJson.mapper().readTree(bodies.get("POST /_aliases")).get("actions");
+        assertEquals("u0_vet.account", actions.at("/0/remove_index/index").asText());
+        assertEquals("u0_vet.account.r2", actions.at("/1/add/index").asText());
+        assertEquals("u0_vet.account", actions.at("/1/add/alias").asText());
+    }
+
+    /**
+     * Split only blocks writes before resize, and the same count does nothing.
+     * @throws Exception exception
+     */
+    @Test
+    public void split_blocks_writes() throws Exception {
+        assertEquals("u0_vet.account.r8", resize(8));
+        assertEquals(List.of("GET /u0_vet.account/_settings", "PUT /u0_vet.account/_settings",
+                "POST /u0_vet.account/_split/u0_vet.account.r8", "POST /_aliases"), requests);
+        assertEquals("{\"index.blocks.write\":true}", bodies.get("PUT /u0_vet.account/_settings"));
+
+        requests.clear();
+        assertEquals("u0_vet.account", resize(4));
+        assertEquals(List.of("GET /u0_vet.account/_settings"), requests);
+    }
+
+    /**
+     * Count which is neither a factor nor a multiple is rejected without changes.
+     * @throws Exception exception
+     */
+    @Test
+    public void resize_rejects_invalid_count() throws Exception {
+        try {
+            resize(3);
+            fail("count must be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EsClientException);
+        }
+        assertEquals(List.of("GET /u0_vet.account/_settings"), requests);
+    }
+
+    /**
+     * New index is deleted and old index is restored when the alias swap fails.
+     * @throws Exception exception
+     */
+    @Test
+    public void failed_resize_restores_old_index() throws Exception {
+        failAliases = true;
+        try {
+            resize(2);
+            fail("resize must fail");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (requests.stream().filter(r -> r.equals("PUT /u0_vet.account/_settings")).count() < 2) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("old index was not restored: " + requests);
+            }
+            Thread.sleep(10);
+        }
+        assertTrue(requests.contains("DELETE /u0_vet.account.r2"));
+        JsonNode restored = EsJson.mapper().readTree(bodies.get("PUT /u0_vet.account/_settings"));
+        assertTrue(restored.get("index.blocks.write").isNull());
+        assertEquals("1", restored.get("index.number_of_replicas").asText());
+    }
+
+    /**
+     * Filtered aliases of all types are moved with consolidated index.
+     */
+    @Test
+    public void consolidated_index_moves_type_aliases() {
+        var actions = IndexResizer.swapActions("u0_ad", null, List.of("Account", "Box"), "u0_ad.consolidated",
+                "u0_ad.consolidated.r2");
+        JsonNode json = EsJson.mapper().valueToTree(actions);
+        assertEquals("u0_ad.consolidated", json.at("/0/remove_index/index").asText());
+        assertEquals("u0_ad.account", json.at("/1/add/alias").asText());
+        assertEquals("Box", json.at("/2/add/filter/term/type").asText());
+        assertEquals("u0_ad.consolidated", json.at("/3/add/alias").asText());
+        assertEquals("u0_ad.consolidated.r2", json.at("/3/add/index").asText());
+        assertEquals("u0_ad.consolidated", IndexResizer.baseName("u0_ad.consolidated.r2"));
+        assertEquals("u0_ad.role", IndexResizer.baseName("u0_ad.role"));
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import io.personium.common.es.EsIndex;
+import io.personium.common.es.EsIndexLayout;
+import io.personium.common.es.EsMappingConfig;
+import io.personium.common.es.EsSizingHints;
+import io.personium.common.es.util.EsJson;
+
+/**
+ * Unit test for IndexTemplates.
+ */
+public class IndexTemplatesTest {
+
+    private StubEsServer stub;
+    private InternalEsClient client;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, String> bodies = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile CountDownLatch templateGate = new CountDownLatch(0);
+    private volatile boolean failTemplates;
+
+    /**
+     * Start stub server.
+     * @throws Exception exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubEsServer(this::handle);
+        client = stub.getClient();
+    }
+
+    /**
+     * Stop stub server.
+     */
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = StubEsServer.readBody(exchange);
+        String request = exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath();
+        requests.add(request);
+        bodies.put(request, body);
+        int status = 200;
+        String response = "{\"acknowledged\":true}";
+        String path = exchange.getRequestURI().getPath();
+        if (path.startsWith("/_index_template/")) {
+            try {
+                templateGate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failTemplates) {
+                status = 400;
+                response = "{\"error\":{\"type\":\"illegal_argument_exception\",\"reason\":\"bad template\"},"
+                        + "\"status\":400}";
+            }
+        } else if (exchange.getRequestMethod().equals("PUT")) {
+            response = "{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\"" + path.substring(1) + "\"}";
+        }
+        StubEsServer.respond(exchange, status, response);
+    }
+
+    private static Map<String, ObjectNode> mappings() throws IOException {
+        Map<String, ObjectNode> mappings = new LinkedHashMap<>();
+        mappings.put("Account", (ObjectNode) EsJson.mapper().readTree(
+                "{\"_doc\":{\"properties\":{\"type\":{\"type\":\"keyword\"}}}}"));
+        mappings.put("Box", (ObjectNode) EsJson.mapper().readTree(
+                "{\"properties\":{\"type\":{\"type\":\"keyword\"}}}"));
+        return mappings;
+    }
+
+    private long count(String request) {
+        return requests.stream().filter(request::equals).count();
+    }
+
+    /**
+     * Admin index is matched exactly and user indices are matched by unit prefix.
+     */
+    @Test
+    public void basePattern_matches_admin_exactly_and_users_by_unit_prefix() {
+        assertEquals("u0_ad", IndexTemplates.basePattern(EsIndex.CATEGORY_AD, "u0_ad"));
+        assertEquals("u0_*", IndexTemplates.basePattern(EsIndex.CATEGORY_USR, "u0_vet"));
+        assertEquals("vet", IndexTemplates.basePattern(EsIndex.CATEGORY_USR, "vet"));
+    }
+
+    /**
+     * Templates of all types and consolidated index are created with the priority of the category.
+     * @throws Exception exception
+     */
+    @Test
+    public void templates_are_created_for_all_types_and_consolidated_index() throws Exception {
+        ObjectNode settings = (ObjectNode) EsJson.mapper().readTree("{\"number_of_shards\":\"1\"}");
+        var templates = IndexTemplates.templates(EsIndex.CATEGORY_USR, "u0_*", mappings(), settings);
+        assertEquals(List.of("personium-u0_.account", "personium-u0_.box", "personium-u0_.consolidated"),
+                new ArrayList<>(templates.keySet()));
+
+        JsonNode account = EsJson.mapper().valueToTree(templates.get("personium-u0_.account"));
+        assertEquals("u0_*.account", account.at("/index_patterns/0").asText());
+        assertEquals(IndexTemplates.USER_PRIORITY, account.get("priority").asInt());
+        assertEquals("1", account.at("/template/settings/number_of_shards").asText());
+        assertEquals("keyword", account.at("/template/mappings/properties/type/type").asText());
+
+        templates = IndexTemplates.templates(EsIndex.CATEGORY_AD, "u0_ad", mappings(), settings);
+        JsonNode consolidated = EsJson.mapper().valueToTree(templates.get("personium-u0_ad.consolidated"));
+        assertEquals("u0_ad.consolidated", consolidated.at("/index_patterns/0").asText());
+        assertEquals(IndexTemplates.ADMIN_PRIORITY, consolidated.get("priority").asInt());
+    }
+
+    /**
+     * Concurrent registrations share one set of requests, and failed registration is retried.
+     * @throws Exception exception
+     */
+    @Test
+    public void register_is_sent_once_per_pattern() throws Exception {
+        var templates = new IndexTemplates(client);
+        ObjectNode settings = EsJson.mapper().createObjectNode();
+        templateGate = new CountDownLatch(1);
+        CompletableFuture<Void> first = templates.register(EsIndex.CATEGORY_USR, "u0_vet", mappings(), settings);
+        CompletableFuture<Void> second = templates.register(EsIndex.CATEGORY_USR, "u0_dog", mappings(), settings);
+        templateGate.countDown();
+        CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+        templates.register(EsIndex.CATEGORY_USR, "u0_cat", mappings(), settings).get(10, TimeUnit.SECONDS);
+        assertEquals(1, count("PUT /_index_template/personium-u0_.account"));
+        assertEquals(3, requests.size());
+
+        failTemplates = true;
+        try {
+            templates.register(EsIndex.CATEGORY_USR, "u1_vet", mappings(), settings).get(10, TimeUnit.SECONDS);
+            fail("registration must fail");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        failTemplates = false;
+        templates.register(EsIndex.CATEGORY_USR, "u1_vet", mappings(), settings).get(10, TimeUnit.SECONDS);
+        assertEquals(2, count("PUT /_index_template/personium-u1_.account"));
+    }
+
+    /**
+     * Indices are created without settings and mappings after the templates are registered.
+     */
+    @Test
+    public void create_sends_only_names() {
+        EsMappingConfig config = () -> {
+            try {
+                return mappings();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        var index = new EsIndexImpl("u0_vet", EsIndex.CATEGORY_USR, 0, 0, client, config);
+        index.create();
+        assertEquals(3, requests.stream().filter(r -> r.startsWith("PUT /_index_template/")).count());
+        assertEquals(2, requests.stream().filter(r -> r.startsWith("PUT /u0_vet.")).count());
+        assertTrue(!bodies.get("PUT /u0_vet.account").contains("mappings"));
+
+        // templates of the unit are already registered
+        index = new EsIndexImpl("u0_dog", EsIndex.CATEGORY_USR, 0, 0, client, config);
+        index.setLayout(EsIndexLayout.CONSOLIDATED);
+        index.create();
+        assertEquals(3, requests.stream().filter(r -> r.startsWith("PUT /_index_template/")).count());
+        String created = bodies.get("PUT /u0_dog.consolidated");
+        assertTrue(created, created.contains("\"aliases\"") && !created.contains("mappings"));
+    }
+
+    /**
+     * Settings chosen by sharding strategy override the templates.
+     * @throws Exception exception
+     */
+    @Test
+    public void create_applies_sharding_strategy() throws Exception {
+        EsMappingConfig config = () -> {
+            try {
+                return mappings();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        var index = new EsIndexImpl("u0_vet", EsIndex.CATEGORY_USR, 0, 0, client, config);
+        index.setShardingStrategy((category, type, hints) -> {
+            long expectedDocs = hints.getExpectedDocs(type);
+            if (expectedDocs == EsSizingHints.UNKNOWN) {
+                return Map.of();
+            }
+            return Map.of("number_of_shards", expectedDocs);
+        });
+        index.create(EsSizingHints.of(Map.of("Account", 2L), null));
+        JsonNode account = EsJson.mapper().readTree(bodies.get("PUT /u0_vet.account"));
+        assertEquals(2, account.at("/settings/number_of_shards").asInt());
+        String box = bodies.get("PUT /u0_vet.box");
+        assertTrue(box.isEmpty() || EsJson.mapper().readTree(box).at("/settings/number_of_shards").isMissingNode());
+
+        index = new EsIndexImpl("u0_dog", EsIndex.CATEGORY_USR, 0, 0, client, config);
+        index.setLayout(EsIndexLayout.CONSOLIDATED);
+        index.setShardingStrategy((category, type, hints) -> Map.of("number_of_shards", 3));
+        index.create(EsSizingHints.none());
+        JsonNode consolidated = EsJson.mapper().readTree(bodies.get("PUT /u0_dog.consolidated"));
+        assertEquals(3, consolidated.at("/settings/number_of_shards").asInt());
+    }
+}
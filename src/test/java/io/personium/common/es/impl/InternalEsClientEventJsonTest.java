@@ -0,0 +1,90 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.personium.common.es.EsClient.Event;
+import io.personium.common.es.EsClient.EventHandler;
+import io.personium.common.es.EsRequestLogInfo;
+
+/**
+ * Unit test for JSON parameters of events in InternalEsClient.
+ */
+public class InternalEsClientEventJsonTest {
+
+    /**
+     * Remove event handler.
+     */
+    @After
+    public void tearDown() {
+        InternalEsClient.eventHandlerMap.remove(Event.afterRequest);
+    }
+
+    /**
+     * Test that JSON is not created without handler.
+     */
+    @Test
+    public void toEventJson_returns_null_without_handler() {
+        var client = new InternalEsClient();
+        assertNull(client.toEventJson(Event.afterRequest, Map.of("size", 1)));
+    }
+
+    /**
+     * Test that the list for bulk request log is not created unless it is consumed.
+     */
+    @Test
+    public void createBulkLogList_returns_null_without_handler() {
+        var client = new InternalEsClient();
+        assertNull(client.createBulkLogList(false));
+        assertNull(client.createBulkLogList(true));
+    }
+
+    /**
+     * Test that JSON is compact unless the handler requires pretty-print.
+     */
+    @Test
+    public void toEventJson_is_compact_unless_handler_requires_pretty_print() {
+        var client = new InternalEsClient();
+        InternalEsClient.setEventHandler(Event.afterRequest, (EsRequestLogInfo logInfo, Object... params) -> { });
+        assertEquals("[{\"size\":1}]", client.toEventJson(Event.afterRequest, List.of(Map.of("size", 1))));
+
+        InternalEsClient.setEventHandler(Event.afterRequest, new EventHandler() {
+            @Override
+            public void handleEvent(EsRequestLogInfo logInfo, Object... params) {
+            }
+
+            @Override
+            public boolean isPrettyPrint() {
+                return true;
+            }
+        });
+        String pretty = client.toEventJson(Event.afterRequest, Map.of("size", 1));
+        assertTrue(pretty.contains("\n"));
+        assertFalse(client.toEventJson(Event.afterRequest, Map.of("size", 1)).startsWith("{\"size\""));
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import co.elastic.clients.elasticsearch._types.OpType;
+import io.personium.common.es.EsRefreshPolicy;
+
+/**
+ * Unit test for refresh of writes of InternalEsClient with a stub HTTP server.
+ */
+public class InternalEsClientRefreshTest {
+
+    private StubEsServer stub;
+    private InternalEsClient client;
+    private final AtomicInteger refreshes = new AtomicInteger();
+    private volatile String writeQuery;
+
+    /**
+     * Start stub server.
+     * @throws Exception exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubEsServer(this::handle);
+        client = stub.getClient();
+        client.getRefreshCoordinator().setWindowMillis(50);
+    }
+
+    /**
+     * Stop stub server.
+     */
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        StubEsServer.readBody(exchange);
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith("/_refresh")) {
+            refreshes.incrementAndGet();
+            StubEsServer.respond(exchange, 200, "{\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}}");
+            return;
+        }
+        writeQuery = exchange.getRequestURI().getQuery();
+        // like refresh=wait_for, the write responds after a refresh which follows it
+        int before = refreshes.get();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (refreshes.get() == before && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        StubEsServer.respond(exchange, 201, "{\"_index\":\"u0_ad.account\",\"_id\":\"id1\",\"_version\":1,"
+                + "\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},"
+                + "\"_seq_no\":0,\"_primary_term\":1}");
+    }
+
+    /**
+     * Test that write with WAIT_FOR policy is released by refresh of the coordinator.
+     * @throws Exception exception
+     */
+    @Test
+    public void wait_for_write_is_released_by_coordinated_refresh() throws Exception {
+        var response = client.asyncIndex("u0_ad", "Account", "id1", "r1", Map.of("type", "Account"),
+                OpType.Index, null, EsRefreshPolicy.WAIT_FOR).get(5, TimeUnit.SECONDS);
+        assertEquals("id1", response.id());
+        assertTrue(writeQuery, List.of(writeQuery.split("&")).contains("refresh=wait_for"));
+        assertTrue(refreshes.get() > 0);
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import io.personium.common.es.response.impl.PersoniumSearchHitStreamImpl;
+
+/**
+ * Unit test for streaming search of InternalEsClient with a stub HTTP server.
+ */
+public class InternalEsClientSearchStreamTest {
+
+    private static final String HEAD = "{\"took\":1,\"hits\":{\"total\":{\"value\":2,\"relation\":\"eq\"},"
+            + "\"max_score\":1.0,\"hits\":[{\"_index\":\"u0_ad.userdata\",\"_id\":\"1\",\"_version\":1,"
+            + "\"_source\":{\"type\":\"UserData\"}}";
+    private static final String TAIL = ",{\"_index\":\"u0_ad.userdata\",\"_id\":\"2\",\"_version\":1,"
+            + "\"_source\":{\"type\":\"UserData\"}}]}}";
+
+    private StubEsServer stub;
+    private InternalEsClient client;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile String requestUri;
+
+    /**
+     * Start stub server.
+     * @throws Exception exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubEsServer(this::handle);
+        client = stub.getClient();
+    }
+
+    /**
+     * Stop stub server.
+     */
+    @After
+    public void tearDown() {
+        release.countDown();
+        stub.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestUri = exchange.getRequestURI().toString();
+        exchange.getRequestBody().readAllBytes();
+        if (requestUri.startsWith("/u0_missing")) {
+            StubEsServer.respond(exchange, 404, "{\"error\":{\"type\":\"index_not_found_exception\","
+                    + "\"reason\":\"no such index\"},\"status\":404}");
+            return;
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        out.write(HEAD.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        try {
+            release.await(10, TimeUnit.SECONDS);
+            out.write(TAIL.getBytes(StandardCharsets.UTF_8));
+        } catch (InterruptedException | IOException e) {
+            // client has gone
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Test that hits can be read before the whole response arrives.
+     * @throws Exception exception
+     */
+    @Test
+    public void hits_are_readable_before_response_is_completed() throws Exception {
+        var body = client.asyncSearchStream("u0_ad", "UserData", "routing1", Map.of("size", 2))
+                .get(10, TimeUnit.SECONDS);
+        try (var stream = PersoniumSearchHitStreamImpl.getInstance(body)) {
+            assertEquals(2, stream.getAllPages());
+            assertEquals("1", stream.next().getId());
+            release.countDown();
+            assertEquals("2", stream.next().getId());
+            assertFalse(stream.hasNext());
+        }
+        assertTrue(requestUri.startsWith("/u0_ad.userdata/_search?"));
+        assertTrue(requestUri.contains("routing=routing1"));
+        assertTrue(requestUri.contains("version=true"));
+    }
+
+    /**
+     * Test that error response is converted into ElasticsearchException.
+     * @throws Exception exception
+     */
+    @Test
+    public void error_response_is_converted() throws Exception {
+        try {
+            client.asyncSearchStream("u0_missing", null, "routing1", null).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ElasticsearchException);
+            assertEquals("index_not_found_exception", ((ElasticsearchException) e.getCause()).error().type());
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import io.personium.common.es.EsCursor;
+
+/**
+ * Unit test for KeysetPager and EsCursor with a stub HTTP server.
+ */
+public class KeysetPagerTest {
+
+    private StubEsServer stub;
+    private InternalEsClient client;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean failSearch;
+
+    /**
+     * Start stub server.
+     * @throws Exception exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubEsServer(this::handle);
+        client = stub.getClient();
+    }
+
+    /**
+     * Stop stub server.
+     */
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    private static String hit(String id, long u) {
+        return "{\"_index\":\"u0_ad.userdata\",\"_id\":\"" + id + "\",\"_version\":1,"
+                + "\"_source\":{\"type\":\"UserData\"},\"sort\":[" + u + ",7]}";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = StubEsServer.readBody(exchange);
+        String request = exchange.getRequestMethod() + " " + exchange.getRequestURI() + " " + body;
+        requests.add(request);
+        String response;
+        if (failSearch && request.startsWith("POST /_search")) {
+            StubEsServer.respond(exchange, 400, "{\"error\":{\"type\":\"illegal_argument_exception\","
+                    + "\"reason\":\"bad sort\"},\"status\":400}");
+            return;
+        } else if (request.contains("/_pit") && "DELETE".equals(exchange.getRequestMethod())) {
+            response = "{\"succeeded\":true,\"num_freed\":1}";
+        } else if (request.contains("/_pit")) {
+            response = "{\"id\":\"pit1\"}";
+        } else if (body.contains("search_after")) {
+            response = "{\"took\":1,\"timed_out\":false,\"pit_id\":\"pit2\","
+                    + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                    + "\"hits\":{\"total\":{\"value\":3,\"relation\":\"eq\"},\"hits\":[" + hit("3", 3) + "]}}";
+        } else {
+            response = "{\"took\":1,\"timed_out\":false,\"pit_id\":\"pit1\","
+                    + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                    + "\"hits\":{\"total\":{\"value\":3,\"relation\":\"eq\"},\"hits\":[" + hit("1", 1) + ","
+                    + hit("2", 2) + "]}}";
+        }
+        StubEsServer.respond(exchange, 200, response);
+    }
+
+    private void awaitRequests(int count) throws InterruptedException {
+        for (int i = 0; i < 50 && requests.size() < count; i++) {
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Test that pages are read with search_after and point-in-time is closed after the last page.
+     * @throws Exception exception
+     */
+    @Test
+    public void pages_are_read_with_search_after() throws Exception {
+        Map<String, Object> query = Map.of("size", 2, "from", 100);
+        var first = KeysetPager.searchPage(client, RetryPolicy.NONE, "u0_ad", "UserData", "cell1", query, null);
+        assertEquals(2, first.getHits().getHits().length);
+        EsCursor cursor = first.getNextCursor();
+        assertNotNull(cursor);
+        assertEquals("pit1", cursor.getPitId());
+        assertEquals(List.of("2", "7"), cursor.getSearchAfter());
+        assertTrue(requests.get(0).startsWith("POST /u0_ad.userdata/_pit?"));
+        assertTrue(requests.get(0).contains("routing=cell1"));
+        String firstSearch = requests.get(1);
+        assertTrue(firstSearch.startsWith("POST /_search"));
+        assertTrue(firstSearch.contains("\"pit\":{\"id\":\"pit1\""));
+        assertTrue(firstSearch.contains("_shard_doc"));
+        assertTrue(!firstSearch.contains("\"from\""));
+
+        var second = KeysetPager.searchPage(client, RetryPolicy.NONE, "u0_ad", "UserData", "cell1", query,
+                EsCursor.fromToken(cursor.toToken()));
+        assertEquals("3", second.getHits().getAt(0).getId());
+        assertNull(second.getNextCursor());
+        assertTrue(requests.get(2).contains("\"search_after\":[\"2\",\"7\"]"));
+        assertTrue(!requests.get(2).contains("routing="));
+        awaitRequests(4);
+        assertTrue(requests.get(3).startsWith("DELETE /_pit"));
+        assertTrue(requests.get(3).contains("pit2"));
+    }
+
+    /**
+     * Test that point-in-time opened for the first page is closed when the search fails.
+     * @throws Exception exception
+     */
+    @Test
+    public void point_in_time_is_closed_when_first_search_fails() throws Exception {
+        failSearch = true;
+        try {
+            KeysetPager.searchPage(client, RetryPolicy.NONE, "u0_ad", null, null, Map.of("size", 2), null);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ElasticsearchException);
+        }
+        awaitRequests(3);
+        assertTrue(requests.get(0).startsWith("POST /u0_ad.*/_pit?"));
+        assertTrue(!requests.get(0).contains("routing="));
+        assertTrue(requests.get(2).startsWith("DELETE /_pit"));
+        assertTrue(requests.get(2).contains("pit1"));
+    }
+
+    /**
+     * Test that sort values keep their JSON types and nulls through the token.
+     */
+    @Test
+    public void token_keeps_types_of_sort_values() {
+        EsCursor cursor = EsCursor.after("pit1", new Object[] {1666000000000L, null, true, 1.5, "null"});
+        EsCursor restored = EsCursor.fromToken(cursor.toToken());
+        assertEquals("pit1", restored.getPitId());
+        assertEquals(Arrays.asList(1666000000000L, null, true, 1.5, "null"), restored.getSearchAfter());
+        assertEquals(cursor.toToken(), restored.toToken());
+    }
+
+    /**
+     * Test that malformed token is rejected.
+     */
+    @Test
+    public void malformed_token_is_rejected() {
+        String nested = Base64.getUrlEncoder().encodeToString("{\"p\":\"pit1\",\"a\":[[1]]}"
+                .getBytes(StandardCharsets.UTF_8));
+        for (String token : new String[] {null, "", "not base64!", "e30", nested}) {
+            try {
+                EsCursor.fromToken(token);
+                fail(token);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().startsWith("Malformed cursor") || e.getMessage().contains("Illegal"));
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import co.elastic.clients.elasticsearch._types.OpType;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import io.personium.common.es.EsBulkRequest;
+import io.personium.common.es.EsIndex;
+import io.personium.common.es.EsMappingConfig;
+import io.personium.common.es.EsRefreshPolicy;
+import io.personium.common.es.util.EsJson;
+
+/**
+ * Unit test for LazyIndexCreator.
+ */
+public class LazyIndexCreatorTest {
+
+    private static final String SHARDS = "\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}";
+
+    private StubEsServer stub;
+    private InternalEsClient client;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> existing = ConcurrentHashMap.newKeySet();
+    private volatile CountDownLatch createGate = new CountDownLatch(0);
+    private volatile boolean createdByOthers;
+
+    /**
+     * Bulk request for test.
+     */
+    static class TypedBulkRequest implements EsBulkRequest {
+        private final String type;
+        private final String id;
+
+        TypedBulkRequest(String type, String id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public BulkRequestType getRequestType() {
+            return BulkRequestType.INDEX;
+        }
+
+        @Override
+        public String getType() {
+            return type;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public Map<String, Object> getSource() {
+            return Map.of("s", Map.of("Name", id));
+        }
+    }
+
+    /**
+     * Start stub server.
+     * @throws Exception exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubEsServer(this::handle);
+        client = stub.getClient();
+        EsMappingConfig mapping = () -> {
+            Map<String, ObjectNode> mappings = new LinkedHashMap<>();
+            mappings.put("Account", EsJson.mapper().createObjectNode());
+            mappings.put("Box", EsJson.mapper().createObjectNode());
+            return mappings;
+        };
+        client.enableLazyIndexCreation(mapping, mapping);
+    }
+
+    /**
+     * Stop stub server.
+     */
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        requests.add(method + " " + path);
+        int status = 200;
+        String response = "{\"acknowledged\":true}";
+        if (path.equals("/_bulk")) {
+            response = bulkResponse();
+        } else if (path.startsWith("/_index_template/")) {
+            response = "{\"acknowledged\":true}";
+        } else if (path.indexOf('/', 1) < 0 && method.equals("PUT")) {
+            await(createGate);
+            if (createdByOthers || !existing.add(path.substring(1))) {
+                status = 400;
+                response = "{\"error\":{\"type\":\"resource_already_exists_exception\",\"reason\":\"exists\"},"
+                        + "\"status\":400}";
+            } else {
+                response = "{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\"" + path.substring(1)
+                        + "\"}";
+            }
+        } else {
+            String index = path.substring(1, path.indexOf('/', 1));
+            if (existing.contains(index)) {
+                status = 201;
+                response = "{\"_index\":\"" + index + "\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\","
+                        + SHARDS + ",\"_seq_no\":0,\"_primary_term\":1}";
+            } else {
+                status = 404;
+                response = notFound(index);
+            }
+        }
+        StubEsServer.respond(exchange, status, response);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String notFound(String index) {
+        return "{\"error\":{\"type\":\"index_not_found_exception\",\"reason\":\"no such index [" + index + "]\"},"
+                + "\"status\":404}";
+    }
+
+    /** Box exists from the beginning, and Account exists after it is created. */
+    private String bulkResponse() {
+        List<String> items = new ArrayList<>();
+        if (requests.stream().filter(r -> r.equals("POST /_bulk")).count() == 1) {
+            items.add("{\"index\":{\"_index\":\"u0_vet.box\",\"_id\":\"b\",\"status\":201,\"result\":\"created\","
+                    + "\"_version\":1," + SHARDS + ",\"_seq_no\":0,\"_primary_term\":1}}");
+        }
+        String account = "u0_vet.account";
+        if (existing.contains(account)) {
+            items.add("{\"index\":{\"_index\":\"" + account + "\",\"_id\":\"a\",\"status\":201,"
+                    + "\"result\":\"created\",\"_version\":1," + SHARDS + ",\"_seq_no\":0,\"_primary_term\":1}}");
+        } else {
+            items.add("{\"index\":{\"_index\":\"" + account + "\",\"_id\":\"a\",\"status\":404,\"error\":"
+                    + notFound(account).substring("{\"error\":".length(), notFound(account).lastIndexOf(",")) + "}}");
+        }
+        return "{\"took\":1,\"errors\":" + !existing.contains(account) + ",\"items\":[" + String.join(",", items)
+                + "]}";
+    }
+
+    private CompletableFuture<?> write(String id) {
+        return client.asyncIndex("u0_vet", "Account", id, null, Map.of("s", Map.of("Name", id)), OpType.Create,
+                null, EsRefreshPolicy.NONE);
+    }
+
+    private long count(String request) {
+        return requests.stream().filter(request::equals).count();
+    }
+
+    /**
+     * Category is resolved from the index name.
+     */
+    @Test
+    public void category_is_resolved_from_index_name() {
+        assertEquals(EsIndex.CATEGORY_AD, LazyIndexCreator.category("u0_ad"));
+        assertEquals(EsIndex.CATEGORY_USR, LazyIndexCreator.category("u0_vet"));
+    }
+
+    /**
+     * Concurrent writes to a missing index create it once and are sent again.
+     * @throws Exception exception
+     */
+    @Test
+    public void concurrent_writes_create_index_once() throws Exception {
+        createGate = new CountDownLatch(1);
+        var first = write("1");
+        var second = write("2");
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (count("PUT /u0_vet.account") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // let the second write fail by missing index while the creation is blocked
+        Thread.sleep(100);
+        createGate.countDown();
+        CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+        assertEquals(1, count("PUT /u0_vet.account"));
+        assertEquals(3, requests.stream().filter(r -> r.startsWith("PUT /_index_template/")).count());
+    }
+
+    /**
+     * Index created by another writer is regarded as created.
+     * @throws Exception exception
+     */
+    @Test
+    public void index_created_by_others_is_used() throws Exception {
+        createdByOthers = true;
+        var response = client.asyncIndex("u0_vet", "Account", "1", null, Map.of(), OpType.Create, null,
+                EsRefreshPolicy.NONE).handle((r, e) -> e);
+        // the write fails again since the stub never creates the index
+        assertTrue(LazyIndexCreator.isError(response.get(10, TimeUnit.SECONDS),
+                LazyIndexCreator.INDEX_NOT_FOUND));
+        assertEquals(2, requests.stream().filter(r -> r.startsWith("PUT /u0_vet.account/")).count());
+    }
+
+    /**
+     * Only bulk items which failed by missing index are sent again.
+     * @throws Exception exception
+     */
+    @Test
+    public void bulk_items_of_missing_index_are_sent_again() throws Exception {
+        existing.add("u0_vet.box");
+        Map<String, List<EsBulkRequest>> bulkMap = new LinkedHashMap<>();
+        bulkMap.put("r1", List.of(new TypedBulkRequest("Box", "b")));
+        bulkMap.put("r2", List.of(new TypedBulkRequest("Account", "a")));
+        var response = client.asyncBulkRequest("u0_vet", bulkMap, EsRefreshPolicy.NONE).get(10, TimeUnit.SECONDS);
+        assertFalse(response.errors());
+        assertEquals(List.of("u0_vet.box", "u0_vet.account"),
+                response.items().stream().map(item -> item.index()).toList());
+        assertEquals(2, count("POST /_bulk"));
+        assertEquals(1, count("PUT /u0_vet.account"));
+        assertEquals(2, response.took());
+    }
+
+    /**
+     * Per-type indices are not created by create() when lazy index creation is enabled.
+     */
+    @Test
+    public void create_registers_only_templates() {
+        var index = new EsIndexImpl("u0_vet", EsIndex.CATEGORY_USR, 0, 0, client, () -> Map.of("Account",
+                EsJson.mapper().createObjectNode()));
+        index.create();
+        assertEquals(List.of("PUT /_index_template/personium-u0_.account",
+                "PUT /_index_template/personium-u0_.consolidated"), requests.stream().sorted().toList());
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import io.personium.common.es.response.impl.PersoniumNullSearchResponse;
+import io.personium.common.es.util.EsJson;
+
+/**
+ * Unit test for PhysicalIndexCache.
+ */
+public class PhysicalIndexCacheTest {
+
+    private static final String ALIASES = "{\"u0_vet.box\":{\"aliases\":{}},"
+            + "\"u0_ad.consolidated\":{\"aliases\":{\"u0_ad.account\":{}}}}";
+
+    private StubEsServer stub;
+    private InternalEsClient client;
+    private ScheduledExecutorService scheduler;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Start stub server.
+     * @throws Exception exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubEsServer(this::handle);
+        client = stub.getClient();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Stop stub server.
+     */
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        stub.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        String path = exchange.getRequestURI().getPath();
+        String query = exchange.getRequestURI().getQuery();
+        requests.add(exchange.getRequestMethod() + " " + path + "?" + query);
+        String response = "{\"took\":1,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},"
+                + "\"hits\":{\"total\":{\"value\":0,\"relation\":\"eq\"},\"hits\":[]}}";
+        if (path.equals("/_alias")) {
+            response = ALIASES;
+        }
+        StubEsServer.respond(exchange, 200, response);
+    }
+
+    private static JsonNode aliases() throws IOException {
+        return EsJson.mapper().readTree(ALIASES);
+    }
+
+    /**
+     * Indices and aliases are known after the poll, and nothing is missing before it.
+     * @throws Exception exception
+     */
+    @Test
+    public void poll_loads_indices_and_aliases() throws Exception {
+        var cache = new PhysicalIndexCache(scheduler, () -> {
+            try {
+                return CompletableFuture.completedFuture(aliases());
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+        assertFalse(cache.isKnownMissing("u0_vet.account"));
+        assertNull(cache.indicesStartingWith("u0_vet."));
+
+        cache.poll().get(10, TimeUnit.SECONDS);
+        assertTrue(cache.isKnownMissing("u0_vet.account"));
+        assertFalse(cache.isKnownMissing("u0_vet.box"));
+        assertFalse(cache.isKnownMissing("u0_ad.account"));
+        assertEquals(List.of("u0_ad.consolidated"), cache.indicesStartingWith("u0_ad."));
+
+        cache.created("u0_vet.account");
+        assertFalse(cache.isKnownMissing("u0_vet.account"));
+        cache.deleted("u0_vet.");
+        assertTrue(cache.isKnownMissing("u0_vet.box"));
+        assertEquals(List.of(), cache.indicesStartingWith("u0_vet."));
+    }
+
+    /**
+     * Changes made while the poll is in flight survive the poll, and failed poll discards the cache.
+     * @throws Exception exception
+     */
+    @Test
+    public void changes_during_poll_are_kept() throws Exception {
+        var response = new CompletableFuture<JsonNode>();
+        var cache = new PhysicalIndexCache(scheduler, () -> response);
+        var polled = cache.poll();
+        cache.created("u0_vet.account");
+        cache.deleted("u0_vet.box");
+        response.complete(aliases());
+        polled.get(10, TimeUnit.SECONDS);
+        assertFalse(cache.isKnownMissing("u0_vet.account"));
+        assertTrue(cache.isKnownMissing("u0_vet.box"));
+
+        var failing = new PhysicalIndexCache(scheduler, () -> CompletableFuture.failedFuture(new IOException("down")));
+        failing.poll().get(10, TimeUnit.SECONDS);
+        assertFalse(failing.isLoaded());
+        assertFalse(failing.isKnownMissing("u0_vet.account"));
+    }
+
+    /**
+     * Result of a poll started before the cache is disabled or superseded is ignored.
+     * @throws Exception exception
+     */
+    @Test
+    public void stale_poll_is_ignored() throws Exception {
+        List<CompletableFuture<JsonNode>> responses = Collections.synchronizedList(new ArrayList<>());
+        var cache = new PhysicalIndexCache(scheduler, () -> {
+            var response = new CompletableFuture<JsonNode>();
+            responses.add(response);
+            return response;
+        });
+        var disabled = cache.poll();
+        cache.setRefreshInterval(0);
+        responses.get(0).complete(aliases());
+        disabled.get(10, TimeUnit.SECONDS);
+        assertFalse(cache.isLoaded());
+
+        var superseded = cache.poll();
+        var latest = cache.poll();
+        responses.get(2).complete(aliases());
+        latest.get(10, TimeUnit.SECONDS);
+        assertTrue(cache.isLoaded());
+        responses.get(1).completeExceptionally(new IOException("down"));
+        superseded.get(10, TimeUnit.SECONDS);
+        assertTrue(cache.isLoaded());
+    }
+
+    /**
+     * Reads of known missing index return without request, and search across types is narrowed.
+     * @throws Exception exception
+     */
+    @Test
+    public void reads_use_cache() throws Exception {
+        client.setIndexCacheRefreshInterval(TimeUnit.MINUTES.toMillis(1));
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!client.getIndexCache().isLoaded() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, requests.size());
+
+        var type = new EsTypeImpl("u0_vet", "Account", "cell1", 0, 0, client);
+        assertTrue(type.search(null) instanceof PersoniumNullSearchResponse);
+        assertEquals(1, requests.size());
+
+        client.asyncSearchStream("u0_vet", null, null, null).get(10, TimeUnit.SECONDS).close();
+        assertTrue(requests.get(1), requests.get(1).startsWith("POST /u0_vet.box/_search?"));
+        assertTrue(requests.get(1), requests.get(1).contains("ignore_unavailable=true"));
+
+        client.setIndexCacheRefreshInterval(0);
+        type.search(null);
+        assertTrue(requests.get(2), requests.get(2).contains("/u0_vet.account/"));
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for RefreshCoordinator.
+ */
+public class RefreshCoordinatorTest {
+
+    private ScheduledExecutorService scheduler;
+    private Map<String, AtomicInteger> refreshCounts;
+    private RefreshCoordinator coordinator;
+
+    /**
+     * Before.
+     */
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        refreshCounts = new ConcurrentHashMap<String, AtomicInteger>();
+        coordinator = new RefreshCoordinator(index -> {
+            refreshCounts.computeIfAbsent(index, k -> new AtomicInteger()).incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }, scheduler, 200);
+    }
+
+    /**
+     * After.
+     */
+    @After
+    public void tearDown() {
+        coordinator.close();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Test that writes in a window are coalesced into refreshes per physical index.
+     * @throws Exception exception
+     */
+    @Test
+    public void markDirty_coalesces_refreshes_per_index() throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(coordinator.markDirty("u0_cell.userdata"));
+            futures.add(coordinator.markDirty("u0_cell.box"));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        // the first write is refreshed at once, and the others are refreshed after the window.
+        assertTrue(refreshCounts.get("u0_cell.userdata").get() <= 2);
+        assertTrue(refreshCounts.get("u0_cell.box").get() <= 2);
+    }
+
+    /**
+     * Test that whenRefreshed waits for the pending refresh.
+     * @throws Exception exception
+     */
+    @Test
+    public void whenRefreshed_waits_for_pending_refresh() throws Exception {
+        assertTrue(coordinator.whenRefreshed("u0_cell.userdata").isDone());
+        coordinator.markDirty("u0_cell.userdata").get(5, TimeUnit.SECONDS);
+        // second write within the window is refreshed after the window.
+        coordinator.markDirty("u0_cell.userdata");
+        CompletableFuture<Void> future = coordinator.whenRefreshed("u0_cell.userdata");
+        future.get(5, TimeUnit.SECONDS);
+        assertEquals(2, refreshCounts.get("u0_cell.userdata").get());
+    }
+
+    /**
+     * Test that markDirty fails when the scheduler rejects the refresh.
+     * @throws Exception exception
+     */
+    @Test
+    public void markDirty_fails_when_scheduler_is_shut_down() throws Exception {
+        scheduler.shutdownNow();
+        CompletableFuture<Void> future = coordinator.markDirty("u0_cell.userdata");
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertTrue(coordinator.whenRefreshed("u0_cell.userdata").isDone());
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.junit.Test;
+
+/**
+ * Unit test for ResponsePipe.
+ */
+public class ResponsePipeTest {
+
+    /**
+     * Decoder which returns the given bytes, at most the remaining capacity at a time.
+     */
+    private static class BytesDecoder implements ContentDecoder {
+        private final ByteBuffer content;
+
+        BytesDecoder(byte[] content) {
+            this.content = ByteBuffer.wrap(content);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!content.hasRemaining()) {
+                return -1;
+            }
+            int length = Math.min(dst.remaining(), content.remaining());
+            ByteBuffer slice = content.slice();
+            slice.limit(length);
+            dst.put(slice);
+            content.position(content.position() + length);
+            return length;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return !content.hasRemaining();
+        }
+    }
+
+    /**
+     * IOControl which records suspension of input.
+     */
+    private static class RecordingControl implements IOControl {
+        private boolean suspended;
+        private int resumed;
+
+        @Override
+        public void requestInput() {
+            suspended = false;
+            resumed++;
+        }
+
+        @Override
+        public void suspendInput() {
+            suspended = true;
+        }
+
+        @Override
+        public void requestOutput() {
+        }
+
+        @Override
+        public void suspendOutput() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) {
+            b[i] = (byte) i;
+        }
+        return b;
+    }
+
+    /**
+     * Test that input is suspended while the buffer is full and resumed after it is drained.
+     * @throws Exception exception
+     */
+    @Test
+    public void input_is_suspended_while_buffer_is_full() throws Exception {
+        var pipe = new ResponsePipe(16 * 1024);
+        var control = new RecordingControl();
+        var content = bytes(64 * 1024);
+        var decoder = new BytesDecoder(content);
+        var out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+
+        pipe.receive(decoder, control);
+        assertTrue(control.suspended);
+        assertEquals(16 * 1024, pipe.getBufferedBytes());
+        while (!decoder.isCompleted()) {
+            while (control.suspended) {
+                out.write(buffer, 0, pipe.read(buffer));
+            }
+            assertTrue(pipe.getBufferedBytes() <= 8 * 1024);
+            pipe.receive(decoder, control);
+        }
+        pipe.finish();
+        int read;
+        while ((read = pipe.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        assertTrue(control.resumed > 0);
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    /**
+     * Test that failure is reported after the buffered content.
+     * @throws Exception exception
+     */
+    @Test
+    public void failure_is_reported_after_buffered_content() throws Exception {
+        var pipe = new ResponsePipe(1024);
+        pipe.receive(new BytesDecoder(bytes(10)), new RecordingControl());
+        pipe.fail(new IOException("reset"));
+        assertEquals(10, pipe.read(new byte[100]));
+        try {
+            pipe.read();
+            fail();
+        } catch (IOException e) {
+            assertEquals("reset", e.getMessage());
+        }
+    }
+
+    /**
+     * Test that closing the pipe before the end runs the close handler.
+     * @throws Exception exception
+     */
+    @Test
+    public void close_before_end_runs_handler() throws Exception {
+        boolean[] cancelled = new boolean[1];
+        var pipe = new ResponsePipe(1024);
+        pipe.onClose(() -> cancelled[0] = true);
+        pipe.receive(new BytesDecoder(bytes(10)), new RecordingControl());
+        pipe.close();
+        assertTrue(cancelled[0]);
+        assertEquals(0, pipe.getBufferedBytes());
+
+        cancelled[0] = false;
+        var finished = new ResponsePipe(1024);
+        finished.onClose(() -> cancelled[0] = true);
+        finished.finish();
+        finished.close();
+        assertFalse(cancelled[0]);
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.personium.common.es.EsRoutingStats;
+
+/**
+ * Unit test for ShardRouting.
+ */
+public class ShardRoutingTest {
+
+    /**
+     * Routing id is used and counted as routed.
+     */
+    @Test
+    public void route_uses_routing_id() {
+        var routing = new ShardRouting(true);
+        assertEquals("cell1", routing.route("search", "cell1"));
+        assertEquals("cell1", routing.route("msearch", "cell1"));
+
+        EsRoutingStats stats = routing.stats();
+        assertEquals(2, stats.getRoutedRequests());
+        assertEquals(0, stats.getFanOutRequests());
+    }
+
+    /**
+     * Missing routing id is counted as fan-out by operation.
+     */
+    @Test
+    public void route_counts_missing_routing_id_as_fan_out() {
+        var routing = new ShardRouting(true);
+        assertNull(routing.route("search", null));
+        assertNull(routing.route("search", ""));
+        assertNull(routing.fanOut("scroll"));
+
+        EsRoutingStats stats = routing.stats();
+        assertEquals(0, stats.getRoutedRequests());
+        assertEquals(3, stats.getFanOutRequests());
+        assertEquals(Map.of("scroll", 1L, "search", 2L), stats.getFanOutRequestsByOperation());
+    }
+
+    /**
+     * Routing id is ignored when routing is disabled.
+     */
+    @Test
+    public void route_ignores_routing_id_when_disabled() {
+        var routing = new ShardRouting(false);
+        assertNull(routing.route("search", "cell1"));
+        assertEquals(1, routing.stats().getFanOutRequests());
+    }
+
+    /**
+     * Resolving routing of a part of counted read does not change statistics.
+     */
+    @Test
+    public void resolve_is_not_counted() {
+        var routing = new ShardRouting(true);
+        assertEquals("cell1", routing.resolve("cell1"));
+        assertNull(routing.resolve(null));
+        assertNull(new ShardRouting(false).resolve("cell1"));
+        assertEquals(0, routing.stats().getRoutedRequests());
+        assertEquals(0, routing.stats().getFanOutRequests());
+    }
+}
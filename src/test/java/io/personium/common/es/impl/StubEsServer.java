@@ -0,0 +1,97 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stub Elasticsearch server and InternalEsClient connected to it, for unit tests.
+ */
+final class StubEsServer implements Closeable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final InternalEsClient client;
+
+    /**
+     * Start stub server. Requests are handled concurrently.
+     * @param handler handler of all requests
+     * @throws IOException exception
+     */
+    StubEsServer(HttpHandler handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", handler);
+        server.start();
+        client = new InternalEsClient("127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    /**
+     * Get client connected to the stub server.
+     * @return client
+     */
+    InternalEsClient getClient() {
+        return client;
+    }
+
+    /**
+     * Close client and stop stub server.
+     */
+    @Override
+    public void close() {
+        client.closeConnection();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Read request body.
+     * @param exchange exchange
+     * @return body
+     * @throws IOException exception
+     */
+    static String readBody(HttpExchange exchange) throws IOException {
+        return new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Send JSON response as Elasticsearch does.
+     * @param exchange exchange
+     * @param status HTTP status
+     * @param response response body
+     * @throws IOException exception
+     */
+    static void respond(HttpExchange exchange, int status, String response) throws IOException {
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
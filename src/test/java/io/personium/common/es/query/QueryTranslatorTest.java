@@ -0,0 +1,125 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.query;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Unit test for QueryTranslator.
+ */
+public class QueryTranslatorTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> toMap(String json) throws Exception {
+        return mapper.readValue(json, Map.class);
+    }
+
+    private void assertJsonEquals(String expected, String actual) throws Exception {
+        assertEquals(mapper.readTree(expected), mapper.readTree(actual));
+    }
+
+    /**
+     * Test that and/or/missing filters are translated into bool query.
+     * @throws Exception exception
+     */
+    @Test
+    public void translate_filter_is_converted_into_bool_query() throws Exception {
+        var translator = new QueryTranslator();
+        String actual = translator.translate(toMap("{\"size\":10,\"filter\":{\"and\":{\"filters\":["
+                + "{\"term\":{\"_type\":\"Box\",\"_cache\":true}},"
+                + "{\"or\":[{\"term\":{\"s.Name\":\"a\"}},{\"missing\":{\"field\":\"s.Name\"}}]}]}}}"));
+        assertJsonEquals("{\"size\":10,\"query\":{\"bool\":{\"filter\":{\"bool\":{\"must\":[{\"bool\":{\"must\":["
+                + "{\"term\":{\"type\":\"Box\"}},"
+                + "{\"bool\":{\"should\":[{\"term\":{\"s.Name\":\"a\"}},"
+                + "{\"bool\":{\"must_not\":[{\"exists\":{\"field\":\"s.Name\"}}]}}]}}]}}]}}}}}", actual);
+    }
+
+    /**
+     * Test that match query in filter is moved to must with type.
+     * @throws Exception exception
+     */
+    @Test
+    public void translate_match_query_with_type_is_converted() throws Exception {
+        var translator = new QueryTranslator();
+        String actual = translator.translate(toMap("{\"_source\":[\"s.Name\"],\"filter\":{\"and\":{\"filters\":["
+                + "{\"query\":{\"match\":{\"_all\":{\"query\":\"foo\",\"type\":\"phrase\",\"operator\":\"and\"}}}},"
+                + "{\"term\":{\"c\":\"cell1\"}}]}}}"));
+        assertJsonEquals("{\"_source\":{\"includes\":[\"type\",\"s.Name\"],\"excludes\":[]},"
+                + "\"query\":{\"bool\":{\"filter\":{\"bool\":{\"must\":[{\"bool\":{\"must\":["
+                + "{\"term\":{\"c\":\"cell1\"}}]}}]}},"
+                + "\"must\":[{\"bool\":{\"must\":[{\"match_phrase\":{\"alldata\":{\"query\":\"foo\"}}}]}}]}}}",
+                actual);
+    }
+
+    /**
+     * Test that docvalue_fields is passed through.
+     * @throws Exception exception
+     */
+    @Test
+    public void translate_docvalue_fields_is_passed_through() throws Exception {
+        var translator = new QueryTranslator();
+        String actual = translator.translate(toMap("{\"size\":10,\"docvalue_fields\":[\"t2\",\"k2\"],"
+                + "\"_source\":[\"t2\"]}"));
+        assertJsonEquals("{\"size\":10,\"docvalue_fields\":[\"t2\",\"k2\"],"
+                + "\"_source\":{\"includes\":[\"type\",\"t2\"],\"excludes\":[]},"
+                + "\"query\":{\"bool\":{\"filter\":{\"bool\":{}}}}}", actual);
+    }
+
+    /**
+     * Test that compiled translation is reused for queries of the same shape.
+     * @throws Exception exception
+     */
+    @Test
+    public void translate_same_shape_query_reuses_compiled_translation() throws Exception {
+        var translator = new QueryTranslator();
+        String first = translator.translate(toMap("{\"query\":{\"filtered\":{\"filter\":{\"bool\":{\"must\":["
+                + "{\"terms\":{\"s.Name\":[\"a\"]}}]}}}},"
+                + "\"sort\":[{\"s.Name\":{\"order\":\"asc\",\"ignore_unmapped\":true}}]}"));
+        String second = translator.translate(toMap("{\"query\":{\"filtered\":{\"filter\":{\"bool\":{\"must\":["
+                + "{\"terms\":{\"s.Name\":[\"b\",\"c\"]}}]}}}},"
+                + "\"sort\":[{\"s.Name\":{\"order\":\"desc\",\"ignore_unmapped\":true}}]}"));
+        assertEquals(1, translator.getCacheSize());
+        assertJsonEquals("{\"sort\":[{\"s.Name\":{\"order\":\"asc\"}}],"
+                + "\"query\":{\"bool\":{\"filter\":{\"bool\":{\"must\":["
+                + "{\"terms\":{\"s.Name\":[\"a\"]}}]}}}}}", first);
+        assertJsonEquals("{\"sort\":[{\"s.Name\":{\"order\":\"desc\"}}],"
+                + "\"query\":{\"bool\":{\"filter\":{\"bool\":{\"must\":["
+                + "{\"terms\":{\"s.Name\":[\"b\",\"c\"]}}]}}}}}", second);
+    }
+
+    /**
+     * Test that translations are compiled again when the cache overflows.
+     * @throws Exception exception
+     */
+    @Test
+    public void translate_cache_is_cleared_when_it_overflows() throws Exception {
+        var translator = new QueryTranslator(1);
+        translator.translate(toMap("{\"size\":1}"));
+        String actual = translator.translate(toMap("{\"from\":1}"));
+        assertEquals(1, translator.getCacheSize());
+        assertJsonEquals("{\"from\":1,\"query\":{\"bool\":{\"filter\":{\"bool\":{}}}}}", actual);
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.response.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import io.personium.common.es.response.PersoniumSearchHit;
+import io.personium.common.es.response.PersoniumSearchHitStream;
+
+/**
+ * Unit test for PersoniumSearchHitStreamImpl.
+ */
+public class PersoniumSearchHitStreamImplTest {
+
+    private static final String RESPONSE = "{\"took\":3,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":120,\"relation\":\"eq\"},\"max_score\":1.5,\"hits\":["
+            + "{\"_index\":\"u0_ad.userdata\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":2,\"_score\":1.5,"
+            + "\"_source\":{\"type\":\"UserData\",\"s\":{\"Name\":\"a\"}}},"
+            + "{\"_index\":\"u0_ad.userdata\",\"_type\":\"_doc\",\"_id\":\"2\",\"_version\":1,\"_score\":1.0,"
+            + "\"_source\":{\"type\":\"UserData\",\"s\":{\"Name\":\"b\"}}}]},"
+            + "\"aggregations\":{\"x\":{\"value\":1}}}";
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test that hits are decoded one by one with the metadata read before them.
+     * @throws Exception exception
+     */
+    @Test
+    public void hits_are_decoded_in_order() throws Exception {
+        List<String> names = new ArrayList<>();
+        try (PersoniumSearchHitStream stream = PersoniumSearchHitStreamImpl.getInstance(toStream(RESPONSE))) {
+            assertEquals(120, stream.getAllPages());
+            assertEquals(1.5f, stream.getMaxScore(), 0);
+            while (stream.hasNext()) {
+                PersoniumSearchHit hit = stream.next();
+                assertEquals("UserData", hit.getType());
+                names.add((String) hit.getSourceValue("s", "Name"));
+            }
+            assertFalse(stream.hasNext());
+        }
+        assertEquals(List.of("a", "b"), names);
+    }
+
+    /**
+     * Test that version of hit is available.
+     * @throws Exception exception
+     */
+    @Test
+    public void version_is_decoded() throws Exception {
+        try (var stream = PersoniumSearchHitStreamImpl.getInstance(toStream(RESPONSE))) {
+            assertEquals(2, stream.next().getVersion());
+        }
+    }
+
+    /**
+     * Test that response without hits yields nothing.
+     * @throws Exception exception
+     */
+    @Test
+    public void response_without_hits_is_empty() throws Exception {
+        try (var stream = PersoniumSearchHitStreamImpl.getInstance(toStream("{\"took\":1}"))) {
+            assertFalse(stream.hasNext());
+            assertEquals(0, stream.getAllPages());
+        }
+        var empty = PersoniumSearchHitStreamImpl.empty();
+        assertFalse(empty.hasNext());
+        try {
+            empty.next();
+            fail();
+        } catch (NoSuchElementException e) {
+            assertEquals(0, empty.getAllPages());
+        }
+        empty.close();
+    }
+
+    /**
+     * Test that closing the stream before the end closes the response body.
+     * @throws Exception exception
+     */
+    @Test
+    public void close_closes_body() throws Exception {
+        boolean[] closed = new boolean[1];
+        InputStream body = new ByteArrayInputStream(RESPONSE.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        var stream = PersoniumSearchHitStreamImpl.getInstance(body);
+        assertTrue(stream.hasNext());
+        stream.close();
+        assertTrue(closed[0]);
+        assertFalse(stream.hasNext());
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.response.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.HitsMetadata;
+import co.elastic.clients.elasticsearch.core.search.TotalHitsRelation;
+import co.elastic.clients.json.JsonData;
+import io.personium.common.es.response.PersoniumSearchHit;
+import io.personium.common.es.response.PersoniumSearchHits;
+import io.personium.common.es.util.EsJson;
+
+/**
+ * Unit test for PersoniumSearchHitsImpl and PersoniumSearchHitImpl.
+ */
+public class PersoniumSearchHitsImplTest {
+
+    private static PersoniumSearchHits createHits(String... ids) throws Exception {
+        List<Hit<ObjectNode>> hits = new ArrayList<>();
+        for (String id : ids) {
+            var source = (ObjectNode) EsJson.mapper().readTree("{\"type\":\"UserData\",\"s\":{\"Name\":\"" + id
+                    + "\",\"Age\":20,\"Tags\":[\"a\"]}}");
+            hits.add(Hit.of(h -> h.index("u0_ad.userdata").id(id).source(source)));
+        }
+        return PersoniumSearchHitsImpl.getInstance(HitsMetadata.of(m -> m.hits(hits)
+                .total(t -> t.value(ids.length).relation(TotalHitsRelation.Eq)).maxScore(1.0)));
+    }
+
+    /**
+     * Test that getAt returns hit at the position and hits are wrapped once.
+     * @throws Exception exception
+     */
+    @Test
+    public void getAt_returns_hit_at_position() throws Exception {
+        var hits = createHits("1", "2", "3");
+        assertEquals("2", hits.getAt(1).getId());
+        assertSame(hits.getAt(2), hits.getHits()[2]);
+        List<String> ids = new ArrayList<>();
+        for (PersoniumSearchHit hit : hits) {
+            ids.add(hit.getId());
+        }
+        assertEquals(List.of("1", "2", "3"), ids);
+    }
+
+    /**
+     * Test that the response wraps hits once, so that hits keep their converted sources.
+     * @throws Exception exception
+     */
+    @Test
+    public void response_hits_are_memoized() throws Exception {
+        var source = (ObjectNode) EsJson.mapper().readTree("{\"type\":\"UserData\"}");
+        SearchResponse<ObjectNode> raw = SearchResponse.of(r -> r.took(1).timedOut(false)
+                .shards(s -> s.total(1).successful(1).failed(0))
+                .hits(m -> m.hits(List.of(Hit.of(h -> h.index("u0_ad.userdata").id("1").source(source))))));
+        var response = PersoniumSearchResponseImpl.getInstance(raw);
+        assertSame(response.getHits(), response.hits());
+        assertSame(response.getHits().getAt(0), response.hits().getAt(0));
+    }
+
+    /**
+     * Test that source is converted once and values are read by path.
+     * @throws Exception exception
+     */
+    @Test
+    public void source_is_memoized_and_readable_by_path() throws Exception {
+        var hit = createHits("1").getAt(0);
+        assertEquals("UserData", hit.getType());
+        assertEquals("1", hit.getSourceValue("s", "Name"));
+        assertEquals(20, hit.getSourceValue("s", "Age"));
+        assertEquals(List.of("a"), hit.getSourceValue("s", "Tags"));
+        assertNull(hit.getSourceValue("s", "Missing", "Child"));
+        assertNull(hit.getSourceValue("type", "Child"));
+
+        Map<String, Object> source = hit.getSource();
+        assertSame(source, hit.sourceAsMap());
+        assertEquals("1", hit.getSourceValue("s", "Name"));
+        assertEquals(Map.of("Name", "1", "Age", 20, "Tags", List.of("a")), source.get("s"));
+    }
+
+    /**
+     * Test that docvalue fields are returned by getFields and preferred by field.
+     * @throws Exception exception
+     */
+    @Test
+    public void docvalue_fields_are_readable() throws Exception {
+        var source = (ObjectNode) EsJson.mapper().readTree("{\"type\":\"link\",\"t1\":\"src\"}");
+        Hit<ObjectNode> raw = Hit.of(h -> h.index("u0_ad.link").id("1").source(source)
+                .fields("k2", JsonData.fromJson("[\"key2\"]")).fields("u", JsonData.fromJson("[1700000000000]")));
+        var hit = PersoniumSearchHitImpl.getInstance(raw);
+        assertEquals(List.of("key2"), hit.getFields().get("k2").getValues());
+        assertEquals("key2", hit.field("k2"));
+        assertEquals(1700000000000L, hit.field("u"));
+        assertEquals("src", hit.field("t1"));
+        assertNull(hit.field("t2"));
+        assertTrue(createHits("1").getAt(0).getFields().isEmpty());
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Personium
+ * Copyright 2022 Personium Project Authors
+ * - FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.common.es.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Unit test for SourceKeyConverter.
+ */
+public class SourceKeyConverterTest {
+
+    /**
+     * Test that copy renames only object keys.
+     */
+    @Test
+    public void copy_renames_only_object_keys() {
+        var nested = new HashMap<String, Object>();
+        nested.put("_all", "\"_all\":\"value\"");
+        var source = new HashMap<String, Object>();
+        source.put("_type", "\"_type\":");
+        source.put("list", List.of(nested));
+
+        Map<String, Object> copied = SourceKeyConverter.copy(source);
+
+        assertEquals("\"_type\":", copied.get("type"));
+        assertFalse(copied.containsKey("_type"));
+        @SuppressWarnings("unchecked")
+        var copiedNested = (Map<String, Object>) ((List<Object>) copied.get("list")).get(0);
+        assertEquals("\"_all\":\"value\"", copiedNested.get("alldata"));
+        assertNotSame(nested, copiedNested);
+        // original is not modified.
+        assertEquals("\"_type\":", source.get("_type"));
+    }
+
+    /**
+     * Test that toMap converts JSON node into map.
+     * @throws Exception exception
+     */
+    @Test
+    public void toMap_converts_json_node() throws Exception {
+        var node = new ObjectMapper().readTree("{\"s\":\"a\",\"n\":1,\"b\":true,\"z\":null,\"l\":[{\"_all\":2.5}]}");
+
+        Map<String, Object> map = SourceKeyConverter.toMap(node);
+
+        assertEquals("a", map.get("s"));
+        assertEquals(1, map.get("n"));
+        assertEquals(true, map.get("b"));
+        assertEquals(null, map.get("z"));
+        assertEquals(Map.of("_all", 2.5), ((List<?>) map.get("l")).get(0));
+    }
+}